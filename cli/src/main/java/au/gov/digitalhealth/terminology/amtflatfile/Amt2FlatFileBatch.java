@@ -0,0 +1,274 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Generates AMT flat files for a list of releases in a single JVM. Releases are processed concurrently on a shared,
+ * bounded thread pool, with the number in flight limited by an estimate of the heap each one needs. Metadata terms are
+ * shared between releases through a single {@link SharedMetadata} instance.
+ * <p>
+ * The batch file lists one release per line as comma separated values
+ *
+ * <pre>
+ * INPUT_ZIP,OUTPUT_FILE[,REPLACEMENTS_FILE[,JUNIT_FILE]]
+ * </pre>
+ *
+ * Blank lines and lines starting with # are ignored. If no JUnit file is specified the JUnit results for the release
+ * are written next to its output file.
+ */
+public class Amt2FlatFileBatch {
+
+    /**
+     * Rough multiplier of input ZIP size to the heap needed to hold the {@link AmtCache} built from it and write its
+     * outputs. Can be overridden with the -m option where releases are known to be larger or smaller than typical.
+     */
+    private static final long HEAP_BYTES_PER_ZIP_BYTE = 4;
+
+    private static final long MINIMUM_HEAP_PER_RELEASE = 512L * 1024 * 1024;
+
+    private static final String BATCH_FILE_OPTION = "b";
+
+    private static final String THREADS_OPTION = "t";
+
+    private static final String HEAP_PER_RELEASE_OPTION = "m";
+
+    private static final String EXIT_ON_ERROR_OPTION = "e";
+
+    private static final Logger logger = Logger.getLogger(Amt2FlatFileBatch.class.getCanonicalName());
+
+    private final List<Release> releases = new ArrayList<>();
+
+    private final SharedMetadata sharedMetadata = new SharedMetadata();
+
+    private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private long heapPerRelease;
+
+    private long heapBudget = (long) (Runtime.getRuntime().maxMemory() * 0.8);
+
+    private boolean exitOnError;
+
+    public static void main(String args[]) throws IOException {
+        long start = System.currentTimeMillis();
+        Options options = new Options();
+
+        options.addOption(Option.builder(BATCH_FILE_OPTION)
+            .longOpt("batchFile")
+            .argName("BATCH_FILE")
+            .hasArg()
+            .desc("File listing the releases to process, one per line as INPUT_ZIP,OUTPUT_FILE[,REPLACEMENTS_FILE[,JUNIT_FILE]]")
+            .required(true)
+            .build());
+        options.addOption(Option.builder(THREADS_OPTION)
+            .longOpt("threads")
+            .argName("THREADS")
+            .hasArg()
+            .desc("Maximum number of releases to process at the same time, defaults to half the available processors")
+            .build());
+        options.addOption(Option.builder(HEAP_PER_RELEASE_OPTION)
+            .longOpt("heapPerRelease")
+            .argName("MEGABYTES")
+            .hasArg()
+            .desc("Estimated heap in megabytes needed to process one release, defaults to an estimate based on the ZIP file size")
+            .build());
+        options.addOption(Option.builder(EXIT_ON_ERROR_OPTION)
+            .longOpt("exit-on-error")
+            .argName("EXIT_ON_ERROR")
+            .desc("Flag dictating whether processing of a release will stop on an error or keep processing")
+            .build());
+
+        CommandLineParser parser = new DefaultParser();
+        try {
+            CommandLine line = parser.parse(options, args);
+
+            Amt2FlatFileBatch batch = new Amt2FlatFileBatch();
+            batch.addReleases(Paths.get(line.getOptionValue(BATCH_FILE_OPTION)));
+            if (line.hasOption(THREADS_OPTION)) {
+                batch.setThreads(Integer.parseInt(line.getOptionValue(THREADS_OPTION)));
+            }
+            if (line.hasOption(HEAP_PER_RELEASE_OPTION)) {
+                batch.setHeapPerRelease(Long.parseLong(line.getOptionValue(HEAP_PER_RELEASE_OPTION)) * 1024 * 1024);
+            }
+            batch.setExitOnError(line.hasOption(EXIT_ON_ERROR_OPTION));
+
+            Map<Release, Throwable> failures = batch.execute();
+            if (!failures.isEmpty()) {
+                throw new RuntimeException(failures.size() + " of " + batch.releases.size() + " releases failed "
+                        + failures.keySet());
+            }
+        } catch (ParseException exp) {
+            logger.severe("Parsing failed.  Reason: " + exp.getMessage());
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("Amt2FlatFileBatch", options);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for releases to be processed", e);
+        }
+        logger.info("Done in " + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    /**
+     * Processes all of the added releases, returning the releases that failed along with the cause of the failure.
+     * Failure of one release does not stop the others from being processed.
+     */
+    public Map<Release, Throwable> execute() throws InterruptedException {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "amt-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ReleaseScheduler scheduler = new ReleaseScheduler(executor, heapBudget);
+        logger.info("Processing " + releases.size() + " releases on " + threads + " threads with a heap budget of "
+                + scheduler.getBudgetMegabytes() + "MB");
+
+        Map<Release, Future<Void>> futures = new LinkedHashMap<>();
+        Map<Release, Throwable> failures = new LinkedHashMap<>();
+        try {
+            for (Release release : releases) {
+                futures.put(release, scheduler.submit(release.toString(), estimateHeap(release), () -> {
+                    process(release);
+                    return null;
+                }));
+            }
+
+            for (Entry<Release, Future<Void>> entry : futures.entrySet()) {
+                try {
+                    entry.getValue().get();
+                    logger.info("Completed " + entry.getKey());
+                } catch (ExecutionException e) {
+                    logger.severe("Failed processing " + entry.getKey() + " due to " + e.getCause());
+                    failures.put(entry.getKey(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info("Shared " + sharedMetadata.size() + " metadata terms across " + releases.size() + " releases");
+        return failures;
+    }
+
+    private void process(Release release) throws Exception {
+        FlatFileJob job = new FlatFileJob();
+        job.setInputZipFilePath(release.getInputZipFilePath());
+        job.setOutputFilePath(release.getOutputFilePath());
+        job.setReplacementsFilePath(release.getReplacementsOutputFilePath());
+        job.setJunitFilePath(release.getJunitFilePath());
+        job.setExitOnError(exitOnError);
+        job.setSharedMetadata(sharedMetadata);
+        job.run();
+    }
+
+    private long estimateHeap(Release release) {
+        if (heapPerRelease > 0) {
+            return heapPerRelease;
+        }
+        long zipSize = Paths.get(release.getInputZipFilePath()).toFile().length();
+        return Math.max(MINIMUM_HEAP_PER_RELEASE, zipSize * HEAP_BYTES_PER_ZIP_BYTE);
+    }
+
+    public void addReleases(Path batchFile) throws IOException {
+        for (String line : Files.readAllLines(batchFile)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            if (fields.length < 2 || fields.length > 4) {
+                throw new IllegalArgumentException("Expected INPUT_ZIP,OUTPUT_FILE[,REPLACEMENTS_FILE[,JUNIT_FILE]] but got " + line);
+            }
+            addRelease(new Release(fields[0].trim(), fields[1].trim(), fields.length > 2 ? fields[2].trim() : null,
+                fields.length > 3 ? fields[3].trim() : null));
+        }
+    }
+
+    public void addRelease(Release release) {
+        releases.add(release);
+    }
+
+    List<Release> getReleases() {
+        return releases;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setHeapPerRelease(long heapPerRelease) {
+        this.heapPerRelease = heapPerRelease;
+    }
+
+    public void setHeapBudget(long heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+
+    public void setExitOnError(boolean exitOnError) {
+        this.exitOnError = exitOnError;
+    }
+
+    public static class Release {
+        private String inputZipFilePath;
+        private String outputFilePath;
+        private String replacementsOutputFilePath;
+        private String junitFilePath;
+
+        public Release(String inputZipFilePath, String outputFilePath, String replacementsOutputFilePath, String junitFilePath) {
+            this.inputZipFilePath = inputZipFilePath;
+            this.outputFilePath = outputFilePath;
+            this.replacementsOutputFilePath = replacementsOutputFilePath;
+            if (junitFilePath == null || junitFilePath.isEmpty()) {
+                Path output = Paths.get(outputFilePath);
+                String name = output.getFileName().toString();
+                int extension = name.lastIndexOf('.');
+                this.junitFilePath = output
+                    .resolveSibling((extension > 0 ? name.substring(0, extension) : name) + "-ValidationErrors.xml")
+                    .toString();
+            } else {
+                this.junitFilePath = junitFilePath;
+            }
+        }
+
+        public String getInputZipFilePath() {
+            return inputZipFilePath;
+        }
+
+        public String getOutputFilePath() {
+            return outputFilePath;
+        }
+
+        public String getReplacementsOutputFilePath() {
+            return replacementsOutputFilePath;
+        }
+
+        public String getJunitFilePath() {
+            return junitFilePath;
+        }
+
+        @Override
+        public String toString() {
+            return inputZipFilePath + " -> " + outputFilePath;
+        }
+    }
+}
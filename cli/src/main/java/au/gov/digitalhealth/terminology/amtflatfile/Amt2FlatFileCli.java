@@ -0,0 +1,262 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingOptionException;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionGroup;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command line to transform a ZIP file of SNOMED CT-AU release files into an AMT flat file, the main class of the
+ * runnable JAR. The work is done by {@link FlatFileJob} in the core module, this only maps the command line options
+ * onto it.
+ */
+public class Amt2FlatFileCli {
+
+    private static final String INPUT_FILE_OPTION = "i";
+
+    private static final String INPUT_DIRECTORY_OPTION = "d";
+
+	private static final String OUTPUT_FILE_OPTION = "o";
+
+	private static final String EXIT_ON_ERROR_OPTION = "e";
+
+    private static final String REPLACEMENT_FILE_PATH = "r";
+
+    private static final String RESOLVED_REPLACEMENT_FILE_PATH = "x";
+
+	private static final String JUNIT_FILE_PATH = "j";
+
+    private static final String SHARDS_OPTION = "n";
+
+    private static final String SHARD_KEY_OPTION = "k";
+
+    private static final String LOW_MEMORY_OPTION = "l";
+
+    private static final String MAX_ZIP_FILE_SIZE_OPTION = "z";
+
+    private static final String MAX_FILE_SIZE_OPTION = "f";
+
+    private static final String INCREMENTAL_OPTION = "u";
+
+    private static final String SORTED_OPTION = "s";
+
+    private static final String ARTG_SORTED_FILE_OPTION = "a";
+
+    private static final String COLUMNS_OPTION = "c";
+
+    private static final String VIEWS_OPTION = "w";
+
+    private static final String COLUMNAR_FILE_OPTION = "b";
+
+    private static final String CLOSURE_TABLE_FILE_OPTION = "t";
+
+    private static final String CLOSURE_COPY_FILE_OPTION = "g";
+
+    private static final String VALIDATE_ONLY_OPTION = "v";
+
+    private static final String WORKERS_OPTION = "p";
+
+    private static final Logger logger = Logger.getLogger(Amt2FlatFileCli.class.getCanonicalName());
+
+	public static void main(String args[]) throws IOException {
+		long start = System.currentTimeMillis();
+		Options options = new Options();
+
+        OptionGroup input = new OptionGroup();
+        input.addOption(Option.builder(INPUT_FILE_OPTION)
+            .longOpt("inputFile")
+            .argName("AMT_ZIP_FILE_PATH")
+            .hasArg()
+            .desc("Input AMT release ZIP file")
+            .build());
+        input.addOption(Option.builder(INPUT_DIRECTORY_OPTION)
+            .longOpt("inputDir")
+            .argName("AMT_RELEASE_DIRECTORY")
+            .hasArg()
+            .desc("Directory an AMT release ZIP file has been extracted to, read in parallel")
+            .build());
+        input.setRequired(true);
+        options.addOptionGroup(input);
+        options.addOption(Option.builder(OUTPUT_FILE_OPTION)
+            .longOpt("outputFile")
+            .argName("OUTPUT_FILE")
+            .hasArg()
+            .desc("Output file path to write out the flat file, required unless only validating")
+            .build());
+        options.addOption(Option.builder(EXIT_ON_ERROR_OPTION)
+            .longOpt("exit-on-error")
+            .argName("EXIT_ON_ERROR")
+            .desc("Flag dictating whether the program will exit on an error or keep processing")
+            .build());
+        options.addOption(Option.builder(JUNIT_FILE_PATH)
+            .longOpt("junitFile")
+            .argName("JUNIT_FILE")
+            .hasArg()
+            .desc("Output file path to write out the junit result file")
+            .build());
+        options.addOption(Option.builder(REPLACEMENT_FILE_PATH)
+            .longOpt("replacementsOutputFile")
+            .argName("REPLACEMENTS_FILE_PATH")
+            .hasArg()
+            .desc("Output file path to write out the file listing inactive AMT concepts and their replacement active concepts")
+            .build());
+        options.addOption(Option.builder(RESOLVED_REPLACEMENT_FILE_PATH)
+            .longOpt("resolvedReplacementsOutputFile")
+            .argName("RESOLVED_REPLACEMENTS_FILE_PATH")
+            .hasArg()
+            .desc("Output file path to write out the file listing inactive AMT concepts and the active concepts they resolve to "
+                    + "through chains of replacements")
+            .build());
+        options.addOption(Option.builder(SHARDS_OPTION)
+            .longOpt("shards")
+            .argName("SHARDS")
+            .hasArg()
+            .desc("Number of shard files to write the flat file as in parallel, with a manifest, instead of a single file")
+            .build());
+        options.addOption(Option.builder(SHARD_KEY_OPTION)
+            .longOpt("shardKey")
+            .argName("MP|CTPP")
+            .hasArg()
+            .desc("Concept whose SCTID rows are partitioned into shards by, defaults to CTPP")
+            .build());
+        options.addOption(Option.builder(LOW_MEMORY_OPTION)
+            .longOpt("lowMemory")
+            .desc("Hold terms and intermediate data in temporary files rather than on the heap, slower but needs much less memory")
+            .build());
+        options.addOption(Option.builder(MAX_ZIP_FILE_SIZE_OPTION)
+            .longOpt("maxZipFileSize")
+            .argName("BYTES")
+            .hasArg()
+            .desc("Largest input ZIP file accepted, defaults to " + FlatFileJob.MAX_ZIP_FILE_SIZE)
+            .build());
+        options.addOption(Option.builder(MAX_FILE_SIZE_OPTION)
+            .longOpt("maxFileSize")
+            .argName("BYTES")
+            .hasArg()
+            .desc("Largest RF2 file read from the input ZIP file, defaults to " + MemoryBudget.DEFAULT_MAX_FILE_SIZE)
+            .build());
+        options.addOption(Option.builder(SORTED_OPTION)
+            .longOpt("sorted")
+            .desc("Write the flat file sorted by CTPP SCTID with a sparse index in a .idx file next to it")
+            .build());
+        options.addOption(Option.builder(ARTG_SORTED_FILE_OPTION)
+            .longOpt("artgSortedOutputFile")
+            .argName("ARTG_SORTED_FILE")
+            .hasArg()
+            .desc("Output file path to also write a copy of the flat file sorted by ARTG id to, with a sparse index in a .idx file "
+                    + "next to it")
+            .build());
+        options.addOption(Option.builder(COLUMNS_OPTION)
+            .longOpt("columns")
+            .argName("COLUMNS")
+            .hasArg()
+            .desc("Comma separated flat file header names of the columns to write, in that order, for example "
+                    + "\"CTPP SCTID,CTPP PT,ARTG_ID\", defaults to the standard columns")
+            .build());
+        options.addOption(Option.builder(VIEWS_OPTION)
+            .longOpt("views")
+            .argName("VIEWS")
+            .hasArg()
+            .desc("Comma separated views to also write next to the flat file, from MP_MPUU, MPUU_TPUU, MPP_MPUU, TPP_TPUU "
+                    + "and CTPP_ARTG_ID")
+            .build());
+        options.addOption(Option.builder(COLUMNAR_FILE_OPTION)
+            .longOpt("columnarOutputFile")
+            .argName("COLUMNAR_FILE")
+            .hasArg()
+            .desc("Output file path to also write the flat file to in a compact binary columnar format, read with "
+                    + "ColumnarFlatFileReader")
+            .build());
+        options.addOption(Option.builder(CLOSURE_TABLE_FILE_OPTION)
+            .longOpt("closureTableFile")
+            .argName("CLOSURE_FILE")
+            .hasArg()
+            .desc("Output file path to write the closure table of the AMT hierarchy to as CSV, a row for each concept "
+                    + "and ancestor with the length of the shortest path between them")
+            .build());
+        options.addOption(Option.builder(CLOSURE_COPY_FILE_OPTION)
+            .longOpt("closureCopyFile")
+            .argName("CLOSURE_COPY_FILE")
+            .hasArg()
+            .desc("Output file path to write the closure table of the AMT hierarchy to in PostgreSQL's binary COPY "
+                    + "format")
+            .build());
+        options.addOption(Option.builder(INCREMENTAL_OPTION)
+            .longOpt("incremental")
+            .desc("Skip generation if the input, options and outputs are unchanged since the last run, recorded in "
+                    + "target/amt-flat-file-state")
+            .build());
+        options.addOption(Option.builder(WORKERS_OPTION)
+            .longOpt("workers")
+            .argName("WORKERS")
+            .hasArg()
+            .desc("Number of worker processes to generate the flat file in, each loading the release and writing one "
+                    + "shard of the CTPPs, with a manifest")
+            .build());
+        options.addOption(Option.builder(VALIDATE_ONLY_OPTION)
+            .longOpt("validate-only")
+            .desc("Only validate the release, running the checks at the same time and writing the junit result file but "
+                    + "no other outputs. With --exit-on-error the first failed check stops the others.")
+            .build());
+
+		CommandLineParser parser = new DefaultParser();
+		try {
+			CommandLine line = parser.parse(options, args);
+            if (!line.hasOption(VALIDATE_ONLY_OPTION) && !line.hasOption(OUTPUT_FILE_OPTION)) {
+                throw new MissingOptionException(Collections.singletonList(OUTPUT_FILE_OPTION));
+            }
+
+			FlatFileJob job = new FlatFileJob();
+			job.setInputZipFilePath(line.getOptionValue(INPUT_FILE_OPTION));
+            job.setInputDirectoryPath(line.getOptionValue(INPUT_DIRECTORY_OPTION));
+			job.setOutputFilePath(line.getOptionValue(OUTPUT_FILE_OPTION));
+			job.setExitOnError(line.hasOption(EXIT_ON_ERROR_OPTION));
+            job.setJunitFilePath(line.getOptionValue(JUNIT_FILE_PATH));
+            job.setReplacementsFilePath(line.getOptionValue(REPLACEMENT_FILE_PATH));
+            job.setResolvedReplacementsFilePath(line.getOptionValue(RESOLVED_REPLACEMENT_FILE_PATH));
+            if (line.hasOption(SHARDS_OPTION)) {
+                job.setShards(Integer.parseInt(line.getOptionValue(SHARDS_OPTION)));
+            }
+            if (line.hasOption(SHARD_KEY_OPTION)) {
+                job.setShardKey(line.getOptionValue(SHARD_KEY_OPTION));
+            }
+            job.setLowMemory(line.hasOption(LOW_MEMORY_OPTION));
+            job.setIncremental(line.hasOption(INCREMENTAL_OPTION));
+            job.setSorted(line.hasOption(SORTED_OPTION));
+            job.setArtgSortedOutputFilePath(line.getOptionValue(ARTG_SORTED_FILE_OPTION));
+            job.setColumns(line.getOptionValue(COLUMNS_OPTION));
+            job.setViews(line.getOptionValue(VIEWS_OPTION));
+            job.setColumnarOutputFilePath(line.getOptionValue(COLUMNAR_FILE_OPTION));
+            job.setClosureTableFilePath(line.getOptionValue(CLOSURE_TABLE_FILE_OPTION));
+            job.setClosureCopyFilePath(line.getOptionValue(CLOSURE_COPY_FILE_OPTION));
+            job.setValidateOnly(line.hasOption(VALIDATE_ONLY_OPTION));
+            if (line.hasOption(WORKERS_OPTION)) {
+                job.setWorkers(Integer.parseInt(line.getOptionValue(WORKERS_OPTION)));
+            }
+            if (line.hasOption(MAX_ZIP_FILE_SIZE_OPTION)) {
+                job.setMaxZipFileSize(Long.parseLong(line.getOptionValue(MAX_ZIP_FILE_SIZE_OPTION)));
+            }
+            if (line.hasOption(MAX_FILE_SIZE_OPTION)) {
+                job.setMaxFileSize(Long.parseLong(line.getOptionValue(MAX_FILE_SIZE_OPTION)));
+            }
+			job.run();
+
+		} catch (ParseException exp) {
+            logger.severe("Parsing failed.  Reason: " + exp.getMessage());
+			HelpFormatter formatter = new HelpFormatter();
+            // wide enough for the longest option and argument names to leave room for their descriptions
+            formatter.setWidth(140);
+			formatter.printHelp("Amt2FlatFile", options);
+		}
+		logger.info("Done in " + (System.currentTimeMillis() - start) + " milliseconds");
+	}
+}
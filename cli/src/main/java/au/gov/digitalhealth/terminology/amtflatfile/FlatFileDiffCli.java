@@ -0,0 +1,96 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command line to compare the AMT flat file rows of two releases. The work is done by {@link FlatFileDiff} in the core
+ * module, this only maps the command line options onto it.
+ */
+public class FlatFileDiffCli {
+
+    private static final String FROM_OPTION = "f";
+
+    private static final String TO_OPTION = "t";
+
+    private static final String OUTPUT_FILE_OPTION = "o";
+
+    private static final String TERM_CHANGES_FILE_OPTION = "c";
+
+    private static final String SAVE_FLAT_FILE_OPTION = "s";
+
+    private static final String EXIT_ON_ERROR_OPTION = "e";
+
+    private static final Logger logger = Logger.getLogger(FlatFileDiffCli.class.getCanonicalName());
+
+    public static void main(String args[]) throws IOException {
+        long start = System.currentTimeMillis();
+        Options options = new Options();
+
+        options.addOption(Option.builder(FROM_OPTION)
+            .longOpt("from")
+            .argName("ZIP_OR_FLAT_FILE")
+            .hasArg()
+            .desc("Earlier release ZIP file, or flat file generated from it")
+            .required(true)
+            .build());
+        options.addOption(Option.builder(TO_OPTION)
+            .longOpt("to")
+            .argName("ZIP_OR_FLAT_FILE")
+            .hasArg()
+            .desc("Later release ZIP file, or flat file generated from it")
+            .required(true)
+            .build());
+        options.addOption(Option.builder(OUTPUT_FILE_OPTION)
+            .longOpt("outputFile")
+            .argName("DIFF_FILE")
+            .hasArg()
+            .desc("Output file path to write the added, removed and changed rows to")
+            .required(true)
+            .build());
+        options.addOption(Option.builder(TERM_CHANGES_FILE_OPTION)
+            .longOpt("termChangesFile")
+            .argName("TERM_CHANGES_FILE")
+            .hasArg()
+            .desc("Output file path to write the concepts with changed preferred terms to")
+            .build());
+        options.addOption(Option.builder(SAVE_FLAT_FILE_OPTION)
+            .longOpt("saveFlatFile")
+            .argName("FLAT_FILE")
+            .hasArg()
+            .desc("If the later release is a ZIP file, save its flat file and row fingerprints here for use in the next comparison")
+            .build());
+        options.addOption(Option.builder(EXIT_ON_ERROR_OPTION)
+            .longOpt("exit-on-error")
+            .argName("EXIT_ON_ERROR")
+            .desc("Flag dictating whether generating rows from a release ZIP will stop on an error or keep processing")
+            .build());
+
+        CommandLineParser parser = new DefaultParser();
+        try {
+            CommandLine line = parser.parse(options, args);
+
+            FlatFileDiff diff = new FlatFileDiff();
+            diff.setFromPath(line.getOptionValue(FROM_OPTION));
+            diff.setToPath(line.getOptionValue(TO_OPTION));
+            diff.setOutputFilePath(line.getOptionValue(OUTPUT_FILE_OPTION));
+            diff.setTermChangesFilePath(line.getOptionValue(TERM_CHANGES_FILE_OPTION));
+            diff.setSaveFlatFilePath(line.getOptionValue(SAVE_FLAT_FILE_OPTION));
+            diff.setExitOnError(line.hasOption(EXIT_ON_ERROR_OPTION));
+            diff.execute();
+        } catch (ParseException exp) {
+            logger.severe("Parsing failed.  Reason: " + exp.getMessage());
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("FlatFileDiffCli", options);
+        }
+        logger.info("Done in " + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+}
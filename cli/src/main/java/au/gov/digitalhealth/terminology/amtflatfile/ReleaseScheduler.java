@@ -0,0 +1,66 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Submits release processing tasks to a shared executor, limiting the number of tasks in flight so that the sum of
+ * their estimated heap requirements stays within a budget. A task whose estimate exceeds the whole budget is still run,
+ * but only when nothing else is in flight.
+ */
+class ReleaseScheduler {
+
+    private static final Logger logger = Logger.getLogger(ReleaseScheduler.class.getCanonicalName());
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final ExecutorService executor;
+
+    private final Semaphore heapMegabytes;
+
+    private final int budgetMegabytes;
+
+    public ReleaseScheduler(ExecutorService executor, long heapBudgetBytes) {
+        this.executor = executor;
+        this.budgetMegabytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, heapBudgetBytes / MEGABYTE));
+        this.heapMegabytes = new Semaphore(budgetMegabytes, true);
+    }
+
+    /**
+     * Blocks until enough of the heap budget is free for the task's estimate, then submits it. The reserved budget is
+     * released when the task completes, successfully or not.
+     */
+    public <T> Future<T> submit(String name, long estimatedHeapBytes, Callable<T> task) throws InterruptedException {
+        int permits = (int) Math.min(budgetMegabytes, Math.max(1, estimatedHeapBytes / MEGABYTE));
+        if (heapMegabytes.availablePermits() < permits) {
+            logger.info("Waiting for " + permits + "MB of heap budget to process " + name);
+        }
+        heapMegabytes.acquire(permits);
+        try {
+            return executor.submit(() -> {
+                try {
+                    return task.call();
+                } finally {
+                    heapMegabytes.release(permits);
+                }
+            });
+        } catch (RuntimeException e) {
+            heapMegabytes.release(permits);
+            throw e;
+        }
+    }
+
+    public int getBudgetMegabytes() {
+        return budgetMegabytes;
+    }
+
+    /**
+     * @return the part of the budget not reserved by tasks in flight
+     */
+    int getAvailableMegabytes() {
+        return heapMegabytes.availablePermits();
+    }
+}
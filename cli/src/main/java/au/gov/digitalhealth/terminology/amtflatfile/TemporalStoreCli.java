@@ -0,0 +1,115 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command line to add releases to a {@link TemporalStore} and query it, writing the flat file of the release current at
+ * a date or the rows of a CTPP at that date. The work is done by the store in the core module, this only maps the
+ * command line options onto it.
+ */
+public class TemporalStoreCli {
+
+    private static final String STORE_OPTION = "s";
+
+    private static final String ADD_OPTION = "a";
+
+    private static final String DATE_OPTION = "d";
+
+    private static final String OUTPUT_FILE_OPTION = "o";
+
+    private static final String CTPP_OPTION = "c";
+
+    private static final String EXIT_ON_ERROR_OPTION = "e";
+
+    private static final Logger logger = Logger.getLogger(TemporalStoreCli.class.getCanonicalName());
+
+    public static void main(String args[]) throws IOException {
+        long start = System.currentTimeMillis();
+        Options options = new Options();
+
+        options.addOption(Option.builder(STORE_OPTION)
+            .longOpt("store")
+            .argName("STORE_DIRECTORY")
+            .hasArg()
+            .desc("Directory of the store, created if it does not exist")
+            .required(true)
+            .build());
+        options.addOption(Option.builder(ADD_OPTION)
+            .longOpt("add")
+            .argName("RELEASE_ZIP")
+            .hasArgs()
+            .desc("Release ZIP files to add to the store, in release order")
+            .build());
+        options.addOption(Option.builder(DATE_OPTION)
+            .longOpt("date")
+            .argName("YYYYMMDD")
+            .hasArg()
+            .desc("Date to query the store as of, defaults to the latest release stored")
+            .build());
+        options.addOption(Option.builder(OUTPUT_FILE_OPTION)
+            .longOpt("outputFile")
+            .argName("FLAT_FILE")
+            .hasArg()
+            .desc("Output file path to write the flat file of the release current at the date to")
+            .build());
+        options.addOption(Option.builder(CTPP_OPTION)
+            .longOpt("ctpp")
+            .argName("CTPP_SCTID")
+            .hasArg()
+            .desc("CTPP to write the flat file rows of at the date to standard output")
+            .build());
+        options.addOption(Option.builder(EXIT_ON_ERROR_OPTION)
+            .longOpt("exit-on-error")
+            .argName("EXIT_ON_ERROR")
+            .desc("Flag dictating whether generating rows from a release ZIP will stop on an error or keep processing")
+            .build());
+
+        CommandLineParser parser = new DefaultParser();
+        try {
+            CommandLine line = parser.parse(options, args);
+
+            TemporalStore store = TemporalStore.open(Paths.get(line.getOptionValue(STORE_OPTION)));
+            if (line.hasOption(ADD_OPTION)) {
+                for (String release : line.getOptionValues(ADD_OPTION)) {
+                    store.add(Paths.get(release), line.hasOption(EXIT_ON_ERROR_OPTION));
+                }
+            }
+            String date = line.getOptionValue(DATE_OPTION, store.getLatestRelease());
+            if (line.hasOption(OUTPUT_FILE_OPTION)) {
+                Path output = Paths.get(line.getOptionValue(OUTPUT_FILE_OPTION));
+                if (output.getParent() != null) {
+                    Files.createDirectories(output.getParent());
+                }
+                try (OutputStream out = Files.newOutputStream(output, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    store.generate(date, new CsvRowSink(out));
+                }
+                logger.info("Wrote the flat file of release " + store.getRelease(date) + " to " + output);
+            }
+            if (line.hasOption(CTPP_OPTION)) {
+                long ctppId = Long.parseLong(line.getOptionValue(CTPP_OPTION));
+                store.generate(date, ctppId, new CsvRowSink(System.out));
+                logger.info("CTPP " + ctppId + " changed in releases " + store.getChanges(ctppId));
+            }
+        } catch (ParseException exp) {
+            logger.severe("Parsing failed.  Reason: " + exp.getMessage());
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("TemporalStoreCli", options);
+        }
+        logger.info("Done in " + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+}
@@ -0,0 +1,64 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import au.gov.digitalhealth.terminology.amtflatfile.Amt2FlatFileBatch.Release;
+
+public class Amt2FlatFileBatchTest {
+
+    private Path testOutDirectory = Paths.get("target/test-out/batch/");
+
+    @Test(groups = "batch", priority = 1, description = "Each release line of a batch file is parsed, skipping blank lines and comments")
+    public void parsesBatchFile() throws IOException {
+        Amt2FlatFileBatch batch = new Amt2FlatFileBatch();
+        batch.addReleases(batchFile("releases.txt",
+            "# INPUT_ZIP,OUTPUT_FILE[,REPLACEMENTS_FILE[,JUNIT_FILE]]",
+            "",
+            "  a.zip , out/a.csv ",
+            "b.zip,out/b.csv,out/b-replacements.csv",
+            "c.zip,out/c.csv,,out/c.xml",
+            "   ",
+            "d.zip,out/d"));
+
+        List<Release> releases = batch.getReleases();
+        Assert.assertEquals(releases.size(), 4);
+
+        Assert.assertEquals(releases.get(0).getInputZipFilePath(), "a.zip");
+        Assert.assertEquals(releases.get(0).getOutputFilePath(), "out/a.csv");
+        Assert.assertNull(releases.get(0).getReplacementsOutputFilePath());
+        Assert.assertEquals(Paths.get(releases.get(0).getJunitFilePath()), Paths.get("out/a-ValidationErrors.xml"));
+
+        Assert.assertEquals(releases.get(1).getReplacementsOutputFilePath(), "out/b-replacements.csv");
+        Assert.assertEquals(Paths.get(releases.get(1).getJunitFilePath()), Paths.get("out/b-ValidationErrors.xml"));
+
+        Assert.assertEquals(releases.get(2).getReplacementsOutputFilePath(), "");
+        Assert.assertEquals(releases.get(2).getJunitFilePath(), "out/c.xml");
+
+        // an output file with no extension has the JUnit file's suffix added to its whole name
+        Assert.assertEquals(Paths.get(releases.get(3).getJunitFilePath()), Paths.get("out/d-ValidationErrors.xml"));
+    }
+
+    @Test(groups = "batch", priority = 1, description = "A line with too few or too many fields is rejected", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsLineWithOneField() throws IOException {
+        new Amt2FlatFileBatch().addReleases(batchFile("one-field.txt", "a.zip,out/a.csv", "b.zip"));
+    }
+
+    @Test(groups = "batch", priority = 1, description = "A line with too few or too many fields is rejected", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsLineWithFiveFields() throws IOException {
+        new Amt2FlatFileBatch().addReleases(batchFile("five-fields.txt", "a.zip,out/a.csv,r.csv,j.xml,extra"));
+    }
+
+    private Path batchFile(String name, String... lines) throws IOException {
+        Files.createDirectories(testOutDirectory);
+        return Files.write(testOutDirectory.resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,116 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ReleaseSchedulerTest {
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @Test(groups = "batch", priority = 1, description = "Tasks reserve their estimate of the heap budget while in flight and release it when they finish")
+    public void reservesBudgetWhileInFlight() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ReleaseScheduler scheduler = new ReleaseScheduler(executor, 100 * MEGABYTE);
+            Assert.assertEquals(scheduler.getBudgetMegabytes(), 100);
+
+            CountDownLatch firstRunning = new CountDownLatch(1);
+            CountDownLatch finishFirst = new CountDownLatch(1);
+            Future<Void> first = scheduler.submit("first", 60 * MEGABYTE, () -> {
+                firstRunning.countDown();
+                finishFirst.await();
+                return null;
+            });
+            Assert.assertTrue(firstRunning.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(scheduler.getAvailableMegabytes(), 40);
+
+            // fits in what is left, so runs alongside the first
+            Assert.assertEquals(scheduler.submit("second", 30 * MEGABYTE, () -> "second").get(10, TimeUnit.SECONDS), "second");
+            Assert.assertEquals(scheduler.getAvailableMegabytes(), 40);
+
+            // does not fit until the first finishes
+            AtomicBoolean thirdSubmitted = new AtomicBoolean();
+            Thread submitter = new Thread(() -> {
+                try {
+                    scheduler.submit("third", 50 * MEGABYTE, () -> null).get();
+                    thirdSubmitted.set(true);
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            submitter.start();
+            submitter.join(500);
+            Assert.assertFalse(thirdSubmitted.get());
+
+            finishFirst.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            submitter.join(10000);
+            Assert.assertTrue(thirdSubmitted.get());
+            Assert.assertEquals(scheduler.getAvailableMegabytes(), 100);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups = "batch", priority = 1, description = "A task estimated to need more than the whole budget runs alone, and the budget is released if a task fails")
+    public void runsTaskLargerThanBudgetAlone() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ReleaseScheduler scheduler = new ReleaseScheduler(executor, 100 * MEGABYTE);
+
+            CountDownLatch smallRunning = new CountDownLatch(1);
+            CountDownLatch finishSmall = new CountDownLatch(1);
+            Future<Void> small = scheduler.submit("small", 10 * MEGABYTE, () -> {
+                smallRunning.countDown();
+                finishSmall.await();
+                return null;
+            });
+            Assert.assertTrue(smallRunning.await(10, TimeUnit.SECONDS));
+
+            AtomicBoolean largeRunning = new AtomicBoolean();
+            CountDownLatch finishLarge = new CountDownLatch(1);
+            Thread submitter = new Thread(() -> {
+                try {
+                    scheduler.submit("large", 500 * MEGABYTE, () -> {
+                        largeRunning.set(true);
+                        finishLarge.await();
+                        throw new IllegalStateException("failed");
+                    });
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            submitter.start();
+            submitter.join(500);
+            Assert.assertFalse(largeRunning.get());
+
+            // once nothing else is in flight the large task takes the whole budget
+            finishSmall.countDown();
+            small.get(10, TimeUnit.SECONDS);
+            submitter.join(10000);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!largeRunning.get() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(largeRunning.get());
+            Assert.assertEquals(scheduler.getAvailableMegabytes(), 0);
+
+            finishLarge.countDown();
+            deadline = System.currentTimeMillis() + 10000;
+            while (scheduler.getAvailableMegabytes() < 100 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(scheduler.getAvailableMegabytes(), 100);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,804 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.jgrapht.alg.TransitiveClosure;
+import org.jgrapht.graph.SimpleDirectedGraph;
+import org.openmbee.junit.model.JUnitFailure;
+
+public class AmtCache implements Closeable {
+
+    static final String AU_METADATA_MODULE = "161771000036108";
+
+    static final String INTERNATIONAL_METADATA_MODULE = "900000000000012004";
+
+    private static final String PREFERRED = "900000000000548007";
+
+    private static final String FSN = "900000000000003001";
+
+    static final String AMT_MODULE_ID = "900062011000036108";
+
+    private static final Logger logger = Logger.getLogger(AmtCache.class.getCanonicalName());
+
+    /**
+     * IS A hierarchy which is transitively closed once loaded, null in low memory mode where ancestors are found from
+     * concepts' parents instead
+     */
+    private SimpleDirectedGraph<Long, Edge> graph;
+
+    private Map<Long, Concept> conceptCache = new HashMap<>();
+
+    private Set<Long> preferredDescriptionIdCache = new HashSet<>();
+
+    /**
+     * Ids of the concepts in the AMT module, the others cached being metadata
+     */
+    private Set<Long> amtModuleConceptIds = new HashSet<>();
+
+    private Map<Long, Concept> ctpps = new HashMap<>();
+
+    private Set<Triple<Concept, Concept, Concept>> replacements = new HashSet<>();
+
+    private ReplacementIndex replacementIndex;
+
+    private ArtgIdIndex artgIdIndex;
+
+    /**
+     * Collects concept attributes and concrete values while the release is read, replaced by the built store. Null if
+     * the memory budget does not hold attributes or the release is only loaded to be validated.
+     */
+    private AttributeStore.Builder attributes;
+
+    private AttributeStore attributeStore;
+
+    private TermIndex termIndex;
+
+    /**
+     * ARTG ids by concept id which had surrounding whitespace in the reference set, as they appeared there, only needed
+     * until the ARTG ids are normalised
+     */
+    private Map<Long, Map<Long, String>> paddedArtgIds = new HashMap<>();
+
+    private boolean exitOnError;
+
+    private JUnitTestSuite_EXT testSuite;
+    private JUnitTestCase_EXT graphCase;
+
+    private SharedMetadata sharedMetadata;
+
+    private MemoryBudget memoryBudget;
+
+    /**
+     * Creates the threads the release files are parsed on
+     */
+    private ThreadingProfile threading;
+
+    private TermStore termStore;
+
+    private ExternalSorter preferredDescriptionSorter;
+
+    private ExternalSorter descriptionSorter;
+
+    /**
+     * Set when the release is only loaded to be validated, null when loaded for the outputs
+     */
+    private ValidationStage validation;
+
+    public AmtCache(FileSystem amtZip, JUnitTestSuite_EXT testSuite, boolean exitOnError) throws IOException {
+        this(amtZip, testSuite, exitOnError, new SharedMetadata());
+    }
+
+    public AmtCache(FileSystem amtZip, JUnitTestSuite_EXT testSuite, boolean exitOnError, SharedMetadata sharedMetadata)
+            throws IOException {
+        this(amtZip, testSuite, exitOnError, sharedMetadata, MemoryBudget.unlimited());
+    }
+
+    public AmtCache(FileSystem amtZip, JUnitTestSuite_EXT testSuite, boolean exitOnError, SharedMetadata sharedMetadata,
+            MemoryBudget memoryBudget) throws IOException {
+        this(amtZip.getPath("/"), testSuite, exitOnError, sharedMetadata, memoryBudget);
+    }
+
+    /**
+     * @param releaseRoot directory containing the release files, either the root of a ZIP file system or a directory
+     *            the release has been extracted to. Files in an extracted directory are read in parallel.
+     */
+    public AmtCache(Path releaseRoot, JUnitTestSuite_EXT testSuite, boolean exitOnError, SharedMetadata sharedMetadata,
+            MemoryBudget memoryBudget) throws IOException {
+        this(releaseRoot, testSuite, exitOnError, sharedMetadata, memoryBudget, new ThreadingProfile());
+    }
+
+    /**
+     * @param threading the profile of the job loading the release, which creates the threads the files are parsed on
+     */
+    public AmtCache(Path releaseRoot, JUnitTestSuite_EXT testSuite, boolean exitOnError, SharedMetadata sharedMetadata,
+            MemoryBudget memoryBudget, ThreadingProfile threading) throws IOException {
+        this(releaseRoot, testSuite, exitOnError, sharedMetadata, memoryBudget, threading, null);
+    }
+
+    /**
+     * @param validation
+     *            if set the release is only loaded to be validated, the indexes the outputs need are not built. If
+     *            exitOnError is set, so failed checks apply no fixes, the checks are submitted to it as soon as their
+     *            inputs are loaded rather than run in turn, and must be awaited once loaded.
+     */
+    AmtCache(Path releaseRoot, JUnitTestSuite_EXT testSuite, boolean exitOnError, SharedMetadata sharedMetadata,
+            MemoryBudget memoryBudget, ThreadingProfile threading, ValidationStage validation) throws IOException {
+        this.validation = validation;
+        this.threading = threading;
+        this.testSuite = testSuite;
+        this.exitOnError = exitOnError;
+        this.sharedMetadata = sharedMetadata;
+        this.memoryBudget = memoryBudget;
+        if (memoryBudget.holdsAttributes() && validation == null) {
+            attributes = new AttributeStore.Builder();
+        }
+        if (memoryBudget.isLowMemory()) {
+            termStore = new TermStore(memoryBudget.getTempDirectory());
+        } else {
+            graph = new SimpleDirectedGraph<>(Edge.class);
+        }
+        try {
+            processAmtFiles(releaseRoot);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void processAmtFiles(Path releaseRoot) throws IOException {
+
+        graphCase = new JUnitTestCase_EXT().setName("Graph errors");
+
+        TerminologyFileVisitor visitor = new TerminologyFileVisitor(memoryBudget.getMaxFileSize());
+
+        Files.walkFileTree(releaseRoot, visitor);
+        
+        visitor.ensureAllFilesExist();
+
+        readRows(visitor.getConceptFile(), s -> isAmtOrMetadataModule(s), s -> handleConceptRow(s));
+        if (attributes != null) {
+            for (Path concreteValueFile : visitor.getConcreteValueRefsetFiles()) {
+                readRows(concreteValueFile, s -> isActive(s) && isAmtModule(s), s -> handleConcreteValueRefsetRow(s));
+            }
+        }
+        readRows(visitor.getRelationshipFile(), s -> isActive(s) && isAmtModule(s) && AttributeType.isEnumValue(s[7]),
+            s -> handleRelationshipRow(s));
+        if (memoryBudget.isLowMemory()) {
+            readDescriptionsWithBudget(visitor);
+        } else {
+            readRows(visitor.getLanguageRefsetFile(), s -> isPreferredLanguageRefsetRow(s), s -> handleLanguageRefsetRow(s));
+            readRows(visitor.getDescriptionFile(), s -> isActive(s) && isAmtOrMetadataModule(s), s -> handleDescriptionRow(s));
+        }
+        readRows(visitor.getArtgIdRefsetFile(), s -> isActive(s) && isAmtModule(s), s -> handleArtgIdRefsetRow(s));
+        for (Path historicalFile : visitor.getHistoricalAssociationRefsetFiles()) {
+            readRows(historicalFile, s -> isActive(s) && isAmtModule(s), s -> handleHistoricalAssociationRefsetRow(s));
+        }
+
+        if (concurrentChecks()) {
+            // these checks only need the concepts as read, so run while the hierarchy is closed
+            validateConceptCache();
+        }
+
+        if (graph != null) {
+            try {
+                calculateTransitiveClosure();
+            } catch (Exception e) {
+                String message = "Could not close graph. Elements missing";
+                JUnitFailure fail = new JUnitFailure();
+                fail.setMessage(message);
+                graphCase.addFailure(fail);
+                if (exitOnError) {
+                    throw new RuntimeException(message);
+                }
+            }
+        }
+
+        descendantsOf(AmtConcept.CTPP)
+            .filter(id -> !AmtConcept.isEnumValue(Long.toString(id)))
+            .forEach(id -> ctpps.put(id, conceptCache.get(id)));
+
+        Iterator<Entry<Long, Concept>> it = ctpps.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Long, Concept> entry = it.next();
+            if (!entry.getValue().isActive()) {
+                String message = "Found inactive CTPP! " + entry.getValue();
+                logger.warning(message);
+                testSuite.addTestCase("Inactive CTPP found", entry.getValue().toString(), "Inactive_CTPP", "ERROR");
+                if (exitOnError) {
+                    throw new RuntimeException(message);
+                }
+                it.remove();
+            }
+        }
+
+        if (graph != null) {
+            conceptCache.values().stream().forEach(c -> {
+                c.addAncestors(
+                    graph.outgoingEdgesOf(c.getId())
+                        .stream()
+                        .map(e -> e.getTarget())
+                        .collect(Collectors.<Long, Long, Concept> toMap(id -> id, id -> conceptCache.get(id))));
+            });
+        }
+
+        if (concurrentChecks()) {
+            validation.throwIfFailed();
+            validation.submit("heirarchy_error", () -> validateUnits(validation::isCancelled));
+            logger.info("Loaded " + ctpps.size() + " CTPPs " + conceptCache.size() + " concepts ");
+            return;
+        }
+
+        validateConceptCache();
+
+        logger.info("Loaded " + ctpps.size() + " CTPPs " + conceptCache.size() + " concepts ");
+
+        validateUnits(() -> false);
+
+        logger.info("Validated cached concepts ");
+
+        if (validation != null) {
+            return;
+        }
+
+        replacementIndex = ReplacementIndex.build(replacements);
+
+        ctpps.values().forEach(ctpp -> ctpp.normaliseArtgIds(artgId -> paddedArtgIds
+            .getOrDefault(ctpp.getId(), Collections.emptyMap())
+            .getOrDefault(artgId, Long.toString(artgId))));
+        paddedArtgIds = null;
+        artgIdIndex = new ArtgIdIndex(ctpps.values());
+        logger.info("Indexed " + artgIdIndex.size() + " ARTG ids");
+
+        if (attributes != null) {
+            attributeStore = attributes.build();
+            attributes = null;
+            logger.info("Stored " + attributeStore.size() + " attributes of " + attributeStore.conceptCount() + " concepts");
+        }
+    }
+
+    private void validateConceptCache() {
+        // inactive concepts shouldn't have references to other things
+        assertConceptCache(c -> !c.isActive() && !c.getParents().isEmpty(), "Inactive concepts with parents", "Inactive_with_parents",
+            c -> c.getParents().clear());
+        assertConceptCache(c -> !c.isActive() && !c.getTps().isEmpty(), "Inactive concepts with TPs", "Inactive_with_TPs",
+            c -> c.getTps().clear());
+        assertConceptCache(c -> !c.isActive() && !c.getUnits().isEmpty(), "Inactive concepts with Units", "Inactive_with_Units",
+            c -> c.getUnits().clear());
+        assertConceptCache(c -> !c.isActive() && c.getArtgIds().length > 0, "Inactive concepts with ARTGIDs", "Inactive_with_ARTGIDs",
+            c -> c.clearArtgIds());
+
+        // all concepts should have PTs and FSNs
+        assertConceptCache(c -> c.getFullSpecifiedName() == null || c.getFullSpecifiedName().isEmpty(), "Concepts with null or empty FSN",
+            "Null_or_empty_FSN", c -> c.setFullSpecifiedName("Concept " + c.getId() + " has not FSN!!!")); // fix is a no-op
+        assertConceptCache(c -> c.getPreferredTerm() == null || c.getPreferredTerm().isEmpty(), "Concepts with null or empty PT",
+            "Null_or_empty_PT", c -> c.setPreferredTerm("Concept " + c.getId() + " has not Preferred Term!!!"));
+
+        // active concepts should only reference active things
+        assertConceptCache(c -> c.isActive() && c.getUnits().stream().anyMatch(u -> !u.isActive()),
+            "Active concept with inactive linked unit/s", "Active_concept_inactive_units",
+            c -> c.getUnits().removeAll(c.getUnits().stream().filter(u -> !u.isActive()).collect(Collectors.toSet())));
+        assertConceptCache(c -> c.isActive() && c.getTps().stream().anyMatch(u -> !u.isActive()),
+            "Active concept with inactive linked TP/s", "Active_concept_inactive_TP",
+            c -> c.getTps().remove(c.getTps()
+                .stream()
+                .filter(t -> !t.isActive())
+                .collect(Collectors.toSet())));
+        assertConceptCache(c -> c.isActive() && c.getParents().values().stream().anyMatch(u -> !u.isActive()),
+            "Active concept with inactive linked parent/s", "Active_concept_inactive_parents",
+            c -> c.getParents().remove(c.getParents()
+                .entrySet()
+                .stream()
+                .filter(e -> !e.getValue().isActive())
+                .map(e -> e.getValue())
+                .collect(Collectors.toSet())));
+    }
+
+    /**
+     * Checks the concepts in turn, or submits the check to run at the same time as the others
+     */
+    private void assertConceptCache(Predicate<Concept> predicate, String message, String testCaseName, Consumer<Concept> fix) {
+        if (concurrentChecks()) {
+            validation.submit(testCaseName, () -> assertConceptCache(predicate, message, testCaseName, fix, validation::isCancelled));
+        } else {
+            assertConceptCache(predicate, message, testCaseName, fix, () -> false);
+        }
+    }
+
+    private void assertConceptCache(Predicate<Concept> predicate, String message, String testCaseName, Consumer<Concept> fix,
+            BooleanSupplier cancelled) {
+        Set<Concept> errors = new HashSet<>();
+        for (Concept concept : conceptCache.values()) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            } else if (predicate.test(concept)) {
+                errors.add(concept);
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            logger.warning(message + " " + errors);
+            testSuite.addTestCase(message, errors.toString(), testCaseName, "ERROR");
+
+            if (exitOnError || fix == null) {
+                throw new RuntimeException(message + " " + errors);
+            } else {
+                logger.warning(
+                    "!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+                logger.warning(
+                    "!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+                logger.warning(
+                    "FIX APPLIED FOR ERRONEOUS INPUT DATA - continuing as requested, however RESULTS MAY BE UNRELIABLE AS A RESULT!!!!");
+                logger.warning(
+                    "!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+                logger.warning(
+                    "!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+                errors.stream().forEach(fix);
+            }
+        }
+    }
+
+    /**
+     * @return true if the checks are submitted to the validation stage, which is only safe when failed checks throw
+     *         rather than fix the concepts later checks read
+     */
+    private boolean concurrentChecks() {
+        return validation != null && exitOnError;
+    }
+
+    private void validateUnits(BooleanSupplier cancelled) {
+        Set<Concept> packConceptsWithNoUnits = descendantsOf(AmtConcept.MPP)
+            .filter(id -> !AmtConcept.isEnumValue(Long.toString(id)))
+            .map(id -> conceptCache.get(id))
+            .filter(concept -> concept.getUnits() == null || concept.getUnits().size() == 0)
+            .collect(Collectors.toSet());
+
+        if (cancelled.getAsBoolean()) {
+            return;
+        }
+        Set<Concept> mppsWithTpuus = descendantsOf(AmtConcept.MPP)
+            .filter(id -> !AmtConcept.isEnumValue(Long.toString(id)))
+            .map(id -> conceptCache.get(id))
+            .filter(concept -> !concept.hasAtLeastOneMatchingAncestor(AmtConcept.TPP))
+            .filter(concept -> concept.getUnits()
+                .stream()
+                .anyMatch(unit -> unit.hasAtLeastOneMatchingAncestor(AmtConcept.TPUU)))
+            .collect(Collectors.toSet());
+
+        if (cancelled.getAsBoolean()) {
+            return;
+        }
+        Set<Concept> tppsWithMpuus = descendantsOf(AmtConcept.TPP)
+            .filter(id -> !AmtConcept.isEnumValue(Long.toString(id)))
+            .map(id -> conceptCache.get(id))
+            .filter(concept -> concept.getUnits()
+                .stream()
+                .anyMatch(unit -> !unit.hasAtLeastOneMatchingAncestor(AmtConcept.TPUU)))
+            .collect(Collectors.toSet());
+
+        if (cancelled.getAsBoolean()) {
+            return;
+        }
+        if (!packConceptsWithNoUnits.isEmpty() || !mppsWithTpuus.isEmpty() || !tppsWithMpuus.isEmpty()) {
+
+            String detail = "Detected pack concepts with no units "
+                    + packConceptsWithNoUnits.stream().map(c -> c.getId() + " |" + c.getPreferredTerm() + "|\n").collect(Collectors.toSet())
+                    + " and/or MPPs with TPUU units "
+                    + mppsWithTpuus.stream()
+                        .map(c -> c.getId() + " |" + c.getPreferredTerm() + "|\n")
+                        .collect(Collectors.toSet())
+                    + " and/or TPP/CTPPs with MPUU units "
+                    + tppsWithMpuus.stream()
+                        .map(c -> c.getId() + " |" + c.getPreferredTerm() + "|\n")
+                        .collect(Collectors.toSet());
+
+            testSuite.addTestCase("Detected pack concepts with no units and/or MPPs with TPUU units and/or TPP/CTPPs with MPUU units",
+                detail, "heirarchy_error", "ERROR");
+
+            if (exitOnError) {
+                throw new RuntimeException(detail);
+            }
+        }
+    }
+
+    /**
+     * @return the ids of all concepts below the AMT concept class in the hierarchy
+     */
+    private Stream<Long> descendantsOf(AmtConcept concept) {
+        if (graph != null) {
+            return graph.incomingEdgesOf(concept.getId()).stream().map(e -> e.getSource());
+        }
+        return conceptCache.values().stream().filter(c -> c.hasAtLeastOneMatchingAncestor(concept)).map(c -> c.getId());
+    }
+
+    public Map<Long, Concept> getCtpps() {
+        return ctpps;
+    }
+
+    public Concept getConcept(long id) {
+        return conceptCache.get(id);
+    }
+
+    /**
+     * @return the ids of the active concepts in the AMT module, in ascending order
+     */
+    long[] getAmtModuleConceptIds() {
+        return amtModuleConceptIds.stream()
+            .filter(id -> conceptCache.get(id).isActive())
+            .mapToLong(Long::longValue)
+            .sorted()
+            .toArray();
+    }
+
+    private void handleConceptRow(String[] row) {
+        try {
+            if (isAmtOrMetadataModule(row)) {
+                long conceptId = Long.parseLong(row[0]);
+                if (graph != null) {
+                    graph.addVertex(conceptId);
+                    conceptCache.put(conceptId, new Concept(conceptId, isActive(row)));
+                } else {
+                    conceptCache.put(conceptId, new SpilledConcept(conceptId, isActive(row), termStore));
+                }
+                if (isAmtModule(row)) {
+                    amtModuleConceptIds.add(conceptId);
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of Concepts file", e);
+        }
+    }
+
+    private void handleRelationshipRow(String[] row) {
+
+        try {
+            long source = Long.parseLong(row[4]);
+            long destination = Long.parseLong(row[5]);
+            String type = row[7];
+
+            if (isActive(row) && isAmtModule(row) && AttributeType.isEnumValue(type) && conceptCache.containsKey(source)
+                    && conceptCache.containsKey(destination)) {
+                Concept sourceConcept = conceptCache.get(source);
+                AttributeType attributeType = AttributeType.fromIdString(type);
+                if (attributes != null && attributeType != AttributeType.IS_A) {
+                    attributes.addAttribute(Long.parseLong(row[0]), source, destination, Integer.parseInt(row[6]), attributeType);
+                }
+
+                switch (attributeType) {
+                    case IS_A:
+                        if (graph != null) {
+                            graph.addEdge(source, destination);
+                        }
+                        sourceConcept.addParent(conceptCache.get(destination));
+                        break;
+
+                    case HAS_MPUU:
+                    case HAS_TPUU:
+                        sourceConcept.addUnit(conceptCache.get(destination));
+                        break;
+
+                    case HAS_TP:
+                        sourceConcept.addTp(conceptCache.get(destination));
+
+                    default:
+                        break;
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of Relationships file", e);
+        }
+
+    }
+
+    /**
+     * Records a concrete value, such as a strength, given for a relationship by a concrete domain reference set. These
+     * are read before the relationships so each value can be stored with its relationship.
+     */
+    private void handleConcreteValueRefsetRow(String[] row) {
+        try {
+            attributes.addValue(Long.parseLong(row[5]), Long.parseLong(row[6]), Long.parseLong(row[7]), row[8]);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of concrete domain reference set file", e);
+        }
+    }
+
+    private void handleDescriptionRow(String[] row) {
+
+        try {
+
+            Long conceptId = Long.parseLong(row[4]);
+
+            if (isActive(row) && isAmtOrMetadataModule(row) && conceptCache.containsKey(conceptId)) {
+                String descriptionId = row[0];
+                String term = isAmtModule(row) ? row[7] : sharedMetadata.intern(row[7]);
+                Concept concept = conceptCache.get(conceptId);
+                if (row[6].equals(FSN)) {
+                    concept.setFullSpecifiedName(term);
+                } else if (preferredDescriptionIdCache.contains(Long.parseLong(descriptionId))) {
+                    concept.setPreferredTerm(term);
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of Descriptions file", e);
+        }
+    }
+
+    private void handleLanguageRefsetRow(String[] row) {
+
+        try {
+            if (isPreferredLanguageRefsetRow(row)) {
+                preferredDescriptionIdCache.add(Long.parseLong(row[5]));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of Language file", e);
+        }
+
+    }
+
+    /**
+     * Low memory equivalent of reading the language reference set into preferredDescriptionIdCache then reading the
+     * descriptions. Preferred description ids and the descriptions are each sorted by description id on disk and
+     * merge joined, and the matching preferred terms are then applied in their original file order so the result is
+     * the same as reading them in memory.
+     */
+    private void readDescriptionsWithBudget(TerminologyFileVisitor visitor) throws IOException {
+        long sortBuffer = memoryBudget.getSortBufferBytes() / 2;
+        preferredDescriptionSorter = new ExternalSorter("language", memoryBudget.getTempDirectory(), sortBuffer);
+        descriptionSorter = new ExternalSorter("description", memoryBudget.getTempDirectory(), sortBuffer);
+
+        readRows(visitor.getLanguageRefsetFile(), s -> isPreferredLanguageRefsetRow(s), s -> sortLanguageRefsetRow(s));
+        readRows(visitor.getDescriptionFile(), s -> isActive(s) && isAmtOrMetadataModule(s), s -> sortDescriptionRow(s));
+
+        try (ExternalSorter preferredTerms =
+                new ExternalSorter("preferred-term", memoryBudget.getTempDirectory(), memoryBudget.getSortBufferBytes())) {
+            ExternalSorter.Cursor descriptions = descriptionSorter.sorted();
+            ExternalSorter.Cursor preferred = preferredDescriptionSorter.sorted();
+            boolean morePreferred = preferred.next();
+            while (descriptions.next()) {
+                long descriptionId = descriptions.key();
+                while (morePreferred && preferred.key() < descriptionId) {
+                    morePreferred = preferred.next();
+                }
+                if (morePreferred && preferred.key() == descriptionId) {
+                    String value = descriptions.value();
+                    int sequenceEnd = value.indexOf('\t');
+                    preferredTerms.add(Long.parseLong(value.substring(0, sequenceEnd)), value.substring(sequenceEnd + 1));
+                }
+            }
+
+            ExternalSorter.Cursor inFileOrder = preferredTerms.sorted();
+            while (inFileOrder.next()) {
+                String value = inFileOrder.value();
+                int conceptEnd = value.indexOf('\t');
+                conceptCache.get(Long.parseLong(value.substring(0, conceptEnd))).setPreferredTerm(value.substring(conceptEnd + 1));
+            }
+            logger.info("Joined " + preferredTerms.size() + " preferred terms from " + descriptionSorter.size() + " descriptions");
+        } finally {
+            preferredDescriptionSorter.close();
+            descriptionSorter.close();
+            preferredDescriptionSorter = null;
+            descriptionSorter = null;
+        }
+    }
+
+    private void sortLanguageRefsetRow(String[] row) {
+        try {
+            if (isPreferredLanguageRefsetRow(row)) {
+                preferredDescriptionSorter.add(Long.parseLong(row[5]), "");
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of Language file", e);
+        }
+    }
+
+    private void sortDescriptionRow(String[] row) {
+        try {
+            Long conceptId = Long.parseLong(row[4]);
+
+            if (isActive(row) && isAmtOrMetadataModule(row) && conceptCache.containsKey(conceptId)) {
+                if (row[6].equals(FSN)) {
+                    conceptCache.get(conceptId).setFullSpecifiedName(row[7]);
+                } else {
+                    // the row's position in the file is kept so matches can be applied in file order
+                    descriptionSorter.add(Long.parseLong(row[0]), descriptionSorter.size() + "\t" + conceptId + "\t" + row[7]);
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of Descriptions file", e);
+        }
+    }
+
+    private void handleArtgIdRefsetRow(String[] row) {
+        try {
+            long conceptId = Long.parseLong(row[5]);
+            if (isActive(row) && isAmtModule(row)) {
+                String artgId = row[6].trim();
+                if (artgId.isEmpty() || artgId.length() > 18 || !artgId.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                    String message = "Invalid ARTG id '" + row[6] + "' for concept " + conceptId + " in ARTG id reference set member " + row[0];
+                    logger.warning(message);
+                    testSuite.addTestCase("Invalid ARTG id", message, "Invalid_ARTG_id", "ERROR");
+                    if (exitOnError) {
+                        throw new RuntimeException(message);
+                    }
+                    return;
+                }
+                Concept concept = conceptCache.get(conceptId);
+                if (!concept.hasArtgId(Long.parseLong(artgId))) {
+                    concept.addArtgId(Long.parseLong(artgId));
+                    if (!artgId.equals(row[6])) {
+                        paddedArtgIds.computeIfAbsent(conceptId, id -> new HashMap<>()).put(Long.parseLong(artgId), row[6]);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of ARTG file", e);
+        }
+    }
+
+    private void handleHistoricalAssociationRefsetRow(String[] row) {
+        try {
+            if (isActive(row) && isAmtModule(row) && !isDescriptionId(row[5])) {
+                Concept replacementType = conceptCache.get(Long.parseLong(row[4]));
+                Concept inactiveConcept = conceptCache.get(Long.parseLong(row[5]));
+                Concept replacementConcept = conceptCache.get(Long.parseLong(row[6]));
+
+                replacements.add(Triple.of(inactiveConcept, replacementType, replacementConcept));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed processing row: " + row + " of History file", e);
+        }
+    }
+
+    static boolean isDescriptionId(String id) {
+        return id.substring(id.length() - 2, id.length() - 1).equals("1");
+    }
+
+    private void calculateTransitiveClosure() {
+        logger.info("Calculating transitive closure");
+        TransitiveClosure.INSTANCE.closeSimpleDirectedGraph(graph);
+        logger.info("Calculated transitive closure");
+    }
+
+    private boolean isActive(String[] row) {
+        return row[2].equals("1");
+    }
+
+    private boolean isAmtModule(String[] row) {
+        return row[3].equals(AMT_MODULE_ID);
+    }
+
+    private boolean isPreferredLanguageRefsetRow(String[] row) {
+        return isActive(row) && isAmtOrMetadataModule(row) && row[6].equals(PREFERRED);
+    }
+
+    private boolean isAmtOrMetadataModule(String[] row) {
+        return row[3].equals(AMT_MODULE_ID) || row[3].equals(INTERNATIONAL_METADATA_MODULE) || row[3].equals(AU_METADATA_MODULE);
+    }
+
+    public Set<Triple<Concept, Concept, Concept>> getReplacementConcepts() {
+        return replacements;
+    }
+
+    /**
+     * @return the active CTPPs with the ARTG id, empty if there are none
+     * @throws IllegalStateException
+     *             if the release was only loaded to be validated
+     */
+    public List<Concept> getCtppsByArtgId(long artgId) {
+        checkLoadedForOutputs("ARTG id index");
+        return LongStream.of(artgIdIndex.getCtppIds(artgId)).mapToObj(ctpps::get).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the attributes of every concept other than IS_A relationships, with their role groups and concrete values
+     * @throws IllegalStateException
+     *             if the memory budget the release was loaded with does not hold attributes, or the release was only
+     *             loaded to be validated
+     */
+    public AttributeStore getAttributeStore() {
+        checkLoadedForOutputs("attribute store");
+        if (attributeStore == null) {
+            throw new IllegalStateException("Attributes were not loaded, as the memory budget does not hold them");
+        }
+        return attributeStore;
+    }
+
+    /**
+     * @return the replacements for inactive concepts resolved through any chain of inactive intermediate concepts
+     * @throws IllegalStateException
+     *             if the release was only loaded to be validated
+     */
+    public ReplacementIndex getReplacementIndex() {
+        checkLoadedForOutputs("replacement index");
+        return replacementIndex;
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if the release was only loaded to be validated, so the indexes the outputs need were not built
+     */
+    private void checkLoadedForOutputs(String index) {
+        if (validation != null) {
+            throw new IllegalStateException("The " + index + " is not built when a release is only loaded to be validated");
+        }
+    }
+
+    /**
+     * The index is built from the loaded concepts the first time it is asked for, so loading a release only to
+     * generate flat files does not pay for it. In low memory mode building it reads every term back from disk.
+     *
+     * @return full text index over the terms of the active products and substances
+     */
+    public synchronized TermIndex getTermIndex() {
+        if (termIndex == null) {
+            long start = System.currentTimeMillis();
+            termIndex = new TermIndex(conceptCache.values());
+            logger.info("Indexed the terms of " + termIndex.size() + " concepts in " + (System.currentTimeMillis() - start)
+                    + " milliseconds");
+        }
+        return termIndex;
+    }
+
+    /**
+     * Deletes any temporary files used in low memory mode. Terms of the cached concepts cannot be read once this is
+     * called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (termStore != null) {
+            termStore.close();
+        }
+        if (preferredDescriptionSorter != null) {
+            preferredDescriptionSorter.close();
+        }
+        if (descriptionSorter != null) {
+            descriptionSorter.close();
+        }
+    }
+
+    /**
+     * Reads the rows of a tab separated file with a header, passing the rows accepted by the filter to the handler in
+     * file order. Files in an extracted release are split into chunks which are parsed and filtered in parallel, files
+     * in a ZIP file are inflated on the current thread and parsed and filtered in parallel in batches of lines, so the
+     * filter must only depend on the row. Handlers are always called on the current thread.
+     */
+    private void readRows(Path path, Predicate<String[]> filter, Consumer<String[]> handler) throws IOException {
+        if (ChunkedFileReader.canRead(path)) {
+            ChunkedFileReader.read(path, true, "\t", RowReducer.filtering(filter, handler), threading);
+        } else {
+            PipelinedRowReader.read(path, true, "\t", RowReducer.filtering(filter, handler), threading);
+        }
+        logger.info("Processed " + path);
+    }
+
+    @SuppressWarnings("resource")
+    public static void readFile(Path path, Consumer<String[]> consumer, boolean hasHeader, String delimiter)
+            throws IOException {
+        Stream<String> stream = Files.lines(path);
+        if (hasHeader) {
+            stream = stream.skip(1);
+        }
+        stream.map(s -> s.split(delimiter, -1)).forEach(consumer);
+        stream.close();
+        logger.info("Processed " + path);
+    }
+}
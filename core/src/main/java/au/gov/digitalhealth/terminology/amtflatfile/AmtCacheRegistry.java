@@ -0,0 +1,81 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Shares built {@link AmtCache} instances between executions in the same JVM, so several Mojo executions in one Maven
+ * session generating files from the same release load it once. Caches are only softly referenced and are discarded if
+ * the heap is needed, in which case the next execution loads the release again.
+ * <p>
+ * Errors detected while loading a release are recorded once in the suite the cache was loaded with, and each execution
+ * using the cache copies them into its own suite.
+ */
+final class AmtCacheRegistry {
+
+    private static final Logger logger = Logger.getLogger(AmtCacheRegistry.class.getCanonicalName());
+
+    private static final ConcurrentMap<String, Holder> caches = new ConcurrentHashMap<>();
+
+    interface Loader {
+        AmtCache load(JUnitTestSuite_EXT loadSuite) throws IOException;
+    }
+
+    static final class Loaded {
+        private final AmtCache cache;
+
+        private final JUnitTestSuite_EXT loadSuite;
+
+        private Loaded(AmtCache cache, JUnitTestSuite_EXT loadSuite) {
+            this.cache = cache;
+            this.loadSuite = loadSuite;
+        }
+
+        AmtCache getCache() {
+            return cache;
+        }
+
+        JUnitTestSuite_EXT getLoadSuite() {
+            return loadSuite;
+        }
+    }
+
+    private static final class Holder {
+        private SoftReference<Loaded> loaded = new SoftReference<>(null);
+
+        /**
+         * Synchronized per release, so concurrent executions for the same release wait for one load while other releases
+         * load in parallel
+         */
+        private synchronized Loaded get(String key, Loader loader) throws IOException {
+            Loaded existing = loaded.get();
+            if (existing != null) {
+                logger.info("Reusing release already loaded in this JVM for " + key);
+                return existing;
+            }
+            JUnitTestSuite_EXT loadSuite = new JUnitTestSuite_EXT();
+            Loaded created = new Loaded(loader.load(loadSuite), loadSuite);
+            loaded = new SoftReference<>(created);
+            return created;
+        }
+    }
+
+    private AmtCacheRegistry() {
+    }
+
+    /**
+     * @param key
+     *            identifies the release and every setting affecting how it is loaded
+     * @return the cache already loaded for the key, or the cache loaded by the loader
+     */
+    static Loaded get(String key, Loader loader) throws IOException {
+        return caches.computeIfAbsent(key, k -> new Holder()).get(key, loader);
+    }
+
+    static void clear() {
+        caches.clear();
+    }
+}
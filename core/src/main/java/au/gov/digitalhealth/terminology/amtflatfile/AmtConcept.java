@@ -20,9 +20,12 @@ public enum AmtConcept {
 
     private static HashMap<Long, AmtConcept> instanceMap = new HashMap<>();
 
+    private static HashMap<String, AmtConcept> idStringMap = new HashMap<>();
+
     static {
         for (AmtConcept instance : AmtConcept.values()) {
             instanceMap.put(instance.id, instance);
+            idStringMap.put(instance.getIdString(), instance);
         }
     }
 
@@ -54,8 +57,19 @@ public enum AmtConcept {
         return fromId(Long.parseLong(idString));
     }
 
+    /**
+     * @return true if the id is one of the values, false if it is not or is not a valid id, such as a malformed id in
+     *         an RF2 file
+     */
     public static boolean isEnumValue(String idString) {
-        return instanceMap.containsKey(Long.parseLong(idString));
+        if (idStringMap.containsKey(idString)) {
+            return true;
+        }
+        try {
+            return instanceMap.containsKey(Long.parseLong(idString));
+        } catch (NumberFormatException e) {
+            return false;
+        }
     }
 
     public static boolean isEnumValue(long id) {
@@ -0,0 +1,72 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Maps ARTG ids to the CTPPs they identify. An ARTG id normally identifies one CTPP but can identify several. The
+ * mapping is held as two parallel arrays of primitive longs sorted by ARTG id and then CTPP SCTID, so a lookup is a
+ * binary search with no boxing, and the index costs 16 bytes per ARTG id of each CTPP.
+ */
+final class ArtgIdIndex {
+
+    private final long[] artgIds;
+
+    private final long[] ctppIds;
+
+    ArtgIdIndex(Collection<Concept> ctpps) {
+        int size = 0;
+        for (Concept ctpp : ctpps) {
+            size += ctpp.getArtgIds().length;
+        }
+
+        long[][] pairs = new long[size][];
+        int next = 0;
+        for (Concept ctpp : ctpps) {
+            for (long artgId : ctpp.getArtgIds()) {
+                pairs[next++] = new long[] { artgId, ctpp.getId() };
+            }
+        }
+        Arrays.sort(pairs, Comparator.<long[]> comparingLong(pair -> pair[0]).thenComparingLong(pair -> pair[1]));
+
+        artgIds = new long[size];
+        ctppIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            artgIds[i] = pairs[i][0];
+            ctppIds[i] = pairs[i][1];
+        }
+    }
+
+    /**
+     * @return the SCTIDs of the CTPPs with the ARTG id in ascending order, empty if there are none
+     */
+    long[] getCtppIds(long artgId) {
+        int found = Arrays.binarySearch(artgIds, artgId);
+        if (found < 0) {
+            return new long[0];
+        }
+        int from = found;
+        while (from > 0 && artgIds[from - 1] == artgId) {
+            from--;
+        }
+        int to = found + 1;
+        while (to < artgIds.length && artgIds[to] == artgId) {
+            to++;
+        }
+        return Arrays.copyOfRange(ctppIds, from, to);
+    }
+
+    /**
+     * @return the number of distinct ARTG ids
+     */
+    int size() {
+        int distinct = 0;
+        for (int i = 0; i < artgIds.length; i++) {
+            if (i == 0 || artgIds[i] != artgIds[i - 1]) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+}
@@ -0,0 +1,150 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Formats the values of the attribute columns of the flat file from the {@link AttributeStore} of a loaded release.
+ * Each column can have several values, for example one strength per active ingredient, which are sorted and separated
+ * by " | ". Concepts are named by their preferred terms, or their SCTIDs if they are not in the release.
+ * <p>
+ * Values for a concept are formatted once and remembered, as the same MPUU appears in many rows, so instances must only
+ * be used by one thread at a time.
+ */
+final class AttributeColumns {
+
+    static final String SEPARATOR = " | ";
+
+    private final AmtCache conceptCache;
+
+    private final AttributeStore attributes;
+
+    private final Map<FlatFileColumn, Map<Long, String>> formatted = new EnumMap<>(FlatFileColumn.class);
+
+    AttributeColumns(AmtCache conceptCache) {
+        this.conceptCache = conceptCache;
+        this.attributes = conceptCache.getAttributeStore();
+    }
+
+    /**
+     * @return the column's value for the row, without quotes
+     */
+    String format(FlatFileColumn column, FlatFileRow row) {
+        switch (column) {
+            case MPUU_INGREDIENTS:
+                return formatted.computeIfAbsent(column, c -> new HashMap<>())
+                    .computeIfAbsent(row.getMpuu().getId(), this::ingredients);
+            case MPUU_STRENGTHS:
+                return formatted.computeIfAbsent(column, c -> new HashMap<>())
+                    .computeIfAbsent(row.getMpuu().getId(), this::strengths);
+            case TPP_PACK_QUANTITY:
+                return packQuantity(row.getTpp().getId(), row.getTpuu() == null ? 0 : row.getTpuu().getId());
+            default:
+                throw new IllegalArgumentException(column + " is not an attribute column");
+        }
+    }
+
+    /**
+     * @return the intended active ingredients of the MPUU
+     */
+    private String ingredients(long mpuu) {
+        TreeSet<String> ingredients = new TreeSet<>();
+        int handle = attributes.handle(mpuu);
+        if (handle >= 0) {
+            for (int a = attributes.first(handle); a < attributes.end(handle); a++) {
+                if (attributes.getType(a) == AttributeType.HAS_INTENDED_ACTIVE_INGREDIENT) {
+                    ingredients.add(term(attributes.getDestination(a)));
+                }
+            }
+        }
+        return String.join(SEPARATOR, ingredients);
+    }
+
+    /**
+     * @return the strength of each basis of strength substance of the MPUU, such as "paracetamol 500 mg". The value is
+     *         the concrete value of the BoSS relationship or of a STRENGTH relationship in its role group, and the unit
+     *         that of the value or, failing that, the numerator and denominator units in the role group.
+     */
+    private String strengths(long mpuu) {
+        TreeSet<String> strengths = new TreeSet<>();
+        int handle = attributes.handle(mpuu);
+        if (handle < 0) {
+            return "";
+        }
+        int first = attributes.first(handle);
+        int end = attributes.end(handle);
+        for (int boss = first; boss < end; boss++) {
+            if (attributes.getType(boss) != AttributeType.HAS_AUSTRALIAN_BOSS) {
+                continue;
+            }
+            int value = attributes.hasValue(boss) ? boss : -1;
+            long numerator = 0;
+            long denominator = 0;
+            for (int a = first; a < end; a++) {
+                if (attributes.getGroup(a) != attributes.getGroup(boss) || attributes.getGroup(boss) == 0) {
+                    continue;
+                }
+                if (attributes.getType(a) == AttributeType.STRENGTH && value < 0 && attributes.hasValue(a)) {
+                    value = a;
+                } else if (attributes.getType(a) == AttributeType.HAS_NUMERATOR_UNITS) {
+                    numerator = attributes.getDestination(a);
+                } else if (attributes.getType(a) == AttributeType.HAS_DENOMINATOR_UNITS) {
+                    denominator = attributes.getDestination(a);
+                }
+            }
+
+            StringBuilder strength = new StringBuilder(term(attributes.getDestination(boss)));
+            if (value >= 0) {
+                strength.append(' ').append(attributes.getValue(value));
+                if (attributes.getValueUnit(value) != 0) {
+                    strength.append(' ').append(term(attributes.getValueUnit(value)));
+                } else if (numerator != 0) {
+                    strength.append(' ').append(term(numerator));
+                    if (denominator != 0) {
+                        strength.append('/').append(term(denominator));
+                    }
+                }
+            }
+            strengths.add(strength.toString());
+        }
+        return String.join(SEPARATOR, strengths);
+    }
+
+    /**
+     * @return the quantity of units of use in the TPP, such as "20 tablet", from the role group for the TPUU if it has
+     *         one, otherwise from every role group
+     */
+    private String packQuantity(long tpp, long tpuu) {
+        int handle = attributes.handle(tpp);
+        if (handle < 0) {
+            return "";
+        }
+        int first = attributes.first(handle);
+        int end = attributes.end(handle);
+        List<Integer> tpuuGroups = new ArrayList<>();
+        for (int a = first; a < end; a++) {
+            if (attributes.getType(a) == AttributeType.HAS_TPUU && attributes.getDestination(a) == tpuu) {
+                tpuuGroups.add(attributes.getGroup(a));
+            }
+        }
+
+        TreeSet<String> quantities = new TreeSet<>();
+        for (int a = first; a < end; a++) {
+            if (attributes.getType(a) == AttributeType.UNIT_OF_USE_QUANTITY && attributes.hasValue(a)
+                    && (tpuuGroups.isEmpty() || tpuuGroups.contains(attributes.getGroup(a)))) {
+                long unit = attributes.getValueUnit(a) != 0 ? attributes.getValueUnit(a) : attributes.getDestination(a);
+                quantities.add(attributes.getValue(a) + " " + term(unit));
+            }
+        }
+        return String.join(SEPARATOR, quantities);
+    }
+
+    private String term(long id) {
+        Concept concept = conceptCache.getConcept(id);
+        return concept == null || concept.getPreferredTerm() == null ? Long.toString(id) : concept.getPreferredTerm();
+    }
+}
@@ -0,0 +1,229 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the typed, role grouped attributes of AMT concepts, that is their active relationships other than IS_A, along
+ * with any concrete value such as a strength or quantity given for a relationship by a concrete domain reference set.
+ * <p>
+ * Attributes are held in columns of primitive arrays in compressed sparse row form. Each concept with attributes has a
+ * handle, its position in a sorted array of concept SCTIDs, and the attributes of the concept with handle h are those
+ * from {@link #first(int) first(h)} up to but excluding {@link #end(int) end(h)}, in the order they were read. Concrete
+ * values are held in separate smaller columns as few attributes have one.
+ */
+public final class AttributeStore {
+
+    private static final AttributeType[] TYPES = AttributeType.values();
+
+    private final long[] conceptIds;
+
+    private final int[] offsets;
+
+    private final byte[] types;
+
+    private final int[] groups;
+
+    private final long[] destinations;
+
+    private final long[] relationshipIds;
+
+    private final int[] valueIndexes;
+
+    private final long[] valueUnits;
+
+    private final long[] valueOperators;
+
+    private final String[] values;
+
+    private AttributeStore(Builder builder) {
+        int size = builder.size;
+        long[] sources = Arrays.copyOf(builder.sources, size);
+
+        long[] sorted = sources.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        conceptIds = Arrays.copyOf(sorted, distinct);
+
+        // counting sort by handle, stable so each concept's attributes stay in the order they were read
+        int[] handles = new int[size];
+        offsets = new int[distinct + 1];
+        for (int i = 0; i < size; i++) {
+            handles[i] = Arrays.binarySearch(conceptIds, sources[i]);
+            offsets[handles[i] + 1]++;
+        }
+        for (int h = 0; h < distinct; h++) {
+            offsets[h + 1] += offsets[h];
+        }
+        int[] next = Arrays.copyOf(offsets, distinct);
+
+        types = new byte[size];
+        groups = new int[size];
+        destinations = new long[size];
+        relationshipIds = new long[size];
+        valueIndexes = new int[size];
+        int valueCount = 0;
+        for (int i = 0; i < size; i++) {
+            int to = next[handles[i]]++;
+            types[to] = builder.types[i];
+            groups[to] = builder.groups[i];
+            destinations[to] = builder.destinations[i];
+            relationshipIds[to] = builder.relationshipIds[i];
+            Integer value = builder.valueIndexes.get(builder.relationshipIds[i]);
+            valueIndexes[to] = value == null ? -1 : valueCount++;
+        }
+
+        valueUnits = new long[valueCount];
+        valueOperators = new long[valueCount];
+        values = new String[valueCount];
+        for (int i = 0; i < size; i++) {
+            if (valueIndexes[i] >= 0) {
+                int from = builder.valueIndexes.get(relationshipIds[i]);
+                valueUnits[valueIndexes[i]] = builder.valueUnits[from];
+                valueOperators[valueIndexes[i]] = builder.valueOperators[from];
+                values[valueIndexes[i]] = builder.values[from];
+            }
+        }
+    }
+
+    /**
+     * @return the concept's handle, or -1 if it has no attributes
+     */
+    public int handle(long conceptId) {
+        int handle = Arrays.binarySearch(conceptIds, conceptId);
+        return handle < 0 ? -1 : handle;
+    }
+
+    /**
+     * @return the index of the first attribute of the concept with the handle
+     */
+    public int first(int handle) {
+        return offsets[handle];
+    }
+
+    /**
+     * @return the index after the last attribute of the concept with the handle
+     */
+    public int end(int handle) {
+        return offsets[handle + 1];
+    }
+
+    /**
+     * @return the number of attributes held
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * @return the number of concepts with attributes
+     */
+    public int conceptCount() {
+        return conceptIds.length;
+    }
+
+    public AttributeType getType(int attribute) {
+        return TYPES[types[attribute]];
+    }
+
+    public int getGroup(int attribute) {
+        return groups[attribute];
+    }
+
+    public long getDestination(int attribute) {
+        return destinations[attribute];
+    }
+
+    public long getRelationshipId(int attribute) {
+        return relationshipIds[attribute];
+    }
+
+    public boolean hasValue(int attribute) {
+        return valueIndexes[attribute] >= 0;
+    }
+
+    /**
+     * @return the concrete value as written in the reference set, or null if the attribute has none
+     */
+    public String getValue(int attribute) {
+        return hasValue(attribute) ? values[valueIndexes[attribute]] : null;
+    }
+
+    /**
+     * @return the SCTID of the unit of the concrete value, or 0 if the attribute has none
+     */
+    public long getValueUnit(int attribute) {
+        return hasValue(attribute) ? valueUnits[valueIndexes[attribute]] : 0;
+    }
+
+    /**
+     * @return the SCTID of the operator of the concrete value, or 0 if the attribute has none
+     */
+    public long getValueOperator(int attribute) {
+        return hasValue(attribute) ? valueOperators[valueIndexes[attribute]] : 0;
+    }
+
+    /**
+     * Collects attributes and concrete values as they are read, in any order, then builds the store. Concrete values
+     * for relationships which are never added are discarded.
+     */
+    static final class Builder {
+        private int size;
+        private long[] sources = new long[1024];
+        private byte[] types = new byte[1024];
+        private int[] groups = new int[1024];
+        private long[] destinations = new long[1024];
+        private long[] relationshipIds = new long[1024];
+
+        private final Map<Long, Integer> valueIndexes = new HashMap<>();
+        private int valueCount;
+        private long[] valueUnits = new long[64];
+        private long[] valueOperators = new long[64];
+        private String[] values = new String[64];
+
+        void addAttribute(long relationshipId, long source, long destination, int group, AttributeType type) {
+            if (size == sources.length) {
+                int capacity = size * 2;
+                sources = Arrays.copyOf(sources, capacity);
+                types = Arrays.copyOf(types, capacity);
+                groups = Arrays.copyOf(groups, capacity);
+                destinations = Arrays.copyOf(destinations, capacity);
+                relationshipIds = Arrays.copyOf(relationshipIds, capacity);
+            }
+            sources[size] = source;
+            types[size] = (byte) type.ordinal();
+            groups[size] = group;
+            destinations[size] = destination;
+            relationshipIds[size] = relationshipId;
+            size++;
+        }
+
+        /**
+         * Records the concrete value given for a relationship, replacing any value already recorded for it
+         */
+        void addValue(long relationshipId, long unit, long operator, String value) {
+            Integer existing = valueIndexes.get(relationshipId);
+            int index = existing != null ? existing : valueCount++;
+            if (index == values.length) {
+                int capacity = index * 2;
+                valueUnits = Arrays.copyOf(valueUnits, capacity);
+                valueOperators = Arrays.copyOf(valueOperators, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            valueIndexes.put(relationshipId, index);
+            valueUnits[index] = unit;
+            valueOperators[index] = operator;
+            values[index] = value;
+        }
+
+        AttributeStore build() {
+            return new AttributeStore(this);
+        }
+    }
+}
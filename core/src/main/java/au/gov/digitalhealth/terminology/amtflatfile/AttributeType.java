@@ -29,9 +29,12 @@ public enum AttributeType {
 
     private static HashMap<Long, AttributeType> instanceMap = new HashMap<>();
 
+    private static HashMap<String, AttributeType> idStringMap = new HashMap<>();
+
     static {
         for (AttributeType instance : AttributeType.values()) {
             instanceMap.put(instance.id, instance);
+            idStringMap.put(instance.getIdString(), instance);
         }
     }
 
@@ -58,11 +61,23 @@ public enum AttributeType {
     }
 
     public static AttributeType fromIdString(String idString) {
-        return fromId(Long.parseLong(idString));
+        AttributeType instance = idStringMap.get(idString);
+        return instance != null ? instance : fromId(Long.parseLong(idString));
     }
 
+    /**
+     * @return true if the id is one of the values, false if it is not or is not a valid id, such as a malformed id in
+     *         an RF2 file
+     */
     public static boolean isEnumValue(String idString) {
-        return instanceMap.containsKey(Long.parseLong(idString));
+        if (idStringMap.containsKey(idString)) {
+            return true;
+        }
+        try {
+            return instanceMap.containsKey(Long.parseLong(idString));
+        } catch (NumberFormatException e) {
+            return false;
+        }
     }
 
 }
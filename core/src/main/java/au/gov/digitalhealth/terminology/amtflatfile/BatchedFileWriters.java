@@ -0,0 +1,227 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Writes a number of CSV files at the same time, each with its own writer thread from the job's {@link ThreadingProfile}.
+ * Lines are handed to the writer threads in batches through bounded queues, so the thread producing them waits for a
+ * slow writer rather than buffering whole files in memory.
+ * <p>
+ * The files are complete once {@link #finish()} returns. If the writers are closed without finishing, for example
+ * because generation failed, the threads are stopped and the incomplete files deleted.
+ */
+final class BatchedFileWriters implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(BatchedFileWriters.class.getCanonicalName());
+
+    private static final int BATCH_SIZE = 1024;
+
+    private static final int QUEUED_BATCHES_PER_FILE = 8;
+
+    private static final List<String> END_OF_LINES = Collections.emptyList();
+
+    private final Path[] files;
+
+    private final List<List<String>> batches = new ArrayList<>();
+
+    private final List<BlockingQueue<List<String>>> queues = new ArrayList<>();
+
+    private final List<Future<WrittenFile>> writers = new ArrayList<>();
+
+    private final ExecutorService executor;
+
+    private final ThreadingProfile threading;
+
+    private boolean finished;
+
+    /**
+     * @param threadName
+     *            name of the writer threads
+     * @param files
+     *            the files written, truncated if they exist
+     * @param headers
+     *            the header line written first to each file
+     * @param checksums
+     *            whether the SHA-256 checksum of each file is computed as it is written
+     * @param threading
+     *            creates the writer threads and counts the time spent waiting for them
+     */
+    BatchedFileWriters(String threadName, Path[] files, List<String> headers, boolean checksums, ThreadingProfile threading) {
+        this.files = files.clone();
+        this.threading = threading;
+
+        executor = threading.newIoExecutor(threadName, files.length);
+
+        for (int i = 0; i < files.length; i++) {
+            BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES_PER_FILE);
+            Path file = files[i];
+            String header = headers.get(i);
+            queues.add(queue);
+            batches.add(new ArrayList<>(BATCH_SIZE));
+            writers.add(executor.submit(() -> writeFile(file, header, queue, checksums, threading)));
+        }
+    }
+
+    /**
+     * Adds a line to a file, handing the file's batch to its writer thread once full
+     */
+    void write(int file, String line) throws IOException {
+        List<String> batch = batches.get(file);
+        batch.add(line);
+        if (batch.size() == BATCH_SIZE) {
+            handOff(file, batch);
+            batches.set(file, new ArrayList<>(BATCH_SIZE));
+        }
+    }
+
+    private void handOff(int file, List<String> batch) throws IOException {
+        if (queues.get(file).offer(batch)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            while (!queues.get(file).offer(batch, 1, TimeUnit.SECONDS)) {
+                if (writers.get(file).isDone()) {
+                    // the writer has failed, get() throws its exception
+                    getWrittenFile(file);
+                    throw new IOException("Writer for " + files[file] + " stopped unexpectedly");
+                }
+            }
+            threading.recordBlocked(System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing " + files[file], e);
+        }
+    }
+
+    private static WrittenFile writeFile(Path file, String header, BlockingQueue<List<String>> queue, boolean checksum,
+            ThreadingProfile threading) throws IOException, InterruptedException {
+        MessageDigest digest = checksum ? Hashing.sha256() : null;
+        long lines = 0;
+        OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+        try (BufferedWriter writer = new BufferedWriter(
+            new OutputStreamWriter(checksum ? new DigestOutputStream(out, digest) : out, StandardCharsets.UTF_8))) {
+            writer.write(header);
+            writer.newLine();
+            for (List<String> batch = take(queue, threading); batch != END_OF_LINES; batch = take(queue, threading)) {
+                for (String line : batch) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                lines += batch.size();
+            }
+        }
+        return new WrittenFile(file, lines, checksum ? Hashing.toHex(digest.digest()) : null);
+    }
+
+    private static List<String> take(BlockingQueue<List<String>> queue, ThreadingProfile threading)
+            throws InterruptedException {
+        List<String> batch = queue.poll();
+        if (batch == null) {
+            long start = System.nanoTime();
+            batch = queue.take();
+            threading.recordBlocked(System.nanoTime() - start);
+        }
+        return batch;
+    }
+
+    /**
+     * Flushes the remaining lines and waits for all files to be written, called once after all lines have been added
+     *
+     * @return the files written, in the order they were given
+     */
+    List<WrittenFile> finish() throws IOException {
+        for (int i = 0; i < files.length; i++) {
+            if (!batches.get(i).isEmpty()) {
+                handOff(i, batches.get(i));
+            }
+            handOff(i, END_OF_LINES);
+        }
+
+        List<WrittenFile> written = new ArrayList<>();
+        for (int i = 0; i < files.length; i++) {
+            written.add(getWrittenFile(i));
+        }
+        finished = true;
+        return written;
+    }
+
+    /**
+     * Stops the writer threads, deleting the files unless {@link #finish()} has completed
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        if (finished) {
+            return;
+        }
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warning("Writers did not stop, incomplete files may be left in place");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private WrittenFile getWrittenFile(int file) throws IOException {
+        try {
+            return writers.get(file).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + files[file], e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed writing " + files[file], e.getCause());
+        }
+    }
+
+    /**
+     * A file written, with the number of lines after its header and its SHA-256 checksum if computed
+     */
+    static final class WrittenFile {
+        private final Path file;
+        private final long lines;
+        private final String sha256;
+
+        private WrittenFile(Path file, long lines, String sha256) {
+            this.file = file;
+            this.lines = lines;
+            this.sha256 = sha256;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        long getLines() {
+            return lines;
+        }
+
+        String getSha256() {
+            return sha256;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands rows in batches to a consumer running on its own thread, for example one loading them into a database, so
+ * generating rows and consuming them overlap. Rows are copied into a fixed number of batches of reusable rows which
+ * are recycled once consumed, so no objects are allocated per row, and when every batch is waiting to be consumed the
+ * generator blocks until the consumer frees one.
+ * <p>
+ * If generation fails {@link #end()} is not called, so the sink should be closed to stop the consumer's thread.
+ */
+public final class BatchingRowSink implements FlatFileRowSink, AutoCloseable {
+
+    /**
+     * Consumes a batch of rows. The rows are reused for a later batch once this returns.
+     */
+    @FunctionalInterface
+    public interface BatchConsumer {
+        void accept(List<FlatFileRow> rows) throws Exception;
+    }
+
+    private static final class Batch {
+        private final FlatFileRow[] rows;
+        private int size;
+
+        Batch(int batchSize) {
+            rows = new FlatFileRow[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                rows[i] = new FlatFileRow();
+            }
+        }
+    }
+
+    private static final Batch END_OF_ROWS = new Batch(0);
+
+    private final BatchConsumer consumer;
+
+    private final BlockingQueue<Batch> free;
+
+    private final BlockingQueue<Batch> full;
+
+    private Batch batch;
+
+    private final ThreadingProfile threading;
+
+    private ExecutorService executor;
+
+    private Future<Long> consumed;
+
+    /**
+     * @param batchSize
+     *            the number of rows in each batch
+     * @param batches
+     *            the number of batches, so at most this many batches are waiting to be consumed before the generator
+     *            blocks
+     */
+    public BatchingRowSink(int batchSize, int batches, BatchConsumer consumer) {
+        this(batchSize, batches, consumer, new ThreadingProfile());
+    }
+
+    /**
+     * @param threading
+     *            the profile of the job generating the rows, which creates the consumer's thread and counts the time
+     *            spent waiting for it
+     */
+    public BatchingRowSink(int batchSize, int batches, BatchConsumer consumer, ThreadingProfile threading) {
+        if (batchSize < 1 || batches < 1) {
+            throw new IllegalArgumentException("Batch size and number of batches must be at least 1");
+        }
+        this.consumer = consumer;
+        this.threading = threading;
+        this.free = new ArrayBlockingQueue<>(batches);
+        this.full = new ArrayBlockingQueue<>(batches + 1);
+        for (int i = 0; i < batches; i++) {
+            free.add(new Batch(batchSize));
+        }
+    }
+
+    @Override
+    public void begin() throws IOException {
+        executor = threading.newIoExecutor("amt-row-batches", 1);
+        consumed = executor.submit(this::consume);
+    }
+
+    @Override
+    public void accept(FlatFileRow row) throws IOException {
+        if (batch == null) {
+            batch = takeFree();
+        }
+        batch.rows[batch.size++].set(row);
+        if (batch.size == batch.rows.length) {
+            full.add(batch);
+            batch = null;
+        }
+    }
+
+    private Batch takeFree() throws IOException {
+        Batch next = free.poll();
+        if (next != null) {
+            return next;
+        }
+        long start = System.nanoTime();
+        try {
+            while ((next = free.poll(1, TimeUnit.SECONDS)) == null) {
+                if (consumed.isDone()) {
+                    // the consumer has failed, get() throws its exception
+                    getConsumed();
+                    throw new IOException("Row consumer stopped unexpectedly");
+                }
+            }
+            threading.recordBlocked(System.nanoTime() - start);
+            return next;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the row consumer", e);
+        }
+    }
+
+    private long consume() throws Exception {
+        long rows = 0;
+        for (Batch next = full.take(); next != END_OF_ROWS; next = full.take()) {
+            consumer.accept(Arrays.asList(next.rows).subList(0, next.size));
+            rows += next.size;
+            next.size = 0;
+            free.add(next);
+        }
+        return rows;
+    }
+
+    /**
+     * Hands over the last batch and waits for every row to be consumed
+     */
+    @Override
+    public void end() throws IOException {
+        try {
+            if (batch != null) {
+                full.add(batch);
+                batch = null;
+            }
+            full.add(END_OF_ROWS);
+            getConsumed();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops the consumer if it is still waiting for rows
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of rows consumed, once {@link #end()} has returned
+     */
+    public long getRows() throws IOException {
+        return getConsumed();
+    }
+
+    private long getConsumed() throws IOException {
+        try {
+            return consumed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the row consumer", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Row consumer failed", e.getCause());
+        }
+    }
+}
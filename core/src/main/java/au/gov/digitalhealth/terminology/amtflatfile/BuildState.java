@@ -0,0 +1,171 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Records what an execution generated so a later execution with the same input and configuration can be skipped. The
+ * state is a properties file in a state directory, named after the flat file it describes, holding the parameters of
+ * the execution, a fingerprint of the input and the SHA-256 checksum of each output file written.
+ * <p>
+ * The input, a ZIP file or every file in an extracted release directory, is fingerprinted by the SHA-256 checksum of
+ * its content. Hashing a full release takes a second or two, so a recorded checksum is reused without reading the input
+ * again while the size and modification time of every input file are the same as when it was recorded.
+ */
+final class BuildState {
+
+    private static final String INPUT_STAMP = "input.stamp";
+
+    private static final String INPUT_SHA256 = "input.sha256";
+
+    private static final String PARAMETER = "parameter.";
+
+    private static final String OUTPUT = "output.";
+
+    private final Path stateFile;
+
+    private final Properties previous;
+
+    private final Map<String, String> parameters;
+
+    private final String inputStamp;
+
+    private final String inputSha256;
+
+    private BuildState(Path stateFile, Properties previous, Map<String, String> parameters, String inputStamp,
+            String inputSha256) {
+        this.stateFile = stateFile;
+        this.previous = previous;
+        this.parameters = parameters;
+        this.inputStamp = inputStamp;
+        this.inputSha256 = inputSha256;
+    }
+
+    /**
+     * Reads the state recorded by the last execution generating the output, if any, and fingerprints the input
+     */
+    static BuildState load(Path stateDirectory, Path output, Path input, Map<String, String> parameters) throws IOException {
+        Path stateFile = stateDirectory.resolve(
+            Hashing.toHex(Hashing.sha256().digest(output.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8)))
+                .substring(0, 16) + ".properties");
+        Properties previous = new Properties();
+        if (Files.isRegularFile(stateFile, LinkOption.NOFOLLOW_LINKS)) {
+            try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+                previous.load(reader);
+            }
+        }
+
+        String inputStamp = stamp(input);
+        String inputSha256 = inputStamp.equals(previous.getProperty(INPUT_STAMP)) && previous.getProperty(INPUT_SHA256) != null
+                ? previous.getProperty(INPUT_SHA256)
+                : contentSha256(input);
+        return new BuildState(stateFile, previous, new TreeMap<>(parameters), inputStamp, inputSha256);
+    }
+
+    Path getStateFile() {
+        return stateFile;
+    }
+
+    /**
+     * @return null if the last execution had the same input and parameters and all its outputs are unchanged,
+     *         otherwise why the outputs need to be generated again
+     */
+    String outOfDateReason() throws IOException {
+        if (previous.isEmpty()) {
+            return "there is no record of a previous execution in " + stateFile;
+        } else if (!inputSha256.equals(previous.getProperty(INPUT_SHA256))) {
+            return "the input has changed";
+        }
+
+        Map<String, String> previousParameters = new TreeMap<>();
+        for (String name : previous.stringPropertyNames()) {
+            if (name.startsWith(PARAMETER)) {
+                previousParameters.put(name.substring(PARAMETER.length()), previous.getProperty(name));
+            }
+        }
+        if (!previousParameters.equals(parameters)) {
+            return "the configuration has changed";
+        }
+
+        for (int i = 0; previous.getProperty(OUTPUT + i + ".path") != null; i++) {
+            Path output = Paths.get(previous.getProperty(OUTPUT + i + ".path"));
+            if (!Files.isRegularFile(output, LinkOption.NOFOLLOW_LINKS)
+                    || !Hashing.sha256(output).equals(previous.getProperty(OUTPUT + i + ".sha256"))) {
+                return "the output " + output + " is missing or has been modified";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the recorded state, so a failed execution is never mistaken for an up to date one
+     */
+    void invalidate() throws IOException {
+        Files.deleteIfExists(stateFile);
+    }
+
+    /**
+     * Records the state of a successful execution which wrote the outputs
+     */
+    void save(List<Path> outputs) throws IOException {
+        Properties state = new Properties();
+        state.setProperty(INPUT_STAMP, inputStamp);
+        state.setProperty(INPUT_SHA256, inputSha256);
+        for (Entry<String, String> parameter : parameters.entrySet()) {
+            state.setProperty(PARAMETER + parameter.getKey(), parameter.getValue());
+        }
+        for (int i = 0; i < outputs.size(); i++) {
+            state.setProperty(OUTPUT + i + ".path", outputs.get(i).toString());
+            state.setProperty(OUTPUT + i + ".sha256", Hashing.sha256(outputs.get(i)));
+        }
+
+        Files.createDirectories(stateFile.getParent());
+        try (Writer writer = Files.newBufferedWriter(stateFile, StandardCharsets.UTF_8)) {
+            state.store(writer, "AMT flat file generation state, delete to force generation");
+        }
+    }
+
+    /**
+     * @return a hash of the name, size and modification time of the file, or every regular file under the directory
+     */
+    static String stamp(Path input) throws IOException {
+        MessageDigest digest = Hashing.sha256();
+        for (Path file : files(input)) {
+            digest.update((input.relativize(file) + "\t" + Files.size(file) + "\t" + Files.getLastModifiedTime(file).toMillis() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        }
+        return Hashing.toHex(digest.digest());
+    }
+
+    private static String contentSha256(Path input) throws IOException {
+        if (!Files.isDirectory(input)) {
+            return Hashing.sha256(input);
+        }
+        MessageDigest digest = Hashing.sha256();
+        for (Path file : files(input)) {
+            digest.update((input.relativize(file) + "\n").getBytes(StandardCharsets.UTF_8));
+            Hashing.update(digest, file);
+        }
+        return Hashing.toHex(digest.digest());
+    }
+
+    private static List<Path> files(Path input) throws IOException {
+        try (Stream<Path> files = Files.walk(input)) {
+            return files.filter(file -> Files.isRegularFile(file)).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Reads a delimited text file on several threads. The file is split into chunks of about 4MB ending
+ * on line boundaries, and each chunk is memory mapped, decoded and split into rows on a worker thread, accumulating a
+ * partial result with a {@link RowReducer}. Partial results are merged on the calling thread in chunk order. The
+ * worker threads come from the job's {@link ThreadingProfile}, which counts the time spent waiting for them.
+ * <p>
+ * Memory mapping needs a file on the default file system, files inside a ZIP file must be read sequentially.
+ */
+final class ChunkedFileReader {
+
+    private static final Logger logger = Logger.getLogger(ChunkedFileReader.class.getCanonicalName());
+
+    private static final long CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private ChunkedFileReader() {
+    }
+
+    /**
+     * @return true if the file can be memory mapped and read in parallel
+     */
+    static boolean canRead(Path file) {
+        return file.getFileSystem() == FileSystems.getDefault();
+    }
+
+    static <P> void read(Path file, boolean hasHeader, String delimiter, RowReducer<P> reducer, ThreadingProfile threading)
+            throws IOException {
+        read(file, hasHeader, delimiter, reducer, CHUNK_BYTES, threading);
+    }
+
+    static <P> void read(Path file, boolean hasHeader, String delimiter, RowReducer<P> reducer, long chunkBytes,
+            ThreadingProfile threading) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<long[]> chunks = split(channel, chunkBytes);
+            Deque<Future<P>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            // a pool per file, shut down once it is read, so no threads are left running between loads
+            ExecutorService pool = threading.newCpuExecutor("amt-parse", THREADS);
+            try {
+                while (next < chunks.size() || !inFlight.isEmpty()) {
+                    // keep every thread busy without holding the partial results of the whole file
+                    while (next < chunks.size() && inFlight.size() < THREADS * 2) {
+                        long[] chunk = chunks.get(next);
+                        boolean skipHeader = hasHeader && next == 0;
+                        inFlight.add(pool.submit(() -> parse(channel, chunk[0], chunk[1], skipHeader, delimiter, reducer)));
+                        next++;
+                    }
+                    long waitStart = System.nanoTime();
+                    P partial = inFlight.poll().get();
+                    threading.recordBlocked(System.nanoTime() - waitStart);
+                    reducer.merge(partial);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted reading " + file, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException("Failed reading " + file, e.getCause());
+            } finally {
+                inFlight.forEach(f -> f.cancel(true));
+                pool.shutdownNow();
+            }
+            logger.fine("Read " + file + " in " + chunks.size() + " chunks");
+        }
+    }
+
+    /**
+     * @return start and end offsets of chunks of the file, each ending just after a line feed or at the end of the file
+     */
+    private static List<long[]> split(FileChannel channel, long chunkBytes) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkBytes);
+            while (end < size) {
+                buffer.clear();
+                int read = channel.read(buffer, end);
+                int lineFeed = -1;
+                for (int i = 0; i < read && lineFeed < 0; i++) {
+                    if (buffer.get(i) == '\n') {
+                        lineFeed = i;
+                    }
+                }
+                if (lineFeed >= 0) {
+                    end += lineFeed + 1;
+                    break;
+                }
+                end += read;
+            }
+            chunks.add(new long[] { start, end });
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static <P> P parse(FileChannel channel, long start, long end, boolean skipHeader, String delimiter, RowReducer<P> reducer) {
+        P partial = reducer.newPartial();
+        CharBuffer chars;
+        try {
+            MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, start, end - start);
+            chars = StandardCharsets.UTF_8.newDecoder().decode(mapped);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        char[] array = chars.array();
+        int offset = chars.arrayOffset();
+        int limit = offset + chars.limit();
+        boolean skip = skipHeader;
+        for (int lineStart = offset; lineStart < limit;) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && array[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && array[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (skip) {
+                skip = false;
+            } else {
+                reducer.accumulate(partial, new String(array, lineStart, lineEnd - lineStart).split(delimiter, -1));
+            }
+            lineStart = next;
+        }
+        return partial;
+    }
+}
@@ -0,0 +1,338 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Writes the transitive closure of the IS A hierarchy of the active AMT module concepts as a closure table, with a row
+ * for each concept and each of its ancestors holding the number of IS A relationships on the shortest path between
+ * them, so a database can answer subsumption queries with a join instead of a recursive query. A concept is not listed
+ * as its own ancestor, and metadata concepts are left out although paths through them are followed.
+ * <p>
+ * Rows are sorted by descendant SCTID then ancestor SCTID. The concepts are split into ranges of
+ * {@link #RANGE_CONCEPTS} descendants whose rows are found and encoded in parallel on a pool of platform threads from
+ * the job's {@link ThreadingProfile}, created for each write with one thread per processor as the work is CPU bound,
+ * and written in order as each range is ready, with no more than two ranges per thread held in memory. Each range walks
+ * the hierarchy with primitive tables reused for each of its concepts.
+ * <p>
+ * The table is written as CSV with the header {@link #HEADER}, and in PostgreSQL's binary COPY format for
+ * {@code COPY ... FROM ... WITH (FORMAT binary)} into a table of {@code bigint}, {@code bigint} and {@code integer}
+ * columns. That format is the {@link #COPY_SIGNATURE}, a 32 bit flags field and header extension length both 0, then
+ * for each row the 16 bit number of fields, 3, and each field as its 32 bit length followed by its big endian value,
+ * and ends with a 16 bit -1.
+ */
+final class ClosureTableWriter {
+
+    private static final Logger logger = Logger.getLogger(ClosureTableWriter.class.getCanonicalName());
+
+    static final String HEADER = "DESCENDANT SCTID,ANCESTOR SCTID,DEPTH";
+
+    static final byte[] COPY_SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 };
+
+    static final int RANGE_CONCEPTS = 2048;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final AmtCache conceptCache;
+
+    private final long[] conceptIds;
+
+    private final ThreadingProfile threading;
+
+    /**
+     * @param threading
+     *            creates the threads the rows are encoded on
+     */
+    ClosureTableWriter(AmtCache conceptCache, ThreadingProfile threading) {
+        this.conceptCache = conceptCache;
+        this.conceptIds = conceptCache.getAmtModuleConceptIds();
+        this.threading = threading;
+    }
+
+    /**
+     * Writes the closure table once to each file given
+     *
+     * @param csvFile
+     *            file to write the table to as CSV, or null
+     * @param copyFile
+     *            file to write the table to in the PostgreSQL binary COPY format, or null
+     * @return the number of rows in the table
+     */
+    long write(Path csvFile, Path copyFile) throws IOException {
+        long start = System.currentTimeMillis();
+        long rows = 0;
+        Deque<Future<Range>> pending = new ArrayDeque<>();
+        ExecutorService pool = threading.newCpuExecutor("amt-closure", THREADS);
+        try (OutputStream csv = open(csvFile); OutputStream copy = open(copyFile)) {
+            if (csv != null) {
+                csv.write(HEADER.getBytes(StandardCharsets.UTF_8));
+                csv.write(LINE_SEPARATOR);
+            }
+            if (copy != null) {
+                copy.write(COPY_SIGNATURE);
+                copy.write(new byte[8]);
+            }
+
+            int next = 0;
+            while (next < conceptIds.length || !pending.isEmpty()) {
+                while (next < conceptIds.length && pending.size() < THREADS * 2) {
+                    int from = next;
+                    int to = Math.min(conceptIds.length, from + RANGE_CONCEPTS);
+                    pending.add(pool.submit(() -> encode(from, to, csv != null, copy != null)));
+                    next = to;
+                }
+                Range range = await(pending.remove());
+                if (csv != null) {
+                    range.csv.writeTo(csv);
+                }
+                if (copy != null) {
+                    range.copy.writeTo(copy);
+                }
+                rows += range.rows;
+            }
+
+            if (copy != null) {
+                copy.write(0xff);
+                copy.write(0xff);
+            }
+        } finally {
+            pending.forEach(range -> range.cancel(true));
+            pool.shutdownNow();
+        }
+        logger.info("Wrote " + rows + " closure table rows for " + conceptIds.length + " concepts in "
+                + (System.currentTimeMillis() - start) + " milliseconds");
+        return rows;
+    }
+
+    /**
+     * @return true if the file starts with the PostgreSQL binary COPY signature
+     */
+    static boolean isCopyFile(Path path) throws IOException {
+        byte[] signature = new byte[COPY_SIGNATURE.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read = 0;
+            while (read < signature.length) {
+                int count = in.read(signature, read, signature.length - read);
+                if (count < 0) {
+                    return false;
+                }
+                read += count;
+            }
+        }
+        return Arrays.equals(signature, COPY_SIGNATURE);
+    }
+
+    /**
+     * @return the rows of the concepts from the index from up to the index to, encoded for each file written
+     */
+    private Range encode(int from, int to, boolean toCsv, boolean toCopy) {
+        Range range = new Range(toCsv, toCopy);
+        AncestorWalk walk = new AncestorWalk(conceptIds);
+        StringBuilder line = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            long descendant = conceptIds[i];
+            walk.walk(conceptCache.getConcept(descendant));
+            for (int a = 0; a < walk.ancestorCount; a++) {
+                long ancestor = walk.ancestors[a];
+                int depth = walk.depth(ancestor);
+                if (toCsv) {
+                    line.setLength(0);
+                    line.append(descendant).append(',').append(ancestor).append(',').append(depth);
+                    byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                    range.csv.write(bytes, 0, bytes.length);
+                    range.csv.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+                }
+                if (toCopy) {
+                    writeShort(range.copy, 3);
+                    writeInt(range.copy, 8);
+                    writeLong(range.copy, descendant);
+                    writeInt(range.copy, 8);
+                    writeLong(range.copy, ancestor);
+                    writeInt(range.copy, 4);
+                    writeInt(range.copy, depth);
+                }
+                range.rows++;
+            }
+        }
+        return range;
+    }
+
+    private static OutputStream open(Path file) throws IOException {
+        if (file == null) {
+            return null;
+        }
+        return new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), 1 << 16);
+    }
+
+    private static Range await(Future<Range> range) throws IOException {
+        try {
+            return range.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the closure table to be encoded", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException("Failed encoding the closure table", e.getCause());
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value >>> 16);
+        writeShort(out, value);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    /**
+     * Walks up the hierarchy from one concept at a time breadth first, so each ancestor is first reached by a shortest
+     * path. The depth of every concept reached is held in an open addressing table keyed by SCTID, which is never 0, and
+     * the ancestors in the AMT module are listed in ascending order. The tables are cleared rather than reallocated for
+     * the next concept.
+     */
+    private static final class AncestorWalk {
+
+        private final long[] moduleConceptIds;
+
+        private long[] keys = new long[64];
+
+        private int[] depths = new int[64];
+
+        private int[] usedSlots = new int[32];
+
+        private int size;
+
+        private Concept[] queue = new Concept[32];
+
+        private long[] ancestors = new long[32];
+
+        private int ancestorCount;
+
+        private AncestorWalk(long[] moduleConceptIds) {
+            this.moduleConceptIds = moduleConceptIds;
+        }
+
+        private void walk(Concept concept) {
+            for (int i = 0; i < size; i++) {
+                keys[usedSlots[i]] = 0;
+            }
+            size = 0;
+            ancestorCount = 0;
+
+            add(concept.getId(), 0);
+            queue[0] = concept;
+            int head = 0;
+            int tail = 1;
+            while (head < tail) {
+                Concept next = queue[head++];
+                int depth = depth(next.getId()) + 1;
+                for (Concept parent : next.getParents().values()) {
+                    if (add(parent.getId(), depth)) {
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, tail * 2);
+                        }
+                        queue[tail++] = parent;
+                        // metadata concepts are walked through but not listed
+                        if (Arrays.binarySearch(moduleConceptIds, parent.getId()) >= 0) {
+                            if (ancestorCount == ancestors.length) {
+                                ancestors = Arrays.copyOf(ancestors, ancestorCount * 2);
+                            }
+                            ancestors[ancestorCount++] = parent.getId();
+                        }
+                    }
+                }
+            }
+            Arrays.fill(queue, 0, tail, null);
+            Arrays.sort(ancestors, 0, ancestorCount);
+        }
+
+        /**
+         * @return true if the concept had not been reached, in which case its depth is recorded
+         */
+        private boolean add(long id, int depth) {
+            int mask = keys.length - 1;
+            int slot = (int) Hashing.mix(id) & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == id) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = id;
+            depths[slot] = depth;
+            usedSlots[size++] = slot;
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            return true;
+        }
+
+        private int depth(long id) {
+            int mask = keys.length - 1;
+            int slot = (int) Hashing.mix(id) & mask;
+            while (keys[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            return depths[slot];
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldDepths = depths;
+            int[] oldSlots = usedSlots;
+            keys = new long[oldKeys.length * 2];
+            depths = new int[keys.length];
+            usedSlots = new int[keys.length / 2];
+            int count = size;
+            size = 0;
+            for (int i = 0; i < count; i++) {
+                add(oldKeys[oldSlots[i]], oldDepths[oldSlots[i]]);
+            }
+        }
+    }
+
+    /**
+     * The encoded rows of a range of descendants
+     */
+    private static final class Range {
+
+        private final ByteArrayOutputStream csv;
+
+        private final ByteArrayOutputStream copy;
+
+        private long rows;
+
+        private Range(boolean toCsv, boolean toCopy) {
+            csv = toCsv ? new ByteArrayOutputStream() : null;
+            copy = toCopy ? new ByteArrayOutputStream() : null;
+        }
+    }
+}
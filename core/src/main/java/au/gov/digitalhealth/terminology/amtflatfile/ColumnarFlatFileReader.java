@@ -0,0 +1,425 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a flat file written in the columnar format of {@link ColumnarFlatFileWriter}. The file is memory mapped, and
+ * only the chunks of the columns asked for are decoded, so reading a few columns costs little more than their share of
+ * the file. Blocks of rows whose least and greatest values of a key column show they cannot hold a key in the range
+ * asked for are skipped without being decoded.
+ * <p>
+ * Instances can be shared by several threads, each reading with its own {@link Cursor}.
+ */
+public class ColumnarFlatFileReader implements Closeable {
+
+    private static final int SEGMENT_BITS = 30;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private static final int FOOTER_TRAILER = 8 + ColumnarFlatFileWriter.MAGIC.length;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer[] segments;
+
+    private final List<FlatFileColumn> columns = new ArrayList<>();
+
+    private final int[] blockRows;
+
+    private final long[][] chunkOffsets;
+
+    private final int[][] chunkLengths;
+
+    private final long[][] mins;
+
+    private final long[][] maxes;
+
+    private final long rowCount;
+
+    private final long[] conceptIds;
+
+    private final long[] termOffsets;
+
+    private final String[] terms;
+
+    public ColumnarFlatFileReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(MapMode.READ_ONLY, start, Math.min(size - start, 1L << SEGMENT_BITS));
+            }
+            if (size < ColumnarFlatFileWriter.MAGIC.length + FOOTER_TRAILER || !hasMagic(0)
+                    || !hasMagic(size - ColumnarFlatFileWriter.MAGIC.length)) {
+                throw new IllegalArgumentException(file + " is not a columnar flat file");
+            }
+
+            long position = getLong(size - FOOTER_TRAILER);
+            int columnCount = getInt(position);
+            position += 4;
+            for (int i = 0; i < columnCount; i++) {
+                int length = getShort(position);
+                columns.add(FlatFileColumn.valueOf(new String(getBytes(position + 2, length), StandardCharsets.UTF_8)));
+                position += 2 + length;
+            }
+
+            int blockCount = getInt(position);
+            position += 4;
+            blockRows = new int[blockCount];
+            chunkOffsets = new long[blockCount][columnCount];
+            chunkLengths = new int[blockCount][columnCount];
+            mins = new long[blockCount][columnCount];
+            maxes = new long[blockCount][columnCount];
+            for (int block = 0; block < blockCount; block++) {
+                blockRows[block] = getInt(position);
+                position += 4;
+                for (int column = 0; column < columnCount; column++) {
+                    chunkOffsets[block][column] = getLong(position);
+                    chunkLengths[block][column] = getInt(position + 8);
+                    mins[block][column] = getLong(position + 12);
+                    maxes[block][column] = getLong(position + 20);
+                    position += 28;
+                }
+            }
+
+            long[] dictionary = { getLong(position) };
+            int conceptCount = getInt(position + 8);
+            rowCount = getLong(position + 12);
+
+            conceptIds = new long[conceptCount];
+            termOffsets = new long[conceptCount];
+            terms = new String[conceptCount];
+            long previous = 0;
+            for (int handle = 0; handle < conceptCount; handle++) {
+                previous += unzigzag(readVarint(dictionary));
+                conceptIds[handle] = previous;
+                termOffsets[handle] = dictionary[0];
+                long length = readVarint(dictionary);
+                dictionary[0] += length == 0 ? 0 : length - 1;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the file starts with the magic bytes of the columnar format
+     */
+    static boolean isColumnarFile(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] start = new byte[ColumnarFlatFileWriter.MAGIC.length];
+            int read = 0;
+            for (int n = 0; read < start.length && n >= 0; read += n) {
+                n = in.read(start, read, start.length - read);
+                if (n < 0) {
+                    return false;
+                }
+            }
+            return Arrays.equals(start, ColumnarFlatFileWriter.MAGIC);
+        }
+    }
+
+    /**
+     * @return the columns in the file, in the order of the flat file header
+     */
+    public List<FlatFileColumn> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getBlockCount() {
+        return blockRows.length;
+    }
+
+    public int getBlockRows(int block) {
+        return blockRows[block];
+    }
+
+    /**
+     * @return the least value of the column in the block, an SCTID or ARTG id (0 for none), or a concept handle for a
+     *         term column
+     */
+    public long getMin(int block, FlatFileColumn column) {
+        return mins[block][columnIndex(column)];
+    }
+
+    /**
+     * @return the greatest value of the column in the block, an SCTID or ARTG id (0 for none), or a concept handle for a
+     *         term column
+     */
+    public long getMax(int block, FlatFileColumn column) {
+        return maxes[block][columnIndex(column)];
+    }
+
+    /**
+     * @return the number of bytes the column takes in the block
+     */
+    public int getChunkLength(int block, FlatFileColumn column) {
+        return chunkLengths[block][columnIndex(column)];
+    }
+
+    /**
+     * @return the number of concepts in the dictionary
+     */
+    public int getConceptCount() {
+        return conceptIds.length;
+    }
+
+    /**
+     * @return the SCTID of the concept with the handle
+     */
+    public long getConceptId(int handle) {
+        return conceptIds[handle];
+    }
+
+    /**
+     * @return the preferred term of the concept with the handle, or null if it has none
+     */
+    public String getTerm(int handle) {
+        String term = terms[handle];
+        if (term == null) {
+            long[] position = { termOffsets[handle] };
+            long length = readVarint(position);
+            if (length == 0) {
+                return null;
+            }
+            term = new String(getBytes(position[0], (int) length - 1), StandardCharsets.UTF_8);
+            terms[handle] = term;
+        }
+        return term;
+    }
+
+    /**
+     * @return a cursor over every row, decoding only the columns given
+     */
+    public Cursor read(List<FlatFileColumn> columns) {
+        return new Cursor(columns, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return a cursor over the rows whose key column is from the first to the last key inclusive, decoding only the
+     *         columns given and the key column, and only in blocks which may hold keys in the range
+     * @param key
+     *            an SCTID column or ARTG_ID
+     */
+    public Cursor read(List<FlatFileColumn> columns, FlatFileColumn key, long first, long last) {
+        if (key.isTerm()) {
+            throw new IllegalArgumentException("Rows can only be selected by an SCTID or ARTG_ID column, not " + key.getHeader());
+        }
+        return new Cursor(columns, key, first, last);
+    }
+
+    private int columnIndex(FlatFileColumn column) {
+        int index = columns.indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("The file has no " + column.getHeader() + " column");
+        }
+        return index;
+    }
+
+    /**
+     * Steps through the rows read, decoding a block of each column read at a time
+     */
+    public final class Cursor {
+
+        private final boolean[] decoded;
+
+        private final int key;
+
+        private final long first;
+
+        private final long last;
+
+        private final long[][] values;
+
+        private int block = -1;
+
+        private int row;
+
+        private Cursor(List<FlatFileColumn> requested, FlatFileColumn key, long first, long last) {
+            this.key = key == null ? -1 : columnIndex(key);
+            this.first = first;
+            this.last = last;
+            this.values = new long[columns.size()][];
+            this.decoded = new boolean[columns.size()];
+            for (FlatFileColumn column : requested) {
+                decoded[columnIndex(column)] = true;
+            }
+            if (this.key >= 0) {
+                decoded[this.key] = true;
+            }
+        }
+
+        /**
+         * Moves to the next row
+         *
+         * @return false if there are no more rows
+         */
+        public boolean next() {
+            while (true) {
+                if (block >= blockRows.length) {
+                    return false;
+                }
+                if (block >= 0 && ++row < blockRows[block]) {
+                    if (key < 0 || values[key][row] >= first && values[key][row] <= last) {
+                        return true;
+                    }
+                    continue;
+                }
+                if (!nextBlock()) {
+                    return false;
+                }
+                row = -1;
+            }
+        }
+
+        private boolean nextBlock() {
+            for (block++; block < blockRows.length; block++) {
+                if (key < 0 || maxes[block][key] >= first && mins[block][key] <= last) {
+                    for (int column = 0; column < decoded.length; column++) {
+                        if (decoded[column]) {
+                            decode(column);
+                        }
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void decode(int column) {
+            int rows = blockRows[block];
+            if (values[column] == null || values[column].length < rows) {
+                values[column] = new long[rows];
+            }
+            long[] chunk = values[column];
+            long[] position = { chunkOffsets[block][column] };
+            if (columns.get(column).isTerm()) {
+                for (int i = 0; i < rows; i++) {
+                    chunk[i] = readVarint(position);
+                }
+            } else {
+                long previous = 0;
+                for (int i = 0; i < rows; i++) {
+                    previous += unzigzag(readVarint(position));
+                    chunk[i] = previous;
+                }
+            }
+        }
+
+        private long value(FlatFileColumn column) {
+            int index = columnIndex(column);
+            if (!decoded[index]) {
+                throw new IllegalStateException("The " + column.getHeader() + " column is not being read");
+            } else if (block < 0 || block >= blockRows.length) {
+                throw new IllegalStateException("The cursor is not on a row");
+            }
+            return values[index][row];
+        }
+
+        /**
+         * @return the SCTID in an SCTID column, the SCTID of the concept whose term is in a term column, or the ARTG id
+         *         in the ARTG_ID column with 0 for none
+         */
+        public long getId(FlatFileColumn column) {
+            long value = value(column);
+            return column.isTerm() ? conceptIds[(int) value] : value;
+        }
+
+        /**
+         * @return the preferred term in a term column
+         */
+        public String getTerm(FlatFileColumn column) {
+            if (!column.isTerm()) {
+                throw new IllegalArgumentException(column.getHeader() + " is not a term column");
+            }
+            return ColumnarFlatFileReader.this.getTerm((int) value(column));
+        }
+
+        /**
+         * @return the column's value as written in the CSV flat file, without quotes
+         */
+        public String getValue(FlatFileColumn column) {
+            if (column.isTerm()) {
+                return getTerm(column);
+            }
+            long value = value(column);
+            return column.getSource() == FlatFileColumn.Source.ARTG_ID && value == 0 ? "" : Long.toString(value);
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+
+    private long readVarint(long[] position) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = get(position[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private byte[] getBytes(long position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = get(position + i);
+        }
+        return bytes;
+    }
+
+    private boolean hasMagic(long position) {
+        return Arrays.equals(getBytes(position, ColumnarFlatFileWriter.MAGIC.length), ColumnarFlatFileWriter.MAGIC);
+    }
+
+    private long getLong(long position) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | get(position + i) & 0xFF;
+        }
+        return value;
+    }
+
+    private int getInt(long position) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | get(position + i) & 0xFF;
+        }
+        return value;
+    }
+
+    private int getShort(long position) {
+        return (get(position) & 0xFF) << 8 | get(position + 1) & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
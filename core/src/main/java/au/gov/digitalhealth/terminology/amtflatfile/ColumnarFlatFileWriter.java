@@ -0,0 +1,235 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes the rows of the flat file in a binary columnar format, much smaller than the CSV file and quicker to read for
+ * analysis as a reader can decode only the columns it needs and skip blocks of rows which cannot match. Read with
+ * {@link ColumnarFlatFileReader}.
+ * <p>
+ * Rows are split into blocks of {@link #BLOCK_ROWS} rows, and each block holds one chunk per column of the standard
+ * flat file, written one after the other. In a chunk
+ * <ul>
+ * <li>SCTID columns hold each SCTID as the zigzag varint encoded difference from the SCTID in the row before in the
+ * block, or from 0 for the first row</li>
+ * <li>term columns hold the varint encoded handle of the concept in the dictionary, so each concept's term is written
+ * once however many rows it is in</li>
+ * <li>the ARTG_ID column is encoded as an SCTID column, with 0 for a row with no ARTG id</li>
+ * </ul>
+ * The file starts with {@link #MAGIC}, followed by the blocks, the dictionary and a footer, and ends with the offset of
+ * the footer and the magic again. The dictionary holds for each concept handle in turn its SCTID as a zigzag varint
+ * difference from the SCTID before, and its preferred term as a varint length plus one followed by the UTF-8 bytes, or
+ * a length of 0 if it has none. The footer, big endian, holds
+ * <ul>
+ * <li>the number of columns, and the name of each as a Java modified UTF-8 string</li>
+ * <li>the number of blocks, and for each block its number of rows and for each column the offset and length of its
+ * chunk and the least and greatest value in it, the SCTID for SCTID and ARTG_ID columns and the handle for terms</li>
+ * <li>the offset of the dictionary and the number of concepts in it</li>
+ * <li>the total number of rows</li>
+ * </ul>
+ */
+final class ColumnarFlatFileWriter implements FlatFileRowSink, Closeable {
+
+    private static final Logger logger = Logger.getLogger(ColumnarFlatFileWriter.class.getCanonicalName());
+
+    static final byte[] MAGIC = "AMTFFC01".getBytes(StandardCharsets.US_ASCII);
+
+    static final int BLOCK_ROWS = 1 << 16;
+
+    static final List<FlatFileColumn> COLUMNS = FlatFileColumn.defaults();
+
+    /**
+     * Growable buffer of one column's chunk in the current block
+     */
+    private static final class Chunk {
+        private byte[] bytes = new byte[4096];
+        private int length;
+        private long previous;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        void addDelta(long value) {
+            writeVarint(zigzag(value - previous));
+            previous = value;
+            range(value);
+        }
+
+        void addHandle(int handle) {
+            writeVarint(handle);
+            range(handle);
+        }
+
+        private void range(long value) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        private void writeVarint(long value) {
+            if (length + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void reset() {
+            length = 0;
+            previous = 0;
+            min = Long.MAX_VALUE;
+            max = Long.MIN_VALUE;
+        }
+    }
+
+    private final Path file;
+
+    private final OutputStream out;
+
+    private long position;
+
+    private final Chunk[] chunks = new Chunk[COLUMNS.size()];
+
+    private int blockRows;
+
+    private long rows;
+
+    private final List<long[]> blocks = new ArrayList<>();
+
+    private final Map<Long, Integer> handles = new HashMap<>();
+
+    private final List<Concept> dictionary = new ArrayList<>();
+
+    ColumnarFlatFileWriter(Path file) throws IOException {
+        this.file = file;
+        this.out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), 1 << 16);
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk();
+        }
+        write(MAGIC, MAGIC.length);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    @Override
+    public void accept(FlatFileRow row) throws IOException {
+        for (int i = 0; i < chunks.length; i++) {
+            FlatFileColumn column = COLUMNS.get(i);
+            if (column.getSource() == FlatFileColumn.Source.ARTG_ID) {
+                chunks[i].addDelta(row.getArtgId().isEmpty() ? 0 : Long.parseLong(row.getArtgId()));
+            } else if (column.isTerm()) {
+                chunks[i].addHandle(handle(column.getSource().of(row)));
+            } else {
+                chunks[i].addDelta(column.getSource().of(row).getId());
+            }
+        }
+        rows++;
+        if (++blockRows == BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    private int handle(Concept concept) {
+        Integer handle = handles.get(concept.getId());
+        if (handle == null) {
+            handle = dictionary.size();
+            handles.put(concept.getId(), handle);
+            dictionary.add(concept);
+        }
+        return handle;
+    }
+
+    /**
+     * Writes the block of rows accepted since the last block, recording for each column the offset, length, least and
+     * greatest value of its chunk
+     */
+    private void writeBlock() throws IOException {
+        long[] block = new long[1 + chunks.length * 4];
+        block[0] = blockRows;
+        for (int i = 0; i < chunks.length; i++) {
+            block[1 + i * 4] = position;
+            block[2 + i * 4] = chunks[i].length;
+            block[3 + i * 4] = chunks[i].min;
+            block[4 + i * 4] = chunks[i].max;
+            write(chunks[i].bytes, chunks[i].length);
+            chunks[i].reset();
+        }
+        blocks.add(block);
+        blockRows = 0;
+    }
+
+    private void write(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        position += length;
+    }
+
+    /**
+     * Writes the last block, the dictionary and the footer
+     */
+    @Override
+    public void end() throws IOException {
+        if (blockRows > 0) {
+            writeBlock();
+        }
+
+        long dictionaryOffset = position;
+        Chunk entry = new Chunk();
+        for (Concept concept : dictionary) {
+            entry.addDelta(concept.getId());
+            String term = concept.getPreferredTerm();
+            byte[] bytes = term == null ? new byte[0] : term.getBytes(StandardCharsets.UTF_8);
+            entry.writeVarint(term == null ? 0 : bytes.length + 1);
+            write(entry.bytes, entry.length);
+            write(bytes, bytes.length);
+            entry.length = 0;
+        }
+
+        long footerOffset = position;
+        DataOutputStream footer = new DataOutputStream(out);
+        footer.writeInt(COLUMNS.size());
+        for (FlatFileColumn column : COLUMNS) {
+            footer.writeUTF(column.name());
+        }
+        footer.writeInt(blocks.size());
+        for (long[] block : blocks) {
+            footer.writeInt((int) block[0]);
+            for (int i = 0; i < chunks.length; i++) {
+                footer.writeLong(block[1 + i * 4]);
+                footer.writeInt((int) block[2 + i * 4]);
+                footer.writeLong(block[3 + i * 4]);
+                footer.writeLong(block[4 + i * 4]);
+            }
+        }
+        footer.writeLong(dictionaryOffset);
+        footer.writeInt(dictionary.size());
+        footer.writeLong(rows);
+        footer.writeLong(footerOffset);
+        footer.write(MAGIC);
+        footer.flush();
+
+        logger.info("Wrote " + rows + " rows in " + blocks.size() + " blocks with " + dictionary.size() + " concepts to " + file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
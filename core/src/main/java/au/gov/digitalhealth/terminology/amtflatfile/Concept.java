@@ -2,22 +2,29 @@ package au.gov.digitalhealth.terminology.amtflatfile;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.LongFunction;
+import java.util.stream.Collectors;
 
 public class Concept {
 
+    private static final long[] NO_ARTG_IDS = new long[0];
+
     private long id;
     private String fullSpecifiedName;
     private String preferredTerm;
-    private Set<Concept> units = new HashSet<>();
-    private Map<Long, Concept> parents = new HashMap<>();
-    private Map<Long, Concept> ancestors = new HashMap<>();
-    private Set<Concept> tps = new HashSet<>();
-    private Set<String> artgIds = new HashSet<>();
+    // collections are created when first added to, most concepts never need most of them
+    private Set<Concept> units;
+    private Map<Long, Concept> parents;
+    private Map<Long, Concept> ancestors;
+    private Set<Concept> tps;
+    private long[] artgIds;
     private boolean active;
 
     public Concept(long id, boolean active) {
@@ -26,6 +33,9 @@ public class Concept {
     }
 
     public void addParent(Concept concept) {
+        if (parents == null) {
+            parents = new HashMap<>();
+        }
         parents.put(concept.getId(), concept);
     }
 
@@ -61,12 +71,12 @@ public class Concept {
     }
 
     public Set<Concept> getUnits() {
-        return units;
+        return units == null ? Collections.emptySet() : units;
     }
 
     public boolean hasOneMatchingParent(AmtConcept... amtConcept) {
         for (AmtConcept parent : amtConcept) {
-            if (parents.containsKey(parent.getId())) {
+            if (getParents().containsKey(parent.getId())) {
                 return true;
             }
         }
@@ -74,15 +84,15 @@ public class Concept {
     }
 
     public boolean hasParent(AmtConcept amtConcept) {
-        return parents.containsKey(amtConcept.getId());
+        return getParents().containsKey(amtConcept.getId());
     }
 
     public boolean hasParent(Concept concept) {
-        return parents.containsKey(concept.getId());
+        return getParents().containsKey(concept.getId());
     }
 
 	public Map<Long, Concept> getParents() {
-		return parents;
+		return parents == null ? Collections.emptyMap() : parents;
 	}
 
 	public String toConceptReference() {
@@ -90,10 +100,18 @@ public class Concept {
 	}
 
     public void addAncestors(Map<Long, Concept> map) {
+        if (map.isEmpty()) {
+            return;
+        } else if (ancestors == null) {
+            ancestors = new HashMap<>();
+        }
         ancestors.putAll(map);
     }
 
     public boolean hasAtLeastOneMatchingAncestor(AmtConcept... concepts) {
+        if (ancestors == null) {
+            return false;
+        }
         for (AmtConcept amtConcept : concepts) {
             if (ancestors.containsKey(amtConcept.getId())) {
                 return true;
@@ -104,6 +122,9 @@ public class Concept {
 
     public Collection<Concept> getAncestors(AmtConcept concept) {
         Collection<Concept> result = new ArrayList<>();
+        if (ancestors == null) {
+            return result;
+        }
         for (Concept ancestor : ancestors.values()) {
             if (ancestor.hasAtLeastOneMatchingAncestor(concept)) {
                 result.add(ancestor);
@@ -114,7 +135,7 @@ public class Concept {
 
     @Override
     public String toString() {
-        return "Concept [id=" + id + ", fullSpecifiedName=" + fullSpecifiedName + ", parents=" + parents + "]";
+        return "Concept [id=" + id + ", fullSpecifiedName=" + getFullSpecifiedName() + ", parents=" + getParents() + "]";
     }
 
     @Override
@@ -147,18 +168,66 @@ public class Concept {
     }
 
     public Set<Concept> getTps() {
-        return tps;
+        return tps == null ? Collections.emptySet() : tps;
     }
 
-    public void addArtgIds(String row) {
+    /**
+     * Adds an ARTG id unless the concept already has it. Concepts have very few ARTG ids so they are held in an array
+     * exactly as long as the number of ids.
+     */
+    public void addArtgId(long artgId) {
         if (artgIds == null) {
-            artgIds = new HashSet<>();
+            artgIds = new long[] { artgId };
+        } else if (!hasArtgId(artgId)) {
+            artgIds = Arrays.copyOf(artgIds, artgIds.length + 1);
+            artgIds[artgIds.length - 1] = artgId;
         }
-        artgIds.add(row);
     }
 
-    public Set<String> getArtgIds() {
-        return artgIds;
+    public boolean hasArtgId(long artgId) {
+        if (artgIds != null) {
+            for (long id : artgIds) {
+                if (id == artgId) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the concept's ARTG ids, which must not be modified, in the order rows are written for them once
+     *         {@link #normaliseArtgIds()} has been called
+     */
+    public long[] getArtgIds() {
+        return artgIds == null ? NO_ARTG_IDS : artgIds;
+    }
+
+    public void clearArtgIds() {
+        artgIds = null;
+    }
+
+    /**
+     * Puts the ARTG ids in the order the flat file has always listed them in, so the rows for each CTPP are written in
+     * the same order as earlier versions wrote them. That is the iteration order of a HashSet of the trimmed ids, added
+     * in the iteration order of a HashSet of the ids as they appeared in the reference set.
+     *
+     * @param asLoaded
+     *            gives the value an ARTG id had in the reference set, before it was trimmed
+     */
+    void normaliseArtgIds(LongFunction<String> asLoaded) {
+        if (artgIds != null && artgIds.length > 1) {
+            Set<String> loaded = new HashSet<>();
+            for (long artgId : artgIds) {
+                loaded.add(asLoaded.apply(artgId));
+            }
+            artgIds = loaded.stream()
+                .map(String::trim)
+                .collect(Collectors.toSet())
+                .stream()
+                .mapToLong(Long::parseLong)
+                .toArray();
+        }
     }
 
     public boolean isActive() {
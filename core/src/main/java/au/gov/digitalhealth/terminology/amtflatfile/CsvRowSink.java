@@ -0,0 +1,82 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import au.gov.digitalhealth.terminology.amtflatfile.FlatFileColumn.Source;
+
+/**
+ * Writes rows as the flat file CSV, a header line followed by a line per row, to any stream or channel, for example a
+ * file, a socket or {@code System.out}. The stream is buffered, flushed at the end of the rows and never closed, that is
+ * left to whoever opened it.
+ */
+public final class CsvRowSink implements FlatFileRowSink {
+
+    private final RowTemplate template;
+
+    private final OutputStream out;
+
+    private long rows;
+
+    /**
+     * Writes the standard columns of the flat file
+     */
+    public CsvRowSink(OutputStream out) {
+        this(out, FlatFileColumn.defaults(), null);
+    }
+
+    /**
+     * Writes the standard columns of the flat file
+     */
+    public CsvRowSink(WritableByteChannel channel) {
+        this(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * @param columns
+     *            the columns to write, in order
+     * @param conceptCache
+     *            the loaded release, needed if the columns include attribute columns, otherwise may be null
+     */
+    public CsvRowSink(OutputStream out, List<FlatFileColumn> columns, AmtCache conceptCache) {
+        this.template = RowTemplate.of(columns, conceptCache);
+        this.out = new BufferedOutputStream(out, 1 << 16);
+    }
+
+    /**
+     * @return the parts of each row the columns are taken from, to pass to {@link FlatFileGenerator} so it only looks
+     *         up those
+     */
+    public Set<Source> getSources() {
+        return template.getSources();
+    }
+
+    /**
+     * @return the number of rows written
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void begin() throws IOException {
+        out.write((template.getHeader() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void accept(FlatFileRow row) throws IOException {
+        template.write(row, out);
+        rows++;
+    }
+
+    @Override
+    public void end() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,216 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+/**
+ * Sorts records of a long key and a String value by key using a bounded amount of heap. Records are buffered until the
+ * estimated size of the buffer reaches the limit, then sorted and written to a temporary run file. Reading the records
+ * back merges the runs. Records with equal keys are returned in the order they were added.
+ */
+class ExternalSorter implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(ExternalSorter.class.getCanonicalName());
+
+    /**
+     * Rough heap cost of a buffered record excluding the characters of its value
+     */
+    private static final int RECORD_OVERHEAD_BYTES = 80;
+
+    private static final Comparator<Record> BY_KEY = Comparator.comparingLong(r -> r.key);
+
+    private final Path tempDirectory;
+
+    private final long bufferBytes;
+
+    private final String name;
+
+    private List<Record> buffer = new ArrayList<>();
+
+    private long bufferedBytes;
+
+    private final List<Path> runs = new ArrayList<>();
+
+    private long size;
+
+    ExternalSorter(String name, Path tempDirectory, long bufferBytes) {
+        this.name = name;
+        this.tempDirectory = tempDirectory;
+        this.bufferBytes = bufferBytes;
+    }
+
+    void add(long key, String value) throws IOException {
+        buffer.add(new Record(key, value));
+        bufferedBytes += RECORD_OVERHEAD_BYTES + 2L * value.length();
+        size++;
+        if (bufferedBytes >= bufferBytes) {
+            spill();
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(BY_KEY);
+        Path run = Files.createTempFile(tempDirectory, "amt-sort-" + name + "-", ".run");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (Record record : buffer) {
+                byte[] value = record.value.getBytes(StandardCharsets.UTF_8);
+                out.writeLong(record.key);
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+        logger.fine("Spilled " + buffer.size() + " " + name + " records to " + run);
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Sorts the records added so far and returns a cursor over them in key order. No more records can be added once
+     * this is called.
+     */
+    Cursor sorted() throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(BY_KEY);
+            List<Record> records = buffer;
+            buffer = null;
+            return new Cursor() {
+                int index = -1;
+
+                @Override
+                public boolean next() {
+                    return ++index < records.size();
+                }
+
+                @Override
+                public long key() {
+                    return records.get(index).key;
+                }
+
+                @Override
+                public String value() {
+                    return records.get(index).value;
+                }
+            };
+        }
+
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        buffer = null;
+        logger.info("Merging " + size + " " + name + " records from " + runs.size() + " sorted runs");
+        return new MergeCursor(runs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    /**
+     * Iterates sorted records, {@link #next()} must be called before reading the first record.
+     */
+    interface Cursor {
+        boolean next() throws IOException;
+
+        long key();
+
+        String value();
+    }
+
+    private static class Record {
+        private final long key;
+        private final String value;
+
+        Record(long key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static class Run {
+        private final int index;
+        private final DataInputStream in;
+        private long key;
+        private String value;
+
+        Run(int index, Path file) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        }
+
+        boolean read() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                in.close();
+                return false;
+            }
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            return true;
+        }
+    }
+
+    private static class MergeCursor implements Cursor {
+        // ties are broken by run index so records with equal keys keep the order they were added in
+        private final PriorityQueue<Run> heads =
+                new PriorityQueue<>(Comparator.<Run> comparingLong(r -> r.key).thenComparingInt(r -> r.index));
+        private final List<Run> pending = new ArrayList<>();
+        private Run current;
+
+        MergeCursor(List<Path> files) throws IOException {
+            for (int i = 0; i < files.size(); i++) {
+                pending.add(new Run(i, files.get(i)));
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            for (Run run : pending) {
+                if (run.read()) {
+                    heads.add(run);
+                }
+            }
+            pending.clear();
+
+            current = heads.poll();
+            if (current == null) {
+                return false;
+            }
+            pending.add(current);
+            return true;
+        }
+
+        @Override
+        public long key() {
+            return current.key;
+        }
+
+        @Override
+        public String value() {
+            return current.value;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The columns of the AMT flat file in the order of {@link FlatFileRow#HEADER}, each naming the part of the row it is
+ * taken from so a projection of the flat file knows which parts of each row it reads. These are followed by attribute
+ * columns, taken from the {@link AttributeStore}, which are only written when selected.
+ */
+public enum FlatFileColumn {
+
+    CTPP_SCTID("CTPP SCTID", Source.CTPP, false),
+    CTPP_PT("CTPP PT", Source.CTPP, true),
+    ARTG_ID("ARTG_ID", Source.ARTG_ID, false),
+    TPP_SCTID("TPP SCTID", Source.TPP, false),
+    TPP_PT("TPP PT", Source.TPP, true),
+    TPUU_SCTID("TPUU SCTID", Source.TPUU, false),
+    TPUU_PT("TPUU PT", Source.TPUU, true),
+    TPP_TP_SCTID("TPP TP SCTID", Source.TPP_TP, false),
+    TPP_TP_PT("TPP TP PT", Source.TPP_TP, true),
+    TPUU_TP_SCTID("TPUU TP SCTID", Source.TPUU_TP, false),
+    TPUU_TP_PT("TPUU TP PT", Source.TPUU_TP, true),
+    MPP_SCTID("MPP SCTID", Source.MPP, false),
+    MPP_PT("MPP PT", Source.MPP, true),
+    MPUU_SCTID("MPUU SCTID", Source.MPUU, false),
+    MPUU_PT("MPUU PT", Source.MPUU, true),
+    MP_SCTID("MP SCTID", Source.MP, false),
+    MP_PT("MP PT", Source.MP, true),
+    MPUU_INGREDIENTS("MPUU INGREDIENTS", Source.MPUU, true, true),
+    MPUU_STRENGTHS("MPUU STRENGTHS", Source.MPUU, true, true),
+    TPP_PACK_QUANTITY("TPP PACK QUANTITY", Source.TPP, true, true);
+
+    /**
+     * The part of a {@link FlatFileRow} a column is taken from
+     */
+    public enum Source {
+        CTPP, ARTG_ID, TPP, TPUU, TPP_TP, TPUU_TP, MPP, MPUU, MP;
+
+        Concept of(FlatFileRow row) {
+            switch (this) {
+                case CTPP:
+                    return row.getCtpp();
+                case TPP:
+                    return row.getTpp();
+                case TPUU:
+                    return row.getTpuu();
+                case TPP_TP:
+                    return row.getTppTp();
+                case TPUU_TP:
+                    return row.getTpuuTp();
+                case MPP:
+                    return row.getMpp();
+                case MPUU:
+                    return row.getMpuu();
+                case MP:
+                    return row.getMp();
+                default:
+                    throw new IllegalStateException(this + " is not a concept");
+            }
+        }
+    }
+
+    private final String header;
+
+    private final Source source;
+
+    private final boolean term;
+
+    private final boolean attribute;
+
+    private FlatFileColumn(String header, Source source, boolean term) {
+        this(header, source, term, false);
+    }
+
+    private FlatFileColumn(String header, Source source, boolean term, boolean attribute) {
+        this.header = header;
+        this.source = source;
+        this.term = term;
+        this.attribute = attribute;
+    }
+
+    /**
+     * @return the name of the column in the flat file header
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * @return true if the column is a preferred term, written quoted, rather than an id
+     */
+    public boolean isTerm() {
+        return term;
+    }
+
+    /**
+     * @return true if the column is taken from the concept's attributes, and is not one of the default columns
+     */
+    public boolean isAttribute() {
+        return attribute;
+    }
+
+    /**
+     * @return the columns of {@link FlatFileRow#HEADER}, written when no columns are selected
+     */
+    public static List<FlatFileColumn> defaults() {
+        return Collections.unmodifiableList(Arrays.stream(values()).filter(column -> !column.attribute).collect(Collectors.toList()));
+    }
+
+    /**
+     * Parses a comma separated list of columns, each given by its name in the flat file header, such as "CTPP SCTID",
+     * or by the name of the constant, such as "CTPP_SCTID", ignoring case
+     *
+     * @return the columns in the order listed, or the default columns if the list is null or blank
+     */
+    public static List<FlatFileColumn> parse(String columns) {
+        if (columns == null || columns.trim().isEmpty()) {
+            return defaults();
+        }
+        List<FlatFileColumn> parsed = new ArrayList<>();
+        for (String name : columns.split(",")) {
+            FlatFileColumn column = forName(name.trim());
+            if (parsed.contains(column)) {
+                throw new IllegalArgumentException("Column " + column.header + " is listed more than once in " + columns);
+            }
+            parsed.add(column);
+        }
+        return Collections.unmodifiableList(parsed);
+    }
+
+    private static FlatFileColumn forName(String name) {
+        for (FlatFileColumn column : values()) {
+            if (column.name().equalsIgnoreCase(name.replace(' ', '_'))) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column '" + name + "', expected one of "
+                + Arrays.stream(values()).map(FlatFileColumn::getHeader).collect(Collectors.joining(", ")));
+    }
+}
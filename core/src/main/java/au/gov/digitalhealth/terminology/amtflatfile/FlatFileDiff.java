@@ -0,0 +1,324 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Compares the AMT flat file rows of two releases, reporting the rows added, removed and changed between them and the
+ * concepts whose preferred terms changed. Each side of the comparison can be either a release ZIP, from which the rows
+ * are generated in memory, or a previously generated flat file.
+ * <p>
+ * Rows are matched on their CTPP, TPUU, MP and ARTG id. Each row is reduced to a 64 bit hash of that key and a 64 bit
+ * hash of its content, computed in parallel, so rows are only decoded again if they differ. The hashes for a flat file
+ * are saved in a sidecar next to it and reused by later comparisons against the same file. Flat files compared must
+ * have the default columns, one written with other columns is rejected.
+ */
+public class FlatFileDiff {
+
+    private static final int[][] CONCEPT_COLUMNS = { { 0, 1 }, { 3, 4 }, { 5, 6 }, { 7, 8 }, { 9, 10 }, { 11, 12 }, { 13, 14 },
+            { 15, 16 } };
+
+    private static final Logger logger = Logger.getLogger(FlatFileDiff.class.getCanonicalName());
+
+    private String fromPath;
+
+    private String toPath;
+
+    private String outputFilePath;
+
+    private String termChangesFilePath;
+
+    private String saveFlatFilePath;
+
+    private boolean exitOnError;
+
+    private int added, removed, changed, termChanges;
+
+    public void execute() throws IOException {
+        ExecutorService loader = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<Side> fromFuture = CompletableFuture.supplyAsync(() -> load(fromPath, null), loader);
+            CompletableFuture<Side> toFuture = CompletableFuture.supplyAsync(() -> load(toPath, saveFlatFilePath), loader);
+
+            try (Side from = join(fromFuture, toFuture)) {
+                try (Side to = toFuture.join()) {
+                    compare(from, to);
+                }
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            loader.shutdown();
+        }
+        logger.info("Compared " + fromPath + " to " + toPath + ": " + added + " rows added, " + removed + " rows removed, " + changed
+                + " rows changed, " + termChanges + " preferred terms changed");
+    }
+
+    /**
+     * Waits for one side to load. If it fails the other side is closed once it has loaded, as it will not be compared.
+     */
+    private static Side join(CompletableFuture<Side> side, CompletableFuture<Side> other) {
+        try {
+            return side.join();
+        } catch (CompletionException e) {
+            other.thenAccept(loaded -> {
+                try {
+                    loaded.close();
+                } catch (IOException closeFailure) {
+                    logger.warning("Failed to close flat file " + closeFailure.getMessage());
+                }
+            });
+            throw e;
+        }
+    }
+
+    private void compare(Side from, Side to) throws IOException {
+        RowFingerprints before = from.getFingerprints();
+        RowFingerprints after = to.getFingerprints();
+        Map<String, String> termsBefore = new HashMap<>();
+        Map<String, String> termsAfter = new HashMap<>();
+
+        Path output = Paths.get(outputFilePath);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+            writer.write("CHANGE," + FlatFileRow.HEADER);
+            writer.newLine();
+
+            int i = 0, j = 0;
+            while (i < before.size() || j < after.size()) {
+                if (j == after.size() || (i < before.size() && before.key(i) < after.key(j))) {
+                    writeRow(writer, "REMOVED", from.line(before.position(i++)), termsBefore);
+                    removed++;
+                } else if (i == before.size() || after.key(j) < before.key(i)) {
+                    writeRow(writer, "ADDED", to.line(after.position(j++)), termsAfter);
+                    added++;
+                } else {
+                    if (before.hash(i) != after.hash(j)) {
+                        writeRow(writer, "CHANGED_FROM", from.line(before.position(i)), termsBefore);
+                        writeRow(writer, "CHANGED_TO", to.line(after.position(j)), termsAfter);
+                        changed++;
+                    }
+                    i++;
+                    j++;
+                }
+            }
+        }
+
+        Map<Long, String[]> changedTerms = new TreeMap<>();
+        for (Entry<String, String> entry : termsAfter.entrySet()) {
+            String previous = termsBefore.get(entry.getKey());
+            if (previous != null && !previous.equals(entry.getValue())) {
+                changedTerms.put(Long.parseLong(entry.getKey()), new String[] { previous, entry.getValue() });
+            }
+        }
+        termChanges = changedTerms.size();
+
+        if (termChangesFilePath != null && !termChangesFilePath.isEmpty()) {
+            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(termChangesFilePath), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writer.write(String.join(",", "SCTID", "PREVIOUS PT", "PT"));
+                writer.newLine();
+                for (Entry<Long, String[]> entry : changedTerms.entrySet()) {
+                    writer.write(String.join(",", entry.getKey().toString(), "\"" + entry.getValue()[0] + "\"",
+                        "\"" + entry.getValue()[1] + "\""));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private void writeRow(BufferedWriter writer, String change, String line, Map<String, String> terms) throws IOException {
+        writer.write(change);
+        writer.write(',');
+        writer.write(line);
+        writer.newLine();
+
+        String[] columns = FlatFileRow.parseCsv(line);
+        for (int[] concept : CONCEPT_COLUMNS) {
+            terms.put(columns[concept[0]], columns[concept[1]]);
+        }
+    }
+
+    private Side load(String path, String saveFlatFilePath) {
+        try {
+            if (path.toLowerCase().endsWith(".zip")) {
+                return new ReleaseSide(Paths.get(path), saveFlatFilePath == null ? null : Paths.get(saveFlatFilePath));
+            } else {
+                return new FlatFileSide(Paths.get(path));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed loading " + path, e);
+        }
+    }
+
+    private interface Side extends AutoCloseable {
+        RowFingerprints getFingerprints();
+
+        String line(long position) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static class FlatFileSide implements Side {
+        private final RowFingerprints fingerprints;
+        private final RowFingerprints.FlatFileLines lines;
+
+        FlatFileSide(Path flatFile) throws IOException {
+            lines = new RowFingerprints.FlatFileLines(flatFile);
+            try {
+                fingerprints = RowFingerprints.of(flatFile);
+            } catch (IOException | RuntimeException e) {
+                lines.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public RowFingerprints getFingerprints() {
+            return fingerprints;
+        }
+
+        @Override
+        public String line(long position) {
+            return lines.lineAt(position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            lines.close();
+        }
+    }
+
+    private class ReleaseSide implements Side {
+        private final RowFingerprints fingerprints;
+        private final List<String> lines = new ArrayList<>();
+
+        ReleaseSide(Path zip, Path saveFlatFile) throws IOException {
+            JUnitTestSuite_EXT testSuite = new JUnitTestSuite_EXT();
+            try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+                AmtCache conceptCache = new AmtCache(zipFileSystem, testSuite, exitOnError);
+                new FlatFileGenerator(conceptCache, testSuite, exitOnError).generate(row -> lines.add(row.toCsv()));
+            }
+            if (testSuite.getTestCases() != null && !testSuite.getTestCases().isEmpty()) {
+                logger.warning(testSuite.getTestCases().size() + " validation errors generating rows for " + zip
+                        + ", run Amt2FlatFile for details");
+            }
+            logger.info("Generated " + lines.size() + " rows from " + zip);
+
+            fingerprints = RowFingerprints.of(lines);
+            if (saveFlatFile != null) {
+                long[] offsets = save(saveFlatFile);
+                fingerprints.withPositions(i -> offsets[i])
+                    .write(RowFingerprints.sidecarFor(saveFlatFile), Files.size(saveFlatFile),
+                        Files.getLastModifiedTime(saveFlatFile).toMillis());
+            }
+        }
+
+        /**
+         * Writes the rows as a flat file, returning the byte offset each row was written at.
+         */
+        private long[] save(Path flatFile) throws IOException {
+            if (flatFile.getParent() != null) {
+                Files.createDirectories(flatFile.getParent());
+            }
+            long[] offsets = new long[lines.size()];
+            int lineSeparator = System.lineSeparator().length();
+            try (BufferedWriter writer = Files.newBufferedWriter(flatFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writer.write(FlatFileRow.HEADER);
+                writer.newLine();
+                long offset = FlatFileRow.HEADER.length() + lineSeparator;
+                for (int i = 0; i < lines.size(); i++) {
+                    offsets[i] = offset;
+                    writer.write(lines.get(i));
+                    writer.newLine();
+                    offset += lines.get(i).getBytes(StandardCharsets.UTF_8).length + lineSeparator;
+                }
+            }
+            logger.info("Saved flat file " + flatFile);
+            return offsets;
+        }
+
+        @Override
+        public RowFingerprints getFingerprints() {
+            return fingerprints;
+        }
+
+        @Override
+        public String line(long position) {
+            return lines.get((int) position);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public void setFromPath(String fromPath) {
+        this.fromPath = fromPath;
+    }
+
+    public void setToPath(String toPath) {
+        this.toPath = toPath;
+    }
+
+    public void setOutputFilePath(String outputFilePath) {
+        this.outputFilePath = outputFilePath;
+    }
+
+    public void setTermChangesFilePath(String termChangesFilePath) {
+        this.termChangesFilePath = termChangesFilePath;
+    }
+
+    public void setSaveFlatFilePath(String saveFlatFilePath) {
+        this.saveFlatFilePath = saveFlatFilePath;
+    }
+
+    public void setExitOnError(boolean exitOnError) {
+        this.exitOnError = exitOnError;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public int getChanged() {
+        return changed;
+    }
+
+    public int getTermChanges() {
+        return termChanges;
+    }
+}
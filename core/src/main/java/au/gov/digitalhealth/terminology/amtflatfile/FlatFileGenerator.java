@@ -0,0 +1,269 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import au.gov.digitalhealth.terminology.amtflatfile.FlatFileColumn.Source;
+
+/**
+ * Walks the AMT model held in an {@link AmtCache} producing the rows of the AMT flat file, validating the hierarchy as
+ * it goes. Validation failures are recorded in the test suite, and thrown as a RuntimeException if exitOnError is set.
+ * <p>
+ * Rows are passed to a {@link FlatFileRowSink} as they are produced, so code using the library can consume them
+ * directly, for example
+ *
+ * <pre>
+ * try (OutputStream out = Files.newOutputStream(path)) {
+ *     new FlatFileGenerator(conceptCache, testSuite, true).generate(new CsvRowSink(out));
+ * }
+ * </pre>
+ */
+public class FlatFileGenerator {
+
+    private static final Logger logger = Logger.getLogger(FlatFileGenerator.class.getCanonicalName());
+
+    private static final String[] NO_ARTG_ID = { "" };
+
+    private AmtCache conceptCache;
+
+    private JUnitTestSuite_EXT testSuite;
+
+    private boolean exitOnError;
+
+    private boolean needsTppTp;
+
+    private boolean needsTpuuTp;
+
+    private boolean needsMpp;
+
+    private boolean needsMp;
+
+    private boolean needsMpuu;
+
+    private boolean needsTpuu;
+
+    private boolean needsArtgId;
+
+    public FlatFileGenerator(AmtCache conceptCache, JUnitTestSuite_EXT testSuite, boolean exitOnError) {
+        this(conceptCache, testSuite, exitOnError, EnumSet.allOf(Source.class));
+    }
+
+    /**
+     * @param sources
+     *            the parts of each row sinks read, the others are left null and rows which would differ only in them
+     *            are produced once. The CTPP and TPP are always set. Every concept is still looked up, so the checks
+     *            made and the CTPPs and TPUUs rows are produced for are the same whichever parts are read.
+     */
+    public FlatFileGenerator(AmtCache conceptCache, JUnitTestSuite_EXT testSuite, boolean exitOnError, Set<Source> sources) {
+        this.conceptCache = conceptCache;
+        this.testSuite = testSuite;
+        this.exitOnError = exitOnError;
+        needsTppTp = sources.contains(Source.TPP_TP);
+        needsTpuuTp = sources.contains(Source.TPUU_TP);
+        needsMpp = sources.contains(Source.MPP);
+        needsMp = sources.contains(Source.MP);
+        needsMpuu = sources.contains(Source.MPUU);
+        needsTpuu = sources.contains(Source.TPUU);
+        needsArtgId = sources.contains(Source.ARTG_ID);
+    }
+
+    /**
+     * Passes every row to the sink, calling {@link FlatFileRowSink#begin()} before the first and
+     * {@link FlatFileRowSink#end()} after the last
+     */
+    public void generate(FlatFileRowSink sink) throws IOException {
+        generate(conceptCache.getCtpps().values(), sink);
+    }
+
+    /**
+     * Passes the rows of just the CTPPs given to the sink, in the same way
+     */
+    void generate(Collection<Concept> ctpps, FlatFileRowSink sink) throws IOException {
+        sink.begin();
+        FlatFileRow row = new FlatFileRow();
+        for (Concept ctpp : ctpps) {
+            generate(ctpp, row, sink);
+        }
+        sink.end();
+    }
+
+    /**
+     * Makes the checks generating the CTPPs' rows makes without producing the rows, returning early once cancelled.
+     * The CTPPs of the release can be split between threads, each validating its part with the same generator.
+     */
+    void validate(Collection<Concept> ctpps, BooleanSupplier cancelled) {
+        FlatFileRow row = new FlatFileRow();
+        for (Concept ctpp : ctpps) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            try {
+                generate(ctpp, row, r -> {
+                });
+            } catch (IOException e) {
+                // the sink does nothing so cannot fail
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void generate(Concept ctpp, FlatFileRow row, FlatFileRowSink sink) throws IOException {
+        Concept tpp = getParent(AmtConcept.TPP, AmtConcept.CTPP, ctpp);
+        if (tpp.getTps().size() != 1) {
+            String message = "TPUU " + tpp + " has too many TPs " + tpp.getTps();
+            testSuite.addTestCase("TPUU error", message, "TPUU has too many TPs (" + tpp + ")", "ERROR");
+            if (exitOnError) {
+                throw new RuntimeException(message);
+            }
+            return;
+        }
+        Concept tppTp = tpp.getTps().iterator().next();
+
+        Concept mpp = getParent(AmtConcept.MPP, AmtConcept.TPP, tpp);
+        String[] artgIds = needsArtgId ? artgIdColumns(ctpp) : NO_ARTG_ID;
+
+        Set<Concept> addedMpuus = new HashSet<>();
+        // without the TPUU or MP columns several TPUUs or MPs can give the same row
+        Set<List<Concept>> added = needsTpuu && needsMp ? null : new HashSet<>();
+        for (Concept tpuu : tpp.getUnits()) {
+            Concept tpuuTp = getParent(AmtConcept.TP, AmtConcept.TPUU, tpuu);
+            Concept mpuu = getParent(AmtConcept.MPUU, AmtConcept.TPUU, tpuu);
+            addedMpuus.add(mpuu);
+
+            Set<Concept> mps = getParents(AmtConcept.MP, AmtConcept.MPUU, mpuu);
+
+            if (tpuuTp == null || mpuu == null) {
+                continue;
+            }
+
+            for (Concept mp : mps) {
+                Concept tpuuColumn = needsTpuu ? tpuu : null;
+                Concept tpuuTpColumn = needsTpuuTp ? tpuuTp : null;
+                Concept mpuuColumn = needsMpuu ? mpuu : null;
+                Concept mpColumn = needsMp ? mp : null;
+                if (added != null && !added.add(Arrays.asList(tpuuColumn, tpuuTpColumn, mpuuColumn, mpColumn))) {
+                    continue;
+                }
+                for (String artgid : artgIds) {
+                    row.set(ctpp, artgid, tpp, tpuuColumn, needsTppTp ? tppTp : null, tpuuTpColumn, needsMpp ? mpp : null,
+                        mpuuColumn, mpColumn);
+                    sink.accept(row);
+                }
+            }
+        }
+
+        if (!mpp.getUnits().containsAll(addedMpuus) || !addedMpuus.containsAll(mpp.getUnits())) {
+
+            String message = "Mismatch between MPUUs from MPP "
+                    + mpp.getUnits().stream().map(c -> c.getId()).collect(Collectors.toList())
+                    + " and MPUUs added from TPUUs "
+                    + addedMpuus.stream().map(c -> c.getId()).collect(Collectors.toList())
+                    + " for MPP " + mpp;
+            logger.warning(message);
+
+            testSuite.addTestCase("Mismatch", message, "MPP mismatch (" + mpp.getId() + ")", "ERROR");
+        }
+    }
+
+    /**
+     * @return a sink passing on to the sink only the rows which differ in the parts given from every earlier row for the
+     *         same CTPP, for sinks reading fewer parts of each row than the generator was asked for
+     */
+    static FlatFileRowSink distinct(Set<Source> sources, FlatFileRowSink sink) {
+        return new FlatFileRowSink() {
+            private final Set<List<Object>> accepted = new HashSet<>();
+
+            private Concept ctpp;
+
+            @Override
+            public void begin() throws IOException {
+                sink.begin();
+            }
+
+            @Override
+            public void accept(FlatFileRow row) throws IOException {
+                if (row.getCtpp() != ctpp) {
+                    ctpp = row.getCtpp();
+                    accepted.clear();
+                }
+                List<Object> key = new ArrayList<>(sources.size());
+                for (Source source : sources) {
+                    key.add(source == Source.ARTG_ID ? row.getArtgId() : source.of(row));
+                }
+                if (accepted.add(key)) {
+                    sink.accept(row);
+                }
+            }
+
+            @Override
+            public void end() throws IOException {
+                sink.end();
+            }
+        };
+    }
+
+    /**
+     * @return the CTPP's ARTG ids, already validated and normalised when loaded, as the values of the ARTG_ID column, or
+     *         a single empty value if it has none
+     */
+    private static String[] artgIdColumns(Concept ctpp) {
+        long[] artgIds = ctpp.getArtgIds();
+        if (artgIds.length == 0) {
+            return NO_ARTG_ID;
+        }
+        String[] columns = new String[artgIds.length];
+        for (int i = 0; i < artgIds.length; i++) {
+            columns[i] = Long.toString(artgIds[i]);
+        }
+        return columns;
+    }
+
+    Concept getParent(AmtConcept parentType, AmtConcept current, Concept concept) {
+        Set<Concept> parents = getParents(parentType, current, concept).stream()
+            .collect(Collectors.toSet());
+
+        if (parents.size() != 1) {
+            String message = "Expected 1 parent of type " + parentType + " for concept " + concept + " but got " + parents;
+            testSuite.addTestCase("multiple parents", message, "Multiple parents (" + concept.getId() + ")", "ERROR");
+
+            if (exitOnError) {
+                throw new RuntimeException(message);
+            }
+            return null;
+        }
+        return parents.iterator().next();
+    }
+
+    Set<Concept> getParents(AmtConcept parentType, AmtConcept current, Concept concept) {
+        return getParents(parentType, current, Collections.singleton(concept));
+    }
+
+    Set<Concept> getParents(AmtConcept parentType, AmtConcept current, Set<Concept> concepts) {
+        Set<Concept> leafParents = new HashSet<>();
+
+        leafParents.addAll(concepts.stream()
+            .flatMap(c -> c.getAncestors(parentType).stream())
+            .filter(p -> !AmtConcept.isEnumValue(p.getId()))
+            .filter(p -> p.hasAtLeastOneMatchingAncestor(parentType))
+            .filter(p -> !p.hasAtLeastOneMatchingAncestor(current))
+            .collect(Collectors.toSet()));
+
+        Set<Concept> redunantAncestors =
+                leafParents.stream().flatMap(p -> p.getAncestors(parentType).stream()).collect(Collectors.toSet());
+
+        leafParents.removeAll(redunantAncestors);
+
+        return leafParents;
+    }
+}
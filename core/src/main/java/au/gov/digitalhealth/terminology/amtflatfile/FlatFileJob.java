@@ -0,0 +1,992 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.tuple.Triple;
+
+import au.gov.digitalhealth.terminology.amtflatfile.ReplacementIndex.ResolvedReplacement;
+
+/**
+ * Transforms a ZIP file, or extracted directory, of SNOMED CT-AU release files into an AMT flat file and the other
+ * outputs configured. Note it only really needs the snapshot files, and expects file names to match the release
+ * filename convention.
+ * <p>
+ * This is the engine behind the command line (Amt2FlatFileCli in the cli module) and the Maven Mojo (Amt2FlatFile in
+ * the mojo module), which only map their options onto it, so code using the library can also run it directly.
+ */
+public class FlatFileJob {
+
+    static final long MAX_ZIP_FILE_SIZE = 600000000;
+
+    private static final String COLUMNAR_MIME_TYPE = "application/octet-stream";
+
+    private static final String COPY_MIME_TYPE = "application/x-postgresql-copy";
+
+	private static final Logger logger = Logger.getLogger(FlatFileJob.class.getCanonicalName());
+
+	private JUnitTestSuite_EXT testSuite;
+
+	private String inputZipFilePath;
+
+    private String inputDirectoryPath;
+
+	private String outputFilePath;
+
+    private String replacementsOutputFilePath;
+
+    private String resolvedReplacementsOutputFilePath;
+
+	private String junitFilePath;
+
+    private boolean exitOnError;
+
+    private int shards = 1;
+
+    private String shardKey = ShardedFlatFileWriter.ShardKey.CTPP.name();
+
+    private boolean lowMemory;
+
+    private long maxZipFileSize = MAX_ZIP_FILE_SIZE;
+
+    private long maxFileSize = MemoryBudget.DEFAULT_MAX_FILE_SIZE;
+
+    private boolean sorted;
+
+    private String artgSortedOutputFilePath;
+
+    /**
+     * Path to also write the flat file to in the binary columnar format, not written if not set
+     */
+    private String columnarOutputFilePath;
+
+    /**
+     * Comma separated views to write next to the flat file, none if not set
+     */
+    private String views;
+
+    /**
+     * Path to write the closure table of the AMT hierarchy to as CSV, not written if not set
+     */
+    private String closureTableFilePath;
+
+    /**
+     * Path to write the closure table of the AMT hierarchy to in PostgreSQL's binary COPY format, not written if not set
+     */
+    private String closureCopyFilePath;
+
+    /**
+     * Comma separated flat file columns to write, in the order listed, all columns if not set
+     */
+    private String columns;
+
+    /**
+     * Off by default, the Mojo turns it on by default
+     */
+    private boolean incremental;
+
+    /**
+     * Only validate the release, writing the JUnit file but no other outputs
+     */
+    private boolean validateOnly;
+
+    private String stateDirectory = "target/amt-flat-file-state";
+
+    /**
+     * Number of worker processes generating the flat file as shards, one each, or 1 to generate it in this process
+     */
+    private int workers = 1;
+
+    /**
+     * The CTPP hash partition generated when run by a worker, of the number of partitions
+     */
+    private int partition;
+
+    private int partitions = 1;
+
+	private AmtCache conceptCache;
+
+    private boolean conceptCacheShared;
+
+    private SharedMetadata sharedMetadata;
+
+    /**
+     * Creates the threads of the current run and counts them for its report
+     */
+    private ThreadingProfile threading;
+
+    /**
+     * Called with the loaded release before the outputs are written, so the load can be measured apart from the rest
+     * of the job, not called if not set
+     */
+    private Consumer<AmtCache> loadedListener;
+
+    /**
+     * Validates the configuration and input, then generates the outputs, or does nothing if incremental and they are
+     * up to date. If only validating, the release is checked and only the JUnit file written.
+     */
+    public void run() throws IOException {
+        // each run counts its own threads, so runs at the same time in one JVM report only their own
+        threading = new ThreadingProfile();
+        try {
+            runJob();
+        } finally {
+            logger.info(threading.report());
+        }
+    }
+
+    private void runJob() throws IOException {
+        boolean inputIsDirectory = inputDirectoryPath != null && !inputDirectoryPath.isEmpty();
+        if (inputIsDirectory == (inputZipFilePath != null && !inputZipFilePath.isEmpty())) {
+            throw new IllegalArgumentException("Exactly one of an input ZIP file or an input directory must be specified");
+        }
+        logger.info("Input " + (inputIsDirectory ? "directory is " + inputDirectoryPath : "file is " + inputZipFilePath));
+
+        if (inputIsDirectory) {
+            validateInputDirectory(inputDirectoryPath);
+        } else {
+            validateInputZipFile(inputZipFilePath);
+        }
+
+        if (workers > 1) {
+            validateWorkers();
+        }
+
+        if (validateOnly) {
+            logger.info("Release will only be validated, no outputs other than the JUnit file will be written");
+        } else {
+            validateOutputPaths();
+        }
+
+        if (junitFilePath == null || junitFilePath.isEmpty()) {
+            logger.info("JUnit file was not requested and will not be written");
+        } else {
+            validateOutputPath(junitFilePath, "application/xml");
+            logger.info("JUnit file will be written to " + junitFilePath);
+        }
+
+        if (exitOnError) {
+            logger.info("AMT flat file generation will be aborted if any errors are detected");
+        } else {
+            logger.warning("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+            logger.warning("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+            logger.warning(
+                "Configured to continue regardless of detected errors. This is useful for testing pre-release AMT content, "
+                        + "but is NOT recommended for any other use! Resultant AMT flat file may be unreliable. "
+                        + "Consider rerunning with the -e or --exit-on-error flag set!!!");
+            logger.warning("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+            logger.warning("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+
+        }
+
+        if (junitFilePath == null || junitFilePath.trim().isEmpty()) {
+            junitFilePath = "target/ValidationErrors.xml";
+        }
+
+        if (validateOnly) {
+            validateRelease(inputIsDirectory);
+            return;
+        } else if (workers > 1) {
+            runWorkers(inputIsDirectory);
+            return;
+        }
+
+        Path input = Paths.get(inputIsDirectory ? inputDirectoryPath : inputZipFilePath);
+        BuildState buildState = null;
+        if (incremental) {
+            try {
+                buildState = BuildState.load(Paths.get(stateDirectory), Paths.get(outputFilePath), input, getParameters());
+                String reason = buildState.outOfDateReason();
+                if (reason == null) {
+                    logger.info("Outputs are up to date with the input and configuration recorded in " + buildState.getStateFile()
+                            + ", skipping generation");
+                    return;
+                }
+                logger.info("Generating outputs because " + reason);
+                buildState.invalidate();
+            } catch (IOException e) {
+                throw new IOException("Failed to check whether outputs are up to date", e);
+            }
+        }
+
+		//initialise test suite	
+		this.testSuite = new JUnitTestSuite_EXT();
+        // a new, unregistered file system per execution so executions in the same JVM can read the same ZIP
+        try (FileSystem zipFileSystem =
+                inputIsDirectory ? null : FileSystems.newFileSystem(Paths.get(inputZipFilePath), (ClassLoader) null)) {
+            Path releaseRoot = inputIsDirectory ? Paths.get(inputDirectoryPath) : zipFileSystem.getPath("/");
+
+            MemoryBudget budget = (lowMemory ? MemoryBudget.lowMemory() : MemoryBudget.unlimited()).withMaxFileSize(maxFileSize);
+            // only the attribute columns read the attributes, so in low memory mode they are not held unless selected
+            MemoryBudget memoryBudget = lowMemory && FlatFileColumn.parse(columns).stream().noneMatch(FlatFileColumn::isAttribute)
+                    ? budget.withoutAttributes()
+                    : budget;
+            SharedMetadata metadata = sharedMetadata == null ? new SharedMetadata() : sharedMetadata;
+            if (lowMemory) {
+                logger.info("Low memory mode, temporary files will be written to " + memoryBudget.getTempDirectory());
+                conceptCache = new AmtCache(releaseRoot, this.testSuite, exitOnError, metadata, memoryBudget, threading);
+            } else if (incremental) {
+                // other executions in this JVM reading the same release reuse the loaded cache, low memory caches are
+                // not shared as their temporary files are deleted at the end of each execution
+                AmtCacheRegistry.Loaded loaded = AmtCacheRegistry.get(
+                    String.join(":", input.toAbsolutePath().toString(), BuildState.stamp(input), Long.toString(maxFileSize),
+                        Boolean.toString(exitOnError)),
+                    loadSuite -> new AmtCache(releaseRoot, loadSuite, exitOnError, metadata, memoryBudget, threading));
+                this.testSuite.addTestCases(loaded.getLoadSuite());
+                conceptCache = loaded.getCache();
+                conceptCacheShared = true;
+            } else {
+                conceptCache = new AmtCache(releaseRoot, this.testSuite, exitOnError, metadata, memoryBudget, threading);
+            }
+            if (loadedListener != null) {
+                loadedListener.accept(conceptCache);
+            }
+            // the outputs only read the loaded release so are written at the same time, the JUnit file last as it
+            // holds the validation errors found generating the flat file
+            OutputStage outputs = new OutputStage("amt-output", threading);
+            outputs.add(outputFilePath, () -> {
+                if (shards > 1) {
+                    writeShardedFlatFile(FileSystems.getDefault().getPath(outputFilePath), memoryBudget);
+                } else {
+                    writeFlatFile(FileSystems.getDefault().getPath(outputFilePath), memoryBudget);
+                }
+            });
+            if (replacementsOutputFilePath != null && !replacementsOutputFilePath.isEmpty()) {
+                outputs.add(replacementsOutputFilePath,
+                    () -> writeReplacementsFile(FileSystems.getDefault().getPath(replacementsOutputFilePath)));
+            }
+            if (resolvedReplacementsOutputFilePath != null && !resolvedReplacementsOutputFilePath.isEmpty()) {
+                outputs.add(resolvedReplacementsOutputFilePath,
+                    () -> writeResolvedReplacementsFile(FileSystems.getDefault().getPath(resolvedReplacementsOutputFilePath)));
+            }
+            if (isSet(closureTableFilePath) || isSet(closureCopyFilePath)) {
+                outputs.add(isSet(closureTableFilePath) ? closureTableFilePath : closureCopyFilePath, () -> writeClosureTable());
+            }
+            outputs.run(junitFilePath, () -> {
+                createParentDirectories(Paths.get(junitFilePath));
+                try (BufferedWriter outputJunitXml = new BufferedWriter(new FileWriter(junitFilePath))) {
+                    testSuite.writeToFile(outputJunitXml);
+                }
+            });
+			logger.info("Output junit results to: " + new File(junitFilePath).getAbsolutePath());
+
+            if (buildState != null) {
+                buildState.save(getOutputFiles());
+                logger.info("Recorded outputs in " + buildState.getStateFile());
+            }
+        } finally {
+            closeConceptCache();
+		}
+	}
+
+    /**
+     * Validates the paths of the outputs configured
+     */
+    private void validateOutputPaths() {
+        if (outputFilePath == null || outputFilePath.isEmpty()) {
+            throw new IllegalArgumentException("An output file must be specified unless only validating");
+        }
+        logger.info("Output will be written to " + outputFilePath);
+
+        List<FlatFileColumn> selectedColumns = FlatFileColumn.parse(columns);
+        boolean projected = !selectedColumns.equals(FlatFileColumn.defaults());
+        if (projected) {
+            logger.info("Flat file will have the columns "
+                    + selectedColumns.stream().map(FlatFileColumn::getHeader).collect(Collectors.joining(",")));
+        }
+
+        if (shards < 1) {
+            throw new IllegalArgumentException("Number of shards must be at least 1, was " + shards);
+        } else if (projected && (sorted || artgSortedOutputFilePath != null && !artgSortedOutputFilePath.isEmpty())) {
+            throw new IllegalArgumentException("Sorted flat files always have the default columns, columns cannot be selected");
+        } else if (projected && shards > 1 && ShardedFlatFileWriter.ShardKey.MP.name().equals(shardKey)
+                && selectedColumns.stream().noneMatch(column -> column.getSource() == FlatFileColumn.Source.MP)) {
+            throw new IllegalArgumentException("Shards partitioned by MP need an MP column");
+        } else if (sorted && shards > 1) {
+            throw new IllegalArgumentException("A sorted flat file cannot be written as shards");
+        } else if (shards == 1) {
+            validateOutputPath(outputFilePath, "text/csv");
+            if (sorted) {
+                validateOutputPath(SortedFlatFileWriter.indexFile(Paths.get(outputFilePath)).toString(), "text/csv");
+                logger.info("Flat file will be sorted by CTPP SCTID and indexed in " + SortedFlatFileWriter.indexFile(Paths.get(outputFilePath)));
+            }
+        } else {
+            ShardedFlatFileWriter.ShardKey.valueOf(shardKey);
+            for (Path shardFile : ShardedFlatFileWriter.shardFiles(Paths.get(outputFilePath), shards)) {
+                validateOutputPath(shardFile.toString(), "text/csv");
+            }
+            validateOutputPath(ShardedFlatFileWriter.manifestFile(Paths.get(outputFilePath)).toString(), "text/csv");
+            logger.info("Flat file will be written as " + shards + " shards partitioned by " + shardKey);
+        }
+
+        if (artgSortedOutputFilePath != null && !artgSortedOutputFilePath.isEmpty()) {
+            validateOutputPath(artgSortedOutputFilePath, "text/csv");
+            validateOutputPath(SortedFlatFileWriter.indexFile(Paths.get(artgSortedOutputFilePath)).toString(), "text/csv");
+            logger.info("Flat file sorted by ARTG id will be written to " + artgSortedOutputFilePath);
+        }
+
+        if (columnarOutputFilePath != null && !columnarOutputFilePath.isEmpty()) {
+            validateOutputPath(columnarOutputFilePath, COLUMNAR_MIME_TYPE);
+            logger.info("Columnar flat file will be written to " + columnarOutputFilePath);
+        }
+
+        for (FlatFileViewWriter.View view : FlatFileViewWriter.View.parse(views)) {
+            Path viewFile = FlatFileViewWriter.viewFile(Paths.get(outputFilePath), view);
+            validateOutputPath(viewFile.toString(), "text/csv");
+            logger.info("The " + view + " view will be written to " + viewFile);
+        }
+
+        if (replacementsOutputFilePath == null || replacementsOutputFilePath.isEmpty()) {
+            logger.info("Replacement file was not requested and will not be written");
+        } else {
+            validateOutputPath(replacementsOutputFilePath, "text/csv");
+            logger.info("Replacement file will be written to " + replacementsOutputFilePath);
+        }
+
+        if (resolvedReplacementsOutputFilePath != null && !resolvedReplacementsOutputFilePath.isEmpty()) {
+            validateOutputPath(resolvedReplacementsOutputFilePath, "text/csv");
+            logger.info("Resolved replacement file will be written to " + resolvedReplacementsOutputFilePath);
+        }
+
+        if (isSet(closureTableFilePath)) {
+            validateOutputPath(closureTableFilePath, "text/csv");
+            logger.info("Closure table will be written to " + closureTableFilePath);
+        }
+        if (isSet(closureCopyFilePath)) {
+            validateOutputPath(closureCopyFilePath, COPY_MIME_TYPE);
+            logger.info("Closure table will be written in PostgreSQL binary COPY format to " + closureCopyFilePath);
+        }
+    }
+
+    /**
+     * Loads the release and runs the checks generating the flat file would, writing only the JUnit file. If exitOnError
+     * is set the checks made loading the release start as soon as the parts they need are loaded and run at the same
+     * time, otherwise they run in turn as loading, where a fix made by one affects the next.
+     * <p>
+     * The checks generating the flat file makes are always run in parallel, whether or not exitOnError is set. The
+     * CTPPs are split into one part per processor and each part is validated by the same generator as a check of the
+     * {@link ValidationStage}. Every part records its failures in the one test suite as it finds them, so the JUnit file
+     * holds the failures of all the parts, though not always in the same order. If exitOnError is set the first part to
+     * fail cancels the others and its failure is thrown.
+     */
+    private void validateRelease(boolean inputIsDirectory) throws IOException {
+        long start = System.currentTimeMillis();
+        this.testSuite = new JUnitTestSuite_EXT();
+        try (FileSystem zipFileSystem =
+                inputIsDirectory ? null : FileSystems.newFileSystem(Paths.get(inputZipFilePath), (ClassLoader) null);
+                ValidationStage validation = new ValidationStage("amt-validate", exitOnError, threading)) {
+            Path releaseRoot = inputIsDirectory ? Paths.get(inputDirectoryPath) : zipFileSystem.getPath("/");
+
+            MemoryBudget memoryBudget = (lowMemory ? MemoryBudget.lowMemory() : MemoryBudget.unlimited()).withMaxFileSize(maxFileSize);
+            if (lowMemory) {
+                logger.info("Low memory mode, temporary files will be written to " + memoryBudget.getTempDirectory());
+            }
+            conceptCache = new AmtCache(releaseRoot, this.testSuite, exitOnError,
+                sharedMetadata == null ? new SharedMetadata() : sharedMetadata, memoryBudget, threading, validation);
+
+            // ARTG ids are the only lookup with no checks
+            FlatFileGenerator generator = new FlatFileGenerator(conceptCache, testSuite, exitOnError,
+                EnumSet.complementOf(EnumSet.of(FlatFileColumn.Source.ARTG_ID)));
+            List<Concept> ctpps = new ArrayList<>(conceptCache.getCtpps().values());
+            int parts = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), ctpps.size()));
+            for (int part = 0; part < parts; part++) {
+                List<Concept> partCtpps = ctpps.subList(part * ctpps.size() / parts, (part + 1) * ctpps.size() / parts);
+                validation.submit("hierarchy " + (part + 1) + " of " + parts,
+                    () -> generator.validate(partCtpps, validation::isCancelled));
+            }
+            validation.await();
+
+            createParentDirectories(Paths.get(junitFilePath));
+            try (BufferedWriter outputJunitXml = new BufferedWriter(new FileWriter(junitFilePath))) {
+                testSuite.writeToFile(outputJunitXml);
+            }
+            logger.info("Validated " + ctpps.size() + " CTPPs in " + (System.currentTimeMillis() - start) + " milliseconds, "
+                    + (testSuite.getTestCases() == null ? 0 : testSuite.getTestCases().size()) + " checks failed");
+            logger.info("Output junit results to: " + new File(junitFilePath).getAbsolutePath());
+        } finally {
+            closeConceptCache();
+        }
+    }
+
+    /**
+     * Checks the outputs can be split between workers, each writing one shard
+     */
+    private void validateWorkers() {
+        if (validateOnly) {
+            throw new IllegalArgumentException("Validating a release is not split between workers");
+        } else if (incremental) {
+            throw new IllegalArgumentException("Generation split between workers cannot be incremental");
+        } else if (sorted || artgSortedOutputFilePath != null && !artgSortedOutputFilePath.isEmpty()
+                || columnarOutputFilePath != null && !columnarOutputFilePath.isEmpty() || !FlatFileViewWriter.View.parse(views).isEmpty()) {
+            throw new IllegalArgumentException("Sorted, columnar and view outputs need every row so cannot be split between workers");
+        } else if (!ShardedFlatFileWriter.ShardKey.CTPP.name().equals(shardKey)) {
+            throw new IllegalArgumentException("Workers write shards partitioned by CTPP, not " + shardKey);
+        } else if (shards != 1 && shards != workers) {
+            throw new IllegalArgumentException("Each worker writes one shard, so " + shards + " shards cannot be written by "
+                    + workers + " workers");
+        }
+        shards = workers;
+        logger.info("Flat file will be generated by " + workers + " worker processes");
+    }
+
+    /**
+     * Generates the flat file as shards, each written by a worker process which generates the rows of the CTPPs in one
+     * hash partition. The release is first split into a part for each partition, holding its CTPPs and the concepts
+     * they depend on, so each worker loads only its part with a heap sized to match. The JUnit file holds the errors
+     * found by every worker.
+     */
+    private void runWorkers(boolean inputIsDirectory) throws IOException {
+        Path split = Files.createTempDirectory("amt-release");
+        try {
+            double[] shares;
+            try (FileSystem zipFileSystem =
+                    inputIsDirectory ? null : FileSystems.newFileSystem(Paths.get(inputZipFilePath), (ClassLoader) null)) {
+                Path releaseRoot = inputIsDirectory ? Paths.get(inputDirectoryPath) : zipFileSystem.getPath("/");
+                shares = new ReleaseSplitter(workers, isSet(replacementsOutputFilePath) || isSet(resolvedReplacementsOutputFilePath),
+                    isSet(closureTableFilePath) || isSet(closureCopyFilePath), maxFileSize).split(releaseRoot, split);
+            }
+            long[] workerHeaps = Arrays.stream(shares).mapToLong(ShardCoordinator::workerHeap).toArray();
+            Properties parameters = workerParameters(split);
+            this.testSuite = new ShardCoordinator(ShardCoordinator.javaCommand(), threading).run(parameters, workerHeaps,
+                Paths.get(outputFilePath));
+
+            createParentDirectories(Paths.get(junitFilePath));
+            try (BufferedWriter outputJunitXml = new BufferedWriter(new FileWriter(junitFilePath))) {
+                testSuite.writeToFile(outputJunitXml);
+            }
+            logger.info("Output junit results to: " + new File(junitFilePath).getAbsolutePath());
+        } finally {
+            deleteDirectory(split);
+        }
+    }
+
+    /**
+     * @return the parameters of the job each worker runs, reading its part of the release from the directory of its
+     *         partition in the directory given, see {@link ReleaseSplitter#partitionDirectory(Path, int)}
+     */
+    Properties workerParameters(Path inputDirectory) {
+        Properties parameters = new Properties();
+        parameters.setProperty("inputDirectoryPath", inputDirectory.toAbsolutePath().toString());
+        parameters.setProperty("outputFilePath", Paths.get(outputFilePath).toAbsolutePath().toString());
+        parameters.setProperty("partitions", Integer.toString(workers));
+        parameters.setProperty("exitOnError", Boolean.toString(exitOnError));
+        parameters.setProperty("lowMemory", Boolean.toString(lowMemory));
+        parameters.setProperty("maxFileSize", Long.toString(maxFileSize));
+        if (columns != null) {
+            parameters.setProperty("columns", columns);
+        }
+        if (replacementsOutputFilePath != null && !replacementsOutputFilePath.isEmpty()) {
+            parameters.setProperty("replacementsOutputFilePath", Paths.get(replacementsOutputFilePath).toAbsolutePath().toString());
+        }
+        if (resolvedReplacementsOutputFilePath != null && !resolvedReplacementsOutputFilePath.isEmpty()) {
+            parameters.setProperty("resolvedReplacementsOutputFilePath",
+                Paths.get(resolvedReplacementsOutputFilePath).toAbsolutePath().toString());
+        }
+        if (isSet(closureTableFilePath)) {
+            parameters.setProperty("closureTableFilePath", Paths.get(closureTableFilePath).toAbsolutePath().toString());
+        }
+        if (isSet(closureCopyFilePath)) {
+            parameters.setProperty("closureCopyFilePath", Paths.get(closureCopyFilePath).toAbsolutePath().toString());
+        }
+        return parameters;
+    }
+
+    /**
+     * @return the job a worker runs for its partition of the job described by the parameters, writing its shard file and
+     *         the JUnit file given. The replacement files and closure tables are only written by the first worker.
+     */
+    static FlatFileJob forPartition(Properties parameters, int partition, Path junitFile) {
+        int partitions = Integer.parseInt(parameters.getProperty("partitions"));
+        if (partition < 0 || partition >= partitions) {
+            throw new IllegalArgumentException("Partition " + partition + " is not one of the " + partitions + " partitions");
+        }
+        FlatFileJob job = new FlatFileJob();
+        job.setInputDirectoryPath(
+            ReleaseSplitter.partitionDirectory(Paths.get(parameters.getProperty("inputDirectoryPath")), partition).toString());
+        job.setOutputFilePath(
+            ShardedFlatFileWriter.shardFiles(Paths.get(parameters.getProperty("outputFilePath")), partitions)[partition].toString());
+        job.setJunitFilePath(junitFile.toString());
+        job.setExitOnError(Boolean.parseBoolean(parameters.getProperty("exitOnError")));
+        job.setLowMemory(Boolean.parseBoolean(parameters.getProperty("lowMemory")));
+        job.setMaxFileSize(Long.parseLong(parameters.getProperty("maxFileSize")));
+        job.setColumns(parameters.getProperty("columns"));
+        if (partition == 0) {
+            job.setReplacementsFilePath(parameters.getProperty("replacementsOutputFilePath"));
+            job.setResolvedReplacementsFilePath(parameters.getProperty("resolvedReplacementsOutputFilePath"));
+            job.setClosureTableFilePath(parameters.getProperty("closureTableFilePath"));
+            job.setClosureCopyFilePath(parameters.getProperty("closureCopyFilePath"));
+        }
+        job.partition = partition;
+        job.partitions = partitions;
+        return job;
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to delete temporary files " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return every parameter affecting the outputs, and a stamp of the generator's own classes so a new version of the
+     *         generator regenerates them
+     */
+    private Map<String, String> getParameters() throws IOException {
+        Map<String, String> parameters = new TreeMap<>();
+        parameters.put("inputZipFilePath", String.valueOf(inputZipFilePath));
+        parameters.put("inputDirectoryPath", String.valueOf(inputDirectoryPath));
+        parameters.put("outputFilePath", String.valueOf(outputFilePath));
+        parameters.put("replacementsOutputFilePath", String.valueOf(replacementsOutputFilePath));
+        parameters.put("resolvedReplacementsOutputFilePath", String.valueOf(resolvedReplacementsOutputFilePath));
+        parameters.put("junitFilePath", String.valueOf(junitFilePath));
+        parameters.put("exitOnError", Boolean.toString(exitOnError));
+        parameters.put("shards", Integer.toString(shards));
+        parameters.put("shardKey", String.valueOf(shardKey));
+        parameters.put("lowMemory", Boolean.toString(lowMemory));
+        parameters.put("maxZipFileSize", Long.toString(maxZipFileSize));
+        parameters.put("maxFileSize", Long.toString(maxFileSize));
+        parameters.put("sorted", Boolean.toString(sorted));
+        parameters.put("artgSortedOutputFilePath", String.valueOf(artgSortedOutputFilePath));
+        parameters.put("columns", String.valueOf(columns));
+        parameters.put("views", String.valueOf(views));
+        parameters.put("columnarOutputFilePath", String.valueOf(columnarOutputFilePath));
+        parameters.put("closureTableFilePath", String.valueOf(closureTableFilePath));
+        parameters.put("closureCopyFilePath", String.valueOf(closureCopyFilePath));
+        try {
+            parameters.put("generator",
+                BuildState.stamp(Paths.get(FlatFileJob.class.getProtectionDomain().getCodeSource().getLocation().toURI())));
+        } catch (URISyntaxException | RuntimeException e) {
+            parameters.put("generator", String.valueOf(FlatFileJob.class.getPackage().getImplementationVersion()));
+        }
+        return parameters;
+    }
+
+    private List<Path> getOutputFiles() {
+        List<Path> outputs = new ArrayList<>();
+        if (shards > 1) {
+            outputs.addAll(Arrays.asList(ShardedFlatFileWriter.shardFiles(Paths.get(outputFilePath), shards)));
+            outputs.add(ShardedFlatFileWriter.manifestFile(Paths.get(outputFilePath)));
+        } else {
+            outputs.add(Paths.get(outputFilePath));
+            if (sorted) {
+                outputs.add(SortedFlatFileWriter.indexFile(Paths.get(outputFilePath)));
+            }
+        }
+        if (artgSortedOutputFilePath != null && !artgSortedOutputFilePath.isEmpty()) {
+            outputs.add(Paths.get(artgSortedOutputFilePath));
+            outputs.add(SortedFlatFileWriter.indexFile(Paths.get(artgSortedOutputFilePath)));
+        }
+        if (columnarOutputFilePath != null && !columnarOutputFilePath.isEmpty()) {
+            outputs.add(Paths.get(columnarOutputFilePath));
+        }
+        for (FlatFileViewWriter.View view : FlatFileViewWriter.View.parse(views)) {
+            outputs.add(FlatFileViewWriter.viewFile(Paths.get(outputFilePath), view));
+        }
+        if (replacementsOutputFilePath != null && !replacementsOutputFilePath.isEmpty()) {
+            outputs.add(Paths.get(replacementsOutputFilePath));
+        }
+        if (resolvedReplacementsOutputFilePath != null && !resolvedReplacementsOutputFilePath.isEmpty()) {
+            outputs.add(Paths.get(resolvedReplacementsOutputFilePath));
+        }
+        if (isSet(closureTableFilePath)) {
+            outputs.add(Paths.get(closureTableFilePath));
+        }
+        if (isSet(closureCopyFilePath)) {
+            outputs.add(Paths.get(closureCopyFilePath));
+        }
+        outputs.add(Paths.get(junitFilePath));
+        return outputs;
+    }
+
+    private void closeConceptCache() {
+        if (conceptCache != null && !conceptCacheShared) {
+            try {
+                conceptCache.close();
+            } catch (IOException e) {
+                logger.warning("Failed to delete temporary files " + e.getMessage());
+            }
+        }
+    }
+
+    private void validateOutputPath(String outputPath, String expectedMimeType) {
+        try {
+            Path path = Paths.get(outputPath);
+
+            if (Files.isSymbolicLink(path)) {
+                throw new SecurityException("The output " + outputPath + " file must not be a symlink for security reasons");
+            }
+
+            if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                BasicFileAttributes attr = Files.readAttributes(
+                    path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+                if (!attr.isRegularFile()) {
+                    throw new SecurityException(
+                        "The specified output file " + outputPath + " exists, but is not a regular file. Cannot be overwritten.");
+                } else if (expectedMimeType.equals("application/xml") ? !Rf2FileVerifier.isXmlFile(path)
+                        : expectedMimeType.equals(COLUMNAR_MIME_TYPE) ? !ColumnarFlatFileReader.isColumnarFile(path)
+                                : expectedMimeType.equals(COPY_MIME_TYPE) ? !ClosureTableWriter.isCopyFile(path)
+                                        : !Rf2FileVerifier.isTextFile(path)) {
+                    throw new SecurityException(
+                        "The specified output file " + outputPath + " exists, but is not a " + expectedMimeType
+                                + " file as expected. Cannot be overwritten");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not validate output file path " + outputPath, e);
+        }
+    }
+
+    private void validateInputDirectory(String inputDirectoryPath) {
+        Path path = Paths.get(inputDirectoryPath);
+
+        if (Files.isSymbolicLink(path)) {
+            throw new SecurityException("The input directory must not be a symlink for security reasons");
+        } else if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IllegalArgumentException("Specified input directory " + inputDirectoryPath + " does not exist or is not a directory");
+        }
+    }
+
+    private void validateInputZipFile(String inputZipFilePath) {
+        try {
+            Path path = Paths.get(inputZipFilePath);
+
+            if (Files.isSymbolicLink(path)) {
+                throw new SecurityException("The input ZIP file must not be a symlink for security reasons");
+            } else if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                throw new IllegalArgumentException("Specified input ZIP file " + inputZipFilePath + " does not exist");
+            }
+
+            BasicFileAttributes attr = Files.readAttributes(
+                path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+            if (!attr.isRegularFile()) {
+                throw new SecurityException("The input ZIP file must be a regular file");
+            } else if (attr.size() > maxZipFileSize) {
+                throw new SecurityException("For security, input ZIP files over " + maxZipFileSize + " bytes are not accepted. "
+                        + "This should permit RF2 ALL or SNAPSHOT bundles requiring the required files, "
+                        + "use maxZipFileSize to accept larger files");
+            } else if (!Rf2FileVerifier.isZipFile(path)) {
+                throw new SecurityException("The input ZIP file " + inputZipFilePath + " is not a zip file as expected");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not validate input ZIP file path " + inputZipFilePath, e);
+        }
+    }
+
+    private void writeFlatFile(Path path, MemoryBudget memoryBudget) throws IOException {
+        if (path.getParent() != null && !Files.exists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        if (sorted) {
+            try (SortedFlatFileWriter writer = new SortedFlatFileWriter(path, SortedFlatFileWriter.SortKey.CTPP, memoryBudget)) {
+                generate(writer, EnumSet.allOf(FlatFileColumn.Source.class), memoryBudget);
+                writer.finish();
+            }
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+            CsvRowSink sink = new CsvRowSink(out, FlatFileColumn.parse(columns), conceptCache);
+            generate(sink, sink.getSources(), memoryBudget);
+        }
+	}
+
+    /**
+     * Generates the rows of the flat file once, passing each row to the sink and, if requested, to the writers of the
+     * copy sorted by ARTG id, the columnar copy and the views
+     *
+     * @param sources
+     *            the parts of each row the sink reads, the sorted and columnar copies always read every part
+     */
+    private void generate(FlatFileRowSink sink, Set<FlatFileColumn.Source> sources, MemoryBudget memoryBudget)
+            throws IOException {
+        boolean byArtg = artgSortedOutputFilePath != null && !artgSortedOutputFilePath.isEmpty();
+        boolean columnar = columnarOutputFilePath != null && !columnarOutputFilePath.isEmpty();
+        List<FlatFileViewWriter.View> requestedViews = FlatFileViewWriter.View.parse(views);
+        if (byArtg) {
+            createParentDirectories(Paths.get(artgSortedOutputFilePath));
+        }
+        if (columnar) {
+            createParentDirectories(Paths.get(columnarOutputFilePath));
+        }
+
+        try (SortedFlatFileWriter byArtgId = byArtg
+                ? new SortedFlatFileWriter(Paths.get(artgSortedOutputFilePath), SortedFlatFileWriter.SortKey.ARTG_ID, memoryBudget)
+                : null;
+                ColumnarFlatFileWriter columnarWriter = columnar ? new ColumnarFlatFileWriter(Paths.get(columnarOutputFilePath)) : null;
+                FlatFileViewWriter viewWriter = requestedViews.isEmpty() ? null
+                        : new FlatFileViewWriter(Paths.get(outputFilePath), requestedViews, threading)) {
+
+            Set<FlatFileColumn.Source> generated =
+                    byArtg || columnar ? EnumSet.allOf(FlatFileColumn.Source.class) : EnumSet.copyOf(sources);
+            if (viewWriter != null) {
+                generated.addAll(viewWriter.getSources());
+            }
+            // generating more parts than the sink reads gives rows it sees as repeats
+            FlatFileRowSink flatFile = generated.equals(sources) ? sink : FlatFileGenerator.distinct(sources, sink);
+
+            Collection<Concept> ctpps = conceptCache.getCtpps().values();
+            if (partitions > 1) {
+                // a worker's part of the release holds the CTPPs of other partitions that the replacements and
+                // closure table written by the first worker need
+                ctpps = ctpps.stream()
+                    .filter(ctpp -> ShardedFlatFileWriter.shardFor(ctpp.getId(), partitions) == partition)
+                    .collect(Collectors.toList());
+            }
+            new FlatFileGenerator(conceptCache, testSuite, exitOnError, generated)
+                .generate(ctpps, FlatFileRowSink.tee(flatFile, byArtgId, columnarWriter, viewWriter));
+            if (byArtgId != null) {
+                byArtgId.finish();
+            }
+            if (viewWriter != null) {
+                viewWriter.finish();
+            }
+        }
+    }
+
+    /**
+     * Writes the closure table of the AMT hierarchy to each of the files requested, finding each concept's ancestors
+     * once for both
+     */
+    private void writeClosureTable() throws IOException {
+        Path csvFile = isSet(closureTableFilePath) ? Paths.get(closureTableFilePath) : null;
+        Path copyFile = isSet(closureCopyFilePath) ? Paths.get(closureCopyFilePath) : null;
+        for (Path file : Arrays.asList(csvFile, copyFile)) {
+            if (file != null) {
+                createParentDirectories(file);
+            }
+        }
+        new ClosureTableWriter(conceptCache, threading).write(csvFile, copyFile);
+    }
+
+    private static boolean isSet(String path) {
+        return path != null && !path.isEmpty();
+    }
+
+    private static void createParentDirectories(Path path) throws IOException {
+        if (path.getParent() != null && !Files.exists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+    }
+
+    private void writeShardedFlatFile(Path path, MemoryBudget memoryBudget) throws IOException {
+        if (path.getParent() != null && !Files.exists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        RowTemplate template = RowTemplate.of(FlatFileColumn.parse(columns), conceptCache);
+        ShardedFlatFileWriter.ShardKey key = ShardedFlatFileWriter.ShardKey.valueOf(shardKey);
+        Set<FlatFileColumn.Source> sources = EnumSet.copyOf(template.getSources());
+        if (key == ShardedFlatFileWriter.ShardKey.MP) {
+            sources.add(FlatFileColumn.Source.MP);
+        }
+        try (ShardedFlatFileWriter writer = new ShardedFlatFileWriter(path, shards, key, template, threading)) {
+            generate(writer, sources, memoryBudget);
+            writer.finish();
+        }
+    }
+
+
+    private void writeReplacementsFile(Path path) throws IOException {
+        if (path.getParent() != null && !Files.exists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        try (
+                BufferedWriter writer = Files.newBufferedWriter(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            writer.write(
+                String.join(",", "INACTIVE SCTID", "INACTIVE PT", "REPLACEMENT TYPE SCTID", "REPLACEMENT TYPE PT", "REPLACEMENT SCTID",
+                    "REPLACEMENT PT"));
+            writer.newLine();
+            for (Triple<Concept, Concept, Concept> entry : conceptCache.getReplacementConcepts()) {
+                writer.write(
+                    String.join(",",
+                        entry.getLeft().getId() + "", "\"" + entry.getLeft().getPreferredTerm() + "\"",
+                        entry.getMiddle().getId() + "", "\"" + entry.getMiddle().getPreferredTerm() + "\"",
+                        entry.getRight().getId() + "", "\"" + entry.getRight().getPreferredTerm() + "\""));
+                writer.newLine();
+            }
+        }
+    }
+
+
+    private void writeResolvedReplacementsFile(Path path) throws IOException {
+        if (path.getParent() != null && !Files.exists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        try (
+                BufferedWriter writer = Files.newBufferedWriter(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            writer.write(
+                String.join(",", "INACTIVE SCTID", "INACTIVE PT", "REPLACEMENT SCTID", "REPLACEMENT PT", "HOPS",
+                    "REPLACEMENT TYPE SCTIDS"));
+            writer.newLine();
+            Map<Long, List<ResolvedReplacement>> resolved = new TreeMap<>(conceptCache.getReplacementIndex().getResolvedReplacements());
+            for (Entry<Long, List<ResolvedReplacement>> entry : resolved.entrySet()) {
+                Concept inactive = conceptCache.getConcept(entry.getKey());
+                for (ResolvedReplacement replacement : entry.getValue()) {
+                    writer.write(
+                        String.join(",",
+                            inactive.getId() + "", "\"" + inactive.getPreferredTerm() + "\"",
+                            replacement.getReplacement().getId() + "", "\"" + replacement.getReplacement().getPreferredTerm() + "\"",
+                            replacement.getAssociationTypes().size() + "",
+                            replacement.getAssociationTypes().stream().map(c -> c.getId() + "").collect(Collectors.joining("|"))));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+	public String getInputZipFilePath() {
+		return inputZipFilePath;
+	}
+
+	public void setInputZipFilePath(String inputZipFilePath) {
+		this.inputZipFilePath = inputZipFilePath;
+	}
+
+    public String getInputDirectoryPath() {
+        return inputDirectoryPath;
+    }
+
+    public void setInputDirectoryPath(String inputDirectoryPath) {
+        this.inputDirectoryPath = inputDirectoryPath;
+    }
+
+	public String getOutputFilePath() {
+		return outputFilePath;
+	}
+
+	public void setOutputFilePath(String outputFilePath) {
+		this.outputFilePath = outputFilePath;
+	}
+
+    public void setExitOnError(boolean exitOnError) {
+        this.exitOnError = exitOnError;
+	}
+
+    public void setJunitFilePath(String path) {
+        this.junitFilePath = path;
+	}
+
+    public void setReplacementsFilePath(String path) {
+        this.replacementsOutputFilePath = path;
+    }
+
+    public void setResolvedReplacementsFilePath(String path) {
+        this.resolvedReplacementsOutputFilePath = path;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public void setShardKey(String shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    public void setLowMemory(boolean lowMemory) {
+        this.lowMemory = lowMemory;
+    }
+
+    public void setMaxZipFileSize(long maxZipFileSize) {
+        this.maxZipFileSize = maxZipFileSize;
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    public void setArtgSortedOutputFilePath(String artgSortedOutputFilePath) {
+        this.artgSortedOutputFilePath = artgSortedOutputFilePath;
+    }
+
+    public void setColumns(String columns) {
+        this.columns = columns;
+    }
+
+    public void setViews(String views) {
+        this.views = views;
+    }
+
+    public void setColumnarOutputFilePath(String columnarOutputFilePath) {
+        this.columnarOutputFilePath = columnarOutputFilePath;
+    }
+
+    public void setClosureTableFilePath(String closureTableFilePath) {
+        this.closureTableFilePath = closureTableFilePath;
+    }
+
+    public void setClosureCopyFilePath(String closureCopyFilePath) {
+        this.closureCopyFilePath = closureCopyFilePath;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public void setValidateOnly(boolean validateOnly) {
+        this.validateOnly = validateOnly;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    Path getOutputFile() {
+        return Paths.get(outputFilePath);
+    }
+
+    JUnitTestSuite_EXT getTestSuite() {
+        return testSuite;
+    }
+
+    void setLoadedListener(Consumer<AmtCache> loadedListener) {
+        this.loadedListener = loadedListener;
+    }
+
+    public void setStateDirectory(String stateDirectory) {
+        this.stateDirectory = stateDirectory;
+    }
+
+    public void setSharedMetadata(SharedMetadata sharedMetadata) {
+        this.sharedMetadata = sharedMetadata;
+    }
+}
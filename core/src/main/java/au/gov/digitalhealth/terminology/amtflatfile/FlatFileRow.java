@@ -0,0 +1,146 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+/**
+ * One row of the AMT flat file, the set of related concepts for a CTPP, one of its TPUUs, one of the TPUU's MPs and one
+ * of the CTPP's ARTG ids. Instances are reused by {@link FlatFileGenerator} for every row it produces, so must not be
+ * retained by {@link FlatFileRowSink}s beyond the call they are passed to.
+ */
+public class FlatFileRow {
+
+    public static final String HEADER = String.join(",", "CTPP SCTID", "CTPP PT", "ARTG_ID", "TPP SCTID", "TPP PT", "TPUU SCTID",
+        "TPUU PT", "TPP TP SCTID", "TPP TP PT", "TPUU TP SCTID", "TPUU TP PT", "MPP SCTID", "MPP PT", "MPUU SCTID", "MPUU PT",
+        "MP SCTID", "MP PT");
+
+    public static final int COLUMN_COUNT = 17;
+
+    private Concept ctpp;
+    private String artgId;
+    private Concept tpp;
+    private Concept tpuu;
+    private Concept tppTp;
+    private Concept tpuuTp;
+    private Concept mpp;
+    private Concept mpuu;
+    private Concept mp;
+
+    void set(Concept ctpp, String artgId, Concept tpp, Concept tpuu, Concept tppTp, Concept tpuuTp, Concept mpp, Concept mpuu,
+            Concept mp) {
+        this.ctpp = ctpp;
+        this.artgId = artgId;
+        this.tpp = tpp;
+        this.tpuu = tpuu;
+        this.tppTp = tppTp;
+        this.tpuuTp = tpuuTp;
+        this.mpp = mpp;
+        this.mpuu = mpuu;
+        this.mp = mp;
+    }
+
+    /**
+     * Makes this row a copy of the other, for sinks which hold rows beyond the call they are passed to
+     */
+    void set(FlatFileRow other) {
+        set(other.ctpp, other.artgId, other.tpp, other.tpuu, other.tppTp, other.tpuuTp, other.mpp, other.mpuu, other.mp);
+    }
+
+    public Concept getCtpp() {
+        return ctpp;
+    }
+
+    /**
+     * @return the trimmed ARTG id, or an empty String if the CTPP has no ARTG id
+     */
+    public String getArtgId() {
+        return artgId;
+    }
+
+    public Concept getTpp() {
+        return tpp;
+    }
+
+    public Concept getTpuu() {
+        return tpuu;
+    }
+
+    public Concept getTppTp() {
+        return tppTp;
+    }
+
+    public Concept getTpuuTp() {
+        return tpuuTp;
+    }
+
+    public Concept getMpp() {
+        return mpp;
+    }
+
+    public Concept getMpuu() {
+        return mpuu;
+    }
+
+    public Concept getMp() {
+        return mp;
+    }
+
+    /**
+     * @return the row formatted as a line of the flat file CSV, without a line terminator
+     */
+    public String toCsv() {
+        return String.join(",",
+            ctpp.getId() + "", "\"" + ctpp.getPreferredTerm() + "\"",
+            artgId,
+            tpp.getId() + "", "\"" + tpp.getPreferredTerm() + "\"",
+            tpuu.getId() + "", "\"" + tpuu.getPreferredTerm() + "\"",
+            tppTp.getId() + "", "\"" + tppTp.getPreferredTerm() + "\"",
+            tpuuTp.getId() + "", "\"" + tpuuTp.getPreferredTerm() + "\"",
+            mpp.getId() + "", "\"" + mpp.getPreferredTerm() + "\"",
+            mpuu.getId() + "", "\"" + mpuu.getPreferredTerm() + "\"",
+            mp.getId() + "", "\"" + mp.getPreferredTerm() + "\"");
+    }
+
+    /**
+     * Splits a line written by {@link #toCsv()} back into its columns, removing the quotes around terms. Terms are not
+     * escaped when written, so a quoted column ends at the first quote followed by a comma and the start of the next
+     * column (an SCTID or an empty ARTG id), or by the end of the line.
+     */
+    public static String[] parseCsv(String line) {
+        String[] columns = new String[COLUMN_COUNT];
+        int position = 0;
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            if (position > line.length()) {
+                throw new IllegalArgumentException("Expected " + COLUMN_COUNT + " columns but got " + column + " in " + line);
+            }
+            int end;
+            if (position < line.length() && line.charAt(position) == '"') {
+                end = line.indexOf('"', position + 1);
+                while (end >= 0 && !isEndOfTerm(line, end)) {
+                    end = line.indexOf('"', end + 1);
+                }
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated term in column " + (column + 1) + " of " + line);
+                }
+                columns[column] = line.substring(position + 1, end);
+                end++;
+            } else {
+                end = line.indexOf(',', position);
+                if (end < 0) {
+                    end = line.length();
+                }
+                columns[column] = line.substring(position, end);
+            }
+            position = end + 1;
+        }
+        return columns;
+    }
+
+    private static boolean isEndOfTerm(String line, int quote) {
+        if (quote == line.length() - 1) {
+            return true;
+        }
+        if (line.charAt(quote + 1) != ',' || quote + 2 == line.length()) {
+            return false;
+        }
+        char next = line.charAt(quote + 2);
+        return next == ',' || Character.isDigit(next);
+    }
+}
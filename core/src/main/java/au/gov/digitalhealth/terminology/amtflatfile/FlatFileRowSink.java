@@ -0,0 +1,69 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Receives the rows of the AMT flat file as {@link FlatFileGenerator} produces them, so code using the library can take
+ * them straight into a database or other store without writing and reading back a CSV file. {@link CsvRowSink} writes
+ * them as the flat file CSV and {@link BatchingRowSink} hands them in batches to a consumer on another thread.
+ * <p>
+ * The generator passes the same {@link FlatFileRow} instance for every row, changing its concepts in place, so a sink
+ * must copy anything it needs from the row before returning rather than keep the row.
+ */
+@FunctionalInterface
+public interface FlatFileRowSink {
+
+    /**
+     * Called once before the first row
+     */
+    default void begin() throws IOException {
+    }
+
+    /**
+     * Called for each row. The row instance is reused for the next row once this returns.
+     */
+    void accept(FlatFileRow row) throws IOException;
+
+    /**
+     * Called once after the last row if every row was accepted without failing
+     */
+    default void end() throws IOException {
+    }
+
+    /**
+     * @return a sink passing each row to each of the sinks in turn, ignoring nulls
+     */
+    static FlatFileRowSink tee(FlatFileRowSink... sinks) {
+        List<FlatFileRowSink> all = Arrays.stream(sinks).filter(Objects::nonNull).collect(Collectors.toCollection(ArrayList::new));
+        if (all.size() == 1) {
+            return all.get(0);
+        }
+        return new FlatFileRowSink() {
+            @Override
+            public void begin() throws IOException {
+                for (FlatFileRowSink sink : all) {
+                    sink.begin();
+                }
+            }
+
+            @Override
+            public void accept(FlatFileRow row) throws IOException {
+                for (FlatFileRowSink sink : all) {
+                    sink.accept(row);
+                }
+            }
+
+            @Override
+            public void end() throws IOException {
+                for (FlatFileRowSink sink : all) {
+                    sink.end();
+                }
+            }
+        };
+    }
+}
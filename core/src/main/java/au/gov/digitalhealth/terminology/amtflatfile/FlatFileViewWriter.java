@@ -0,0 +1,163 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import au.gov.digitalhealth.terminology.amtflatfile.FlatFileColumn.Source;
+
+/**
+ * Writes normalised views of the AMT model, each a file listing distinct pairs of related concepts such as each MP and
+ * its MPUUs, from the rows produced for the flat file. The views are built in the same pass over the model as the flat
+ * file, so the release is loaded once however many are written, and each view has its own writer thread from the
+ * job's {@link ThreadingProfile}. Each view file is named by adding the view's name to the flat file name, and lists each pair
+ * once in the order it is first found.
+ * <p>
+ * As with {@link ShardedFlatFileWriter} lines are handed to the writer threads through {@link BatchedFileWriters}, and
+ * the view files are only complete once {@link #finish()} returns, if the writer is closed without finishing they are
+ * deleted.
+ */
+class FlatFileViewWriter implements FlatFileRowSink, AutoCloseable {
+
+    enum View {
+        MP_MPUU(FlatFileColumn.MP_SCTID, FlatFileColumn.MP_PT, FlatFileColumn.MPUU_SCTID, FlatFileColumn.MPUU_PT),
+        MPUU_TPUU(FlatFileColumn.MPUU_SCTID, FlatFileColumn.MPUU_PT, FlatFileColumn.TPUU_SCTID, FlatFileColumn.TPUU_PT),
+        MPP_MPUU(FlatFileColumn.MPP_SCTID, FlatFileColumn.MPP_PT, FlatFileColumn.MPUU_SCTID, FlatFileColumn.MPUU_PT),
+        TPP_TPUU(FlatFileColumn.TPP_SCTID, FlatFileColumn.TPP_PT, FlatFileColumn.TPUU_SCTID, FlatFileColumn.TPUU_PT),
+        CTPP_ARTG_ID(FlatFileColumn.CTPP_SCTID, FlatFileColumn.CTPP_PT, FlatFileColumn.ARTG_ID);
+
+        private final List<FlatFileColumn> columns;
+
+        private final Source parent;
+
+        private final Source child;
+
+        private View(FlatFileColumn... columns) {
+            this.columns = Arrays.asList(columns);
+            this.parent = columns[0].getSource();
+            this.child = columns[columns.length - 1].getSource();
+        }
+
+        /**
+         * @return the suffix added to the flat file name for the view, for example "mp-mpuu"
+         */
+        String getFileSuffix() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        /**
+         * Parses a comma separated list of view names, such as "MP_MPUU,TPP_TPUU", ignoring case and accepting hyphens
+         * for underscores
+         *
+         * @return the views listed, none if the list is null or blank
+         */
+        static List<View> parse(String views) {
+            if (views == null || views.trim().isEmpty()) {
+                return Collections.emptyList();
+            }
+            Set<View> parsed = EnumSet.noneOf(View.class);
+            for (String name : views.split(",")) {
+                String normalised = name.trim().replace('-', '_');
+                parsed.add(Arrays.stream(values())
+                    .filter(view -> view.name().equalsIgnoreCase(normalised))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown view '" + name.trim() + "', expected one of "
+                            + Arrays.stream(values()).map(View::name).collect(Collectors.joining(", ")))));
+            }
+            return new ArrayList<>(parsed);
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(FlatFileViewWriter.class.getCanonicalName());
+
+    private final List<View> views;
+
+    private final Path[] viewFiles;
+
+    private final List<RowTemplate> templates = new ArrayList<>();
+
+    private final List<Set<List<Object>>> written = new ArrayList<>();
+
+    private final BatchedFileWriters writers;
+
+    /**
+     * @param threading
+     *            creates the writer threads
+     */
+    FlatFileViewWriter(Path outputFile, List<View> views, ThreadingProfile threading) {
+        this.views = new ArrayList<>(views);
+        this.viewFiles = new Path[views.size()];
+
+        List<String> headers = new ArrayList<>();
+        for (int i = 0; i < views.size(); i++) {
+            RowTemplate template = RowTemplate.of(views.get(i).columns);
+            viewFiles[i] = viewFile(outputFile, views.get(i));
+            templates.add(template);
+            headers.add(template.getHeader());
+            written.add(new HashSet<>());
+        }
+        writers = new BatchedFileWriters("amt-view-writer", viewFiles, headers, false, threading);
+    }
+
+    /**
+     * @return the file a view is written to, formed by adding the view's name to the name of the flat file
+     */
+    static Path viewFile(Path outputFile, View view) {
+        String name = outputFile.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return extension > 0
+                ? outputFile.resolveSibling(name.substring(0, extension) + "-" + view.getFileSuffix() + name.substring(extension))
+                : outputFile.resolveSibling(name + "-" + view.getFileSuffix());
+    }
+
+    /**
+     * @return the parts of each row the views are taken from
+     */
+    Set<Source> getSources() {
+        Set<Source> sources = EnumSet.noneOf(Source.class);
+        for (View view : views) {
+            sources.add(view.parent);
+            sources.add(view.child);
+        }
+        return sources;
+    }
+
+    @Override
+    public void accept(FlatFileRow row) throws IOException {
+        for (int i = 0; i < views.size(); i++) {
+            View view = views.get(i);
+            Object child = view.child == Source.ARTG_ID ? row.getArtgId() : view.child.of(row);
+            if ("".equals(child) || !written.get(i).add(Arrays.asList(view.parent.of(row), child))) {
+                continue;
+            }
+            writers.write(i, templates.get(i).toCsv(row));
+        }
+    }
+
+    /**
+     * Waits for all views to be written, called once after all rows have been accepted
+     */
+    void finish() throws IOException {
+        List<BatchedFileWriters.WrittenFile> files = writers.finish();
+        for (int i = 0; i < views.size(); i++) {
+            logger.info("Wrote " + files.get(i).getLines() + " rows of the " + views.get(i) + " view to " + viewFiles[i]);
+        }
+    }
+
+    /**
+     * Stops the writer threads, deleting the view files unless {@link #finish()} has completed
+     */
+    @Override
+    public void close() throws IOException {
+        writers.close();
+    }
+}
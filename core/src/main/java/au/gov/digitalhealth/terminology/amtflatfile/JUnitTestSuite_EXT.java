@@ -31,7 +31,7 @@ import org.w3c.dom.Element;
  */
 public class JUnitTestSuite_EXT extends JUnitTestSuite {
 	
-	public void writeToFile(BufferedWriter stream) throws IOException {
+	public synchronized void writeToFile(BufferedWriter stream) throws IOException {
 		
 		Document doc = null;
 		try {
@@ -89,9 +89,10 @@ public class JUnitTestSuite_EXT extends JUnitTestSuite {
 	
 	/*
 	 * Adds a new test case. If a test case with the same name already exists within the
-	 * testSuite, the add all the test cases failures to the existing test case
+	 * testSuite, the add all the test cases failures to the existing test case. Synchronized
+	 * as outputs written at the same time can each record failures.
 	 */
-	public void addTestCase(JUnitTestCase_EXT testCase){
+	public synchronized void addTestCase(JUnitTestCase_EXT testCase){
 		if(this.getTestCases() == null)
 			this.setTestCases(new ArrayList<JUnitTestCase>());
 		
@@ -109,6 +110,20 @@ public class JUnitTestSuite_EXT extends JUnitTestSuite {
 		
 	}
 
+    /*
+     * Adds copies of all the test cases of another suite, so failures added to either suite later are not shared
+     */
+    public synchronized void addTestCases(JUnitTestSuite_EXT other) {
+        if (other.getTestCases() == null)
+            return;
+        for (JUnitTestCase testCase : other.getTestCases()) {
+            JUnitTestCase_EXT copy = new JUnitTestCase_EXT().setName(testCase.getName());
+            if (testCase.getFailures() != null)
+                testCase.getFailures().forEach(copy::addFailure);
+            this.addTestCase(copy);
+        }
+    }
+
     public void addTestCase(String message, String detail, String testCaseName, String failType) {
         JUnitFailure fail = new JUnitFailure();
         fail.setMessage(message);
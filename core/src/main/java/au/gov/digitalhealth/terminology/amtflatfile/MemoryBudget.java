@@ -0,0 +1,95 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * How much of a release {@link AmtCache} holds on the heap while loading it. By default everything is held on the
+ * heap, which is fastest. In low memory mode terms are held in a memory mapped temporary file, the description and
+ * language reference set rows are joined by sorting them on disk rather than indexing them in memory, and the
+ * transitive closure of the hierarchy is not materialised. This is slower but lets full releases be processed in a
+ * much smaller heap. Concept attributes and concrete values, only read by the attribute columns, can also be left
+ * unloaded.
+ * <p>
+ * The budget also sets the largest RF2 file that will be read from a release, larger files are skipped as a guard
+ * against malformed or malicious bundles.
+ */
+public class MemoryBudget {
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 1000000000;
+
+    private final boolean lowMemory;
+
+    private final Path tempDirectory;
+
+    private final long sortBufferBytes;
+
+    private final long maxFileSize;
+
+    private final boolean holdsAttributes;
+
+    private MemoryBudget(boolean lowMemory, Path tempDirectory, long sortBufferBytes, long maxFileSize, boolean holdsAttributes) {
+        this.lowMemory = lowMemory;
+        this.tempDirectory = tempDirectory;
+        this.sortBufferBytes = sortBufferBytes;
+        this.maxFileSize = maxFileSize;
+        this.holdsAttributes = holdsAttributes;
+    }
+
+    public static MemoryBudget unlimited() {
+        return new MemoryBudget(false, null, 0, DEFAULT_MAX_FILE_SIZE, true);
+    }
+
+    /**
+     * Low memory mode with temporary files in the system temporary directory and an eighth of the maximum heap used
+     * to buffer rows before they are sorted on disk
+     */
+    public static MemoryBudget lowMemory() {
+        return lowMemory(Paths.get(System.getProperty("java.io.tmpdir")), Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    public static MemoryBudget lowMemory(Path tempDirectory, long sortBufferBytes) {
+        if (sortBufferBytes <= 0) {
+            throw new IllegalArgumentException("Sort buffer size must be positive, was " + sortBufferBytes);
+        }
+        return new MemoryBudget(true, tempDirectory, sortBufferBytes, DEFAULT_MAX_FILE_SIZE, true);
+    }
+
+    /**
+     * @return a copy of this budget accepting RF2 files up to the specified size in bytes
+     */
+    public MemoryBudget withMaxFileSize(long maxFileSize) {
+        if (maxFileSize <= 0) {
+            throw new IllegalArgumentException("Maximum file size must be positive, was " + maxFileSize);
+        }
+        return new MemoryBudget(lowMemory, tempDirectory, sortBufferBytes, maxFileSize, holdsAttributes);
+    }
+
+    /**
+     * @return a copy of this budget which does not load concept attributes or concrete values, for when no attribute
+     *         columns are written
+     */
+    public MemoryBudget withoutAttributes() {
+        return new MemoryBudget(lowMemory, tempDirectory, sortBufferBytes, maxFileSize, false);
+    }
+
+    public boolean isLowMemory() {
+        return lowMemory;
+    }
+
+    public Path getTempDirectory() {
+        return tempDirectory;
+    }
+
+    public long getSortBufferBytes() {
+        return sortBufferBytes;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public boolean holdsAttributes() {
+        return holdsAttributes;
+    }
+}
@@ -0,0 +1,105 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Writes independent output files at the same time, each on its own thread of an I/O executor, so time one writer
+ * spends waiting on its file overlaps with the others rather than adding to it. Once every writer has finished a last
+ * writer is run, for an output such as the JUnit file which needs the results of all the others.
+ * <p>
+ * If a writer fails the others are interrupted, the last writer is not run and the failure is thrown.
+ */
+final class OutputStage {
+
+    private static final Logger logger = Logger.getLogger(OutputStage.class.getCanonicalName());
+
+    /**
+     * Writes one output file, using its own stream or channel
+     */
+    @FunctionalInterface
+    interface Writer {
+        void write() throws IOException;
+    }
+
+    private final String name;
+
+    private final ThreadingProfile threading;
+
+    private final Map<String, Writer> writers = new LinkedHashMap<>();
+
+    /**
+     * @param name
+     *            names the threads the writers run on
+     * @param threading
+     *            creates the threads the writers run on
+     */
+    OutputStage(String name, ThreadingProfile threading) {
+        this.name = name;
+        this.threading = threading;
+    }
+
+    /**
+     * @param output
+     *            names the output in log messages
+     */
+    OutputStage add(String output, Writer writer) {
+        if (writers.putIfAbsent(output, writer) != null) {
+            throw new IllegalArgumentException("Output " + output + " is already written");
+        }
+        return this;
+    }
+
+    /**
+     * Runs the writers added and waits for them to finish, then runs the last writer on the calling thread
+     */
+    void run(String lastOutput, Writer last) throws IOException {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = threading.newIoExecutor(name, Math.max(1, writers.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Entry<String, Writer> writer : writers.entrySet()) {
+                futures.add(executor.submit(() -> {
+                    long writerStart = System.currentTimeMillis();
+                    writer.getValue().write();
+                    logger.info("Wrote " + writer.getKey() + " in " + (System.currentTimeMillis() - writerStart) + " milliseconds");
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        last.write();
+        logger.info("Wrote " + (writers.size() + 1) + " outputs, the last " + lastOutput + ", in "
+                + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for outputs to be written", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException("Failed writing outputs", e.getCause());
+        }
+    }
+}
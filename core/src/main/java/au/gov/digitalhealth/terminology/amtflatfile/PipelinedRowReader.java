@@ -0,0 +1,210 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+/**
+ * Reads a delimited text file which can only be read from the start, such as an entry in a ZIP file, as a pipeline.
+ * The calling thread inflates and decodes the file into batches of lines held in recycled buffers, and hands the
+ * batches to parser threads through a bounded queue. The parser threads split the lines into rows and accumulate a
+ * partial result for each batch with a {@link RowReducer}, and the calling thread merges the partial results in batch
+ * order as they complete, so the reducer sees rows in file order as it would reading the file on one thread.
+ * <p>
+ * Only a fixed number of buffers are allocated, so if the parser threads or merging fall behind the calling thread
+ * waits for a buffer to be returned rather than reading further ahead. The parser threads come from the job's
+ * {@link ThreadingProfile}, which counts the time the calling thread waits for a buffer.
+ */
+final class PipelinedRowReader {
+
+    private static final Logger logger = Logger.getLogger(PipelinedRowReader.class.getCanonicalName());
+
+    private static final int BATCH_LINES = 4096;
+
+    /**
+     * One processor is left for the calling thread, which inflates and merges
+     */
+    private static final int PARSERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static final int BATCHES = PARSERS * 2;
+
+    private static final Batch END_OF_FILE = new Batch(0);
+
+    private static final class Batch {
+        private final String[] lines;
+
+        private int size;
+
+        private long sequence;
+
+        private Batch(int capacity) {
+            lines = new String[capacity];
+        }
+    }
+
+    private PipelinedRowReader() {
+    }
+
+    static <P> void read(Path file, boolean hasHeader, String delimiter, RowReducer<P> reducer, ThreadingProfile threading)
+            throws IOException {
+        read(file, hasHeader, delimiter, reducer, BATCH_LINES, threading);
+    }
+
+    static <P> void read(Path file, boolean hasHeader, String delimiter, RowReducer<P> reducer, int batchLines,
+            ThreadingProfile threading) throws IOException {
+        new Pipeline<>(delimiter, reducer, batchLines, threading).run(file, hasHeader);
+    }
+
+    private static final class Pipeline<P> {
+
+        private final String delimiter;
+
+        private final RowReducer<P> reducer;
+
+        private final ThreadingProfile threading;
+
+        private final BlockingQueue<Batch> free = new ArrayBlockingQueue<>(BATCHES);
+
+        private final BlockingQueue<Batch> full = new ArrayBlockingQueue<>(BATCHES + PARSERS);
+
+        /**
+         * Partial results of parsed batches by batch sequence number, waiting to be merged
+         */
+        private final Map<Long, P> parsed = new HashMap<>();
+
+        private volatile Throwable failure;
+
+        private long merged;
+
+        private Pipeline(String delimiter, RowReducer<P> reducer, int batchLines, ThreadingProfile threading) {
+            this.delimiter = delimiter;
+            this.reducer = reducer;
+            this.threading = threading;
+            for (int i = 0; i < BATCHES; i++) {
+                free.add(new Batch(batchLines));
+            }
+        }
+
+        private void run(Path file, boolean hasHeader) throws IOException {
+            ExecutorService parsers = threading.newCpuExecutor("amt-pipeline", PARSERS);
+            try (BufferedReader reader = Files.newBufferedReader(file)) {
+                for (int i = 0; i < PARSERS; i++) {
+                    parsers.execute(this::parse);
+                }
+                if (hasHeader) {
+                    reader.readLine();
+                }
+
+                long sequence = 0;
+                Batch batch = takeFree();
+                for (String line = reader.readLine(); line != null && failure == null; line = reader.readLine()) {
+                    batch.lines[batch.size++] = line;
+                    if (batch.size == batch.lines.length) {
+                        batch.sequence = sequence++;
+                        full.put(batch);
+                        // merges whatever is ready, and waits if more batches are outstanding than there are buffers
+                        mergeParsed(sequence - BATCHES);
+                        batch = takeFree();
+                    }
+                }
+                if (batch.size > 0) {
+                    batch.sequence = sequence++;
+                    full.put(batch);
+                }
+                for (int i = 0; i < PARSERS; i++) {
+                    full.put(END_OF_FILE);
+                }
+                mergeParsed(sequence);
+                logger.fine("Read " + file + " in " + sequence + " batches");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted reading " + file, e);
+            } finally {
+                parsers.shutdownNow();
+            }
+
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new IOException("Failed reading " + file, failure);
+            }
+        }
+
+        private Batch takeFree() throws InterruptedException {
+            Batch batch = free.poll();
+            if (batch == null) {
+                long start = System.nanoTime();
+                batch = free.take();
+                threading.recordBlocked(System.nanoTime() - start);
+            }
+            return batch;
+        }
+
+        /**
+         * Merges partial results in sequence order, first waiting for every batch before the given sequence number,
+         * then merging any later batches that are ready without waiting
+         */
+        private void mergeParsed(long waitUntil) throws InterruptedException {
+            while (true) {
+                P partial;
+                synchronized (parsed) {
+                    while (merged < waitUntil && !parsed.containsKey(merged) && failure == null) {
+                        parsed.wait();
+                    }
+                    if (failure != null || !parsed.containsKey(merged)) {
+                        return;
+                    }
+                    partial = parsed.remove(merged);
+                }
+                reducer.merge(partial);
+                merged++;
+            }
+        }
+
+        /**
+         * Run by each parser thread until the end of the file. After a failure batches are still taken and returned
+         * unparsed, so the reading thread is never left waiting for a buffer.
+         */
+        private void parse() {
+            try {
+                for (Batch batch = full.take(); batch != END_OF_FILE; batch = full.take()) {
+                    try {
+                        if (failure == null) {
+                            P partial = reducer.newPartial();
+                            for (int i = 0; i < batch.size; i++) {
+                                reducer.accumulate(partial, batch.lines[i].split(delimiter, -1));
+                            }
+                            synchronized (parsed) {
+                                parsed.put(batch.sequence, partial);
+                                parsed.notifyAll();
+                            }
+                        }
+                    } catch (RuntimeException | Error e) {
+                        synchronized (parsed) {
+                            if (failure == null) {
+                                failure = e;
+                            }
+                            parsed.notifyAll();
+                        }
+                    } finally {
+                        Arrays.fill(batch.lines, 0, batch.size, null);
+                        batch.size = 0;
+                        free.put(batch);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
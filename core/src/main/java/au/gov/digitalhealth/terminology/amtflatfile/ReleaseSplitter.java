@@ -0,0 +1,359 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Splits a release into a smaller release for each CTPP hash partition, so each worker process run by
+ * {@link ShardCoordinator} loads only what its partition needs rather than the whole release. The release of a
+ * partition holds its CTPPs and every concept they reach through the relationships {@link AmtCache} loads, so the
+ * hierarchy, TPs and attributes of each of its CTPPs are complete, along with the metadata concepts and the AMT concept
+ * classes. Each concept comes with its descriptions, preferred terms, ARTG ids and the concrete values of its
+ * relationships.
+ * <p>
+ * Concepts no CTPP reaches, such as inactive concepts, go to the partition of their own SCTID, so every concept is still
+ * loaded and checked by one of the workers. Concepts shared by CTPPs of different partitions are in each of them. The
+ * first worker writes the replacement files and the closure table, so when they are requested the first partition
+ * also holds the concepts they need.
+ * <p>
+ * Only the SCTIDs of the concepts and relationships are held while splitting, so it needs far less memory than
+ * loading the release.
+ */
+final class ReleaseSplitter {
+
+    private static final Logger logger = Logger.getLogger(ReleaseSplitter.class.getCanonicalName());
+
+    private static final long[] NO_IDS = new long[0];
+
+    private final int partitions;
+
+    private final boolean replacements;
+
+    private final boolean closureTable;
+
+    private final long maxFileSize;
+
+    private final Set<Long> amtConcepts = new HashSet<>();
+
+    private final Set<Long> metadataConcepts = new HashSet<>();
+
+    /**
+     * Destinations of the relationships {@link AmtCache} loads, by source
+     */
+    private final Map<Long, long[]> outgoing = new HashMap<>();
+
+    /**
+     * Sources of the IS A relationships {@link AmtCache} loads, by destination
+     */
+    private final Map<Long, long[]> children = new HashMap<>();
+
+    /**
+     * Sources of the relationships {@link AmtCache} loads, by relationship id, to place their concrete values
+     */
+    private final Map<Long, Long> relationshipSources = new HashMap<>();
+
+    /**
+     * Concepts of the descriptions written, by description id, to place their language reference set rows
+     */
+    private final Map<Long, Long> descriptionConcepts = new HashMap<>();
+
+    private final List<Set<Long>> partitionConcepts = new ArrayList<>();
+
+    private long[] partitionChars;
+
+    private long releaseChars;
+
+    /**
+     * @param partitions
+     *            the number of CTPP hash partitions, as in {@link ShardedFlatFileWriter#shardFor(long, int)}
+     * @param replacements
+     *            whether the first partition also holds the concepts of the historical associations, for the
+     *            replacement files
+     * @param closureTable
+     *            whether the first partition also holds every AMT concept, for the closure table
+     * @param maxFileSize
+     *            files over this size are skipped, as they are when loading the release
+     */
+    ReleaseSplitter(int partitions, boolean replacements, boolean closureTable, long maxFileSize) {
+        this.partitions = partitions;
+        this.replacements = replacements;
+        this.closureTable = closureTable;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * @return the directory within the split directory holding the release of a partition
+     */
+    static Path partitionDirectory(Path directory, int partition) {
+        return directory.resolve("partition" + partition);
+    }
+
+    /**
+     * Writes the release of each partition to {@link #partitionDirectory(Path, int)}, with the files at the same paths
+     * as in the release
+     *
+     * @param releaseRoot
+     *            directory containing the release files, either the root of a ZIP file system or a directory the
+     *            release has been extracted to
+     * @return the size of each partition's release as a fraction of the rows of the whole release which would be
+     *         loaded
+     */
+    double[] split(Path releaseRoot, Path directory) throws IOException {
+        long start = System.currentTimeMillis();
+        TerminologyFileVisitor visitor = new TerminologyFileVisitor(maxFileSize);
+        Files.walkFileTree(releaseRoot, visitor);
+        visitor.ensureAllFilesExist();
+
+        readRows(visitor.getConceptFile(), row -> {
+            if (isAmtModule(row)) {
+                amtConcepts.add(Long.valueOf(row[0]));
+            } else if (isMetadataModule(row)) {
+                metadataConcepts.add(Long.valueOf(row[0]));
+            }
+        });
+        readRows(visitor.getRelationshipFile(), row -> {
+            if (isLoadedRelationship(row)) {
+                Long source = Long.valueOf(row[4]);
+                Long destination = Long.valueOf(row[5]);
+                add(outgoing, source, destination);
+                if (AttributeType.fromIdString(row[7]) == AttributeType.IS_A) {
+                    add(children, destination, source);
+                }
+                relationshipSources.put(Long.valueOf(row[0]), source);
+            }
+        });
+        Set<Long> replacementConcepts = new HashSet<>();
+        if (replacements) {
+            for (Path file : visitor.getHistoricalAssociationRefsetFiles()) {
+                readRows(file, row -> {
+                    if (isLoadedAssociation(row)) {
+                        for (int column = 4; column <= 6; column++) {
+                            replacementConcepts.add(Long.valueOf(row[column]));
+                        }
+                    }
+                });
+            }
+        }
+        assignConcepts(replacementConcepts);
+
+        partitionChars = new long[partitions];
+        split(releaseRoot, visitor.getConceptFile(), directory, (row, partition) -> inPartition(row[0], partition));
+        split(releaseRoot, visitor.getRelationshipFile(), directory,
+            (row, partition) -> isLoadedRelationship(row) && inPartition(row[4], partition));
+        for (Path file : visitor.getConcreteValueRefsetFiles()) {
+            split(releaseRoot, file, directory, (row, partition) -> {
+                Long source = relationshipSources.get(Long.valueOf(row[5]));
+                return source != null && partitionConcepts.get(partition).contains(source);
+            });
+        }
+        split(releaseRoot, visitor.getDescriptionFile(), directory, (row, partition) -> {
+            boolean written = isActive(row) && (isAmtModule(row) || isMetadataModule(row)) && inPartition(row[4], partition);
+            if (written) {
+                descriptionConcepts.put(Long.valueOf(row[0]), Long.valueOf(row[4]));
+            }
+            return written;
+        });
+        split(releaseRoot, visitor.getLanguageRefsetFile(), directory, (row, partition) -> {
+            Long concept = descriptionConcepts.get(Long.valueOf(row[5]));
+            return concept != null && partitionConcepts.get(partition).contains(concept);
+        });
+        split(releaseRoot, visitor.getArtgIdRefsetFile(), directory, (row, partition) -> inPartition(row[5], partition));
+        for (Path file : visitor.getHistoricalAssociationRefsetFiles()) {
+            split(releaseRoot, file, directory, (row, partition) -> replacements && partition == 0 && isLoadedAssociation(row));
+        }
+
+        double[] shares = new double[partitions];
+        for (int partition = 0; partition < partitions; partition++) {
+            shares[partition] = releaseChars == 0 ? 0 : (double) partitionChars[partition] / releaseChars;
+        }
+        logger.info("Split the release into " + partitions + " partitions of " + Arrays.toString(partitionConcepts.stream()
+            .mapToInt(Set::size)
+            .toArray()) + " concepts in " + (System.currentTimeMillis() - start) + " milliseconds");
+        return shares;
+    }
+
+    /**
+     * Works out the concepts of each partition: its CTPPs, the concepts no CTPP reaches with SCTIDs in the partition,
+     * and everything they reach. The metadata concepts and the AMT concept classes are in every partition.
+     */
+    private void assignConcepts(Set<Long> replacementConcepts) {
+        List<Long> everyPartition = new ArrayList<>(metadataConcepts);
+        for (AmtConcept concept : AmtConcept.values()) {
+            everyPartition.add(concept.getId());
+        }
+        List<List<Long>> roots = new ArrayList<>();
+        for (int partition = 0; partition < partitions; partition++) {
+            roots.add(new ArrayList<>(everyPartition));
+        }
+
+        Set<Long> ctpps = reach(Arrays.asList(AmtConcept.CTPP.getId()), children);
+        ctpps.removeIf(AmtConcept::isEnumValue);
+        for (Long ctpp : ctpps) {
+            roots.get(ShardedFlatFileWriter.shardFor(ctpp, partitions)).add(ctpp);
+        }
+        List<Long> reachable = new ArrayList<>(ctpps);
+        reachable.addAll(everyPartition);
+        Set<Long> reached = reach(reachable, outgoing);
+        for (Long concept : amtConcepts) {
+            if (!reached.contains(concept)) {
+                roots.get(ShardedFlatFileWriter.shardFor(concept, partitions)).add(concept);
+            }
+        }
+
+        roots.get(0).addAll(replacementConcepts);
+        if (closureTable) {
+            roots.get(0).addAll(amtConcepts);
+        }
+        for (List<Long> partitionRoots : roots) {
+            Set<Long> concepts = reach(partitionRoots, outgoing);
+            // the concept classes and associations can name concepts the release does not hold
+            concepts.removeIf(concept -> !amtConcepts.contains(concept) && !metadataConcepts.contains(concept));
+            partitionConcepts.add(concepts);
+        }
+    }
+
+    /**
+     * @return the concepts given and every concept reached from them through the edges
+     */
+    private static Set<Long> reach(Collection<Long> from, Map<Long, long[]> edges) {
+        Set<Long> reached = new HashSet<>(from);
+        Deque<Long> queue = new ArrayDeque<>(reached);
+        while (!queue.isEmpty()) {
+            for (long next : edges.getOrDefault(queue.poll(), NO_IDS)) {
+                if (reached.add(next)) {
+                    queue.add(next);
+                }
+            }
+        }
+        return reached;
+    }
+
+    private static void add(Map<Long, long[]> edges, Long from, long to) {
+        long[] existing = edges.getOrDefault(from, NO_IDS);
+        long[] ids = Arrays.copyOf(existing, existing.length + 1);
+        ids[existing.length] = to;
+        edges.put(from, ids);
+    }
+
+    private boolean inPartition(String conceptId, int partition) {
+        return partitionConcepts.get(partition).contains(Long.valueOf(conceptId));
+    }
+
+    /**
+     * Writes the header of a release file and the rows for each partition to the same path in the partition's
+     * release
+     */
+    private void split(Path releaseRoot, Path file, Path directory, BiPredicate<String[], Integer> inPartition)
+            throws IOException {
+        BufferedWriter[] writers = new BufferedWriter[partitions];
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String relative = releaseRoot.relativize(file).toString();
+            String header = reader.readLine();
+            for (int partition = 0; partition < partitions; partition++) {
+                Path root = partitionDirectory(directory, partition).toAbsolutePath().normalize();
+                Path target = root.resolve(relative).normalize();
+                if (!target.startsWith(root)) {
+                    throw new SecurityException("The input release file " + file + " is outside the release");
+                }
+                Files.createDirectories(target.getParent());
+                writers[partition] = Files.newBufferedWriter(target, StandardCharsets.UTF_8);
+                if (header != null) {
+                    writers[partition].write(header);
+                    writers[partition].newLine();
+                }
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] row = line.split("\t", -1);
+                boolean written = false;
+                for (int partition = 0; partition < partitions; partition++) {
+                    if (accepts(inPartition, row, partition, line, file)) {
+                        writers[partition].write(line);
+                        writers[partition].newLine();
+                        partitionChars[partition] += line.length() + 1;
+                        written = true;
+                    }
+                }
+                if (written) {
+                    releaseChars += line.length() + 1;
+                }
+            }
+        } finally {
+            for (BufferedWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+    }
+
+    private static boolean accepts(BiPredicate<String[], Integer> inPartition, String[] row, int partition, String line,
+            Path file) {
+        try {
+            return inPartition.test(row, partition);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Failed processing row: " + line + " of " + file, e);
+        }
+    }
+
+    private static void readRows(Path file, Consumer<String[]> handler) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            reader.readLine();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                try {
+                    handler.accept(line.split("\t", -1));
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Failed processing row: " + line + " of " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether {@link AmtCache} loads the relationship, an active AMT relationship of a type it reads between
+     *         concepts it holds
+     */
+    private boolean isLoadedRelationship(String[] row) {
+        return isActive(row) && isAmtModule(row) && AttributeType.isEnumValue(row[7]) && isHeld(row[4]) && isHeld(row[5]);
+    }
+
+    /**
+     * @return whether {@link AmtCache} reads the historical association into its replacements
+     */
+    private static boolean isLoadedAssociation(String[] row) {
+        return isActive(row) && isAmtModule(row) && !AmtCache.isDescriptionId(row[5]);
+    }
+
+    private boolean isHeld(String conceptId) {
+        Long id = Long.valueOf(conceptId);
+        return amtConcepts.contains(id) || metadataConcepts.contains(id);
+    }
+
+    private static boolean isActive(String[] row) {
+        return row[2].equals("1");
+    }
+
+    private static boolean isAmtModule(String[] row) {
+        return row[3].equals(AmtCache.AMT_MODULE_ID);
+    }
+
+    private static boolean isMetadataModule(String[] row) {
+        return row[3].equals(AmtCache.INTERNATIONAL_METADATA_MODULE) || row[3].equals(AmtCache.AU_METADATA_MODULE);
+    }
+}
@@ -0,0 +1,193 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.tuple.Triple;
+
+/**
+ * Resolves the historical associations of inactive concepts through any chain of inactive intermediate concepts to the
+ * active concepts at the end of the chain. For example if A was REPLACED BY B and B is itself inactive and the SAME AS
+ * C, A resolves to C through the chain REPLACED BY, SAME AS.
+ * <p>
+ * Every inactive concept is resolved once when the index is built, so a lookup is a single hash probe. The targets
+ * resolved for each inactive concept are reused by the concepts whose chains pass through it, and within one concept's
+ * resolution an intermediate concept is only walked again if it is reached by a shorter chain, so fan out of SAME AS or
+ * POSSIBLY EQUIVALENT TO associations does not multiply the chains followed. Cycles in the associations are detected and
+ * the cyclic branch dropped, as are chains longer than {@link #MAX_CHAIN_LENGTH}, chains that end at an inactive concept
+ * with no further associations resolve to nothing.
+ */
+public class ReplacementIndex {
+
+    private static final Logger logger = Logger.getLogger(ReplacementIndex.class.getCanonicalName());
+
+    static final int MAX_CHAIN_LENGTH = 100;
+
+    private final Map<Long, List<ResolvedReplacement>> index = new HashMap<>();
+
+    private int cycles;
+
+    private int truncatedChains;
+
+    private ReplacementIndex() {
+    }
+
+    /**
+     * @param replacements inactive concept, association type and associated concept triples as collected from the
+     *            historical association reference sets
+     */
+    public static ReplacementIndex build(Collection<Triple<Concept, Concept, Concept>> replacements) {
+        Map<Concept, List<Triple<Concept, Concept, Concept>>> associations = new HashMap<>();
+        for (Triple<Concept, Concept, Concept> replacement : replacements) {
+            if (replacement.getLeft() != null && replacement.getMiddle() != null && replacement.getRight() != null) {
+                associations.computeIfAbsent(replacement.getLeft(), k -> new ArrayList<>()).add(replacement);
+            }
+        }
+
+        ReplacementIndex replacementIndex = new ReplacementIndex();
+        Map<Concept, List<ResolvedReplacement>> memo = new HashMap<>();
+        for (Concept inactive : associations.keySet()) {
+            Map<Concept, ResolvedReplacement> resolved = new LinkedHashMap<>();
+            Map<Concept, Integer> walked = new HashMap<>();
+            walked.put(inactive, 0);
+            replacementIndex.resolve(inactive, associations, memo, new LinkedHashSet<>(Collections.singleton(inactive)),
+                new ArrayList<>(), walked, resolved);
+            List<ResolvedReplacement> targets = Collections.unmodifiableList(new ArrayList<>(resolved.values()));
+            memo.put(inactive, targets);
+            if (!targets.isEmpty()) {
+                replacementIndex.index.put(inactive.getId(), targets);
+            }
+        }
+
+        if (replacementIndex.cycles > 0) {
+            logger.warning("Ignored " + replacementIndex.cycles + " cyclic historical association chains");
+        }
+        if (replacementIndex.truncatedChains > 0) {
+            logger.warning("Ignored " + replacementIndex.truncatedChains + " historical association chains longer than "
+                    + MAX_CHAIN_LENGTH);
+        }
+        logger.info("Resolved replacements for " + replacementIndex.index.size() + " of " + associations.size()
+                + " inactive concepts with historical associations");
+        return replacementIndex;
+    }
+
+    /**
+     * Follows the associations of the concept depth first, adding each active concept reached to resolved unless it
+     * was already reached by a chain no longer than this one.
+     *
+     * @param memo the targets of inactive concepts already resolved, which are added to the chain rather than walked
+     * @param walked the length of the chain each inactive concept has been walked from, which it need not be walked
+     *            from again unless reached by a shorter chain
+     */
+    private void resolve(Concept concept, Map<Concept, List<Triple<Concept, Concept, Concept>>> associations,
+            Map<Concept, List<ResolvedReplacement>> memo, Set<Concept> path, List<Concept> chain, Map<Concept, Integer> walked,
+            Map<Concept, ResolvedReplacement> resolved) {
+        for (Triple<Concept, Concept, Concept> association : associations.getOrDefault(concept, Collections.emptyList())) {
+            Concept target = association.getRight();
+            chain.add(association.getMiddle());
+
+            if (target.isActive()) {
+                addIfShorter(resolved, target, chain, Collections.emptyList());
+            } else if (path.contains(target)) {
+                logger.fine("Cyclic historical associations " + path + " -> " + target);
+                cycles++;
+            } else if (chain.size() >= MAX_CHAIN_LENGTH) {
+                logger.fine("Historical associations " + path + " -> " + target + " longer than " + MAX_CHAIN_LENGTH);
+                truncatedChains++;
+            } else if (walked.getOrDefault(target, Integer.MAX_VALUE) > chain.size()) {
+                walked.put(target, chain.size());
+                List<ResolvedReplacement> targets = memo.get(target);
+                if (targets != null) {
+                    for (ResolvedReplacement replacement : targets) {
+                        if (chain.size() + replacement.getAssociationTypes().size() > MAX_CHAIN_LENGTH) {
+                            truncatedChains++;
+                        } else {
+                            addIfShorter(resolved, replacement.getReplacement(), chain, replacement.getAssociationTypes());
+                        }
+                    }
+                } else {
+                    path.add(target);
+                    resolve(target, associations, memo, path, chain, walked, resolved);
+                    path.remove(target);
+                }
+            }
+
+            chain.remove(chain.size() - 1);
+        }
+    }
+
+    private static void addIfShorter(Map<Concept, ResolvedReplacement> resolved, Concept target, List<Concept> chain,
+            List<Concept> rest) {
+        ResolvedReplacement existing = resolved.get(target);
+        if (existing == null || existing.getAssociationTypes().size() > chain.size() + rest.size()) {
+            List<Concept> associationTypes = new ArrayList<>(chain);
+            associationTypes.addAll(rest);
+            resolved.put(target, new ResolvedReplacement(target, associationTypes));
+        }
+    }
+
+    /**
+     * @return the active concepts the inactive concept resolves to, or an empty list if it is not inactive or cannot be
+     *         resolved to any active concept
+     */
+    public List<ResolvedReplacement> resolve(long inactiveConceptId) {
+        return index.getOrDefault(inactiveConceptId, Collections.emptyList());
+    }
+
+    public Map<Long, List<ResolvedReplacement>> getResolvedReplacements() {
+        return Collections.unmodifiableMap(index);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the number of association chains dropped because they returned to a concept already in the chain
+     */
+    int getCycles() {
+        return cycles;
+    }
+
+    /**
+     * @return the number of association chains dropped because they were longer than {@link #MAX_CHAIN_LENGTH}
+     */
+    int getTruncatedChains() {
+        return truncatedChains;
+    }
+
+    /**
+     * An active concept an inactive concept resolves to, and the association types followed to reach it. Where the
+     * same concept is reachable through several chains the shortest is kept.
+     */
+    public static class ResolvedReplacement {
+        private final Concept replacement;
+        private final List<Concept> associationTypes;
+
+        ResolvedReplacement(Concept replacement, List<Concept> associationTypes) {
+            this.replacement = replacement;
+            this.associationTypes = Collections.unmodifiableList(associationTypes);
+        }
+
+        public Concept getReplacement() {
+            return replacement;
+        }
+
+        public List<Concept> getAssociationTypes() {
+            return associationTypes;
+        }
+
+        @Override
+        public String toString() {
+            return "ResolvedReplacement [replacement=" + replacement.getId() + ", associationTypes=" + associationTypes + "]";
+        }
+    }
+}
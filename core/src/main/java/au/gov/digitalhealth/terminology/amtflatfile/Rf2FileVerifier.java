@@ -0,0 +1,150 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Cheap checks of the content of input and output files, reading no more than the first few kilobytes of each file.
+ * RF2 files are checked to be text with the exact header line expected for their type, so a file with the right name
+ * but the wrong content is not loaded.
+ */
+final class Rf2FileVerifier {
+
+    /**
+     * Bytes read from the start of a file, which must include the whole of an RF2 header line
+     */
+    private static final int SAMPLE_BYTES = 8192;
+
+    private static final byte[] ZIP_LOCAL_FILE_HEADER = { 'P', 'K', 3, 4 };
+
+    private static final byte[] ZIP_EMPTY_ARCHIVE = { 'P', 'K', 5, 6 };
+
+    private static final String[] COMPONENT = { "id", "effectiveTime", "active", "moduleId" };
+
+    private static final String[] REFSET_MEMBER = { "id", "effectiveTime", "active", "moduleId", "refsetId", "referencedComponentId" };
+
+    static final String[] CONCEPT_HEADER = header(COMPONENT, "definitionStatusId");
+
+    static final String[] RELATIONSHIP_HEADER =
+            header(COMPONENT, "sourceId", "destinationId", "relationshipGroup", "typeId", "characteristicTypeId", "modifierId");
+
+    static final String[] DESCRIPTION_HEADER =
+            header(COMPONENT, "conceptId", "languageCode", "typeId", "term", "caseSignificanceId");
+
+    static final String[] LANGUAGE_REFSET_HEADER = header(REFSET_MEMBER, "acceptabilityId");
+
+    static final String[] ASSOCIATION_REFSET_HEADER = header(REFSET_MEMBER, "targetComponentId");
+
+    static final String[] CONCRETE_VALUE_REFSET_HEADER = header(REFSET_MEMBER, "unitId", "operatorId", "value");
+
+    /**
+     * The ARTG id reference set has a single integer column whose name is not checked, a null column name matches any
+     * name
+     */
+    static final String[] ARTG_ID_REFSET_HEADER = header(REFSET_MEMBER, (String) null);
+
+    private Rf2FileVerifier() {
+    }
+
+    private static String[] header(String[] leading, String... columns) {
+        String[] header = Arrays.copyOf(leading, leading.length + columns.length);
+        System.arraycopy(columns, 0, header, leading.length, columns.length);
+        return header;
+    }
+
+    /**
+     * @return null if the file is text starting with the expected tab separated header line, otherwise a description
+     *         of the problem
+     */
+    static String checkRf2Header(Path file, String[] expectedHeader) throws IOException {
+        byte[] sample = readSample(file);
+        if (isBinary(sample)) {
+            return "it contains binary content";
+        }
+
+        String text = new String(sample, StandardCharsets.UTF_8);
+        int lineEnd = text.indexOf('\n');
+        if (lineEnd < 0 && sample.length == SAMPLE_BYTES) {
+            return "its first line is longer than " + SAMPLE_BYTES + " bytes";
+        }
+        String headerLine = text.substring(text.startsWith("\uFEFF") ? 1 : 0, lineEnd < 0 ? text.length() : lineEnd);
+        if (headerLine.endsWith("\r")) {
+            headerLine = headerLine.substring(0, headerLine.length() - 1);
+        }
+
+        String[] columns = headerLine.split("\t", -1);
+        boolean matches = columns.length == expectedHeader.length;
+        for (int i = 0; matches && i < columns.length; i++) {
+            matches = expectedHeader[i] == null || expectedHeader[i].equals(columns[i]);
+        }
+        return matches ? null
+                : "its header " + Arrays.toString(columns) + " does not match the expected " + Arrays.toString(expectedHeader);
+    }
+
+    /**
+     * @return true if the file starts with a ZIP file signature
+     */
+    static boolean isZipFile(Path file) throws IOException {
+        byte[] sample = readSample(file);
+        return startsWith(sample, ZIP_LOCAL_FILE_HEADER) || startsWith(sample, ZIP_EMPTY_ARCHIVE);
+    }
+
+    /**
+     * @return true if the start of the file contains no binary content
+     */
+    static boolean isTextFile(Path file) throws IOException {
+        return !isBinary(readSample(file));
+    }
+
+    /**
+     * @return true if the file is text whose first non whitespace character opens an XML declaration or element
+     */
+    static boolean isXmlFile(Path file) throws IOException {
+        byte[] sample = readSample(file);
+        if (isBinary(sample)) {
+            return false;
+        }
+        String text = new String(sample, StandardCharsets.UTF_8).replace("\uFEFF", "").trim();
+        return text.isEmpty() || text.startsWith("<");
+    }
+
+    private static byte[] readSample(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[SAMPLE_BYTES];
+            int length = 0;
+            for (int read = 0; read >= 0 && length < buffer.length; read = in.read(buffer, length, buffer.length - length)) {
+                length += read;
+            }
+            return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        }
+    }
+
+    /**
+     * Text files here are UTF-8 with tab separators, so any NUL byte or control character other than tab, carriage
+     * return, line feed and form feed means binary content
+     */
+    private static boolean isBinary(byte[] sample) {
+        for (byte b : sample) {
+            if (b >= 0 && b < 0x20 && b != '\t' && b != '\r' && b != '\n' && b != '\f') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] sample, byte[] prefix) {
+        if (sample.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (sample[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,258 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * 64 bit fingerprints of the rows of a flat file, sorted by a hash of each row's key (CTPP, TPUU, MP and ARTG id) along
+ * with a hash of the whole row and the row's position in its source. Two sets of fingerprints can be compared in a
+ * single linear merge to find added, removed and changed rows.
+ * <p>
+ * Fingerprints for a flat file on disk are persisted to a sidecar file next to it so they can be reused by later
+ * comparisons without re-reading and re-hashing the flat file.
+ */
+class RowFingerprints {
+
+    static final String SIDECAR_SUFFIX = ".fingerprints";
+
+    private static final int SIDECAR_MAGIC = 0x414d5446; // AMTF
+
+    private static final int SIDECAR_VERSION = 1;
+
+    private static final Logger logger = Logger.getLogger(RowFingerprints.class.getCanonicalName());
+
+    private final long[] keys;
+
+    private final long[] hashes;
+
+    private final long[] positions;
+
+    private RowFingerprints(long[] keys, long[] hashes, long[] positions) {
+        this.keys = keys;
+        this.hashes = hashes;
+        this.positions = positions;
+    }
+
+    /**
+     * Fingerprints rows held in memory, the position of each row is its index in the list.
+     */
+    static RowFingerprints of(List<String> lines) {
+        return compute(lines.size(), i -> lines.get(i), i -> i);
+    }
+
+    /**
+     * Fingerprints a flat file on disk, the position of each row is the byte offset of the start of its line. If a
+     * sidecar exists that was written for this exact file it is used, otherwise the file is read and hashed and a new
+     * sidecar written.
+     */
+    static RowFingerprints of(Path flatFile) throws IOException {
+        Path sidecar = sidecarFor(flatFile);
+        long size = Files.size(flatFile);
+        long modified = Files.getLastModifiedTime(flatFile).toMillis();
+
+        if (Files.exists(sidecar)) {
+            RowFingerprints fingerprints = read(sidecar, size, modified);
+            if (fingerprints != null) {
+                logger.info("Reusing " + fingerprints.size() + " row fingerprints from " + sidecar);
+                return fingerprints;
+            }
+            logger.info("Ignoring stale row fingerprints " + sidecar);
+        }
+
+        try (FlatFileLines lines = new FlatFileLines(flatFile)) {
+            RowFingerprints fingerprints = compute(lines.size(), lines::line, lines::offset);
+            fingerprints.write(sidecar, size, modified);
+            logger.info("Wrote " + fingerprints.size() + " row fingerprints to " + sidecar);
+            return fingerprints;
+        }
+    }
+
+    static Path sidecarFor(Path flatFile) {
+        return flatFile.resolveSibling(flatFile.getFileName() + SIDECAR_SUFFIX);
+    }
+
+    private static RowFingerprints compute(int count, IntFunction<String> lines, IntToLongFunction positions) {
+        long[][] rows = new long[count][];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            String line = lines.apply(i);
+            rows[i] = new long[] { keyHash(line), Hashing.hash64(line), positions.applyAsLong(i) };
+        });
+        Arrays.parallelSort(rows, Comparator.comparingLong(row -> row[0]));
+
+        long[] keys = new long[count];
+        long[] hashes = new long[count];
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = rows[i][0];
+            hashes[i] = rows[i][1];
+            offsets[i] = rows[i][2];
+        }
+        return new RowFingerprints(keys, hashes, offsets);
+    }
+
+    static long keyHash(String line) {
+        String[] columns = FlatFileRow.parseCsv(line);
+        return Hashing.hash64(String.join("|", columns[FlatFileColumn.CTPP_SCTID.ordinal()],
+            columns[FlatFileColumn.TPUU_SCTID.ordinal()], columns[FlatFileColumn.MP_SCTID.ordinal()],
+            columns[FlatFileColumn.ARTG_ID.ordinal()]));
+    }
+
+    /**
+     * Returns a copy of these fingerprints with each position mapped through the supplied function, for example from
+     * an index into a list of rows to the offset the row was written to in a file.
+     */
+    RowFingerprints withPositions(IntToLongFunction mapping) {
+        long[] mapped = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            mapped[i] = mapping.applyAsLong((int) positions[i]);
+        }
+        return new RowFingerprints(keys, hashes, mapped);
+    }
+
+    void write(Path sidecar, long sourceSize, long sourceModified) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)))) {
+            out.writeInt(SIDECAR_MAGIC);
+            out.writeInt(SIDECAR_VERSION);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeInt(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                out.writeLong(keys[i]);
+                out.writeLong(hashes[i]);
+                out.writeLong(positions[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the fingerprints, or null if the sidecar was not written for a file of the given size and modified time
+     */
+    private static RowFingerprints read(Path sidecar, long sourceSize, long sourceModified) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != SIDECAR_MAGIC || in.readInt() != SIDECAR_VERSION || in.readLong() != sourceSize
+                    || in.readLong() != sourceModified) {
+                return null;
+            }
+            int count = in.readInt();
+            long[] keys = new long[count];
+            long[] hashes = new long[count];
+            long[] positions = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = in.readLong();
+                hashes[i] = in.readLong();
+                positions[i] = in.readLong();
+            }
+            return new RowFingerprints(keys, hashes, positions);
+        }
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    long key(int index) {
+        return keys[index];
+    }
+
+    long hash(int index) {
+        return hashes[index];
+    }
+
+    long position(int index) {
+        return positions[index];
+    }
+
+    /**
+     * The data lines of a flat file, memory mapped with the offset of each line indexed up front so lines can be
+     * decoded independently and in parallel. Only flat files with the default columns can be read, as rows are keyed
+     * and decoded by the position of their columns, so a file written with other columns is rejected by its header.
+     */
+    static class FlatFileLines implements AutoCloseable {
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private final long[] offsets;
+
+        FlatFileLines(Path flatFile) throws IOException {
+            channel = FileChannel.open(flatFile, StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IllegalArgumentException("Flat file " + flatFile + " is too large to compare");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            String header = lineAt(0);
+            if (!header.equals(FlatFileRow.HEADER)) {
+                channel.close();
+                throw new IllegalArgumentException("Flat file " + flatFile + " has the columns " + header
+                        + " but only flat files with the default columns " + FlatFileRow.HEADER + " can be compared");
+            }
+
+            // every line feed other than a trailing one starts a row, the first ends the header
+            long[] starts = new long[1024];
+            int count = 0;
+            for (int i = 0; i < buffer.limit() - 1; i++) {
+                if (buffer.get(i) == '\n') {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = i + 1;
+                }
+            }
+            offsets = Arrays.copyOf(starts, count);
+        }
+
+        int size() {
+            return offsets.length;
+        }
+
+        long offset(int index) {
+            return offsets[index];
+        }
+
+        String line(int index) {
+            return lineAt(offsets[index]);
+        }
+
+        String lineAt(long offset) {
+            int start = (int) offset;
+            int end = start;
+            while (end < buffer.limit() && buffer.get(end) != '\n') {
+                end++;
+            }
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Reduces the rows of a file read in chunks on several threads. Each chunk's rows are accumulated into a partial result
+ * of type P on a worker thread, so {@link #accumulate(Object, String[])} must not touch shared state. Partial results
+ * are then merged one at a time on the reading thread in the order of the chunks in the file, so
+ * {@link #merge(Object)} sees rows in file order and needs no synchronisation.
+ */
+interface RowReducer<P> {
+
+    P newPartial();
+
+    void accumulate(P partial, String[] row);
+
+    void merge(P partial);
+
+    /**
+     * A reducer which tests each row with the filter on the worker threads and passes the rows it accepts to the
+     * handler in file order. The filter must only depend on the row.
+     */
+    static RowReducer<List<String[]>> filtering(Predicate<String[]> filter, Consumer<String[]> handler) {
+        return new RowReducer<List<String[]>>() {
+
+            @Override
+            public List<String[]> newPartial() {
+                return new ArrayList<>();
+            }
+
+            @Override
+            public void accumulate(List<String[]> partial, String[] row) {
+                if (filter.test(row)) {
+                    partial.add(row);
+                }
+            }
+
+            @Override
+            public void merge(List<String[]> partial) {
+                partial.forEach(handler);
+            }
+        };
+    }
+}
@@ -0,0 +1,394 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.openmbee.junit.model.JUnitFailure;
+import org.openmbee.junit.model.JUnitTestCase;
+
+/**
+ * Generates the flat file as shards in a number of worker processes on this host, each a JVM with its own heap running
+ * {@link ShardWorker}. Workers connect back to the coordinator over a loopback socket, are sent the job and generate
+ * the rows of the CTPPs in one hash partition, the same partitions as shards keyed by CTPP, to a shard file. Each
+ * worker loads only its partition's part of the release, split by {@link ReleaseSplitter}, with a heap sized for it.
+ * Each then reports the row count and checksum of its shard and the validation failures it found. Once every worker
+ * has reported the coordinator writes the manifest of the shards and returns the failures of all the workers in one
+ * test suite.
+ * <p>
+ * Workers must present a token passed to them in their environment, so another process on the host cannot take the
+ * place of one. If a worker fails, or exits without reporting, the other workers are stopped and the failure thrown.
+ */
+final class ShardCoordinator {
+
+    static final String TOKEN_VARIABLE = "AMT_WORKER_TOKEN";
+
+    static final int PROTOCOL_VERSION = 1;
+
+    private static final Logger logger = Logger.getLogger(ShardCoordinator.class.getCanonicalName());
+
+    private static final int MAX_MESSAGE_BYTES = 256 * 1024 * 1024;
+
+    private static final long CONNECT_TIMEOUT_MILLIS = 300000;
+
+    private static final int HELLO_TIMEOUT_MILLIS = 10000;
+
+    private static final long MIN_WORKER_HEAP = 256L * 1024 * 1024;
+
+    /**
+     * Room over a worker's share of this JVM's heap for what its load and generation need whatever the size of its
+     * partition
+     */
+    private static final double WORKER_HEAP_HEADROOM = 1.5;
+
+    private final List<String> workerCommand;
+
+    private final ThreadingProfile threading;
+
+    /**
+     * @param workerCommand
+     *            starts a JVM with the generator's classes on its class path, the worker's main class and arguments
+     *            are added to it
+     * @param threading
+     *            creates the threads talking to the workers
+     */
+    ShardCoordinator(List<String> workerCommand, ThreadingProfile threading) {
+        this.workerCommand = new ArrayList<>(workerCommand);
+        this.threading = threading;
+    }
+
+    /**
+     * @return a command starting a JVM like this one, with the same class path and system properties. The heap of each
+     *         worker is set for its partition when it is started.
+     */
+    static List<String> javaCommand() {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-D")) {
+                command.add(argument);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        return command;
+    }
+
+    /**
+     * @param share
+     *            the size of the worker's partition as a fraction of the whole release, from
+     *            {@link ReleaseSplitter#split(Path, Path)}
+     * @return the maximum heap of a worker, its share of this JVM's maximum heap, which is taken to be sized to load the
+     *         whole release, with room for its own overheads. It is at least 256 MB, and no more than this JVM's.
+     */
+    static long workerHeap(double share) {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        return Math.min(maxHeap, Math.max(MIN_WORKER_HEAP, (long) (maxHeap * share * WORKER_HEAP_HEADROOM)));
+    }
+
+    /**
+     * Runs a worker for each partition and waits for them all to report
+     *
+     * @param parameters
+     *            the job each worker runs, from {@link FlatFileJob#workerParameters(Path)}
+     * @param workerHeaps
+     *            the maximum heap in bytes of the worker of each partition
+     * @param outputFile
+     *            the flat file the shards are named after
+     * @return the validation failures found by all the workers
+     */
+    JUnitTestSuite_EXT run(Properties parameters, long[] workerHeaps, Path outputFile) throws IOException {
+        long start = System.currentTimeMillis();
+        int workers = workerHeaps.length;
+        String token = newToken();
+        List<Process> processes = new ArrayList<>();
+        List<Connection> connections = new ArrayList<>();
+        ExecutorService executor = threading.newIoExecutor("amt-coordinator", workers);
+        try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            for (int partition = 0; partition < workers; partition++) {
+                List<String> command = new ArrayList<>(workerCommand);
+                command.add("-Xmx" + Math.max(1, workerHeaps[partition] >> 20) + "m");
+                command.add(ShardWorker.class.getName());
+                command.add(server.getInetAddress().getHostAddress());
+                command.add(Integer.toString(server.getLocalPort()));
+                command.add(Integer.toString(partition));
+                ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+                builder.environment().put(TOKEN_VARIABLE, token);
+                processes.add(builder.start());
+            }
+            logger.info("Started " + workers + " worker processes with heaps of " + Arrays.stream(workerHeaps)
+                .mapToObj(heap -> (heap >> 20) + " MB")
+                .collect(Collectors.joining(", ")) + ", waiting for them to connect on port " + server.getLocalPort());
+            connections.addAll(accept(server, token, processes));
+
+            String job = toString(parameters);
+            CompletionService<Report> reports = new ExecutorCompletionService<>(executor);
+            for (Connection connection : connections) {
+                reports.submit(() -> connection.converse(job));
+            }
+            Report[] received = new Report[workers];
+            for (int i = 0; i < workers; i++) {
+                Report report = take(reports);
+                received[report.partition] = report;
+                logger.info("Worker for partition " + report.partition + " wrote " + report.rows + " rows");
+            }
+
+            Path[] shardFiles = ShardedFlatFileWriter.shardFiles(outputFile, workers);
+            List<ShardedFlatFileWriter.Shard> shards = new ArrayList<>();
+            JUnitTestSuite_EXT testSuite = new JUnitTestSuite_EXT();
+            for (Report report : received) {
+                shards.add(new ShardedFlatFileWriter.Shard(shardFiles[report.partition], report.rows, report.sha256));
+                report.testCases.forEach(testSuite::addTestCase);
+            }
+            ShardedFlatFileWriter.writeManifest(ShardedFlatFileWriter.manifestFile(outputFile), ShardedFlatFileWriter.ShardKey.CTPP,
+                shards);
+            for (Process process : processes) {
+                process.waitFor(HELLO_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            logger.info("Generated " + workers + " shards in worker processes in " + (System.currentTimeMillis() - start)
+                    + " milliseconds");
+            return testSuite;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for workers", e);
+        } finally {
+            executor.shutdownNow();
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            for (Process process : processes) {
+                if (process.isAlive()) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts a connection from each worker, ignoring connections without the token
+     *
+     * @return the connections in partition order
+     */
+    private static List<Connection> accept(ServerSocket server, String token, List<Process> processes)
+            throws IOException {
+        Connection[] connections = new Connection[processes.size()];
+        int connected = 0;
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        server.setSoTimeout(1000);
+        while (connected < connections.length) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketTimeoutException e) {
+                for (int partition = 0; partition < connections.length; partition++) {
+                    if (connections[partition] == null && !processes.get(partition).isAlive()) {
+                        throw new IOException("Worker for partition " + partition + " exited with code "
+                                + processes.get(partition).exitValue() + " before connecting");
+                    }
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Workers did not connect within " + CONNECT_TIMEOUT_MILLIS + " milliseconds");
+                }
+                continue;
+            }
+            Connection connection = new Connection(socket);
+            try {
+                socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+                int version = connection.in.readInt();
+                byte[] presented = readString(connection.in).getBytes(StandardCharsets.UTF_8);
+                int partition = connection.in.readInt();
+                if (version != PROTOCOL_VERSION
+                        || !MessageDigest.isEqual(presented, token.getBytes(StandardCharsets.UTF_8))) {
+                    throw new SecurityException("Connection from " + socket.getRemoteSocketAddress() + " is not from a worker");
+                } else if (partition < 0 || partition >= connections.length || connections[partition] != null) {
+                    throw new SecurityException("Connection from " + socket.getRemoteSocketAddress() + " claims partition "
+                            + partition + " which is not expected");
+                }
+                socket.setSoTimeout(0);
+                connection.partition = partition;
+                connections[partition] = connection;
+                connected++;
+            } catch (IOException | SecurityException e) {
+                logger.warning("Ignoring connection, " + e.getMessage());
+                connection.close();
+            }
+        }
+        return Arrays.asList(connections);
+    }
+
+    private static Report take(CompletionService<Report> reports) throws IOException {
+        try {
+            return reports.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for workers", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException("Failed waiting for workers", e.getCause());
+        }
+    }
+
+    private static String newToken() {
+        byte[] token = new byte[32];
+        new SecureRandom().nextBytes(token);
+        return Hashing.toHex(token);
+    }
+
+    static String toString(Properties parameters) throws IOException {
+        StringWriter writer = new StringWriter();
+        parameters.store(writer, null);
+        return writer.toString();
+    }
+
+    static Properties toProperties(String parameters) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new StringReader(parameters));
+        return properties;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_MESSAGE_BYTES) {
+            throw new IOException("Message of " + length + " bytes is not expected");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeOptionalString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writeString(out, value);
+        }
+    }
+
+    static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+
+    /**
+     * Writes the test cases of a suite and their failures
+     */
+    static void writeTestCases(DataOutputStream out, JUnitTestSuite_EXT testSuite) throws IOException {
+        List<JUnitTestCase> testCases = testSuite.getTestCases() == null ? new ArrayList<>() : testSuite.getTestCases();
+        out.writeInt(testCases.size());
+        for (JUnitTestCase testCase : testCases) {
+            writeString(out, testCase.getName());
+            List<JUnitFailure> failures = testCase.getFailures() == null ? new ArrayList<>() : testCase.getFailures();
+            out.writeInt(failures.size());
+            for (JUnitFailure failure : failures) {
+                writeOptionalString(out, failure.getMessage());
+                writeOptionalString(out, failure.getType());
+                writeOptionalString(out, failure.getValue());
+            }
+        }
+    }
+
+    static List<JUnitTestCase_EXT> readTestCases(DataInputStream in) throws IOException {
+        List<JUnitTestCase_EXT> testCases = new ArrayList<>();
+        for (int count = in.readInt(); testCases.size() < count;) {
+            JUnitTestCase_EXT testCase = new JUnitTestCase_EXT().setName(readString(in));
+            for (int failures = in.readInt(); failures > 0; failures--) {
+                JUnitFailure failure = new JUnitFailure();
+                failure.setMessage(readOptionalString(in));
+                failure.setType(readOptionalString(in));
+                failure.setValue(readOptionalString(in));
+                testCase.addFailure(failure);
+            }
+            testCases.add(testCase);
+        }
+        return testCases;
+    }
+
+    /**
+     * A worker's connection, sent the job and then waiting for the worker's report
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private int partition;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        Report converse(String job) throws IOException {
+            writeString(out, job);
+            out.flush();
+            try {
+                if (!in.readBoolean()) {
+                    throw new RuntimeException("Worker for partition " + partition + " failed, " + readString(in));
+                }
+                long rows = in.readLong();
+                String sha256 = readString(in);
+                return new Report(partition, rows, sha256, readTestCases(in));
+            } catch (EOFException e) {
+                throw new IOException("Worker for partition " + partition + " exited without reporting", e);
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.warning("Failed to close connection to worker " + e.getMessage());
+            }
+        }
+    }
+
+    private static class Report {
+        private final int partition;
+        private final long rows;
+        private final String sha256;
+        private final List<JUnitTestCase_EXT> testCases;
+
+        Report(int partition, long rows, String sha256, List<JUnitTestCase_EXT> testCases) {
+            this.partition = partition;
+            this.rows = rows;
+            this.sha256 = sha256;
+            this.testCases = testCases;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Main class of a worker process started by {@link ShardCoordinator}. Connects back to the coordinator, runs the job
+ * it is sent for its partition, writing one shard file, and reports the shard's row count and checksum and the
+ * validation failures found. Its exit code is 0 if the job succeeded.
+ */
+public final class ShardWorker {
+
+    private static final Logger logger = Logger.getLogger(ShardWorker.class.getCanonicalName());
+
+    private ShardWorker() {
+    }
+
+    /**
+     * @param args
+     *            the coordinator's address and port, and the partition to generate
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("Expected the coordinator's address and port and the partition to generate");
+        }
+        String token = System.getenv(ShardCoordinator.TOKEN_VARIABLE);
+        if (token == null) {
+            throw new IllegalArgumentException("Workers are started by the coordinator, " + ShardCoordinator.TOKEN_VARIABLE + " is not set");
+        }
+        int partition = Integer.parseInt(args[2]);
+        System.exit(run(args[0], Integer.parseInt(args[1]), token, partition) ? 0 : 1);
+    }
+
+    private static boolean run(String host, int port, String token, int partition) throws IOException {
+        Path junitDirectory = Files.createTempDirectory("amt-worker");
+        Path junitFile = junitDirectory.resolve("partition" + partition + ".xml");
+        try (Socket socket = new Socket(host, port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(ShardCoordinator.PROTOCOL_VERSION);
+            ShardCoordinator.writeString(out, token);
+            out.writeInt(partition);
+            out.flush();
+
+            FlatFileJob job = FlatFileJob.forPartition(ShardCoordinator.toProperties(ShardCoordinator.readString(in)), partition,
+                junitFile);
+            try {
+                job.run();
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.SEVERE, "Failed generating partition " + partition, e);
+                out.writeBoolean(false);
+                ShardCoordinator.writeString(out, e.toString());
+                out.flush();
+                return false;
+            }
+
+            Path shard = job.getOutputFile();
+            out.writeBoolean(true);
+            out.writeLong(countRows(shard));
+            ShardCoordinator.writeString(out, Hashing.sha256(shard));
+            ShardCoordinator.writeTestCases(out, job.getTestSuite());
+            out.flush();
+            return true;
+        } finally {
+            Files.deleteIfExists(junitFile);
+            Files.deleteIfExists(junitDirectory);
+        }
+    }
+
+    /**
+     * @return the number of rows in a flat file, not counting its header
+     */
+    private static long countRows(Path file) throws IOException {
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            while (reader.readLine() != null) {
+                lines++;
+            }
+        }
+        return Math.max(0, lines - 1);
+    }
+}
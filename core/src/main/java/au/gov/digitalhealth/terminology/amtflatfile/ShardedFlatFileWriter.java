@@ -0,0 +1,151 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Writes the flat file as a number of shard files at the same time, each with its own writer thread, partitioning rows
+ * by a stable hash of their MP or CTPP SCTID so all rows for the same MP or CTPP are in the same shard. Writer threads
+ * come from the job's {@link ThreadingProfile}, so are virtual threads on Java 21. Each shard is a complete flat file with its own header. A manifest listing each shard file with its row count and SHA-256 checksum is
+ * written by {@link #finish()} once all shards are complete, if the writer is closed without finishing, for example
+ * because generation failed, the incomplete shards are deleted instead.
+ * <p>
+ * Rows are handed to the writer threads through {@link BatchedFileWriters}, so generation waits for a slow writer
+ * rather than buffering the whole file in memory.
+ */
+class ShardedFlatFileWriter implements FlatFileRowSink, AutoCloseable {
+
+    enum ShardKey {
+        MP, CTPP
+    }
+
+    private static final Logger logger = Logger.getLogger(ShardedFlatFileWriter.class.getCanonicalName());
+
+    private final ShardKey shardKey;
+
+    private final RowTemplate template;
+
+    private final Path[] shardFiles;
+
+    private final Path manifestFile;
+
+    private final BatchedFileWriters writers;
+
+    private boolean finished;
+
+    public ShardedFlatFileWriter(Path outputFile, int shardCount, ShardKey shardKey) {
+        this(outputFile, shardCount, shardKey, RowTemplate.all(), new ThreadingProfile());
+    }
+
+    /**
+     * @param template
+     *            the columns written to each shard
+     * @param threading
+     *            creates the writer threads
+     */
+    ShardedFlatFileWriter(Path outputFile, int shardCount, ShardKey shardKey, RowTemplate template, ThreadingProfile threading) {
+        this.shardKey = shardKey;
+        this.template = template;
+        this.shardFiles = shardFiles(outputFile, shardCount);
+        this.manifestFile = manifestFile(outputFile);
+
+        writers = new BatchedFileWriters("amt-shard-writer", shardFiles, Collections.nCopies(shardCount, template.getHeader()), true,
+            threading);
+    }
+
+    /**
+     * @return the shard file paths for an output file, formed by adding the shard number to its name
+     */
+    static Path[] shardFiles(Path outputFile, int shardCount) {
+        String name = outputFile.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        String base = extension > 0 ? name.substring(0, extension) : name;
+        String suffix = extension > 0 ? name.substring(extension) : "";
+        String format = "%0" + Integer.toString(shardCount - 1).length() + "d";
+
+        Path[] files = new Path[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            files[i] = outputFile.resolveSibling(base + "-shard" + String.format(format, i) + suffix);
+        }
+        return files;
+    }
+
+    static Path manifestFile(Path outputFile) {
+        String name = outputFile.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return outputFile.resolveSibling((extension > 0 ? name.substring(0, extension) : name) + "-manifest.csv");
+    }
+
+    static int shardFor(long sctid, int shardCount) {
+        return (int) Math.floorMod(Hashing.mix(sctid), (long) shardCount);
+    }
+
+    @Override
+    public void accept(FlatFileRow row) throws IOException {
+        long key = shardKey == ShardKey.MP ? row.getMp().getId() : row.getCtpp().getId();
+        writers.write(shardFor(key, shardFiles.length), template.toCsv(row));
+    }
+
+    /**
+     * Waits for all shards to be written and writes the manifest, called once after all rows have been accepted
+     */
+    void finish() throws IOException {
+        List<Shard> shards = new ArrayList<>();
+        for (BatchedFileWriters.WrittenFile shard : writers.finish()) {
+            shards.add(new Shard(shard.getFile(), shard.getLines(), shard.getSha256()));
+        }
+        writeManifest(manifestFile, shardKey, shards);
+        finished = true;
+    }
+
+    /**
+     * Stops the writer threads. Unless {@link #finish()} has completed the shards written so far are incomplete, so
+     * they are deleted along with any manifest left by an earlier run.
+     */
+    @Override
+    public void close() throws IOException {
+        writers.close();
+        if (!finished) {
+            Files.deleteIfExists(manifestFile);
+        }
+    }
+
+    /**
+     * Writes the manifest listing the shards, in shard order
+     */
+    static void writeManifest(Path manifestFile, ShardKey shardKey, List<Shard> shards) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(manifestFile, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writer.write(String.join(",", "SHARD", "FILE", "ROWS", "SHA256", "SHARD KEY"));
+            writer.newLine();
+            long total = 0;
+            for (int i = 0; i < shards.size(); i++) {
+                Shard shard = shards.get(i);
+                writer.write(String.join(",", Integer.toString(i), shard.file.getFileName().toString(), Long.toString(shard.rows),
+                    shard.sha256, shardKey.name()));
+                writer.newLine();
+                total += shard.rows;
+            }
+            logger.info("Wrote " + total + " rows to " + shards.size() + " shards listed in " + manifestFile);
+        }
+    }
+
+    static class Shard {
+        private final Path file;
+        private final long rows;
+        private final String sha256;
+
+        Shard(Path file, long rows, String sha256) {
+            this.file = file;
+            this.rows = rows;
+            this.sha256 = sha256;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable metadata shared between {@link AmtCache} instances built in the same JVM, for example by
+ * Amt2FlatFileBatch. Metadata module concepts (reference sets, description types, association types and the
+ * like) change very rarely between releases, so their terms are interned here and the same String instances are reused
+ * by every release that loads them rather than each release holding its own copy.
+ * <p>
+ * Concepts themselves are not shared because each release links them into its own hierarchy.
+ */
+public class SharedMetadata {
+
+    private final ConcurrentMap<String, String> terms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the canonical instance of the term, which is the first instance passed to this method
+     */
+    public String intern(String term) {
+        String existing = terms.putIfAbsent(term, term);
+        return existing == null ? term : existing;
+    }
+
+    public int size() {
+        return terms.size();
+    }
+}
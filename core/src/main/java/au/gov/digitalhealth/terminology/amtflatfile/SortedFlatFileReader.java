@@ -0,0 +1,159 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Looks up rows of a flat file written sorted by CTPP SCTID or ARTG id, using the sparse index written next to it.
+ * The flat file is memory mapped and only the rows between the nearest index entries before and after the keys looked
+ * up are read, so clients can query a flat file without reading all of it or loading the release.
+ * <p>
+ * Rows are returned as their columns in the order of {@link FlatFileRow#HEADER}. Instances are safe for use by several
+ * threads.
+ */
+public class SortedFlatFileReader implements Closeable {
+
+    private static final int SEGMENT_BITS = 30;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer[] segments;
+
+    private final long size;
+
+    private final String keyColumn;
+
+    private final int keyColumnIndex;
+
+    private final long[] keys;
+
+    private final long[] offsets;
+
+    /**
+     * @param flatFile
+     *            a flat file written sorted, with its index in the same directory
+     */
+    public SortedFlatFileReader(Path flatFile) throws IOException {
+        List<String> index = Files.readAllLines(SortedFlatFileWriter.indexFile(flatFile), StandardCharsets.UTF_8);
+        if (index.isEmpty() || !index.get(0).endsWith(",OFFSET")) {
+            throw new IllegalArgumentException("Index for " + flatFile + " has no header");
+        }
+        keyColumn = index.get(0).substring(0, index.get(0).length() - ",OFFSET".length());
+        keyColumnIndex = Arrays.asList(FlatFileRow.HEADER.split(",")).indexOf(keyColumn);
+        if (keyColumnIndex < 0) {
+            throw new IllegalArgumentException("Index for " + flatFile + " is for an unknown column " + keyColumn);
+        }
+        keys = new long[index.size() - 1];
+        offsets = new long[index.size() - 1];
+        for (int i = 1; i < index.size(); i++) {
+            String[] entry = index.get(i).split(",");
+            keys[i - 1] = Long.parseLong(entry[0]);
+            offsets[i - 1] = Long.parseLong(entry[1]);
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(flatFile, StandardCharsets.UTF_8)) {
+            if (!FlatFileRow.HEADER.equals(reader.readLine())) {
+                throw new IllegalArgumentException(flatFile + " is not a flat file");
+            }
+        }
+
+        channel = FileChannel.open(flatFile, StandardOpenOption.READ);
+        size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(MapMode.READ_ONLY, start, Math.min(size - start, 1L << SEGMENT_BITS));
+        }
+    }
+
+    /**
+     * @return the name of the column the file is sorted by
+     */
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * @return the rows with the key, in the order they were written
+     */
+    public List<String[]> get(long key) {
+        return range(key, key);
+    }
+
+    /**
+     * @return the rows with keys from the first to the last key inclusive, in file order
+     */
+    public List<String[]> range(long fromKey, long toKey) {
+        List<String[]> rows = new ArrayList<>();
+        if (keys.length == 0 || fromKey > toKey) {
+            return rows;
+        }
+
+        // rows for a key can start in the block before the first index entry with that key, so start from the last
+        // entry with a smaller key
+        int entry = Arrays.binarySearch(keys, fromKey);
+        if (entry < 0) {
+            entry = -entry - 2;
+        }
+        while (entry > 0 && keys[entry] >= fromKey) {
+            entry--;
+        }
+
+        long position = offsets[Math.max(entry, 0)];
+        while (position < size) {
+            long end = endOfLine(position);
+            String[] row = FlatFileRow.parseCsv(line(position, end));
+            long key = keyColumn.equals("ARTG_ID") ? SortedFlatFileWriter.artgKey(row[keyColumnIndex])
+                    : Long.parseLong(row[keyColumnIndex]);
+            if (key > toKey) {
+                break;
+            } else if (key >= fromKey) {
+                rows.add(row);
+            }
+            position = end + 1;
+        }
+        return rows;
+    }
+
+    private byte byteAt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * @return the position of the line feed ending the line starting at the position, or the end of the file
+     */
+    private long endOfLine(long position) {
+        while (position < size && byteAt(position) != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    private String line(long start, long end) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) (end - start));
+        for (long position = start; position < end; position++) {
+            bytes.write(byteAt(position));
+        }
+        String line = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
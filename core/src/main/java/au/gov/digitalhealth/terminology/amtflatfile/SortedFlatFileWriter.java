@@ -0,0 +1,127 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+/**
+ * Writes the flat file sorted by CTPP SCTID or ARTG id, with a sparse index in a sidecar file next to it so
+ * {@link SortedFlatFileReader} can find the rows for a key without reading the whole file. Rows with the same key stay
+ * in the order they were generated.
+ * <p>
+ * The index is a CSV file whose header names the key column, followed by the key and byte offset of the first row and
+ * of every {@link #INDEX_INTERVAL}th row after it. Rows are sorted with an {@link ExternalSorter}, in memory unless the
+ * memory budget is for low memory mode.
+ */
+final class SortedFlatFileWriter implements FlatFileRowSink, Closeable {
+
+    private static final Logger logger = Logger.getLogger(SortedFlatFileWriter.class.getCanonicalName());
+
+    static final int INDEX_INTERVAL = 64;
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    enum SortKey {
+        CTPP("CTPP SCTID") {
+            @Override
+            long of(FlatFileRow row) {
+                return row.getCtpp().getId();
+            }
+        },
+        ARTG_ID("ARTG_ID") {
+            @Override
+            long of(FlatFileRow row) {
+                return artgKey(row.getArtgId());
+            }
+        };
+
+        private final String column;
+
+        private SortKey(String column) {
+            this.column = column;
+        }
+
+        abstract long of(FlatFileRow row);
+    }
+
+    private final Path file;
+
+    private final SortKey sortKey;
+
+    private final ExternalSorter sorter;
+
+    SortedFlatFileWriter(Path file, SortKey sortKey, MemoryBudget memoryBudget) {
+        this.file = file;
+        this.sortKey = sortKey;
+        this.sorter = memoryBudget.isLowMemory()
+                ? new ExternalSorter("flat-file-" + sortKey.name(), memoryBudget.getTempDirectory(), memoryBudget.getSortBufferBytes())
+                : new ExternalSorter("flat-file-" + sortKey.name(), null, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the sparse index file written next to the sorted flat file
+     */
+    static Path indexFile(Path file) {
+        return Paths.get(file + INDEX_SUFFIX);
+    }
+
+    /**
+     * ARTG ids are integers, rows with no ARTG id (or one which is not an integer) are given the largest key so they
+     * are sorted after every other row
+     */
+    static long artgKey(String artgId) {
+        try {
+            return artgId.isEmpty() ? Long.MAX_VALUE : Long.parseLong(artgId);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    @Override
+    public void accept(FlatFileRow row) throws IOException {
+        sorter.add(sortKey.of(row), row.toCsv());
+    }
+
+    /**
+     * Writes the sorted flat file and its index, called once after all rows have been accepted
+     */
+    void finish() throws IOException {
+        byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+                BufferedWriter index = Files.newBufferedWriter(indexFile(file), StandardCharsets.UTF_8)) {
+            index.write(sortKey.column + ",OFFSET");
+            index.newLine();
+
+            byte[] header = FlatFileRow.HEADER.getBytes(StandardCharsets.UTF_8);
+            out.write(header);
+            out.write(lineSeparator);
+            long offset = header.length + lineSeparator.length;
+            long rows = 0;
+
+            ExternalSorter.Cursor cursor = sorter.sorted();
+            while (cursor.next()) {
+                if (rows++ % INDEX_INTERVAL == 0) {
+                    index.write(cursor.key() + "," + offset);
+                    index.newLine();
+                }
+                byte[] line = cursor.value().getBytes(StandardCharsets.UTF_8);
+                out.write(line);
+                out.write(lineSeparator);
+                offset += line.length + lineSeparator.length;
+            }
+            logger.info("Wrote " + rows + " rows sorted by " + sortKey.column + " to " + file + " indexed in " + indexFile(file));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sorter.close();
+    }
+}
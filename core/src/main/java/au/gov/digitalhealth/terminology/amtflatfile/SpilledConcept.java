@@ -0,0 +1,107 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link Concept} for low memory processing. Its terms are held in a {@link TermStore} rather than on the heap, and
+ * rather than holding the transitive closure of its ancestors it finds them by walking its parents when asked.
+ * <p>
+ * Which of the {@link AmtConcept} classes the concept descends from is calculated on first use and remembered as a bit
+ * mask, so {@link #hasAtLeastOneMatchingAncestor(AmtConcept...)} only walks the hierarchy once per concept.
+ */
+class SpilledConcept extends Concept {
+
+    private static final int NOT_CALCULATED = -1;
+
+    private final TermStore termStore;
+
+    private long fullySpecifiedNameHandle = TermStore.NO_TERM;
+
+    private long preferredTermHandle = TermStore.NO_TERM;
+
+    private int amtAncestors = NOT_CALCULATED;
+
+    SpilledConcept(long id, boolean active, TermStore termStore) {
+        super(id, active);
+        this.termStore = termStore;
+    }
+
+    @Override
+    public String getFullSpecifiedName() {
+        return termStore.get(fullySpecifiedNameHandle);
+    }
+
+    @Override
+    public void setFullSpecifiedName(String fullSpecifiedName) {
+        fullySpecifiedNameHandle = termStore.add(fullSpecifiedName);
+    }
+
+    @Override
+    public String getPreferredTerm() {
+        return termStore.get(preferredTermHandle);
+    }
+
+    @Override
+    public void setPreferredTerm(String preferredTerm) {
+        preferredTermHandle = termStore.add(preferredTerm);
+    }
+
+    @Override
+    public void addAncestors(Map<Long, Concept> map) {
+        // ancestors are found from the parents when needed
+    }
+
+    @Override
+    public boolean hasAtLeastOneMatchingAncestor(AmtConcept... concepts) {
+        int ancestors = amtAncestors();
+        for (AmtConcept amtConcept : concepts) {
+            if ((ancestors & (1 << amtConcept.ordinal())) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Collection<Concept> getAncestors(AmtConcept concept) {
+        Collection<Concept> result = new ArrayList<>();
+        Set<Concept> visited = new HashSet<>();
+        Deque<Concept> queue = new ArrayDeque<>(getParents().values());
+        while (!queue.isEmpty()) {
+            Concept ancestor = queue.poll();
+            if (visited.add(ancestor)) {
+                if (ancestor.hasAtLeastOneMatchingAncestor(concept)) {
+                    result.add(ancestor);
+                }
+                queue.addAll(ancestor.getParents().values());
+            }
+        }
+        return result;
+    }
+
+    private int amtAncestors() {
+        if (amtAncestors == NOT_CALCULATED) {
+            // treat the concept as having no ancestors while they are calculated in case the hierarchy has a cycle
+            amtAncestors = 0;
+            int ancestors = 0;
+            for (Concept parent : getParents().values()) {
+                for (AmtConcept amtConcept : AmtConcept.values()) {
+                    if (parent.getId() == amtConcept.getId()) {
+                        ancestors |= 1 << amtConcept.ordinal();
+                    }
+                }
+                if (parent instanceof SpilledConcept) {
+                    ancestors |= ((SpilledConcept) parent).amtAncestors();
+                }
+            }
+            amtAncestors = ancestors;
+        }
+        return amtAncestors;
+    }
+}
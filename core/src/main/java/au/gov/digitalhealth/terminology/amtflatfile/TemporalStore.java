@@ -0,0 +1,667 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the flat file content of successive AMT releases, so the flat file of any stored release can be regenerated,
+ * and what a CTPP looked like or what its ARTG ids were at a given date answered, without the release ZIPs.
+ * <p>
+ * Content is held as version chains keyed by release: the preferred term of each concept in the flat file, the
+ * hierarchy links of each CTPP (the TPP, TPUU, TPs, MPP, MPUU and MP of each of its rows) and the ARTG ids of each CTPP.
+ * A release adds a version to a chain only if it changes it, so the store grows with the amount of change rather than
+ * the number of releases. Each release is saved in the store directory as a file holding only its changes, with the
+ * SCTIDs and ARTG ids in it delta encoded. The order of the release's CTPPs is kept with it, so that its flat file
+ * is regenerated in the order it was generated from the release ZIP.
+ * <p>
+ * Releases are identified by their effective time, yyyyMMdd, and must be added in order. A query for a date is answered
+ * from the latest release on or before it.
+ */
+public class TemporalStore {
+
+    private static final Logger logger = Logger.getLogger(TemporalStore.class.getCanonicalName());
+
+    static final byte[] MAGIC = "AMTTS002".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Starts the files of releases added before the store kept the order of their CTPPs
+     */
+    private static final byte[] UNORDERED_MAGIC = "AMTTS001".getBytes(StandardCharsets.US_ASCII);
+
+    static final String DELTA_SUFFIX = ".amtdelta";
+
+    private static final Pattern RELEASE_DATE = Pattern.compile("\\d{8}");
+
+    private static final Pattern CONCEPT_FILE = Pattern.compile("sct2_Concept_Snapshot_AU1000036_(\\d{8})\\.txt");
+
+    /**
+     * The columns of a CTPP's links, in the order held: TPP, TPUU, TPP TP, TPUU TP, MPP, MPUU and MP
+     */
+    private static final int LINKS = 7;
+
+    private static final long[] NO_ARTG_IDS = new long[0];
+
+    private static final String[] NO_ARTG_ID = { "" };
+
+    /**
+     * The version of a chain for a release the concept or CTPP was not in
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * The versions of one value in release order, each with the index of the release which added it
+     */
+    private static final class Chain {
+        private int[] releases = new int[1];
+        private Object[] values = new Object[1];
+        private int size;
+
+        void add(int release, Object value) {
+            if (size == releases.length) {
+                releases = Arrays.copyOf(releases, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            releases[size] = release;
+            values[size++] = value;
+        }
+
+        Object head() {
+            return values[size - 1];
+        }
+
+        /**
+         * @return the version current in the release, or {@link #REMOVED} if there is none
+         */
+        Object asOf(int release) {
+            int i = Arrays.binarySearch(releases, 0, size, release);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            return i < 0 ? REMOVED : values[i];
+        }
+    }
+
+    private final Path directory;
+
+    private final List<String> releases = new ArrayList<>();
+
+    private final Map<Long, Chain> terms = new HashMap<>();
+
+    private final Map<Long, Chain> links = new HashMap<>();
+
+    private final Map<Long, Chain> artgIds = new HashMap<>();
+
+    /**
+     * The CTPP SCTIDs of each release in the order of its flat file, null for a release added without its order
+     */
+    private final List<long[]> orders = new ArrayList<>();
+
+    private TemporalStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the store in the directory, creating the directory if it does not exist, and loads the releases in it
+     */
+    public static TemporalStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        TemporalStore store = new TemporalStore(directory);
+        List<Path> deltas;
+        try (Stream<Path> files = Files.list(directory)) {
+            deltas = files.filter(file -> file.getFileName().toString().endsWith(DELTA_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        for (Path delta : deltas) {
+            store.readDelta(delta);
+        }
+        logger.info("Loaded " + store.releases.size() + " releases from store " + directory + " with " + store.terms.size()
+                + " concepts and " + store.links.size() + " CTPPs");
+        return store;
+    }
+
+    /**
+     * Generates the flat file rows of a release ZIP and adds them to the store as a new release, identified by the
+     * effective time in the names of its files
+     *
+     * @return the release added
+     */
+    public String add(Path releaseZip, boolean exitOnError) throws IOException {
+        JUnitTestSuite_EXT testSuite = new JUnitTestSuite_EXT();
+        String release;
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(releaseZip, (ClassLoader) null)) {
+            release = releaseDate(zipFileSystem)
+                .orElseThrow(() -> new IllegalArgumentException("No concept snapshot file found in " + releaseZip));
+            FlatFileRowSink sink = newRelease(release);
+            AmtCache conceptCache = new AmtCache(zipFileSystem, testSuite, exitOnError);
+            new FlatFileGenerator(conceptCache, testSuite, exitOnError).generate(sink);
+        }
+        if (testSuite.getTestCases() != null && !testSuite.getTestCases().isEmpty()) {
+            logger.warning(testSuite.getTestCases().size() + " validation errors generating rows for " + releaseZip
+                    + ", run Amt2FlatFile for details");
+        }
+        return release;
+    }
+
+    private static Optional<String> releaseDate(FileSystem fileSystem) throws IOException {
+        for (Path root : fileSystem.getRootDirectories()) {
+            try (Stream<Path> files = Files.walk(root)) {
+                Optional<String> release = files.map(file -> CONCEPT_FILE.matcher(String.valueOf(file.getFileName())))
+                    .filter(Matcher::matches)
+                    .map(matcher -> matcher.group(1))
+                    .findFirst();
+                if (release.isPresent()) {
+                    return release;
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return a sink which adds the rows passed to it to the store as the release, once its rows have ended. Rows must
+     *         be complete and grouped by CTPP, as {@link FlatFileGenerator} produces them.
+     */
+    FlatFileRowSink newRelease(String release) {
+        checkDate(release);
+        if (!releases.isEmpty() && release.compareTo(getLatestRelease()) <= 0) {
+            throw new IllegalArgumentException(
+                "Release " + release + " must be later than the latest release in the store, " + getLatestRelease());
+        }
+        return new ReleaseSink(release);
+    }
+
+    /**
+     * Collects the terms, links and ARTG ids of a release's rows, and on the end of the rows adds the changes from the
+     * release before to the store
+     */
+    private class ReleaseSink implements FlatFileRowSink {
+        private final String release;
+        private final Map<Long, Object> releaseTerms = new HashMap<>();
+        private final Map<Long, Object> releaseLinks = new HashMap<>();
+        private final Map<Long, Object> releaseArtgIds = new HashMap<>();
+        private long ctppId;
+        private long[] ctppLinks = new long[LINKS * 16];
+        private int tuples;
+        private long[] ctppArtgIds = new long[4];
+        private int artgIdCount;
+        private long[] order = new long[1024];
+        private int ctppCount;
+
+        ReleaseSink(String release) {
+            this.release = release;
+        }
+
+        @Override
+        public void accept(FlatFileRow row) {
+            Concept[] concepts = { row.getCtpp(), row.getTpp(), row.getTpuu(), row.getTppTp(), row.getTpuuTp(), row.getMpp(),
+                    row.getMpuu(), row.getMp() };
+            if (tuples == 0 || concepts[0].getId() != ctppId) {
+                endCtpp();
+                ctppId = concepts[0].getId();
+                if (releaseLinks.containsKey(ctppId)) {
+                    throw new IllegalArgumentException("Rows of CTPP " + ctppId + " are not together");
+                }
+            }
+            for (Concept concept : concepts) {
+                releaseTerms.put(concept.getId(), concept.getPreferredTerm());
+            }
+
+            boolean sameLinks = tuples > 0;
+            for (int i = 0; sameLinks && i < LINKS; i++) {
+                sameLinks = ctppLinks[(tuples - 1) * LINKS + i] == concepts[i + 1].getId();
+            }
+            if (!sameLinks) {
+                if ((tuples + 1) * LINKS > ctppLinks.length) {
+                    ctppLinks = Arrays.copyOf(ctppLinks, ctppLinks.length * 2);
+                }
+                for (int i = 0; i < LINKS; i++) {
+                    ctppLinks[tuples * LINKS + i] = concepts[i + 1].getId();
+                }
+                tuples++;
+            }
+            // each row of the CTPP's links is repeated for each of its ARTG ids
+            if (tuples == 1 && !row.getArtgId().isEmpty()) {
+                if (artgIdCount == ctppArtgIds.length) {
+                    ctppArtgIds = Arrays.copyOf(ctppArtgIds, artgIdCount * 2);
+                }
+                ctppArtgIds[artgIdCount++] = Long.parseLong(row.getArtgId());
+            }
+        }
+
+        private void endCtpp() {
+            if (tuples > 0) {
+                releaseLinks.put(ctppId, Arrays.copyOf(ctppLinks, tuples * LINKS));
+                releaseArtgIds.put(ctppId, artgIdCount == 0 ? NO_ARTG_IDS : Arrays.copyOf(ctppArtgIds, artgIdCount));
+                if (ctppCount == order.length) {
+                    order = Arrays.copyOf(order, ctppCount * 2);
+                }
+                order[ctppCount++] = ctppId;
+                tuples = 0;
+                artgIdCount = 0;
+            }
+        }
+
+        @Override
+        public void end() throws IOException {
+            endCtpp();
+            TreeMap<Long, Object> termChanges = changes(terms, releaseTerms);
+            TreeMap<Long, Object> linkChanges = changes(links, releaseLinks);
+            TreeMap<Long, Object> artgIdChanges = changes(artgIds, releaseArtgIds);
+            long[] releaseOrder = Arrays.copyOf(order, ctppCount);
+            long[] previousOrder = orders.isEmpty() ? null : orders.get(orders.size() - 1);
+            boolean sameOrder = Arrays.equals(releaseOrder, previousOrder);
+
+            Path delta = writeDelta(release, termChanges, linkChanges, artgIdChanges, sameOrder ? null : releaseOrder);
+            int index = releases.size();
+            releases.add(release);
+            apply(terms, index, termChanges);
+            apply(links, index, linkChanges);
+            apply(artgIds, index, artgIdChanges);
+            orders.add(sameOrder ? previousOrder : releaseOrder);
+
+            logger.info("Added release " + release + " to store " + directory + " with " + termChanges.size() + " term, "
+                    + linkChanges.size() + " CTPP link and " + artgIdChanges.size() + " ARTG id changes in "
+                    + Files.size(delta) + " bytes");
+        }
+    }
+
+    /**
+     * @return the new version of each chain the release changes, by SCTID, with {@link #REMOVED} for those not in the
+     *         release
+     */
+    private static TreeMap<Long, Object> changes(Map<Long, Chain> chains, Map<Long, Object> release) {
+        TreeMap<Long, Object> changes = new TreeMap<>();
+        for (Entry<Long, Object> entry : release.entrySet()) {
+            Chain chain = chains.get(entry.getKey());
+            if (chain == null || !Objects.deepEquals(chain.head(), entry.getValue())) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Entry<Long, Chain> entry : chains.entrySet()) {
+            if (!release.containsKey(entry.getKey()) && entry.getValue().head() != REMOVED) {
+                changes.put(entry.getKey(), REMOVED);
+            }
+        }
+        return changes;
+    }
+
+    private static void apply(Map<Long, Chain> chains, int release, Map<Long, Object> changes) {
+        for (Entry<Long, Object> change : changes.entrySet()) {
+            chains.computeIfAbsent(change.getKey(), id -> new Chain()).add(release, change.getValue());
+        }
+    }
+
+    /**
+     * Writes the release's changes to a file in the store directory named for the release. The file starts with
+     * {@link #MAGIC} and the release, then holds the term, link and ARTG id changes in turn, each as a count followed by
+     * the changes in SCTID order. Each change starts with its SCTID as the zigzag varint difference from the SCTID before,
+     * followed by a varint which is 0 if the concept or CTPP is no longer in the release, and otherwise
+     * <ul>
+     * <li>for a term, 1 if there is none, or the length plus 2 followed by the UTF-8 bytes of the term</li>
+     * <li>for links, the number of rows plus 1 followed by the 7 SCTIDs of each row, each as the zigzag varint difference
+     * from the same column in the row before</li>
+     * <li>for ARTG ids, the number of ids plus 1 followed by each id as the zigzag varint difference from the one
+     * before</li>
+     * </ul>
+     * The changes are followed by the order of the release's CTPPs, as 0 if it is the same as the release before, and
+     * otherwise the number of CTPPs plus 1 followed by the index of each in SCTID order of the release's CTPPs.
+     */
+    private Path writeDelta(String release, Map<Long, Object> termChanges, Map<Long, Object> linkChanges,
+            Map<Long, Object> artgIdChanges, long[] order) throws IOException {
+        Path delta = directory.resolve(release + DELTA_SUFFIX);
+        Path temporary = directory.resolve(release + DELTA_SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeUTF(release);
+
+            writeVarint(out, termChanges.size());
+            long previous = 0;
+            for (Entry<Long, Object> change : termChanges.entrySet()) {
+                previous = writeId(out, change.getKey(), previous);
+                if (change.getValue() == REMOVED) {
+                    writeVarint(out, 0);
+                } else if (change.getValue() == null) {
+                    writeVarint(out, 1);
+                } else {
+                    byte[] bytes = ((String) change.getValue()).getBytes(StandardCharsets.UTF_8);
+                    writeVarint(out, bytes.length + 2);
+                    out.write(bytes);
+                }
+            }
+
+            writeVarint(out, linkChanges.size());
+            previous = 0;
+            for (Entry<Long, Object> change : linkChanges.entrySet()) {
+                previous = writeId(out, change.getKey(), previous);
+                if (change.getValue() == REMOVED) {
+                    writeVarint(out, 0);
+                } else {
+                    long[] ids = (long[]) change.getValue();
+                    writeVarint(out, ids.length / LINKS + 1);
+                    for (int i = 0; i < ids.length; i++) {
+                        writeId(out, ids[i], i < LINKS ? 0 : ids[i - LINKS]);
+                    }
+                }
+            }
+
+            writeVarint(out, artgIdChanges.size());
+            previous = 0;
+            for (Entry<Long, Object> change : artgIdChanges.entrySet()) {
+                previous = writeId(out, change.getKey(), previous);
+                if (change.getValue() == REMOVED) {
+                    writeVarint(out, 0);
+                } else {
+                    long[] ids = (long[]) change.getValue();
+                    writeVarint(out, ids.length + 1);
+                    long previousId = 0;
+                    for (long id : ids) {
+                        previousId = writeId(out, id, previousId);
+                    }
+                }
+            }
+
+            if (order == null) {
+                writeVarint(out, 0);
+            } else {
+                long[] sorted = order.clone();
+                Arrays.sort(sorted);
+                writeVarint(out, order.length + 1);
+                for (long id : order) {
+                    writeVarint(out, Arrays.binarySearch(sorted, id));
+                }
+            }
+        }
+        return Files.move(temporary, delta, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void readDelta(Path delta) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(delta), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            boolean ordered = Arrays.equals(magic, MAGIC);
+            if (!ordered && !Arrays.equals(magic, UNORDERED_MAGIC)) {
+                throw new IllegalArgumentException(delta + " is not a release of a temporal store");
+            }
+            String release = in.readUTF();
+            if (!delta.getFileName().toString().equals(release + DELTA_SUFFIX)) {
+                throw new IllegalArgumentException(delta + " holds release " + release);
+            }
+            int index = releases.size();
+            releases.add(release);
+
+            long id = 0;
+            for (int i = (int) readVarint(in); i > 0; i--) {
+                id += unzigzag(readVarint(in));
+                int length = (int) readVarint(in);
+                Object term = length == 0 ? REMOVED : null;
+                if (length > 1) {
+                    byte[] bytes = new byte[length - 2];
+                    in.readFully(bytes);
+                    term = new String(bytes, StandardCharsets.UTF_8);
+                }
+                terms.computeIfAbsent(id, key -> new Chain()).add(index, term);
+            }
+
+            id = 0;
+            for (int i = (int) readVarint(in); i > 0; i--) {
+                id += unzigzag(readVarint(in));
+                int rows = (int) readVarint(in) - 1;
+                Object value = REMOVED;
+                if (rows >= 0) {
+                    long[] ids = new long[rows * LINKS];
+                    for (int j = 0; j < ids.length; j++) {
+                        ids[j] = (j < LINKS ? 0 : ids[j - LINKS]) + unzigzag(readVarint(in));
+                    }
+                    value = ids;
+                }
+                links.computeIfAbsent(id, key -> new Chain()).add(index, value);
+            }
+
+            id = 0;
+            for (int i = (int) readVarint(in); i > 0; i--) {
+                id += unzigzag(readVarint(in));
+                int count = (int) readVarint(in) - 1;
+                Object value = REMOVED;
+                if (count >= 0) {
+                    long[] ids = new long[count];
+                    long previous = 0;
+                    for (int j = 0; j < count; j++) {
+                        previous += unzigzag(readVarint(in));
+                        ids[j] = previous;
+                    }
+                    value = ids;
+                }
+                artgIds.computeIfAbsent(id, key -> new Chain()).add(index, value);
+            }
+
+            int count = ordered ? (int) readVarint(in) - 1 : -1;
+            if (count < 0) {
+                orders.add(ordered ? orders.get(index - 1) : null);
+            } else {
+                long[] sorted = ctppIds(index);
+                long[] order = new long[count];
+                for (int i = 0; i < count; i++) {
+                    order[i] = sorted[(int) readVarint(in)];
+                }
+                orders.add(order);
+            }
+        }
+    }
+
+    private static long writeId(DataOutput out, long id, long previous) throws IOException {
+        writeVarint(out, ColumnarFlatFileWriter.zigzag(id - previous));
+        return id;
+    }
+
+    private static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void checkDate(String date) {
+        if (date == null || !RELEASE_DATE.matcher(date).matches()) {
+            throw new IllegalArgumentException("Expected a date as yyyyMMdd but got " + date);
+        }
+    }
+
+    /**
+     * @return the index of the latest release on or before the date, or -1 if there is none
+     */
+    private int releaseIndex(String date) {
+        checkDate(date);
+        int i = Collections.binarySearch(releases, date);
+        return i < 0 ? -i - 2 : i;
+    }
+
+    /**
+     * @return the releases in the store, oldest first
+     */
+    public List<String> getReleases() {
+        return Collections.unmodifiableList(releases);
+    }
+
+    public String getLatestRelease() {
+        return releases.isEmpty() ? null : releases.get(releases.size() - 1);
+    }
+
+    /**
+     * @return the latest release on or before the date, or null if the store has none
+     */
+    public String getRelease(String date) {
+        int release = releaseIndex(date);
+        return release < 0 ? null : releases.get(release);
+    }
+
+    /**
+     * @return the preferred term of the concept in the latest release on or before the date, or null if the concept was
+     *         not in the flat file of that release
+     */
+    public String getTerm(long conceptId, String date) {
+        Chain chain = terms.get(conceptId);
+        Object term = chain == null ? REMOVED : chain.asOf(releaseIndex(date));
+        return term == REMOVED ? null : (String) term;
+    }
+
+    /**
+     * @return the ARTG ids of the CTPP in the latest release on or before the date, empty if it had none or was not in
+     *         that release
+     */
+    public long[] getArtgIds(long ctppId, String date) {
+        Chain chain = artgIds.get(ctppId);
+        Object ids = chain == null ? REMOVED : chain.asOf(releaseIndex(date));
+        return ids == REMOVED ? NO_ARTG_IDS : ((long[]) ids).clone();
+    }
+
+    /**
+     * @return the releases which added the CTPP, changed its links or ARTG ids, or removed it, oldest first
+     */
+    public List<String> getChanges(long ctppId) {
+        TreeSet<Integer> changes = new TreeSet<>();
+        for (Map<Long, Chain> chains : Arrays.asList(links, artgIds)) {
+            Chain chain = chains.get(ctppId);
+            for (int i = 0; chain != null && i < chain.size; i++) {
+                changes.add(chain.releases[i]);
+            }
+        }
+        return changes.stream().map(releases::get).collect(Collectors.toList());
+    }
+
+    /**
+     * Passes the rows of the flat file of the latest release on or before the date to the sink. The rows are the same
+     * as those generated from the release ZIP and in the same order, or ordered by CTPP SCTID for a release added
+     * before the store kept the order of its CTPPs.
+     */
+    public void generate(String date, FlatFileRowSink sink) throws IOException {
+        int release = requireRelease(date);
+        long[] ctppIds = orders.get(release) == null ? ctppIds(release) : orders.get(release);
+
+        Map<Long, Concept> concepts = new HashMap<>();
+        FlatFileRow row = new FlatFileRow();
+        sink.begin();
+        for (long ctppId : ctppIds) {
+            rows(ctppId, release, concepts, row, sink);
+        }
+        sink.end();
+    }
+
+    /**
+     * Passes the rows of the CTPP in the latest release on or before the date to the sink, none if the CTPP was not in
+     * that release
+     */
+    public void generate(String date, long ctppId, FlatFileRowSink sink) throws IOException {
+        int release = requireRelease(date);
+        sink.begin();
+        if (links.containsKey(ctppId)) {
+            rows(ctppId, release, new HashMap<>(), new FlatFileRow(), sink);
+        }
+        sink.end();
+    }
+
+    /**
+     * @return the SCTIDs of the CTPPs in the release, in SCTID order
+     */
+    private long[] ctppIds(int release) {
+        return links.entrySet()
+            .stream()
+            .filter(entry -> entry.getValue().asOf(release) != REMOVED)
+            .mapToLong(Entry::getKey)
+            .sorted()
+            .toArray();
+    }
+
+    private int requireRelease(String date) {
+        int release = releaseIndex(date);
+        if (release < 0) {
+            throw new IllegalArgumentException("The store has no release on or before " + date);
+        }
+        return release;
+    }
+
+    private void rows(long ctppId, int release, Map<Long, Concept> concepts, FlatFileRow row, FlatFileRowSink sink)
+            throws IOException {
+        Object value = links.get(ctppId).asOf(release);
+        if (value == REMOVED) {
+            return;
+        }
+        long[] ids = (long[]) value;
+        long[] ctppArtgIds = (long[]) artgIds.get(ctppId).asOf(release);
+        String[] artgIdColumns = NO_ARTG_ID;
+        if (ctppArtgIds.length > 0) {
+            artgIdColumns = new String[ctppArtgIds.length];
+            for (int i = 0; i < ctppArtgIds.length; i++) {
+                artgIdColumns[i] = Long.toString(ctppArtgIds[i]);
+            }
+        }
+
+        Concept ctpp = concept(ctppId, release, concepts);
+        for (int i = 0; i < ids.length; i += LINKS) {
+            Concept[] linked = new Concept[LINKS];
+            for (int j = 0; j < LINKS; j++) {
+                linked[j] = concept(ids[i + j], release, concepts);
+            }
+            for (String artgId : artgIdColumns) {
+                row.set(ctpp, artgId, linked[0], linked[1], linked[2], linked[3], linked[4], linked[5], linked[6]);
+                sink.accept(row);
+            }
+        }
+    }
+
+    private Concept concept(long id, int release, Map<Long, Concept> concepts) {
+        Concept concept = concepts.get(id);
+        if (concept == null) {
+            concept = new Concept(id, true);
+            Object term = terms.get(id).asOf(release);
+            concept.setPreferredTerm(term == REMOVED ? null : (String) term);
+            concepts.put(id, concept);
+        }
+        return concept;
+    }
+}
@@ -0,0 +1,620 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Full text index over the preferred terms and fully specified names of the active AMT products and substances, for
+ * typeahead searches such as "amoxicillin 500 mg cap".
+ * <p>
+ * Terms are normalised to lower case with runs of whitespace collapsed to a single space. Each indexed concept has a
+ * handle, its position in order of preferred term length and then SCTID, and every trigram of its normalised terms
+ * maps to a posting list of the handles of the concepts with it, held as delta encoded varints with a skip pointer
+ * every {@value #SKIP_INTERVAL} handles. A trigram may start with one or two spaces before a word, so query words of one
+ * or two characters are found as word prefixes through the index too.
+ * <p>
+ * A query matches a concept when every word of the query is found in its preferred term or in its fully specified
+ * name. Words of three or more characters may be found anywhere in a term, shorter words only at the start of a word.
+ * Matches are ranked
+ * <ol>
+ * <li>preferred terms starting with the query,</li>
+ * <li>fully specified names starting with the query,</li>
+ * <li>the other matches, those with more words matched at the start of a word first and then the preferred term
+ * before the fully specified name,</li>
+ * </ol>
+ * each with shorter preferred terms first. The first two are found by binary search of the terms in sorted order, and
+ * when many terms start with the query the first of them in handle order are taken. The others are found by
+ * intersecting the posting lists of the query's trigrams a handle at a time, so a search stops as soon as enough
+ * matches are found that no longer term could rank above.
+ * <p>
+ * The index is immutable once built and may be searched from any number of threads.
+ */
+public final class TermIndex {
+
+    /**
+     * Product and substance types in the order a concept's type is decided by, so a CTPP, which is also below TPP and
+     * MPP in the hierarchy, is a CTPP
+     */
+    private static final AmtConcept[] TYPES = { AmtConcept.CTPP, AmtConcept.TPP, AmtConcept.MPP, AmtConcept.TPUU, AmtConcept.MPUU,
+            AmtConcept.MP, AmtConcept.TP, AmtConcept.SUBSTANCE };
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private static final int SKIP_INTERVAL = 64;
+
+    private final Concept[] concepts;
+
+    /**
+     * Position in {@link #TYPES} of each concept's type
+     */
+    private final byte[] types;
+
+    private final String[] preferredTerms;
+
+    private final String[] fullySpecifiedNames;
+
+    /**
+     * Handles in order of normalised preferred term
+     */
+    private final int[] preferredTermOrder;
+
+    /**
+     * Handles in order of normalised fully specified name
+     */
+    private final int[] fullySpecifiedNameOrder;
+
+    /**
+     * Position of each handle in {@link #preferredTermOrder}
+     */
+    private final int[] preferredTermRank;
+
+    /**
+     * Position of each handle in {@link #fullySpecifiedNameOrder}
+     */
+    private final int[] fullySpecifiedNameRank;
+
+    private final long[] trigrams;
+
+    private final int[] counts;
+
+    private final byte[][] postings;
+
+    /**
+     * For each posting list of more than {@value #SKIP_INTERVAL} handles, pairs of the handle before each further
+     * interval and the offset of the interval's first handle, otherwise null
+     */
+    private final int[][] skips;
+
+    /**
+     * @param candidates concepts to index, only active concepts below one of the product or substance types are kept
+     */
+    TermIndex(Collection<Concept> candidates) {
+        List<Concept> indexed = new ArrayList<>();
+        for (Concept concept : candidates) {
+            if (concept.isActive() && !AmtConcept.isEnumValue(concept.getId()) && typeOf(concept) >= 0) {
+                indexed.add(concept);
+            }
+        }
+
+        int size = indexed.size();
+        Map<Concept, String> normalisedPreferredTerms = new HashMap<>(size * 2);
+        for (Concept concept : indexed) {
+            normalisedPreferredTerms.put(concept, normalise(concept.getPreferredTerm()));
+        }
+        indexed.sort(Comparator.<Concept> comparingInt(concept -> normalisedPreferredTerms.get(concept).length())
+            .thenComparingLong(Concept::getId));
+
+        concepts = indexed.toArray(new Concept[size]);
+        types = new byte[size];
+        preferredTerms = new String[size];
+        fullySpecifiedNames = new String[size];
+
+        Map<Long, PostingList> lists = new HashMap<>();
+        long[] scratch = new long[256];
+        for (int handle = 0; handle < size; handle++) {
+            Concept concept = concepts[handle];
+            types[handle] = (byte) typeOf(concept);
+            String pt = normalisedPreferredTerms.get(concept);
+            String fsn = normalise(concept.getFullSpecifiedName());
+            preferredTerms[handle] = pt;
+            fullySpecifiedNames[handle] = fsn;
+
+            if (scratch.length < 3 * (pt.length() + fsn.length())) {
+                scratch = new long[3 * (pt.length() + fsn.length())];
+            }
+            int found = trigramsOf(pt, scratch, 0);
+            found = trigramsOf(fsn, scratch, found);
+            Arrays.sort(scratch, 0, found);
+            for (int i = 0; i < found; i++) {
+                if (i == 0 || scratch[i] != scratch[i - 1]) {
+                    lists.computeIfAbsent(scratch[i], key -> new PostingList()).add(handle);
+                }
+            }
+        }
+        preferredTermOrder = sortedHandles(preferredTerms);
+        fullySpecifiedNameOrder = sortedHandles(fullySpecifiedNames);
+        preferredTermRank = ranks(preferredTermOrder);
+        fullySpecifiedNameRank = ranks(fullySpecifiedNameOrder);
+
+        trigrams = new long[lists.size()];
+        int next = 0;
+        for (long trigram : lists.keySet()) {
+            trigrams[next++] = trigram;
+        }
+        Arrays.sort(trigrams);
+        counts = new int[trigrams.length];
+        postings = new byte[trigrams.length][];
+        skips = new int[trigrams.length][];
+        for (int i = 0; i < trigrams.length; i++) {
+            PostingList list = lists.get(trigrams[i]);
+            counts[i] = list.count;
+            postings[i] = Arrays.copyOf(list.bytes, list.length);
+            skips[i] = list.skipCount == 0 ? null : Arrays.copyOf(list.skips, list.skipCount);
+        }
+    }
+
+    /**
+     * @param query words to find, in any case and spacing
+     * @param limit maximum number of matches to return
+     * @param types types of concept to return, all product and substance types if none are given
+     * @return the best matches, best first, empty if the query has no words
+     */
+    public List<Match> search(String query, int limit, AmtConcept... types) {
+        String normalised = normalise(query);
+        if (normalised.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        boolean[] typeWanted = new boolean[TYPES.length];
+        for (int i = 0; i < TYPES.length; i++) {
+            typeWanted[i] = types.length == 0 || Arrays.asList(types).contains(TYPES[i]);
+        }
+        String[] words = normalised.split(" ");
+        Cursor[] cursors = cursors(words);
+        if (cursors == null) {
+            return Collections.emptyList();
+        }
+
+        // a term starting with the query has every word at the start of a word as well
+        TopMatches top = new TopMatches(limit);
+        String after = normalised + Character.MAX_VALUE;
+        int preferredFrom = firstNotBefore(preferredTermOrder, preferredTerms, normalised);
+        int preferredTo = firstNotBefore(preferredTermOrder, preferredTerms, after);
+        offerStartingWith(preferredTermOrder, preferredTermRank, preferredFrom, preferredTo, 0, 0, typeWanted,
+            2 * 4 * words.length + 1, top);
+        int fullySpecifiedFrom = firstNotBefore(fullySpecifiedNameOrder, fullySpecifiedNames, normalised);
+        int fullySpecifiedTo = firstNotBefore(fullySpecifiedNameOrder, fullySpecifiedNames, after);
+        if (!top.isFull()) {
+            offerStartingWith(fullySpecifiedNameOrder, fullySpecifiedNameRank, fullySpecifiedFrom, fullySpecifiedTo, preferredFrom,
+                preferredTo, typeWanted, 2 * 4 * words.length, top);
+        }
+
+        // candidates come in handle order, so once every match held has the best score possible without a prefix
+        // match no later candidate can rank above them
+        int bestScore = 2 * 2 * words.length + 1;
+        for (int handle = nextCandidate(cursors, 0); handle != NONE && !(top.isFull() && top.worstScore() >= bestScore);
+                handle = nextCandidate(cursors, handle + 1)) {
+            int preferredRank = preferredTermRank[handle];
+            int fullySpecifiedRank = fullySpecifiedNameRank[handle];
+            if (!typeWanted[this.types[handle]] || preferredRank >= preferredFrom && preferredRank < preferredTo
+                    || fullySpecifiedRank >= fullySpecifiedFrom && fullySpecifiedRank < fullySpecifiedTo) {
+                continue;
+            }
+            int score = Math.max(2 * score(preferredTerms[handle], words) + 1, 2 * score(fullySpecifiedNames[handle], words));
+            if (score > 1) {
+                top.offer(score, handle);
+            }
+        }
+
+        List<Match> result = new ArrayList<>(top.count);
+        for (int i = 0; i < top.count; i++) {
+            int handle = top.handle(i);
+            result.add(new Match(concepts[handle], TYPES[this.types[handle]], top.score(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Offers the handles from and to the positions in the order, of the wanted types and without their preferred term
+     * from and to the excluded positions of the preferred term order, with the score
+     */
+    private void offerStartingWith(int[] order, int[] rank, int from, int to, int excludedFrom, int excludedTo, boolean[] typeWanted,
+            int score, TopMatches top) {
+        long terms = to - from;
+        if (terms * terms <= (long) top.limit() * concepts.length) {
+            for (int i = from; i < to; i++) {
+                offer(order[i], excludedFrom, excludedTo, typeWanted, score, top);
+            }
+        } else {
+            // so many terms start with the query that the first of them in handle order, which rank first, are soon found
+            for (int handle = 0; handle < concepts.length && !top.isFull(); handle++) {
+                if (rank[handle] >= from && rank[handle] < to) {
+                    offer(handle, excludedFrom, excludedTo, typeWanted, score, top);
+                }
+            }
+        }
+    }
+
+    private void offer(int handle, int excludedFrom, int excludedTo, boolean[] typeWanted, int score, TopMatches top) {
+        int preferredRank = preferredTermRank[handle];
+        if (typeWanted[types[handle]] && (preferredRank < excludedFrom || preferredRank >= excludedTo)) {
+            top.offer(score, handle);
+        }
+    }
+
+    /**
+     * @return number of concepts indexed
+     */
+    public int size() {
+        return concepts.length;
+    }
+
+    /**
+     * @return number of distinct trigrams indexed
+     */
+    int trigramCount() {
+        return trigrams.length;
+    }
+
+    /**
+     * @return bytes held by the posting lists
+     */
+    long postingBytes() {
+        long bytes = 0;
+        for (byte[] posting : postings) {
+            bytes += posting.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the term in lower case with leading and trailing whitespace removed and other runs of whitespace replaced
+     *         by a single space
+     */
+    public static String normalise(String term) {
+        if (term == null) {
+            return "";
+        }
+        StringBuilder normalised = new StringBuilder(term.length());
+        boolean space = false;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = normalised.length() > 0;
+            } else {
+                if (space) {
+                    normalised.append(' ');
+                    space = false;
+                }
+                normalised.append(c);
+            }
+        }
+        return normalised.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return a cursor over the posting list of each distinct trigram of the words, shortest list first, or null if a
+     *         trigram is in no term so nothing can match
+     */
+    private Cursor[] cursors(String[] words) {
+        List<Integer> lists = new ArrayList<>();
+        for (String word : words) {
+            String key = word.length() >= 3 ? word : word.length() == 2 ? " " + word : "  " + word;
+            for (int i = 0; i + 3 <= key.length(); i++) {
+                int list = Arrays.binarySearch(trigrams, trigram(key, i));
+                if (list < 0) {
+                    return null;
+                }
+                if (!lists.contains(list)) {
+                    lists.add(list);
+                }
+            }
+        }
+        lists.sort(Comparator.comparingInt(list -> counts[list]));
+        Cursor[] cursors = new Cursor[lists.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = new Cursor(postings[lists.get(i)], skips[lists.get(i)]);
+        }
+        return cursors;
+    }
+
+    /**
+     * @return the first handle from the one given which is in every posting list, or {@link #NONE} if there are no more
+     */
+    private static int nextCandidate(Cursor[] cursors, int from) {
+        int candidate = cursors[0].advance(from);
+        int agreed = 1;
+        for (int i = 1 % cursors.length; agreed < cursors.length && candidate != NONE; i = (i + 1) % cursors.length) {
+            int handle = cursors[i].advance(candidate);
+            if (handle == candidate) {
+                agreed++;
+            } else {
+                candidate = handle;
+                agreed = 1;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * @return position in the order of the first term not before the prefix
+     */
+    private static int firstNotBefore(int[] order, String[] terms, String prefix) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (terms[order[middle]].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int[] ranks(int[] order) {
+        int[] ranks = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ranks[order[i]] = i;
+        }
+        return ranks;
+    }
+
+    private static int[] sortedHandles(String[] terms) {
+        return IntStream.range(0, terms.length).boxed().sorted(Comparator.comparing(handle -> terms[handle])).mapToInt(
+            Integer::intValue).toArray();
+    }
+
+    /**
+     * @return 0 if a word of the query is not in the term, otherwise the sum for each word of 2 if it is at the start
+     *         of a word of the term and 1 if it is only inside one
+     */
+    private static int score(String term, String[] words) {
+        int score = 0;
+        for (String word : words) {
+            int wordScore = 0;
+            for (int at = term.indexOf(word); at >= 0 && wordScore < 2; at = term.indexOf(word, at + 1)) {
+                if (at == 0 || term.charAt(at - 1) == ' ') {
+                    wordScore = 2;
+                } else if (word.length() >= 3) {
+                    wordScore = 1;
+                }
+            }
+            if (wordScore == 0) {
+                return 0;
+            }
+            score += wordScore;
+        }
+        return score;
+    }
+
+    /**
+     * Adds the trigrams of the term, and for each word those of two spaces and its first character and of a space and
+     * its first two characters, to the trigrams from the offset. Trigrams spanning words are not needed as query words
+     * never contain spaces.
+     *
+     * @return the offset after the last trigram added
+     */
+    private static int trigramsOf(String term, long[] trigrams, int offset) {
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c == ' ') {
+                continue;
+            }
+            char next = i + 1 < term.length() ? term.charAt(i + 1) : ' ';
+            if (i == 0 || term.charAt(i - 1) == ' ') {
+                trigrams[offset++] = trigram(' ', ' ', c);
+                if (next != ' ') {
+                    trigrams[offset++] = trigram(' ', c, next);
+                }
+            }
+            if (next != ' ' && i + 2 < term.length() && term.charAt(i + 2) != ' ') {
+                trigrams[offset++] = trigram(c, next, term.charAt(i + 2));
+            }
+        }
+        return offset;
+    }
+
+    private static long trigram(String text, int from) {
+        return trigram(text.charAt(from), text.charAt(from + 1), text.charAt(from + 2));
+    }
+
+    private static long trigram(char first, char second, char third) {
+        return (long) first << 32 | (long) second << 16 | third;
+    }
+
+    /**
+     * @return position in {@link #TYPES} of the concept's type, -1 if it is not a product or substance
+     */
+    private static int typeOf(Concept concept) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (concept.hasAtLeastOneMatchingAncestor(TYPES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Ascending handles of one trigram as they are added, each as the varint difference from the handle before
+     */
+    private static final class PostingList {
+
+        private byte[] bytes = new byte[4];
+
+        private int length;
+
+        private int count;
+
+        private int last;
+
+        private int[] skips = new int[0];
+
+        private int skipCount;
+
+        void add(int handle) {
+            if (count > 0 && count % SKIP_INTERVAL == 0) {
+                if (skipCount == skips.length) {
+                    skips = Arrays.copyOf(skips, Math.max(8, skips.length * 2));
+                }
+                skips[skipCount++] = last;
+                skips[skipCount++] = length;
+            }
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int delta = handle - last;
+            while ((delta & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+            last = handle;
+            count++;
+        }
+    }
+
+    /**
+     * Reads a posting list forward, decoding only as far as it is asked to and skipping whole intervals before the
+     * handle asked for
+     */
+    private static final class Cursor {
+
+        private final byte[] posting;
+
+        private final int[] skips;
+
+        private int skip;
+
+        private int position;
+
+        private int handle;
+
+        Cursor(byte[] posting, int[] skips) {
+            this.posting = posting;
+            this.skips = skips;
+        }
+
+        /**
+         * @return the first handle of the list not less than the target, {@link #NONE} if there is none
+         */
+        int advance(int target) {
+            if (skips != null && handle < target) {
+                // every handle of an interval is after the handle before it, so intervals before the target are passed
+                while (skip < skips.length && skips[skip] < target) {
+                    if (skips[skip + 1] > position) {
+                        handle = skips[skip];
+                        position = skips[skip + 1];
+                    }
+                    skip += 2;
+                }
+            }
+            while (position == 0 || handle < target) {
+                if (position == posting.length) {
+                    handle = NONE;
+                    break;
+                }
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = posting[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                handle += delta;
+            }
+            return handle;
+        }
+    }
+
+    /**
+     * The best matches found so far, held in rank order as the score and handle packed into a long so ties on score go
+     * to the lower handle
+     */
+    private static final class TopMatches {
+
+        private final long[] keys;
+
+        private int count;
+
+        TopMatches(int limit) {
+            keys = new long[limit];
+        }
+
+        int limit() {
+            return keys.length;
+        }
+
+        void offer(int score, int handle) {
+            long key = (long) (0xFFFF - Math.min(score, 0xFFFF)) << 32 | handle;
+            if (isFull() && key >= keys[count - 1]) {
+                return;
+            }
+            int at = Arrays.binarySearch(keys, 0, count, key);
+            at = at < 0 ? -at - 1 : at;
+            System.arraycopy(keys, at, keys, at + 1, Math.min(count, keys.length - 1) - at);
+            keys[at] = key;
+            count = Math.min(count + 1, keys.length);
+        }
+
+        boolean isFull() {
+            return count == keys.length;
+        }
+
+        int worstScore() {
+            return score(count - 1);
+        }
+
+        int score(int i) {
+            return 0xFFFF - (int) (keys[i] >>> 32);
+        }
+
+        int handle(int i) {
+            return (int) keys[i];
+        }
+    }
+
+    /**
+     * A concept found by a search, with its product or substance type and the score it was ranked by
+     */
+    public static final class Match {
+
+        private final Concept concept;
+
+        private final AmtConcept type;
+
+        private final int score;
+
+        Match(Concept concept, AmtConcept type, int score) {
+            this.concept = concept;
+            this.type = type;
+            this.score = score;
+        }
+
+        public Concept getConcept() {
+            return concept;
+        }
+
+        public AmtConcept getType() {
+            return type;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + concept.toConceptReference();
+        }
+    }
+}
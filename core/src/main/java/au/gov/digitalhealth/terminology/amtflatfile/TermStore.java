@@ -0,0 +1,128 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds terms in a temporary file rather than on the heap. Each term is appended to the file as it is added and
+ * identified by its offset in the file, and terms are read back through memory mapped segments of the file, so the
+ * operating system rather than the heap holds whatever part of the file is in use.
+ */
+class TermStore implements Closeable {
+
+    static final long NO_TERM = -1;
+
+    private static final int SEGMENT_SHIFT = 30;
+
+    /**
+     * Segments overlap by the longest term that can be stored, so every term lies entirely within the segment its
+     * offset falls in
+     */
+    private static final int MAX_TERM_BYTES = 1 << 16;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(1 << 16);
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    private long size;
+
+    TermStore(Path tempDirectory) throws IOException {
+        file = Files.createTempFile(tempDirectory, "amt-terms-", ".bin");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * @return the handle used to read the term back, or {@link #NO_TERM} if the term is null
+     */
+    synchronized long add(String term) {
+        if (term == null) {
+            return NO_TERM;
+        }
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length + Integer.BYTES > MAX_TERM_BYTES) {
+            throw new IllegalArgumentException("Term of " + bytes.length + " bytes is too long to store: " + term);
+        }
+
+        try {
+            if (writeBuffer.remaining() < bytes.length + Integer.BYTES) {
+                flush();
+            }
+            long handle = size;
+            writeBuffer.putInt(bytes.length).put(bytes);
+            size += bytes.length + Integer.BYTES;
+            return handle;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed writing term to " + file, e);
+        }
+    }
+
+    synchronized String get(long handle) {
+        if (handle == NO_TERM) {
+            return null;
+        }
+
+        try {
+            ByteBuffer segment = segmentContaining(handle);
+            int position = (int) (handle & ((1L << SEGMENT_SHIFT) - 1));
+            byte[] bytes = new byte[segment.getInt(position)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = segment.get(position + Integer.BYTES + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed reading term from " + file, e);
+        }
+    }
+
+    private ByteBuffer segmentContaining(long handle) throws IOException {
+        int index = (int) (handle >>> SEGMENT_SHIFT);
+        while (segments.size() <= index) {
+            segments.add(null);
+        }
+
+        MappedByteBuffer segment = segments.get(index);
+        long start = (long) index << SEGMENT_SHIFT;
+        if (segment == null || start + segment.capacity() <= handle) {
+            // the term was added after the segment was mapped
+            flush();
+            long length = Math.min(size - start, (1L << SEGMENT_SHIFT) + MAX_TERM_BYTES);
+            segment = channel.map(MapMode.READ_ONLY, start, length);
+            segments.set(index, segment);
+        }
+        return segment;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer, channel.size());
+        }
+        writeBuffer.clear();
+    }
+
+    long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segments.clear();
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+}
@@ -10,89 +10,94 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
-import org.apache.tika.Tika;
-
 class TerminologyFileVisitor extends SimpleFileVisitor<Path> {
 
     private static final Logger logger = Logger.getLogger(TerminologyFileVisitor.class.getCanonicalName());
 
-    private static final int MAX_FILE_SIZE = 1000000000;
+    private final long maxFileSize;
 
     private Path conceptFile, relationshipFile, descriptionFile, languageRefsetFile, artgIdRefsetFile;
     private List<Path> historicalAssociationRefsetFiles = new ArrayList<>();
+    private List<Path> concreteValueRefsetFiles = new ArrayList<>();
 
-    private Tika tika = new Tika();
+    TerminologyFileVisitor(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attr) throws IOException {
         if (attr.isRegularFile()) {
             String fileName = file.getFileName().toString();
             if (fileName.matches("sct2_Concept_Snapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.CONCEPT_HEADER)) {
                     conceptFile = file;
                 }
             } else if (fileName.matches("sct2_Relationship_Snapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.RELATIONSHIP_HEADER)) {
                     relationshipFile = file;
                 }
             } else if (fileName.matches("sct2_Description_Snapshot-en-AU_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.DESCRIPTION_HEADER)) {
                     descriptionFile = file;
                 }
             } else if (fileName.matches("der2_cRefset_LanguageSnapshot-en-AU_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.LANGUAGE_REFSET_HEADER)) {
                     languageRefsetFile = file;
                 }
             } else if (fileName.matches("der2_iRefset_ARTGIdSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ARTG_ID_REFSET_HEADER)) {
                     artgIdRefsetFile = file;
                 }
             } else if (fileName.matches("der2_cRefset_AssociationReferenceSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER)) {
                     historicalAssociationRefsetFiles.add(file);
                 }
             } else if (fileName.matches("der2_cRefset_AlternativeAssociationSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER)) {
                     historicalAssociationRefsetFiles.add(file);
                 }
             } else if (fileName.matches("der2_cRefset_MovedFromAssociationReferenceSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER)) {
                     historicalAssociationRefsetFiles.add(file);
                 }
             } else if (fileName.matches("der2_cRefset_MovedToAssociationReferenceSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER)) {
                     historicalAssociationRefsetFiles.add(file);
                 }
             } else if (fileName.matches("der2_cRefset_PossiblyEquivalentToAssociationSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER)) {
                     historicalAssociationRefsetFiles.add(file);
                 }
             } else if (fileName.matches("der2_cRefset_ReplacedByAssociationSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER)) {
                     historicalAssociationRefsetFiles.add(file);
                 }
             } else if (fileName.matches("der2_cRefset_SameAsAssociationSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER)) {
                     historicalAssociationRefsetFiles.add(file);
                 }
             } else if (fileName.matches("der2_cRefset_WasAAssociationSnapshot_AU1000036_\\d{8}\\.txt")) {
-                if (verifyFile(file)) {
+                if (verifyFile(file, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER)) {
                     historicalAssociationRefsetFiles.add(file);
                 }
+            } else if (fileName.matches("der2_ccsRefset_\\w+Snapshot_AU1000036_\\d{8}\\.txt")) {
+                if (verifyFile(file, Rf2FileVerifier.CONCRETE_VALUE_REFSET_HEADER)) {
+                    concreteValueRefsetFiles.add(file);
+                }
             }
         }
         return FileVisitResult.CONTINUE;
     }
 
-    private boolean verifyFile(Path file) throws IOException {
-        if (Files.size(file) > MAX_FILE_SIZE) {
+    private boolean verifyFile(Path file, String[] expectedHeader) throws IOException {
+        if (Files.size(file) > maxFileSize) {
             logger.warning("File " + file + " was detected for reading but skipped because it is over the maximum file size theshold "
-                    + MAX_FILE_SIZE);
+                    + maxFileSize);
             return false;
-        } else if (!tika.detect(file).equals("text/plain")) {
-            logger.warning(
-                "File " + file + " was detected for reading but skipped because it is not a plain text file as expected, detected type was "
-                        + tika.detect(file));
+        }
+        String problem = Rf2FileVerifier.checkRf2Header(file, expectedHeader);
+        if (problem != null) {
+            logger.warning("File " + file + " was detected for reading but skipped because " + problem);
             return false;
         }
         return true;
@@ -121,6 +126,13 @@ class TerminologyFileVisitor extends SimpleFileVisitor<Path> {
     public List<Path> getHistoricalAssociationRefsetFiles() {
         return historicalAssociationRefsetFiles;
     }
+
+    /**
+     * @return the concrete domain reference sets, such as strength and unit of use quantity, which are optional
+     */
+    public List<Path> getConcreteValueRefsetFiles() {
+        return concreteValueRefsetFiles;
+    }
     
     public void ensureAllFilesExist() {
     	if(this.getConceptFile() == null) {
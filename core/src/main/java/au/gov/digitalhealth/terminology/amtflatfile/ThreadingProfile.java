@@ -0,0 +1,96 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the threads a job uses, for I/O bound work such as writing output files and for CPU bound work such as
+ * parsing release files, and keeps count of the threads used and the time they spent blocked waiting for other threads.
+ * Each job has its own profile, passed to everything that creates threads for it, so jobs run at the same time in one
+ * JVM report only their own threads.
+ * <p>
+ * This is the Java 8 implementation which runs I/O tasks on a pool of platform threads. When the build runs on Java 21
+ * or later a replacement in src/main/java21 is packaged in the multi-release JAR which uses virtual threads for I/O
+ * tasks instead, so no pool needs sizing. Both must have the same public API.
+ */
+public final class ThreadingProfile {
+
+    private final Set<String> ioThreadsUsed = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> cpuThreadsUsed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    public ThreadingProfile() {
+    }
+
+    public boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * @param name prefix for the names of threads created by the executor
+     * @param threads number of tasks that are expected to run at the same time, used to size the pool of platform
+     *            threads
+     * @return an executor for I/O bound tasks, which must be shut down after use
+     */
+    public ExecutorService newIoExecutor(String name, int threads) {
+        return newPlatformExecutor(name, threads, ioThreadsUsed);
+    }
+
+    /**
+     * @param name prefix for the names of threads created by the executor
+     * @param threads size of the pool of platform threads, usually one per processor
+     * @return an executor for CPU bound tasks, which must be shut down after use
+     */
+    public ExecutorService newCpuExecutor(String name, int threads) {
+        return newPlatformExecutor(name, threads, cpuThreadsUsed);
+    }
+
+    private static ExecutorService newPlatformExecutor(String name, int threads, Set<String> threadsUsed) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(() -> {
+                threadsUsed.add(Thread.currentThread().getName() + "#" + Thread.currentThread().getId());
+                r.run();
+            }, name + "-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds time the current thread spent blocked, for example waiting on a full or empty queue, to the total reported
+     * by {@link #report()}
+     */
+    public void recordBlocked(long nanos) {
+        blockedNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return the number of threads I/O tasks ran on
+     */
+    public int getThreadsUsed() {
+        return ioThreadsUsed.size();
+    }
+
+    /**
+     * @return the number of threads CPU bound tasks ran on
+     */
+    public int getCpuThreadsUsed() {
+        return cpuThreadsUsed.size();
+    }
+
+    public long getBlockedMillis() {
+        return blockedNanos.get() / 1000000;
+    }
+
+    public String report() {
+        return "I/O tasks ran on " + getThreadsUsed() + " platform threads, CPU bound tasks on " + getCpuThreadsUsed()
+                + " platform threads, and they spent " + getBlockedMillis() + " ms blocked";
+    }
+}
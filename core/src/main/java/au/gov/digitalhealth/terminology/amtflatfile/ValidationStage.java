@@ -0,0 +1,143 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Runs validation checks at the same time on a pool of threads, each check starting as soon as it is submitted so
+ * checks can be submitted as the release is loaded and their inputs become ready. Checks only read the loaded release,
+ * recording failures in the test suite as usual.
+ * <p>
+ * When checks stop at the first error the first check to fail cancels the others. Cancellation is cooperative, checks
+ * poll {@link #isCancelled()} between items and return early once it is set, as does the loading thread between its
+ * steps with {@link #throwIfFailed()}, and {@link #await()} throws the first failure.
+ */
+final class ValidationStage implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ValidationStage.class.getCanonicalName());
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Validates part of the loaded release
+     */
+    @FunctionalInterface
+    interface Check {
+        void run();
+    }
+
+    private final ExecutorService executor;
+
+    private final boolean stopOnFailure;
+
+    private final List<Future<?>> checks = new ArrayList<>();
+
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    private volatile boolean cancelled;
+
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * @param name
+     *            prefix for the names of the threads the checks run on
+     * @param stopOnFailure
+     *            cancel the other checks once a check fails by throwing, otherwise the others run to the end
+     * @param threading
+     *            creates the threads the checks run on
+     */
+    ValidationStage(String name, boolean stopOnFailure, ThreadingProfile threading) {
+        this.stopOnFailure = stopOnFailure;
+        executor = threading.newCpuExecutor(name, THREADS);
+    }
+
+    /**
+     * Starts the check, unless the stage has already been cancelled
+     *
+     * @param name
+     *            names the check in log messages
+     */
+    synchronized void submit(String name, Check check) {
+        if (cancelled) {
+            return;
+        }
+        checks.add(executor.submit(() -> {
+            if (cancelled) {
+                return;
+            }
+            long checkStart = System.currentTimeMillis();
+            try {
+                check.run();
+            } catch (RuntimeException e) {
+                if (failure.compareAndSet(null, e) && stopOnFailure) {
+                    cancelled = true;
+                    logger.warning("Check " + name + " failed, cancelling the other checks");
+                }
+                throw e;
+            }
+            logger.fine((cancelled ? "Cancelled " : "Ran ") + name + " in " + (System.currentTimeMillis() - checkStart)
+                    + " milliseconds");
+        }));
+    }
+
+    /**
+     * @return true once a check has failed and the others should stop
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws the failure of the first check to fail if the stage has been cancelled, for work outside the checks to
+     * stop early
+     */
+    void throwIfFailed() {
+        if (cancelled && failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Waits for every check submitted to finish, or return early if cancelled
+     *
+     * @throws RuntimeException
+     *             the failure of the first check to fail, if any failed
+     */
+    void await() {
+        List<Future<?>> submitted;
+        synchronized (this) {
+            submitted = new ArrayList<>(checks);
+        }
+        for (Future<?> check : submitted) {
+            try {
+                check.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for validation checks", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                // the first failure is thrown once every check has stopped
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        logger.info("Ran " + submitted.size() + " validation checks in " + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    /**
+     * Cancels any checks still running, such as when loading the release failed
+     */
+    @Override
+    public void close() {
+        cancelled = true;
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,95 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the threads a job uses, for I/O bound work such as writing output files and for CPU bound work such as
+ * parsing release files, and keeps count of the threads used and the time they spent blocked waiting for other threads.
+ * Each job has its own profile, passed to everything that creates threads for it, so jobs run at the same time in one
+ * JVM report only their own threads.
+ * <p>
+ * This is the Java 21 implementation, packaged in META-INF/versions/21 of the multi-release JAR. Each I/O task runs on
+ * its own virtual thread, so tasks blocked on I/O or queues give up their carrier thread to other tasks and no pool
+ * needs sizing. The report counts the virtual threads started, not the carrier threads they are mounted on, which
+ * belong to the JVM's shared scheduler rather than the job. CPU bound tasks gain nothing from virtual threads so still
+ * run on a pool of platform threads, which are counted. Must have the same public API as the Java 8 implementation in
+ * src/main/java.
+ */
+public final class ThreadingProfile {
+
+    private final AtomicInteger ioThreadsUsed = new AtomicInteger();
+
+    private final Set<String> cpuThreadsUsed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    public ThreadingProfile() {
+    }
+
+    public boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * @param name prefix for the names of threads created by the executor
+     * @param threads ignored, a virtual thread is started for every task
+     * @return an executor for I/O bound tasks, which must be shut down after use
+     */
+    public ExecutorService newIoExecutor(String name, int threads) {
+        ThreadFactory virtualThreads = Thread.ofVirtual().name(name + "-", 0).factory();
+        return Executors.newThreadPerTaskExecutor(r -> {
+            ioThreadsUsed.incrementAndGet();
+            return virtualThreads.newThread(r);
+        });
+    }
+
+    /**
+     * @param name prefix for the names of threads created by the executor
+     * @param threads size of the pool of platform threads, usually one per processor
+     * @return an executor for CPU bound tasks, which must be shut down after use
+     */
+    public ExecutorService newCpuExecutor(String name, int threads) {
+        ThreadFactory platformThreads = Thread.ofPlatform().name(name + "-", 0).daemon(true).factory();
+        return Executors.newFixedThreadPool(threads, r -> platformThreads.newThread(() -> {
+            cpuThreadsUsed.add(Thread.currentThread().getName() + "#" + Thread.currentThread().threadId());
+            r.run();
+        }));
+    }
+
+    /**
+     * Adds time the current thread spent blocked, for example waiting on a full or empty queue, to the total reported
+     * by {@link #report()}
+     */
+    public void recordBlocked(long nanos) {
+        blockedNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return the number of virtual threads I/O tasks ran on
+     */
+    public int getThreadsUsed() {
+        return ioThreadsUsed.get();
+    }
+
+    /**
+     * @return the number of threads CPU bound tasks ran on
+     */
+    public int getCpuThreadsUsed() {
+        return cpuThreadsUsed.size();
+    }
+
+    public long getBlockedMillis() {
+        return blockedNanos.get() / 1000000;
+    }
+
+    public String report() {
+        return "I/O tasks ran on " + getThreadsUsed() + " virtual threads, CPU bound tasks on " + getCpuThreadsUsed()
+                + " platform threads, and they spent " + getBlockedMillis() + " ms blocked";
+    }
+}
@@ -0,0 +1,46 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ArtgIdIndexTest {
+
+    @Test(groups = "artg", priority = 1, description = "ARTG ids are held once each and normalised to the order earlier versions wrote rows in")
+    public void normalisesArtgIds() {
+        Concept ctpp = new Concept(1, true);
+        ctpp.addArtgId(203756);
+        ctpp.addArtgId(103756);
+        ctpp.addArtgId(203756);
+        Assert.assertEquals(Arrays.toString(ctpp.getArtgIds()), "[203756, 103756]");
+
+        ctpp.normaliseArtgIds(artgId -> artgId == 203756 ? " 203756 " : Long.toString(artgId));
+
+        Set<String> asLoaded = new HashSet<>(Arrays.asList("103756", " 203756 "));
+        long[] expected = asLoaded.stream().map(String::trim).collect(Collectors.toSet()).stream().mapToLong(Long::parseLong).toArray();
+        Assert.assertEquals(Arrays.toString(ctpp.getArtgIds()), Arrays.toString(expected));
+
+        ctpp.clearArtgIds();
+        Assert.assertEquals(ctpp.getArtgIds().length, 0);
+    }
+
+    @Test(groups = "artg", priority = 1, description = "Each ARTG id maps to every CTPP with it")
+    public void mapsArtgIdsToCtpps() {
+        Concept first = new Concept(1001, true);
+        first.addArtgId(500);
+        first.addArtgId(600);
+        Concept second = new Concept(1002, true);
+        second.addArtgId(500);
+        Concept none = new Concept(1003, true);
+
+        ArtgIdIndex index = new ArtgIdIndex(Arrays.asList(second, none, first));
+        Assert.assertEquals(Arrays.toString(index.getCtppIds(500)), "[1001, 1002]");
+        Assert.assertEquals(Arrays.toString(index.getCtppIds(600)), "[1001]");
+        Assert.assertEquals(index.getCtppIds(700).length, 0);
+        Assert.assertEquals(index.size(), 2);
+    }
+}
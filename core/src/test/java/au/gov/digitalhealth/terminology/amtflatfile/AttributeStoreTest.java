@@ -0,0 +1,79 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class AttributeStoreTest {
+
+    @Test(groups = "attributes", priority = 1, description = "Each concept's attributes are stored together in the order they were read")
+    public void groupsAttributesByConcept() {
+        AttributeStore.Builder builder = new AttributeStore.Builder();
+        builder.addAttribute(11, 300, 900, 1, AttributeType.HAS_INTENDED_ACTIVE_INGREDIENT);
+        builder.addAttribute(12, 100, 901, 0, AttributeType.HAS_TP);
+        builder.addAttribute(13, 300, 902, 1, AttributeType.HAS_AUSTRALIAN_BOSS);
+        builder.addAttribute(14, 300, 903, 2, AttributeType.HAS_INTENDED_ACTIVE_INGREDIENT);
+        for (int i = 0; i < 2000; i++) {
+            builder.addAttribute(1000 + i, 200, 5000 + i, i, AttributeType.HAS_TPUU);
+        }
+        AttributeStore store = builder.build();
+
+        Assert.assertEquals(store.size(), 2004);
+        Assert.assertEquals(store.conceptCount(), 3);
+        Assert.assertEquals(store.handle(150), -1);
+
+        int mpuu = store.handle(300);
+        Assert.assertEquals(store.end(mpuu) - store.first(mpuu), 3);
+        int first = store.first(mpuu);
+        Assert.assertEquals(store.getType(first), AttributeType.HAS_INTENDED_ACTIVE_INGREDIENT);
+        Assert.assertEquals(store.getDestination(first), 900);
+        Assert.assertEquals(store.getRelationshipId(first + 1), 13);
+        Assert.assertEquals(store.getGroup(first + 2), 2);
+
+        int tpp = store.handle(200);
+        Assert.assertEquals(store.end(tpp) - store.first(tpp), 2000);
+        Assert.assertEquals(store.getDestination(store.end(tpp) - 1), 6999);
+    }
+
+    @Test(groups = "attributes", priority = 1, description = "Concrete values are stored with the relationship they are given for")
+    public void storesConcreteValues() {
+        AttributeStore.Builder builder = new AttributeStore.Builder();
+        builder.addValue(13, 258684004, 276136004, "250");
+        builder.addValue(13, 258684004, 276136004, "500");
+        builder.addValue(99, 258684004, 276136004, "1");
+        builder.addAttribute(11, 300, 900, 1, AttributeType.HAS_INTENDED_ACTIVE_INGREDIENT);
+        builder.addAttribute(13, 300, 902, 1, AttributeType.HAS_AUSTRALIAN_BOSS);
+        AttributeStore store = builder.build();
+
+        int first = store.first(store.handle(300));
+        Assert.assertFalse(store.hasValue(first));
+        Assert.assertNull(store.getValue(first));
+        Assert.assertEquals(store.getValueUnit(first), 0);
+
+        Assert.assertTrue(store.hasValue(first + 1));
+        Assert.assertEquals(store.getValue(first + 1), "500");
+        Assert.assertEquals(store.getValueUnit(first + 1), 258684004);
+        Assert.assertEquals(store.getValueOperator(first + 1), 276136004);
+    }
+
+    @Test(groups = "attributes", priority = 1, description = "A release loaded with a budget that does not hold attributes has no attribute store", expectedExceptions = IllegalStateException.class)
+    public void attributesNotHeldWithoutBudget() throws IOException {
+        Path testOutDirectory = Paths.get("target/test-out/attributes/");
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("release.zip");
+        SyntheticRelease.write(zip, 10);
+
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null);
+                AmtCache conceptCache = new AmtCache(zipFileSystem, new JUnitTestSuite_EXT(), true, new SharedMetadata(),
+                    MemoryBudget.lowMemory(testOutDirectory, 1 << 20).withoutAttributes())) {
+            Assert.assertEquals(conceptCache.getCtpps().size(), 10);
+            conceptCache.getAttributeStore();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BuildStateTest {
+
+    private String testOutDirectory = "target/test-out/build-state/";
+
+    @Test(groups = "incremental", priority = 1, description = "Generation is only skipped while the input, parameters and outputs are unchanged")
+    public void detectsChanges() throws IOException {
+        Path stateDirectory = Paths.get(testOutDirectory + "state");
+        Path input = write("release.zip", "release 1");
+        Path output = write("flat.csv", "rows");
+        Map<String, String> parameters = new TreeMap<>();
+        parameters.put("shards", "1");
+
+        Files.deleteIfExists(BuildState.load(stateDirectory, output, input, parameters).getStateFile());
+        BuildState state = BuildState.load(stateDirectory, output, input, parameters);
+        Assert.assertNotNull(state.outOfDateReason());
+        state.save(Collections.singletonList(output));
+        Assert.assertNull(BuildState.load(stateDirectory, output, input, parameters).outOfDateReason());
+
+        parameters.put("shards", "2");
+        Assert.assertEquals(BuildState.load(stateDirectory, output, input, parameters).outOfDateReason(), "the configuration has changed");
+        parameters.put("shards", "1");
+
+        write("flat.csv", "edited rows");
+        Assert.assertTrue(BuildState.load(stateDirectory, output, input, parameters).outOfDateReason().contains("has been modified"));
+        write("flat.csv", "rows");
+        Assert.assertNull(BuildState.load(stateDirectory, output, input, parameters).outOfDateReason());
+
+        write("release.zip", "release two");
+        Assert.assertEquals(BuildState.load(stateDirectory, output, input, parameters).outOfDateReason(), "the input has changed");
+
+        state = BuildState.load(stateDirectory, output, input, parameters);
+        state.invalidate();
+        Assert.assertFalse(Files.exists(state.getStateFile()));
+    }
+
+    @Test(groups = "incremental", priority = 1, description = "Executions for the same release share one loaded cache and each gets the load errors")
+    public void sharesLoadedCaches() throws IOException {
+        AmtCacheRegistry.clear();
+        AtomicInteger loads = new AtomicInteger();
+        AmtCacheRegistry.Loader loader = suite -> {
+            loads.incrementAndGet();
+            suite.addTestCase("Inactive CTPP found", "detail", "Inactive_CTPP", "ERROR");
+            return null;
+        };
+
+        JUnitTestSuite_EXT first = new JUnitTestSuite_EXT();
+        first.addTestCases(AmtCacheRegistry.get("release-a", loader).getLoadSuite());
+        JUnitTestSuite_EXT second = new JUnitTestSuite_EXT();
+        second.addTestCases(AmtCacheRegistry.get("release-a", loader).getLoadSuite());
+        second.addTestCase("TPUU error", "detail", "Inactive_CTPP", "ERROR");
+        Assert.assertEquals(loads.get(), 1);
+        Assert.assertEquals(first.getTestCases().get(0).getFailures().size(), 1, "Failures added to one suite are not shared");
+        Assert.assertEquals(second.getTestCases().get(0).getFailures().size(), 2);
+
+        AmtCacheRegistry.get("release-b", loader);
+        Assert.assertEquals(loads.get(), 2);
+        AmtCacheRegistry.clear();
+    }
+
+    private Path write(String name, String content) throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path path = Paths.get(testOutDirectory + name);
+        Files.write(path, Arrays.asList(content), StandardCharsets.UTF_8);
+        return path;
+    }
+}
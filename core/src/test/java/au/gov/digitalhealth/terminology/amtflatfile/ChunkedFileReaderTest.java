@@ -0,0 +1,44 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ChunkedFileReaderTest {
+
+    private String testOutDirectory = "target/test-out/chunked/";
+
+    @Test(groups = "chunked", priority = 1, description = "Rows split across many small chunks are filtered and handled in file order")
+    public void readsRowsInFileOrder() throws IOException {
+        StringBuilder content = new StringBuilder("id\tactive\tterm\r\n");
+        for (int i = 0; i < 5000; i++) {
+            content.append(i).append('\t').append(i % 3 == 0 ? "0" : "1").append("\tterm \u00e9 ").append(i).append("\r\n");
+        }
+        new File(testOutDirectory).mkdirs();
+        Path file = Paths.get(testOutDirectory + "rows.txt");
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertTrue(ChunkedFileReader.canRead(file));
+        List<String[]> rows = new ArrayList<>();
+        ThreadingProfile threading = new ThreadingProfile();
+        ChunkedFileReader.read(file, true, "\t", RowReducer.filtering(row -> row[1].equals("1"), rows::add), 1000, threading);
+        Assert.assertTrue(threading.getCpuThreadsUsed() > 0, "Chunks parsed on threads from the profile");
+
+        Assert.assertEquals(rows.size(), 5000 - 1667);
+        int expected = 1;
+        for (String[] row : rows) {
+            Assert.assertEquals(row.length, 3);
+            Assert.assertEquals(row[0], Integer.toString(expected));
+            Assert.assertEquals(row[2], "term \u00e9 " + expected);
+            expected += expected % 3 == 2 ? 2 : 1;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ClosureTableWriterTest {
+
+    private Path testOutDirectory = Paths.get("target/test-out/closure-table/");
+
+    @Test(groups = "closure-table", priority = 1, description = "The closure table holds each concept's ancestors at their shortest depth, sorted, in CSV and binary COPY format")
+    public void writesClosureTable() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("release.zip");
+        SyntheticRelease.write(zip, 3000);
+
+        FlatFileJob job = job(zip);
+        job.run();
+
+        List<String> csv = Files.readAllLines(testOutDirectory.resolve("closure.csv"), StandardCharsets.UTF_8);
+        Assert.assertEquals(csv.get(0), ClosureTableWriter.HEADER);
+        List<String> rows = csv.subList(1, csv.size());
+        Assert.assertEquals(readCopyFile(testOutDirectory.resolve("closure.bin")), rows);
+
+        Map<Long, Map<Long, Integer>> closure = new HashMap<>();
+        long[] previous = { 0, 0 };
+        for (String row : rows) {
+            long[] columns = Arrays.stream(row.split(",")).mapToLong(Long::parseLong).toArray();
+            Assert.assertTrue(columns[0] > previous[0] || columns[0] == previous[0] && columns[1] > previous[1], row);
+            previous = columns;
+            closure.computeIfAbsent(columns[0], id -> new HashMap<>()).put(columns[1], (int) columns[2]);
+        }
+
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+            AmtCache conceptCache = new AmtCache(zipFileSystem, new JUnitTestSuite_EXT(), true);
+            for (Concept ctpp : conceptCache.getCtpps().values()) {
+                Map<Long, Integer> ancestors = closure.get(ctpp.getId());
+                Concept tpp = ctpp.getAncestors(AmtConcept.TPP).iterator().next();
+                Concept mpp = tpp.getParents().values().stream().filter(c -> c.getId() != AmtConcept.TPP.getId()).findFirst().get();
+                Assert.assertEquals(ancestors.get(tpp.getId()), Integer.valueOf(1));
+                Assert.assertEquals(ancestors.get(AmtConcept.CTPP.getId()), Integer.valueOf(1));
+                Assert.assertEquals(ancestors.get(AmtConcept.TPP.getId()), Integer.valueOf(2));
+                Assert.assertEquals(ancestors.get(mpp.getId()), Integer.valueOf(2));
+                Assert.assertEquals(ancestors.get(AmtConcept.MPP.getId()), Integer.valueOf(3));
+                Assert.assertEquals(ancestors.size(), 5);
+            }
+            // the ancestors at depth 1 are the parents, and the ancestors of an ancestor are ancestors no further away
+            for (Map.Entry<Long, Map<Long, Integer>> descendant : closure.entrySet()) {
+                Assert.assertEquals(
+                    descendant.getValue().entrySet().stream().filter(e -> e.getValue() == 1).map(e -> e.getKey()).collect(Collectors.toSet()),
+                    conceptCache.getConcept(descendant.getKey()).getParents().keySet());
+                for (Map.Entry<Long, Integer> ancestor : descendant.getValue().entrySet()) {
+                    for (Map.Entry<Long, Integer> next : closure.getOrDefault(ancestor.getKey(), new HashMap<>()).entrySet()) {
+                        Assert.assertTrue(descendant.getValue().get(next.getKey()) <= ancestor.getValue() + next.getValue());
+                    }
+                }
+            }
+            for (long id : conceptCache.getAmtModuleConceptIds()) {
+                Assert.assertEquals(closure.containsKey(id), !conceptCache.getConcept(id).getParents().isEmpty());
+            }
+            conceptCache.close();
+        }
+
+        // found from the concepts' parents in low memory mode too, overwriting the files written before
+        byte[] csvBytes = Files.readAllBytes(testOutDirectory.resolve("closure.csv"));
+        byte[] copyBytes = Files.readAllBytes(testOutDirectory.resolve("closure.bin"));
+        job = job(zip);
+        job.setLowMemory(true);
+        job.run();
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(testOutDirectory.resolve("closure.csv")), csvBytes));
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(testOutDirectory.resolve("closure.bin")), copyBytes));
+    }
+
+    @Test(groups = "closure-table", priority = 1, description = "A file which is not in the binary COPY format is not overwritten", expectedExceptions = SecurityException.class)
+    public void refusesToOverwriteOtherFiles() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("small-release.zip");
+        SyntheticRelease.write(zip, 10);
+        Path other = testOutDirectory.resolve("other.bin");
+        Files.write(other, new byte[] { 'P', 'K', 3, 4, 0, 0, 0, 0, 0, 0, 0, 0 });
+
+        FlatFileJob job = job(zip);
+        job.setClosureCopyFilePath(other.toString());
+        job.run();
+    }
+
+    private FlatFileJob job(Path zip) {
+        FlatFileJob job = new FlatFileJob();
+        job.setInputZipFilePath(zip.toString());
+        job.setOutputFilePath(testOutDirectory.resolve("flat.csv").toString());
+        job.setJunitFilePath(testOutDirectory.resolve("junit.xml").toString());
+        job.setClosureTableFilePath(testOutDirectory.resolve("closure.csv").toString());
+        job.setClosureCopyFilePath(testOutDirectory.resolve("closure.bin").toString());
+        job.setExitOnError(true);
+        return job;
+    }
+
+    /**
+     * @return the rows of a binary COPY file of the closure table, formatted as in the CSV file
+     */
+    private static List<String> readCopyFile(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        byte[] signature = new byte[ClosureTableWriter.COPY_SIGNATURE.length];
+        buffer.get(signature);
+        Assert.assertTrue(Arrays.equals(signature, ClosureTableWriter.COPY_SIGNATURE));
+        Assert.assertEquals(buffer.getInt(), 0);
+        Assert.assertEquals(buffer.getInt(), 0);
+        List<String> rows = new ArrayList<>();
+        for (short fields = buffer.getShort(); fields != -1; fields = buffer.getShort()) {
+            Assert.assertEquals(fields, 3);
+            Assert.assertEquals(buffer.getInt(), 8);
+            long descendant = buffer.getLong();
+            Assert.assertEquals(buffer.getInt(), 8);
+            long ancestor = buffer.getLong();
+            Assert.assertEquals(buffer.getInt(), 4);
+            rows.add(descendant + "," + ancestor + "," + buffer.getInt());
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+        return rows;
+    }
+}
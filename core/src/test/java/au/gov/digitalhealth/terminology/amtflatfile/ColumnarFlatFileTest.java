@@ -0,0 +1,122 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ColumnarFlatFileTest {
+
+    private static final int ROWS = 150000;
+
+    private Path testOutDirectory = Paths.get("target/test-out/columnar/");
+
+    @Test(groups = "columnar", priority = 1, description = "Every column of every row reads back as written to the CSV flat file")
+    public void readsBackRows() throws IOException {
+        Path file = testOutDirectory.resolve("amt.bin");
+        List<String> expected = write(file);
+
+        try (ColumnarFlatFileReader reader = new ColumnarFlatFileReader(file)) {
+            Assert.assertEquals(reader.getRowCount(), ROWS);
+            Assert.assertEquals(reader.getBlockCount(), 3);
+            Assert.assertEquals(reader.getColumns(), FlatFileColumn.defaults());
+
+            List<String> read = new ArrayList<>();
+            ColumnarFlatFileReader.Cursor cursor = reader.read(reader.getColumns());
+            while (cursor.next()) {
+                read.add(reader.getColumns().stream()
+                    .map(column -> column.isTerm() ? "\"" + cursor.getValue(column) + "\"" : cursor.getValue(column))
+                    .collect(Collectors.joining(",")));
+            }
+            Assert.assertFalse(cursor.next());
+            Assert.assertEquals(read, expected);
+        }
+    }
+
+    @Test(groups = "columnar", priority = 1, description = "Rows are selected by a key range using the least and greatest key of each block")
+    public void selectsRowsByKey() throws IOException {
+        Path file = testOutDirectory.resolve("amt-keys.bin");
+        write(file);
+
+        try (ColumnarFlatFileReader reader = new ColumnarFlatFileReader(file)) {
+            Assert.assertEquals(reader.getMin(1, FlatFileColumn.CTPP_SCTID), ctppId(ColumnarFlatFileWriter.BLOCK_ROWS));
+            Assert.assertEquals(reader.getMax(1, FlatFileColumn.CTPP_SCTID), ctppId(2 * ColumnarFlatFileWriter.BLOCK_ROWS - 1));
+
+            ColumnarFlatFileReader.Cursor cursor =
+                    reader.read(Collections.singletonList(FlatFileColumn.MP_PT), FlatFileColumn.CTPP_SCTID, ctppId(71000), ctppId(71002));
+            List<String> terms = new ArrayList<>();
+            while (cursor.next()) {
+                terms.add(cursor.getTerm(FlatFileColumn.MP_PT));
+            }
+            Assert.assertEquals(terms, Arrays.asList("mp 71", "mp 71", "mp 71"));
+        }
+    }
+
+    @Test(groups = "columnar", priority = 1, description = "Only the columns asked for are decoded", expectedExceptions = IllegalStateException.class)
+    public void readsOnlyColumnsAskedFor() throws IOException {
+        Path file = testOutDirectory.resolve("amt-projected.bin");
+        write(file);
+
+        try (ColumnarFlatFileReader reader = new ColumnarFlatFileReader(file)) {
+            ColumnarFlatFileReader.Cursor cursor = reader.read(Collections.singletonList(FlatFileColumn.ARTG_ID));
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(cursor.getValue(FlatFileColumn.ARTG_ID), "");
+            cursor.getId(FlatFileColumn.TPP_SCTID);
+        }
+    }
+
+    @Test(groups = "columnar", priority = 1, description = "A CSV flat file is not read as a columnar file", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsOtherFiles() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path file = testOutDirectory.resolve("amt.csv");
+        Files.write(file, (FlatFileRow.HEADER + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(ColumnarFlatFileReader.isColumnarFile(file));
+        new ColumnarFlatFileReader(file).close();
+    }
+
+    /**
+     * Writes rows for MPs with a thousand CTPPs each, with an ARTG id for every other row
+     *
+     * @return the rows as lines of the CSV flat file
+     */
+    private List<String> write(Path file) throws IOException {
+        Files.createDirectories(testOutDirectory);
+        List<String> lines = new ArrayList<>();
+        Concept[] mps = new Concept[1000];
+        for (int i = 0; i < mps.length; i++) {
+            mps[i] = concept(9000000 + i, i % 10 == 0 ? "mp " + i + " \u00b5g" : "mp " + i);
+        }
+        FlatFileRow row = new FlatFileRow();
+        try (ColumnarFlatFileWriter writer = new ColumnarFlatFileWriter(file)) {
+            for (int i = 0; i < ROWS; i++) {
+                Concept ctpp = concept(ctppId(i), "ctpp " + i);
+                Concept tpp = concept(20000000L + i / 2, "tpp " + i / 2);
+                Concept mp = mps[i / 1000];
+                row.set(ctpp, i % 2 == 0 ? "" : Integer.toString(300000 + i), tpp, tpp, tpp, tpp, tpp, mp, mp);
+                writer.accept(row);
+                lines.add(row.toCsv());
+            }
+            writer.end();
+        }
+        return lines;
+    }
+
+    private long ctppId(int row) {
+        return 1000000000L + row;
+    }
+
+    private Concept concept(long id, String term) {
+        Concept concept = new Concept(id, true);
+        concept.setPreferredTerm(term);
+        return concept;
+    }
+}
@@ -0,0 +1,86 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class FlatFileDiffTest {
+
+    private String testOutDirectory = "target/test-out/diff/";
+
+    private static final String ROW_1 = "1,\"ctpp 1, 20\",123,2,\"tpp\",3,\"tpuu\",4,\"tp\",4,\"tp\",5,\"mpp\",6,\"mpuu\",7,\"mp\"";
+    private static final String ROW_1_RENAMED = "1,\"ctpp 1 (renamed), 20\",123,2,\"tpp\",3,\"tpuu\",4,\"tp\",4,\"tp\",5,\"mpp\",6,\"mpuu\",7,\"mp\"";
+    private static final String ROW_2 = "11,\"ctpp 11\",,2,\"tpp\",3,\"tpuu\",4,\"tp\",4,\"tp\",5,\"mpp\",6,\"mpuu\",7,\"mp\"";
+    private static final String ROW_3 = "21,\"ctpp 21\",456,2,\"tpp\",3,\"tpuu\",4,\"tp\",4,\"tp\",5,\"mpp\",6,\"mpuu\",7,\"mp\"";
+
+    @Test(groups = "diff", priority = 1, description = "Flat file lines are split into columns, including terms containing commas and empty ARTG ids")
+    public void parsesFlatFileLines() {
+        String[] columns = FlatFileRow.parseCsv(ROW_1);
+        Assert.assertEquals(columns.length, FlatFileRow.COLUMN_COUNT);
+        Assert.assertEquals(columns[1], "ctpp 1, 20");
+        Assert.assertEquals(columns[2], "123");
+        Assert.assertEquals(columns[16], "mp");
+
+        Assert.assertEquals(FlatFileRow.parseCsv(ROW_2)[2], "");
+    }
+
+    @Test(groups = "diff", priority = 1, description = "Added, removed and changed rows and changed terms are reported, and fingerprints reused")
+    public void reportsDifferences() throws IOException {
+        Path from = write("from.csv", ROW_1, ROW_2);
+        Path to = write("to.csv", ROW_1_RENAMED, ROW_3);
+
+        FlatFileDiff diff = diff(from, to);
+
+        Assert.assertEquals(diff.getAdded(), 1);
+        Assert.assertEquals(diff.getRemoved(), 1);
+        Assert.assertEquals(diff.getChanged(), 1);
+        Assert.assertEquals(diff.getTermChanges(), 1);
+        Assert.assertTrue(Files.exists(RowFingerprints.sidecarFor(from)), "Fingerprints written for the earlier flat file");
+
+        List<String> terms = Files.readAllLines(Paths.get(testOutDirectory + "terms.csv"));
+        Assert.assertEquals(terms.get(1), "1,\"ctpp 1, 20\",\"ctpp 1 (renamed), 20\"");
+
+        List<String> first = Files.readAllLines(Paths.get(testOutDirectory + "diff.csv"));
+        Assert.assertEquals(diff(from, to).getChanged(), 1);
+        Assert.assertEquals(Files.readAllLines(Paths.get(testOutDirectory + "diff.csv")), first, "Same result from reused fingerprints");
+    }
+
+    @Test(groups = "diff", priority = 1, description = "A flat file written with other than the default columns is rejected", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsProjectedFlatFile() throws IOException {
+        Path from = write("from.csv", ROW_1, ROW_2);
+        Path projected = Paths.get(testOutDirectory + "projected.csv");
+        Files.deleteIfExists(RowFingerprints.sidecarFor(projected));
+        Files.write(projected, Arrays.asList("CTPP SCTID,CTPP PT", "1,\"ctpp 1, 20\"", "21,\"ctpp 21\""));
+
+        diff(from, projected);
+    }
+
+    private FlatFileDiff diff(Path from, Path to) throws IOException {
+        FlatFileDiff diff = new FlatFileDiff();
+        diff.setFromPath(from.toString());
+        diff.setToPath(to.toString());
+        diff.setOutputFilePath(testOutDirectory + "diff.csv");
+        diff.setTermChangesFilePath(testOutDirectory + "terms.csv");
+        diff.execute();
+        return diff;
+    }
+
+    private Path write(String name, String... rows) throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path path = Paths.get(testOutDirectory + name);
+        Files.deleteIfExists(RowFingerprints.sidecarFor(path));
+        List<String> lines = new ArrayList<>();
+        lines.add(FlatFileRow.HEADER);
+        lines.addAll(Arrays.asList(rows));
+        Files.write(path, lines);
+        return path;
+    }
+}
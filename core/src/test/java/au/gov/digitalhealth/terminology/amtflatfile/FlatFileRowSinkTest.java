@@ -0,0 +1,89 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class FlatFileRowSinkTest {
+
+    @Test(groups = "sinks", priority = 1, description = "The CSV sink writes the header and rows as the flat file does, to a channel as well as a stream")
+    public void writesCsvToChannel() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<String> expected = new ArrayList<>();
+        expected.add(FlatFileRow.HEADER);
+
+        FlatFileRowSink sink = new CsvRowSink(Channels.newChannel(bytes));
+        sink.begin();
+        FlatFileRow row = new FlatFileRow();
+        for (int i = 0; i < 5000; i++) {
+            set(row, i);
+            sink.accept(row);
+            expected.add(row.toCsv());
+        }
+        sink.end();
+
+        Assert.assertEquals(new String(bytes.toByteArray(), StandardCharsets.UTF_8),
+            String.join(System.lineSeparator(), expected) + System.lineSeparator());
+    }
+
+    @Test(groups = "sinks", priority = 1, description = "Batches hold copies of the reused row, and every row reaches the consumer in order")
+    public void batchesCopiesOfRows() throws IOException {
+        List<String> consumed = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        try (BatchingRowSink sink = new BatchingRowSink(100, 2, rows -> {
+            sizes.add(rows.size());
+            for (FlatFileRow row : rows) {
+                consumed.add(row.getCtpp().getPreferredTerm());
+            }
+            Thread.sleep(1);
+        })) {
+            FlatFileRowSink tee = FlatFileRowSink.tee(sink, null);
+            tee.begin();
+            FlatFileRow row = new FlatFileRow();
+            for (int i = 0; i < 1050; i++) {
+                set(row, i);
+                tee.accept(row);
+            }
+            tee.end();
+            Assert.assertEquals(sink.getRows(), 1050);
+        }
+
+        Assert.assertEquals(consumed.size(), 1050);
+        Assert.assertEquals(consumed.get(0), "ctpp 0");
+        Assert.assertEquals(consumed.get(1049), "ctpp 1049");
+        Assert.assertEquals(sizes.get(sizes.size() - 1), Integer.valueOf(50));
+    }
+
+    @Test(groups = "sinks", priority = 1, description = "A failure consuming a batch stops generation", expectedExceptions = IOException.class)
+    public void reportsConsumerFailure() throws IOException {
+        try (BatchingRowSink sink = new BatchingRowSink(10, 1, rows -> {
+            throw new IllegalStateException("database unavailable");
+        })) {
+            sink.begin();
+            FlatFileRow row = new FlatFileRow();
+            for (int i = 0; i < 100; i++) {
+                set(row, i);
+                sink.accept(row);
+            }
+            sink.end();
+        }
+    }
+
+    private void set(FlatFileRow row, int i) {
+        Concept[] concepts = new Concept[8];
+        for (int c = 0; c < concepts.length; c++) {
+            concepts[c] = new Concept(1000L * i + c, true);
+        }
+        concepts[0].setPreferredTerm("ctpp " + i);
+        Arrays.stream(concepts).skip(1).forEach(concept -> concept.setPreferredTerm("term " + concept.getId()));
+        row.set(concepts[0], i % 2 == 0 ? "" : Integer.toString(i), concepts[1], concepts[2], concepts[3], concepts[4], concepts[5],
+            concepts[6], concepts[7]);
+    }
+}
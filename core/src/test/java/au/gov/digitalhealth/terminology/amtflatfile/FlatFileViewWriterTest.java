@@ -0,0 +1,86 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import au.gov.digitalhealth.terminology.amtflatfile.FlatFileViewWriter.View;
+
+public class FlatFileViewWriterTest {
+
+    private String testOutDirectory = "target/test-out/views/";
+
+    @Test(groups = "views", priority = 1, description = "View files are named after the output file and the view")
+    public void namesViewFiles() {
+        Assert.assertEquals(FlatFileViewWriter.viewFile(Paths.get("out/amt.csv"), View.MP_MPUU), Paths.get("out/amt-mp-mpuu.csv"));
+        Assert.assertEquals(FlatFileViewWriter.viewFile(Paths.get("out/amt"), View.CTPP_ARTG_ID), Paths.get("out/amt-ctpp-artg-id"));
+        Assert.assertEquals(View.parse("tpp-tpuu, MP_MPUU,mp_mpuu"), Arrays.asList(View.MP_MPUU, View.TPP_TPUU));
+        Assert.assertTrue(View.parse(null).isEmpty());
+    }
+
+    @Test(groups = "views", priority = 1, description = "An unknown view is rejected", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsUnknownViews() {
+        View.parse("MP_TPUU");
+    }
+
+    @Test(groups = "views", priority = 1, description = "Each view lists every pair of related concepts once, in the order first found")
+    public void writesDistinctPairs() throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path output = Paths.get(testOutDirectory + "amt.csv");
+
+        Concept mp = concept(7, "mp");
+        Concept mpuu = concept(8, "mpuu");
+        Concept otherMpuu = concept(9, "other mpuu");
+        FlatFileRow row = new FlatFileRow();
+        try (FlatFileViewWriter writer = new FlatFileViewWriter(output, Arrays.asList(View.MP_MPUU, View.CTPP_ARTG_ID),
+            new ThreadingProfile())) {
+            for (int i = 0; i < 3000; i++) {
+                Concept ctpp = concept(100 + i / 2, "ctpp " + i / 2);
+                row.set(ctpp, i % 4 == 0 ? "" : Long.toString(500 + i / 2), ctpp, ctpp, ctpp, ctpp, ctpp, i % 3 == 0 ? otherMpuu : mpuu, mp);
+                writer.accept(row);
+            }
+            writer.finish();
+        }
+
+        List<String> mpMpuu = Files.readAllLines(FlatFileViewWriter.viewFile(output, View.MP_MPUU));
+        Assert.assertEquals(mpMpuu, Arrays.asList("MP SCTID,MP PT,MPUU SCTID,MPUU PT", "7,\"mp\",9,\"other mpuu\"", "7,\"mp\",8,\"mpuu\""));
+
+        List<String> ctppArtgId = Files.readAllLines(FlatFileViewWriter.viewFile(output, View.CTPP_ARTG_ID));
+        Assert.assertEquals(ctppArtgId.get(0), "CTPP SCTID,CTPP PT,ARTG_ID");
+        Assert.assertEquals(ctppArtgId.get(1), "100,\"ctpp 0\",500");
+        // every CTPP has an ARTG id on one of its two rows
+        Assert.assertEquals(ctppArtgId.size(), 1 + 1500);
+    }
+
+    @Test(groups = "views", priority = 1, description = "View files of a writer closed without finishing are deleted")
+    public void deletesUnfinishedViews() throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path output = Paths.get(testOutDirectory + "unfinished.csv");
+
+        FlatFileRow row = new FlatFileRow();
+        try (FlatFileViewWriter writer = new FlatFileViewWriter(output, Arrays.asList(View.MP_MPUU, View.CTPP_ARTG_ID),
+            new ThreadingProfile())) {
+            for (int i = 0; i < 5000; i++) {
+                Concept concept = concept(100 + i, "concept " + i);
+                row.set(concept, Long.toString(500 + i), concept, concept, concept, concept, concept, concept, concept);
+                writer.accept(row);
+            }
+        }
+
+        Assert.assertFalse(Files.exists(FlatFileViewWriter.viewFile(output, View.MP_MPUU)));
+        Assert.assertFalse(Files.exists(FlatFileViewWriter.viewFile(output, View.CTPP_ARTG_ID)));
+    }
+
+    private Concept concept(long id, String term) {
+        Concept concept = new Concept(id, true);
+        concept.setPreferredTerm(term);
+        return concept;
+    }
+}
@@ -0,0 +1,85 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LowMemoryModeTest {
+
+    private Path testOutDirectory = Paths.get("target/test-out/low-memory/");
+
+    @Test(groups = "lowMemory", priority = 1, description = "Records spilled over many runs come back in key order, equal keys in the order added")
+    public void sortsAcrossRuns() throws IOException {
+        new File(testOutDirectory.toString()).mkdirs();
+        Random random = new Random(42);
+
+        try (ExternalSorter sorter = new ExternalSorter("test", testOutDirectory, 4096)) {
+            for (int i = 0; i < 5000; i++) {
+                sorter.add(random.nextInt(500), Integer.toString(i));
+            }
+
+            ExternalSorter.Cursor cursor = sorter.sorted();
+            long previousKey = Long.MIN_VALUE;
+            int previousValue = -1;
+            int count = 0;
+            while (cursor.next()) {
+                Assert.assertTrue(cursor.key() >= previousKey, "Sorted by key");
+                if (cursor.key() == previousKey) {
+                    Assert.assertTrue(Integer.parseInt(cursor.value()) > previousValue, "Equal keys in the order added");
+                }
+                previousKey = cursor.key();
+                previousValue = Integer.parseInt(cursor.value());
+                count++;
+            }
+            Assert.assertEquals(count, 5000);
+        }
+    }
+
+    @Test(groups = "lowMemory", priority = 1, description = "Terms read back from the term store match those added, including while terms are still being added")
+    public void storesTerms() throws IOException {
+        new File(testOutDirectory.toString()).mkdirs();
+
+        try (TermStore store = new TermStore(testOutDirectory)) {
+            List<Long> handles = new ArrayList<>();
+            for (int i = 0; i < 20000; i++) {
+                handles.add(store.add("term " + i + " \u00b5g"));
+                if (i % 1000 == 0) {
+                    Assert.assertEquals(store.get(handles.get(i / 2)), "term " + i / 2 + " \u00b5g");
+                }
+            }
+            for (int i = 0; i < handles.size(); i++) {
+                Assert.assertEquals(store.get(handles.get(i)), "term " + i + " \u00b5g");
+            }
+            Assert.assertNull(store.get(store.add(null)));
+        }
+    }
+
+    @Test(groups = "lowMemory", priority = 1, description = "Spilled concepts find their AMT ancestors by walking their parents")
+    public void findsAncestorsFromParents() throws IOException {
+        new File(testOutDirectory.toString()).mkdirs();
+
+        try (TermStore store = new TermStore(testOutDirectory)) {
+            SpilledConcept mpClass = new SpilledConcept(AmtConcept.MP.getId(), true, store);
+            SpilledConcept mp = new SpilledConcept(1, true, store);
+            SpilledConcept mpuuClass = new SpilledConcept(AmtConcept.MPUU.getId(), true, store);
+            SpilledConcept mpuu = new SpilledConcept(2, true, store);
+            mpuuClass.addParent(mpClass);
+            mp.addParent(mpClass);
+            mpuu.addParent(mpuuClass);
+            mpuu.addParent(mp);
+
+            Assert.assertTrue(mpuu.hasAtLeastOneMatchingAncestor(AmtConcept.MP));
+            Assert.assertTrue(mpuu.hasAtLeastOneMatchingAncestor(AmtConcept.MPUU));
+            Assert.assertFalse(mp.hasAtLeastOneMatchingAncestor(AmtConcept.MPUU));
+            Assert.assertTrue(mpuu.getAncestors(AmtConcept.MP).contains(mp));
+            Assert.assertFalse(mpuu.getAncestors(AmtConcept.MP).contains(mpClass));
+        }
+    }
+}
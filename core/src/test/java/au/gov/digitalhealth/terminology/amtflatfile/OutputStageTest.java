@@ -0,0 +1,67 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class OutputStageTest {
+
+    @Test(groups = "outputs", priority = 1, description = "Writers run at the same time, and the last writer only once they have all finished")
+    public void runsWritersTogether() throws IOException {
+        CountDownLatch started = new CountDownLatch(3);
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        OutputStage stage = new OutputStage("test-output", new ThreadingProfile());
+        for (String output : new String[] { "flat", "replacements", "resolved" }) {
+            stage.add(output, () -> {
+                started.countDown();
+                try {
+                    // only completes if every writer is running at once
+                    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                written.add(output);
+            });
+        }
+        stage.run("junit", () -> written.add("junit"));
+
+        Assert.assertEquals(written.size(), 4);
+        Assert.assertEquals(written.get(3), "junit");
+    }
+
+    @Test(groups = "outputs", priority = 1, description = "A failed writer is reported and the last writer is not run", expectedExceptions = IOException.class)
+    public void reportsFailedWriter() throws IOException {
+        new OutputStage("test-output", new ThreadingProfile())
+            .add("flat", () -> {
+            })
+            .add("replacements", () -> {
+                throw new IOException("disk full");
+            })
+            .run("junit", () -> Assert.fail("The JUnit file should not be written after a failure"));
+    }
+
+    @Test(groups = "outputs", priority = 1, description = "Validation errors recorded by writers at the same time are all kept")
+    public void recordsFailuresConcurrently() throws IOException {
+        JUnitTestSuite_EXT testSuite = new JUnitTestSuite_EXT();
+        OutputStage stage = new OutputStage("test-output", new ThreadingProfile());
+        for (int writer = 0; writer < 4; writer++) {
+            int first = writer * 1000;
+            stage.add("writer " + writer, () -> {
+                for (int i = first; i < first + 1000; i++) {
+                    testSuite.addTestCase("message " + i, "detail", "case " + i % 10, "ERROR");
+                }
+            });
+        }
+        stage.run("junit", () -> {
+        });
+
+        Assert.assertEquals(testSuite.getTestCases().size(), 10);
+        Assert.assertEquals(testSuite.getTestCases().stream().mapToInt(testCase -> testCase.getFailures().size()).sum(), 4000);
+    }
+}
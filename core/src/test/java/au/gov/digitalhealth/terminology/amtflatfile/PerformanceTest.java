@@ -0,0 +1,327 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.testng.Assert;
+import org.testng.Reporter;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Runs a {@link FlatFileJob} over the bundled release and a larger synthetic release, measuring the wall time and the
+ * bytes allocated by every thread while the release is loaded and while the outputs are written, and the heap retained
+ * by the loaded {@link AmtCache}. It fails if any measurement is worse than the checked in baseline by more than its
+ * tolerance, or has no baseline. It also fails if the term index of a loaded release takes a millisecond or more on
+ * average to answer a typeahead query.
+ * <p>
+ * Wall times are recorded relative to a calibration run of a fixed workload which does not use the code under test,
+ * timed on the same machine after each release is warmed up, so the baseline holds on faster or slower machines.
+ * <p>
+ * The tests are in the performance group, which is only run with the performance profile, for example
+ * {@code mvn -Pperformance test}. Each release is generated once to warm up and then measured over several runs, taking
+ * the best of each measurement as it is the least affected by other work on the machine. A report of the
+ * measurements and their differences from the baseline is written to target/test-out/performance/report.txt, and the
+ * measurements to measured.properties next to it, which can be copied over the baseline when a change is expected to
+ * cost more.
+ */
+public class PerformanceTest {
+
+    private static final String BASELINE = "src/test/resources/performance-baseline.properties";
+
+    private static final int SYNTHETIC_PRODUCTS = 20000;
+
+    private static final int TERM_INDEX_PRODUCTS = 2000;
+
+    private static final int MEASURED_RUNS = 3;
+
+    private static final int CALIBRATION_RUNS = 10;
+
+    private static final int CALIBRATION_LINES = 200000;
+
+    private Path testOutDirectory = Paths.get("target/test-out/performance/");
+
+    /**
+     * The release the mojo's tests generate
+     */
+    private Path bundledRelease =
+            Paths.get("../mojo/src/test/resources/NCTS_SCT_RF2_DISTRIBUTION_32506021000036107-20180430-SNAPSHOT.zip");
+
+    private Properties baseline = new Properties();
+
+    private Map<String, Long> measured = new TreeMap<>();
+
+    private List<String> report = new ArrayList<>();
+
+    /**
+     * Nanoseconds taken by the best calibration run
+     */
+    private long calibrationNanos;
+
+    private long calibrationResult;
+
+    @BeforeClass(groups = "performance")
+    public void loadBaseline() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        try (InputStream in = Files.newInputStream(Paths.get(BASELINE))) {
+            baseline.load(in);
+        }
+    }
+
+    @Test(groups = "performance", priority = 1, description = "Generating the bundled release is no slower and uses no more memory than the baseline")
+    public void bundledRelease() throws IOException {
+        if (!Files.exists(bundledRelease)) {
+            throw new SkipException(bundledRelease + " is not present");
+        }
+        assertWithinBaseline("bundled", bundledRelease);
+    }
+
+    @Test(groups = "performance", priority = 1, description = "Generating a synthetic release of " + SYNTHETIC_PRODUCTS + " products is no slower and uses no more memory than the baseline")
+    public void syntheticRelease() throws IOException {
+        Path release = testOutDirectory.resolve("synthetic-" + SYNTHETIC_PRODUCTS + ".zip");
+        if (!Files.exists(release)) {
+            SyntheticRelease.write(release, SYNTHETIC_PRODUCTS);
+        }
+        assertWithinBaseline("synthetic", release);
+    }
+
+    @Test(groups = "performance", priority = 1, description = "The term index of a loaded release answers typeahead queries in well under a millisecond")
+    public void searchesTermIndex() throws IOException {
+        Path release = testOutDirectory.resolve("synthetic-" + TERM_INDEX_PRODUCTS + ".zip");
+        if (!Files.exists(release)) {
+            SyntheticRelease.write(release, TERM_INDEX_PRODUCTS);
+        }
+
+        try (FileSystem zip = FileSystems.newFileSystem(release, (ClassLoader) null)) {
+            AmtCache conceptCache = new AmtCache(zip, new JUnitTestSuite_EXT(), true);
+            TermIndex index = conceptCache.getTermIndex();
+            String[] queries = { "br", "bra", "brand1", "brand17", "brand177 5", "brand177 500 mg tab", "sub", "substance9 500",
+                    "500 mg tablet, 20", "blister" };
+            for (int i = 0; i < 1000; i++) {
+                index.search(queries[i % queries.length], 10);
+            }
+            long start = System.nanoTime();
+            int searches = 10000;
+            for (int i = 0; i < searches; i++) {
+                index.search(queries[i % queries.length], 10);
+            }
+            long average = (System.nanoTime() - start) / searches;
+            report(String.format("%-40s %15s %15d", "termIndex.search.nanos", "-", average));
+            Assert.assertTrue(average < 1000000, "Average query took " + average + " nanoseconds");
+        }
+    }
+
+    private void assertWithinBaseline(String name, Path release) throws IOException {
+        generate(release, null);
+        calibrationNanos = calibrate();
+        report(String.format("%-40s %15s %15d", name + ".calibration.micros", "-", calibrationNanos / 1000));
+        Map<String, Long> measurements = new LinkedHashMap<>();
+        for (int run = 0; run < MEASURED_RUNS; run++) {
+            Map<String, Long> runMeasurements = new LinkedHashMap<>();
+            generate(release, runMeasurements);
+            runMeasurements.forEach((key, value) -> measurements.merge(key, value, Math::min));
+        }
+
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Long> measurement : measurements.entrySet()) {
+            String key = name + "." + measurement.getKey();
+            long value = measurement.getValue();
+            measured.put(key, value);
+            String expected = baseline.getProperty(key);
+            if (expected == null) {
+                String line = String.format("%-40s %15s %15d %10s", key, "-", value, "NO BASELINE");
+                report(line);
+                regressions.add(line);
+                continue;
+            }
+            long base = Long.parseLong(expected);
+            double delta = base == 0 ? 0 : (double) (value - base) / base;
+            double tolerance = Double.parseDouble(baseline.getProperty("tolerance." + key.substring(key.lastIndexOf('.') + 1)));
+            boolean regressed = delta > tolerance;
+            String line = String.format("%-40s %15d %15d %+9.1f%%%s", key, base, value, delta * 100,
+                regressed ? " REGRESSED, tolerance " + Math.round(tolerance * 100) + "%" : "");
+            report(line);
+            if (regressed) {
+                regressions.add(line);
+            }
+        }
+        writeReport();
+
+        Assert.assertTrue(regressions.isEmpty(), "Regressed from " + BASELINE + "\n" + String.join("\n", regressions));
+    }
+
+    private void report(String line) {
+        report.add(line);
+        Reporter.log(line);
+    }
+
+    /**
+     * Runs a job loading the release and writing its flat file and JUnit file, recording the measurements of loading
+     * the release and of writing the outputs if measurements is not null
+     */
+    private void generate(Path release, Map<String, Long> measurements) throws IOException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = retainedHeap(memory);
+
+        FlatFileJob job = new FlatFileJob();
+        job.setInputZipFilePath(release.toString());
+        job.setOutputFilePath(testOutDirectory.resolve("amt.csv").toString());
+        job.setJunitFilePath(testOutDirectory.resolve("ValidationErrors.xml").toString());
+        Phase[] phase = { new Phase() };
+        job.setLoadedListener(conceptCache -> {
+            phase[0].end("load", measurements);
+            if (measurements != null) {
+                measurements.put("retainedHeapBytes", retainedHeap(memory) - heapBefore);
+            }
+            phase[0] = new Phase();
+        });
+        job.run();
+        phase[0].end("generate", measurements);
+    }
+
+    /**
+     * Splits, parses, hashes and sorts a fixed set of lines, as loading a release does, without using the code under
+     * test
+     *
+     * @return the nanoseconds taken by the best of several runs
+     */
+    private long calibrate() {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < CALIBRATION_RUNS; run++) {
+            long start = System.nanoTime();
+            Map<Long, String> terms = new HashMap<>();
+            for (int i = 0; i < CALIBRATION_LINES; i++) {
+                String line = (10000000L + i * 7919L) + "\t" + (i & 1) + "\tTerm " + i + " mg tablet";
+                String[] columns = line.split("\t");
+                terms.put(Long.valueOf(columns[0]), columns[2].toLowerCase());
+            }
+            List<String> sorted = new ArrayList<>(terms.values());
+            Collections.sort(sorted);
+            // used so the work cannot be optimised away
+            calibrationResult += sorted.get(sorted.size() / 2).length();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * @return the heap in use after collecting garbage until it stops shrinking
+     */
+    private long retainedHeap(MemoryMXBean memory) {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            memory.gc();
+            long now = memory.getHeapMemoryUsage().getUsed();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    private void writeReport() throws IOException {
+        try (Writer writer = Files.newBufferedWriter(testOutDirectory.resolve("report.txt"))) {
+            writer.write(String.format("%-40s %15s %15s %10s%n", "MEASUREMENT", "BASELINE", "MEASURED", "DELTA"));
+            for (String line : report) {
+                writer.write(line + System.lineSeparator());
+            }
+        }
+        Properties properties = new Properties();
+        baseline.stringPropertyNames().stream().filter(key -> key.startsWith("tolerance."))
+            .forEach(key -> properties.setProperty(key, baseline.getProperty(key)));
+        measured.forEach((key, value) -> properties.setProperty(key, Long.toString(value)));
+        try (OutputStream out = Files.newOutputStream(testOutDirectory.resolve("measured.properties"))) {
+            properties.store(out, "Measured by PerformanceTest, copy to " + BASELINE + " to make these the baseline");
+        }
+    }
+
+    /**
+     * Measures the wall time of a phase, in thousandths of the calibration run, and the bytes allocated in it by every
+     * thread, including threads which start and finish during the phase. Allocations are sampled every few
+     * milliseconds, so those made by a thread in the few milliseconds before it finishes may be missed.
+     */
+    private final class Phase {
+
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        private final long start = System.nanoTime();
+
+        private final Map<Long, Long> startAllocated;
+
+        private final Map<Long, Long> allocated = new HashMap<>();
+
+        private final Thread sampler;
+
+        private volatile boolean running = true;
+
+        Phase() {
+            startAllocated = sample();
+            sampler = new Thread(() -> {
+                while (running) {
+                    Map<Long, Long> now = sample();
+                    synchronized (allocated) {
+                        allocated.putAll(now);
+                    }
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "allocation-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        private Map<Long, Long> sample() {
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = threads.getThreadAllocatedBytes(ids);
+            Map<Long, Long> sample = new HashMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0 && (sampler == null || ids[i] != sampler.getId())) {
+                    sample.put(ids[i], bytes[i]);
+                }
+            }
+            return sample;
+        }
+
+        void end(String name, Map<String, Long> measurements) {
+            long nanos = System.nanoTime() - start;
+            running = false;
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            allocated.putAll(sample());
+            if (measurements != null) {
+                long bytes = 0;
+                for (Map.Entry<Long, Long> thread : allocated.entrySet()) {
+                    bytes += thread.getValue() - startAllocated.getOrDefault(thread.getKey(), 0L);
+                }
+                measurements.put(name + ".relativeTime", nanos * 1000 / calibrationNanos);
+                measurements.put(name + ".allocatedBytes", bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PipelinedRowReaderTest {
+
+    private String testOutDirectory = "target/test-out/pipelined/";
+
+    @Test(groups = "pipelined", priority = 1, description = "Rows of a ZIP entry read in many small batches are filtered and handled in file order")
+    public void readsZipEntryRowsInFileOrder() throws IOException {
+        try (FileSystem zip = FileSystems.newFileSystem(writeZip(5000), (ClassLoader) null)) {
+            Path file = zip.getPath("rows.txt");
+            Assert.assertFalse(ChunkedFileReader.canRead(file));
+
+            List<String[]> rows = new ArrayList<>();
+            ThreadingProfile threading = new ThreadingProfile();
+            PipelinedRowReader.read(file, true, "\t", RowReducer.filtering(row -> row[1].equals("1"), rows::add), 7, threading);
+            Assert.assertTrue(threading.getCpuThreadsUsed() > 0, "Batches parsed on threads from the profile");
+
+            Assert.assertEquals(rows.size(), 5000 - 1667);
+            int expected = 1;
+            for (String[] row : rows) {
+                Assert.assertEquals(row.length, 3);
+                Assert.assertEquals(row[0], Integer.toString(expected));
+                Assert.assertEquals(row[2], "term \u00e9 " + expected);
+                expected += expected % 3 == 2 ? 2 : 1;
+            }
+        }
+    }
+
+    @Test(groups = "pipelined", priority = 1, description = "A failure parsing a batch stops the read and is thrown to the caller")
+    public void parserFailureIsThrown() throws IOException {
+        try (FileSystem zip = FileSystems.newFileSystem(writeZip(1000), (ClassLoader) null)) {
+            List<String[]> rows = new ArrayList<>();
+            try {
+                PipelinedRowReader.read(zip.getPath("rows.txt"), true, "\t", RowReducer.filtering(row -> {
+                    if (row[0].equals("500")) {
+                        throw new IllegalStateException("bad row 500");
+                    }
+                    return true;
+                }, rows::add), 10, new ThreadingProfile());
+                Assert.fail("Expected the parser failure to be thrown");
+            } catch (IllegalStateException e) {
+                Assert.assertEquals(e.getMessage(), "bad row 500");
+            }
+            Assert.assertTrue(rows.size() <= 500);
+        }
+    }
+
+    private Path writeZip(int rows) throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path path = Paths.get(testOutDirectory + "rows-" + rows + ".zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(path.toFile()))) {
+            out.putNextEntry(new ZipEntry("rows.txt"));
+            StringBuilder content = new StringBuilder("id\tactive\tterm\r\n");
+            for (int i = 0; i < rows; i++) {
+                content.append(i).append('\t').append(i % 3 == 0 ? "0" : "1").append("\tterm \u00e9 ").append(i).append("\r\n");
+            }
+            out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return path;
+    }
+}
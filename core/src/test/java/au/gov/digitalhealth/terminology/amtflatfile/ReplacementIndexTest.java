@@ -0,0 +1,110 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import au.gov.digitalhealth.terminology.amtflatfile.ReplacementIndex.ResolvedReplacement;
+
+public class ReplacementIndexTest {
+
+    private Concept replacedBy = new Concept(AmtConcept.REPLACED_BY.getId(), true);
+    private Concept sameAs = new Concept(AmtConcept.SAME_AS.getId(), true);
+
+    @Test(groups = "replacements", priority = 1, description = "Chains through inactive concepts resolve to the active concept at the end, tagged with the association types followed")
+    public void resolvesChains() {
+        Concept a = new Concept(1, false);
+        Concept b = new Concept(2, false);
+        Concept c = new Concept(3, true);
+
+        ReplacementIndex index = ReplacementIndex.build(Arrays.asList(Triple.of(a, replacedBy, b), Triple.of(b, sameAs, c)));
+
+        List<ResolvedReplacement> resolved = index.resolve(1);
+        Assert.assertEquals(resolved.size(), 1);
+        Assert.assertEquals(resolved.get(0).getReplacement(), c);
+        Assert.assertEquals(resolved.get(0).getAssociationTypes(), Arrays.asList(replacedBy, sameAs));
+        Assert.assertEquals(index.resolve(2).get(0).getAssociationTypes(), Arrays.asList(sameAs));
+        Assert.assertTrue(index.resolve(3).isEmpty(), "Active concepts have no replacements");
+    }
+
+    @Test(groups = "replacements", priority = 1, description = "Cyclic branches are dropped and other branches still resolve")
+    public void toleratesCycles() {
+        Concept a = new Concept(1, false);
+        Concept b = new Concept(2, false);
+        Concept c = new Concept(3, true);
+
+        ReplacementIndex index = ReplacementIndex.build(
+            Arrays.asList(Triple.of(a, replacedBy, b), Triple.of(b, replacedBy, a), Triple.of(b, sameAs, c)));
+
+        Assert.assertEquals(index.resolve(1).size(), 1);
+        Assert.assertEquals(index.resolve(1).get(0).getReplacement(), c);
+        Assert.assertEquals(index.resolve(2).get(0).getReplacement(), c);
+        Assert.assertEquals(index.getCycles(), 1);
+        Assert.assertEquals(index.getTruncatedChains(), 0);
+    }
+
+    @Test(groups = "replacements", priority = 1, description = "The shortest chain to each target is kept and dead ends resolve to nothing")
+    public void keepsShortestChain() {
+        Concept a = new Concept(1, false);
+        Concept b = new Concept(2, false);
+        Concept c = new Concept(3, true);
+        Concept deadEnd = new Concept(4, false);
+        Concept orphan = new Concept(5, false);
+
+        ReplacementIndex index = ReplacementIndex.build(Arrays.asList(Triple.of(a, replacedBy, b), Triple.of(b, replacedBy, c),
+            Triple.of(a, sameAs, c), Triple.of(orphan, replacedBy, deadEnd)));
+
+        Assert.assertEquals(index.resolve(1).size(), 1);
+        Assert.assertEquals(index.resolve(1).get(0).getAssociationTypes(), Arrays.asList(sameAs));
+        Assert.assertTrue(index.resolve(5).isEmpty());
+    }
+
+    @Test(groups = "replacements", priority = 1, description = "Fan out through many layers of inactive concepts resolves without following every chain")
+    public void resolvesFanOut() {
+        // each layer of two inactive concepts is the SAME AS both concepts of the next, 2^60 chains in all
+        List<Triple<Concept, Concept, Concept>> associations = new ArrayList<>();
+        Concept active = new Concept(1, true);
+        List<Concept> layer = Arrays.asList(new Concept(10, false), new Concept(11, false));
+        for (int i = 1; i < 60; i++) {
+            List<Concept> next = Arrays.asList(new Concept(10 + 2 * i, false), new Concept(11 + 2 * i, false));
+            for (Concept from : layer) {
+                for (Concept to : next) {
+                    associations.add(Triple.of(from, sameAs, to));
+                }
+            }
+            layer = next;
+        }
+        for (Concept last : layer) {
+            associations.add(Triple.of(last, replacedBy, active));
+        }
+
+        ReplacementIndex index = ReplacementIndex.build(associations);
+
+        Assert.assertEquals(index.size(), 120);
+        Assert.assertEquals(index.resolve(10).size(), 1);
+        Assert.assertEquals(index.resolve(10).get(0).getReplacement(), active);
+        Assert.assertEquals(index.resolve(10).get(0).getAssociationTypes().size(), 60);
+        Assert.assertEquals(index.resolve(10).get(0).getAssociationTypes().get(59), replacedBy);
+        Assert.assertEquals(index.getCycles(), 0);
+    }
+
+    @Test(groups = "replacements", priority = 1, description = "Chains longer than the limit are counted apart from cycles")
+    public void countsChainsOverLimit() {
+        List<Triple<Concept, Concept, Concept>> associations = new ArrayList<>();
+        for (int i = 0; i <= ReplacementIndex.MAX_CHAIN_LENGTH; i++) {
+            associations.add(Triple.of(new Concept(100 + i, false), replacedBy, new Concept(101 + i, false)));
+        }
+        associations.add(Triple.of(new Concept(101 + ReplacementIndex.MAX_CHAIN_LENGTH, false), replacedBy, new Concept(1, true)));
+
+        ReplacementIndex index = ReplacementIndex.build(associations);
+
+        Assert.assertEquals(index.getCycles(), 0);
+        Assert.assertTrue(index.getTruncatedChains() > 0);
+        Assert.assertTrue(index.resolve(101).isEmpty(), "Too long a chain to resolve");
+        Assert.assertEquals(index.resolve(102).get(0).getAssociationTypes().size(), ReplacementIndex.MAX_CHAIN_LENGTH);
+    }
+}
@@ -0,0 +1,50 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class Rf2FileVerifierTest {
+
+    private String testOutDirectory = "target/test-out/verifier/";
+
+    @Test(groups = "verifier", priority = 1, description = "RF2 files are accepted only with the exact header for their type")
+    public void checksHeaders() throws IOException {
+        Path concepts = write("concepts.txt", "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId\r\n1\t20180430\t1\t2\t3\r\n");
+        Assert.assertNull(Rf2FileVerifier.checkRf2Header(concepts, Rf2FileVerifier.CONCEPT_HEADER));
+        Assert.assertNotNull(Rf2FileVerifier.checkRf2Header(concepts, Rf2FileVerifier.DESCRIPTION_HEADER));
+
+        Path artg = write("artg.txt", "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tschemeValue\n");
+        Assert.assertNull(Rf2FileVerifier.checkRf2Header(artg, Rf2FileVerifier.ARTG_ID_REFSET_HEADER));
+        Assert.assertNotNull(Rf2FileVerifier.checkRf2Header(artg, Rf2FileVerifier.ASSOCIATION_REFSET_HEADER));
+
+        Path empty = write("empty.txt", "");
+        Assert.assertNotNull(Rf2FileVerifier.checkRf2Header(empty, Rf2FileVerifier.CONCEPT_HEADER));
+    }
+
+    @Test(groups = "verifier", priority = 1, description = "Binary content is rejected")
+    public void rejectsBinaryContent() throws IOException {
+        Path binary = write("binary.txt", "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId\n\u0000\u0001\u0002");
+        Assert.assertEquals(Rf2FileVerifier.checkRf2Header(binary, Rf2FileVerifier.CONCEPT_HEADER), "it contains binary content");
+        Assert.assertFalse(Rf2FileVerifier.isTextFile(binary));
+        Assert.assertFalse(Rf2FileVerifier.isZipFile(binary));
+
+        Path xml = write("results.xml", "<?xml version=\"1.0\"?>\n<testsuite/>");
+        Assert.assertTrue(Rf2FileVerifier.isXmlFile(xml));
+        Assert.assertFalse(Rf2FileVerifier.isXmlFile(write("flat.csv", FlatFileRow.HEADER)));
+        Assert.assertTrue(Rf2FileVerifier.isZipFile(write("empty.zip", "PK\u0005\u0006")));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path path = Paths.get(testOutDirectory + name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+}
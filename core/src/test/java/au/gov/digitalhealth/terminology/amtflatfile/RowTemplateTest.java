@@ -0,0 +1,141 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import au.gov.digitalhealth.terminology.amtflatfile.FlatFileColumn.Source;
+
+public class RowTemplateTest {
+
+    private static Concept concept(long id, String term) {
+        Concept concept = new Concept(id, true);
+        concept.setPreferredTerm(term);
+        return concept;
+    }
+
+    private static FlatFileRow row() {
+        FlatFileRow row = new FlatFileRow();
+        row.set(concept(1001, "ctpp, 20"), "203756", concept(1002, "tpp"), concept(1003, "tpuu"), concept(1004, "tpp tp"),
+            concept(1005, "tpuu tp"), concept(1006, "mpp"), concept(1007, "mpuu"), concept(1008, null));
+        return row;
+    }
+
+    @Test(groups = "columns", priority = 1, description = "Every column is written exactly as the full flat file row")
+    public void allColumnsMatchFullRow() throws IOException {
+        RowTemplate template = RowTemplate.all();
+        FlatFileRow row = row();
+
+        Assert.assertEquals(template.getHeader(), FlatFileRow.HEADER);
+        Assert.assertEquals(template.toCsv(row), row.toCsv());
+        Assert.assertEquals(template.getSources(), EnumSet.allOf(Source.class));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.write(row, out);
+        Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), row.toCsv() + System.lineSeparator());
+    }
+
+    @Test(groups = "columns", priority = 1, description = "Selected columns are written in the order listed")
+    public void writesSelectedColumns() {
+        RowTemplate template = RowTemplate.of(FlatFileColumn.parse("MP PT, ctpp_sctid,ARTG_ID,TPP TP PT"));
+
+        Assert.assertEquals(template.getHeader(), "MP PT,CTPP SCTID,ARTG_ID,TPP TP PT");
+        Assert.assertEquals(template.toCsv(row()), "\"null\",1001,203756,\"tpp tp\"");
+        Assert.assertEquals(template.getSources(), EnumSet.of(Source.MP, Source.CTPP, Source.ARTG_ID, Source.TPP_TP));
+    }
+
+    @Test(groups = "columns", priority = 1, description = "No columns selected means the columns of the flat file header")
+    public void defaultsToHeaderColumns() {
+        Assert.assertEquals(FlatFileColumn.parse(" "), FlatFileColumn.defaults());
+        Assert.assertEquals(FlatFileColumn.defaults().stream().map(FlatFileColumn::getHeader).collect(Collectors.joining(",")),
+            FlatFileRow.HEADER);
+        Assert.assertTrue(Arrays.stream(FlatFileColumn.values()).filter(column -> !FlatFileColumn.defaults().contains(column))
+            .allMatch(FlatFileColumn::isAttribute));
+    }
+
+    @Test(groups = "columns", priority = 1, description = "Attribute columns need the loaded release", expectedExceptions = IllegalArgumentException.class)
+    public void attributeColumnsNeedRelease() {
+        RowTemplate.of(FlatFileColumn.parse("CTPP SCTID,MPUU STRENGTHS"));
+    }
+
+    @Test(groups = "columns", priority = 1, description = "Unknown columns are rejected", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsUnknownColumns() {
+        FlatFileColumn.parse("CTPP SCTID,MPP TP PT");
+    }
+
+    @Test(groups = "columns", priority = 1, description = "Columns listed twice are rejected", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsRepeatedColumns() {
+        FlatFileColumn.parse("CTPP SCTID,CTPP_SCTID");
+    }
+
+    @Test(groups = "columns", priority = 1, description = "Selecting columns changes only what is written, the checks and the CTPPs with rows are the same")
+    public void validatesWhateverColumnsSelected() throws IOException {
+        Path directory = Paths.get("target/test-out/columns/");
+        Files.createDirectories(directory);
+        Path zip = directory.resolve("two-tps.zip");
+        SyntheticRelease.write(zip, 20);
+        String ctpp;
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+            Map<String, String> idsByPreferredTerm = new HashMap<>();
+            try (Stream<String> lines = Files.lines(find(zipFileSystem, "sct2_Description_Snapshot"))) {
+                lines.map(line -> line.split("\t"))
+                    .filter(columns -> columns[6].equals("900000000000013009"))
+                    .forEach(columns -> idsByPreferredTerm.put(columns[7], columns[4]));
+            }
+            ctpp = idsByPreferredTerm.get("Brand7 500 mg tablet, 20, blister pack");
+            String row = String.join("\t", "99999991000036120", "20180430", "1", "900062011000036108",
+                idsByPreferredTerm.get("Brand7 500 mg tablet, 20"), idsByPreferredTerm.get("Brand8"), "0",
+                AttributeType.HAS_TP.getIdString(), "900000000000011006", "900000000000451002") + "\r\n";
+            Files.write(find(zipFileSystem, "sct2_Relationship_Snapshot"), row.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        }
+
+        List<String> all = run(zip, directory.resolve("all"), null);
+        List<String> projected = run(zip, directory.resolve("projected"), "CTPP SCTID");
+
+        Assert.assertEquals(projected.subList(1, projected.size()),
+            all.stream().skip(1).map(line -> line.substring(0, line.indexOf(','))).distinct().collect(Collectors.toList()));
+        Assert.assertFalse(projected.contains(ctpp), "A CTPP failing a check has no rows whichever columns are selected");
+        Assert.assertEquals(new String(Files.readAllBytes(directory.resolve("projected.xml")), StandardCharsets.UTF_8),
+            new String(Files.readAllBytes(directory.resolve("all.xml")), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the lines of the flat file generated with the columns given, its JUnit file written next to it
+     */
+    private static List<String> run(Path zip, Path output, String columns) throws IOException {
+        FlatFileJob job = new FlatFileJob();
+        job.setInputZipFilePath(zip.toString());
+        job.setOutputFilePath(output + ".csv");
+        job.setJunitFilePath(output + ".xml");
+        job.setColumns(columns);
+        job.run();
+        Assert.assertTrue(new String(Files.readAllBytes(Paths.get(output + ".xml")), StandardCharsets.UTF_8)
+            .contains("has too many TPs"));
+        return Files.readAllLines(Paths.get(output + ".csv"), StandardCharsets.UTF_8);
+    }
+
+    private static Path find(FileSystem zipFileSystem, String prefix) throws IOException {
+        try (Stream<Path> paths = Files.walk(zipFileSystem.getPath("/"))) {
+            return paths.filter(path -> path.getFileName() != null && path.getFileName().toString().startsWith(prefix))
+                .findFirst()
+                .get();
+        }
+    }
+}
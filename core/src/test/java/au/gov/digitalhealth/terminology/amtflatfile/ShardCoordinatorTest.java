@@ -0,0 +1,143 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ShardCoordinatorTest {
+
+    private Path testOutDirectory = Paths.get("target/test-out/workers/");
+
+    @Test(groups = "workers", priority = 1, description = "Shards generated by worker processes hold the same rows as shards generated in one process")
+    public void workersWriteSameShards() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("release.zip");
+        SyntheticRelease.write(zip, 300);
+
+        FlatFileJob inProcess = job(zip, testOutDirectory.resolve("in-process/flat.csv"));
+        inProcess.setShards(3);
+        inProcess.run();
+
+        FlatFileJob workers = job(zip, testOutDirectory.resolve("workers/flat.csv"));
+        workers.setWorkers(3);
+        workers.run();
+
+        // a worker loads only its part of the release, so generates its CTPPs in another order
+        for (String file : Arrays.asList("flat-shard0.csv", "flat-shard1.csv", "flat-shard2.csv", "replacements.csv")) {
+            Assert.assertEquals(sortedLines(testOutDirectory.resolve("workers").resolve(file)),
+                sortedLines(testOutDirectory.resolve("in-process").resolve(file)), file);
+        }
+        Assert.assertEquals(manifestRows(testOutDirectory.resolve("workers/flat-manifest.csv")),
+            manifestRows(testOutDirectory.resolve("in-process/flat-manifest.csv")));
+        Assert.assertEquals(new String(Files.readAllBytes(testOutDirectory.resolve("workers/junit.xml")), StandardCharsets.UTF_8),
+            new String(Files.readAllBytes(testOutDirectory.resolve("in-process/junit.xml")), StandardCharsets.UTF_8));
+    }
+
+    @Test(groups = "workers", priority = 1, description = "Each partition of a split release holds only part of it, and generates the same rows of its CTPPs")
+    public void splitsRelease() throws IOException {
+        Path directory = testOutDirectory.resolve("split");
+        Files.createDirectories(directory);
+        Path zip = directory.resolve("release.zip");
+        SyntheticRelease.write(zip, 300);
+
+        FlatFileJob whole = job(zip, directory.resolve("whole/flat.csv"));
+        whole.setShards(3);
+        whole.run();
+
+        double[] shares;
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+            shares = new ReleaseSplitter(3, false, false, Long.MAX_VALUE).split(zipFileSystem.getPath("/"), directory.resolve("parts"));
+        }
+        for (int partition = 0; partition < 3; partition++) {
+            Assert.assertTrue(shares[partition] > 0 && shares[partition] < 0.6, "share of partition " + partition + " " + shares[partition]);
+
+            Path release = ReleaseSplitter.partitionDirectory(directory.resolve("parts"), partition);
+            Assert.assertTrue(conceptRows(release) < conceptRows(zip), "concepts of partition " + partition);
+
+            Properties parameters = whole.workerParameters(directory.resolve("parts"));
+            parameters.setProperty("outputFilePath", directory.resolve("parts/flat.csv").toAbsolutePath().toString());
+            parameters.setProperty("partitions", "3");
+            parameters.remove("replacementsOutputFilePath");
+            FlatFileJob.forPartition(parameters, partition, directory.resolve("parts/junit" + partition + ".xml")).run();
+            String shard = "flat-shard" + partition + ".csv";
+            Assert.assertEquals(sortedLines(directory.resolve("parts").resolve(shard)), sortedLines(directory.resolve("whole").resolve(shard)),
+                shard);
+        }
+    }
+
+    @Test(groups = "workers", priority = 1, description = "Outputs needing every row are not split between workers", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsOutputsNeedingEveryRow() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("release.zip");
+        SyntheticRelease.write(zip, 10);
+        FlatFileJob job = job(zip, testOutDirectory.resolve("sorted/flat.csv"));
+        job.setWorkers(2);
+        job.setSorted(true);
+        job.run();
+    }
+
+    @Test(groups = "workers", priority = 1, description = "A worker's parameters describe its partition of the job")
+    public void describesPartition() {
+        FlatFileJob job = new FlatFileJob();
+        job.setOutputFilePath("out/flat.csv");
+        job.setReplacementsFilePath("out/replacements.csv");
+        job.setColumns("CTPP SCTID,CTPP PT");
+        job.setExitOnError(true);
+        job.setWorkers(4);
+
+        FlatFileJob first = FlatFileJob.forPartition(job.workerParameters(Paths.get("release")), 0, Paths.get("first.xml"));
+        Assert.assertEquals(first.getOutputFile(), Paths.get("out/flat-shard0.csv").toAbsolutePath());
+        FlatFileJob last = FlatFileJob.forPartition(job.workerParameters(Paths.get("release")), 3, Paths.get("last.xml"));
+        Assert.assertEquals(last.getOutputFile(), Paths.get("out/flat-shard3.csv").toAbsolutePath());
+    }
+
+    private static List<String> sortedLines(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Collections.sort(lines.subList(1, lines.size()));
+        return lines;
+    }
+
+    /**
+     * @return the rows of a manifest without their checksums, which depend on the order of the shard's rows
+     */
+    private static List<String> manifestRows(Path manifest) throws IOException {
+        return Files.readAllLines(manifest, StandardCharsets.UTF_8)
+            .stream()
+            .map(row -> row.replaceFirst(",[0-9a-f]{64},", ","))
+            .collect(Collectors.toList());
+    }
+
+    private static long conceptRows(Path release) throws IOException {
+        try (FileSystem zipFileSystem = Files.isDirectory(release) ? null : FileSystems.newFileSystem(release, (ClassLoader) null);
+                Stream<Path> files = Files.walk(zipFileSystem == null ? release : zipFileSystem.getPath("/"))) {
+            Path concepts = files.filter(file -> file.getFileName() != null && file.getFileName().toString().startsWith("sct2_Concept_"))
+                .findFirst()
+                .get();
+            return Files.readAllLines(concepts, StandardCharsets.UTF_8).size();
+        }
+    }
+
+    private FlatFileJob job(Path zip, Path output) throws IOException {
+        Files.createDirectories(output.getParent());
+        FlatFileJob job = new FlatFileJob();
+        job.setInputZipFilePath(zip.toString());
+        job.setOutputFilePath(output.toString());
+        job.setReplacementsFilePath(output.resolveSibling("replacements.csv").toString());
+        job.setJunitFilePath(output.resolveSibling("junit.xml").toString());
+        job.setExitOnError(true);
+        return job;
+    }
+}
@@ -0,0 +1,82 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ShardedFlatFileWriterTest {
+
+    private String testOutDirectory = "target/test-out/shards/";
+
+    @Test(groups = "shards", priority = 1, description = "Shard files are named after the output file with zero padded shard numbers")
+    public void namesShardFiles() {
+        Path[] files = ShardedFlatFileWriter.shardFiles(Paths.get("out/amt.csv"), 12);
+        Assert.assertEquals(files.length, 12);
+        Assert.assertEquals(files[0], Paths.get("out/amt-shard00.csv"));
+        Assert.assertEquals(files[11], Paths.get("out/amt-shard11.csv"));
+        Assert.assertEquals(ShardedFlatFileWriter.manifestFile(Paths.get("out/amt.csv")), Paths.get("out/amt-manifest.csv"));
+    }
+
+    @Test(groups = "shards", priority = 1, description = "All rows for an MP are written to the same shard and counted in the manifest")
+    public void partitionsRowsByMp() throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path output = Paths.get(testOutDirectory + "amt.csv");
+
+        Concept mp = concept(7, "mp");
+        Concept other = concept(8, "other mp");
+        FlatFileRow row = new FlatFileRow();
+        try (ShardedFlatFileWriter writer = new ShardedFlatFileWriter(output, 3, ShardedFlatFileWriter.ShardKey.MP)) {
+            for (int i = 0; i < 2000; i++) {
+                Concept ctpp = concept(100 + i, "ctpp " + i);
+                row.set(ctpp, "", ctpp, ctpp, ctpp, ctpp, ctpp, ctpp, i % 2 == 0 ? mp : other);
+                writer.accept(row);
+            }
+            writer.finish();
+        }
+
+        Path[] shards = ShardedFlatFileWriter.shardFiles(output, 3);
+        List<String> mpShard = Files.readAllLines(shards[ShardedFlatFileWriter.shardFor(7, 3)]);
+        Assert.assertEquals(mpShard.get(0), FlatFileRow.HEADER);
+        Assert.assertTrue(mpShard.stream().skip(1).allMatch(line -> line.contains("\"mp\"") || line.contains("\"other mp\"")));
+        Assert.assertTrue(mpShard.stream().filter(line -> line.endsWith(",7,\"mp\"")).count() == 1000);
+
+        long total = 0;
+        List<String> manifest = Files.readAllLines(ShardedFlatFileWriter.manifestFile(output));
+        for (String line : manifest.subList(1, manifest.size())) {
+            total += Long.parseLong(line.split(",")[2]);
+        }
+        Assert.assertEquals(total, 2000);
+    }
+
+    @Test(groups = "shards", priority = 1, description = "Shards of a writer closed without finishing are deleted and no manifest is written")
+    public void deletesUnfinishedShards() throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path output = Paths.get(testOutDirectory + "unfinished.csv");
+
+        FlatFileRow row = new FlatFileRow();
+        try (ShardedFlatFileWriter writer = new ShardedFlatFileWriter(output, 3, ShardedFlatFileWriter.ShardKey.CTPP)) {
+            for (int i = 0; i < 5000; i++) {
+                Concept ctpp = concept(100 + i, "ctpp " + i);
+                row.set(ctpp, "", ctpp, ctpp, ctpp, ctpp, ctpp, ctpp, ctpp);
+                writer.accept(row);
+            }
+        }
+
+        for (Path shard : ShardedFlatFileWriter.shardFiles(output, 3)) {
+            Assert.assertFalse(Files.exists(shard), shard.toString());
+        }
+        Assert.assertFalse(Files.exists(ShardedFlatFileWriter.manifestFile(output)));
+    }
+
+    private Concept concept(long id, String term) {
+        Concept concept = new Concept(id, true);
+        concept.setPreferredTerm(term);
+        return concept;
+    }
+}
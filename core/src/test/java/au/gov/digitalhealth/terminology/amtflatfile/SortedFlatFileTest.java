@@ -0,0 +1,85 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SortedFlatFileTest {
+
+    private String testOutDirectory = "target/test-out/sorted/";
+
+    @Test(groups = "sorted", priority = 1, description = "Point and range lookups through the sparse index find every row for the keys")
+    public void looksUpRowsByCtpp() throws IOException {
+        Path file = write("by-ctpp.csv", SortedFlatFileWriter.SortKey.CTPP, MemoryBudget.unlimited());
+        try (SortedFlatFileReader reader = new SortedFlatFileReader(file)) {
+            Assert.assertEquals(reader.getKeyColumn(), "CTPP SCTID");
+            for (long ctpp = 1000; ctpp < 1050; ctpp++) {
+                List<String[]> rows = reader.get(ctpp);
+                // CTPPs have between 1 and 10 rows, enough for runs of a key to cross index entries
+                Assert.assertEquals(rows.size(), (int) (ctpp % 10) + 1, "Rows for " + ctpp);
+                for (int i = 0; i < rows.size(); i++) {
+                    Assert.assertEquals(rows.get(i)[0], Long.toString(ctpp));
+                    Assert.assertEquals(rows.get(i)[6], "TPUU " + i + " of " + ctpp, "Rows for a key keep their generated order");
+                }
+            }
+            Assert.assertTrue(reader.get(999).isEmpty());
+            Assert.assertTrue(reader.get(1050).isEmpty());
+            Assert.assertEquals(reader.range(1010, 1019).size(), 55);
+            Assert.assertEquals(reader.range(0, Long.MAX_VALUE).size(), 275);
+        }
+    }
+
+    @Test(groups = "sorted", priority = 1, description = "Rows sorted by ARTG id on disk in low memory mode are found by ARTG id, rows without one are last")
+    public void looksUpRowsByArtgId() throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path file = write("by-artg.csv", SortedFlatFileWriter.SortKey.ARTG_ID, MemoryBudget.lowMemory(Paths.get(testOutDirectory), 4096));
+        try (SortedFlatFileReader reader = new SortedFlatFileReader(file)) {
+            Assert.assertEquals(reader.getKeyColumn(), "ARTG_ID");
+            List<String[]> rows = reader.get(500003);
+            Assert.assertEquals(rows.size(), 4);
+            Assert.assertEquals(rows.get(0)[2], "500003");
+            Assert.assertEquals(rows.get(0)[0], "1003");
+            Assert.assertEquals(reader.range(500000, 500009).size(), 55);
+            Assert.assertEquals(reader.get(Long.MAX_VALUE).size(), 275 - 125, "Rows of CTPPs with no ARTG id");
+        }
+    }
+
+    /**
+     * Writes rows for CTPPs 1049 down to 1000, in reverse so they need sorting. CTPP n has n % 10 + 1 rows, and the
+     * first 25 CTPPs have the ARTG id 499000 + n.
+     */
+    private Path write(String name, SortedFlatFileWriter.SortKey sortKey, MemoryBudget memoryBudget) throws IOException {
+        new File(testOutDirectory).mkdirs();
+        Path file = Paths.get(testOutDirectory + name);
+        FlatFileRow row = new FlatFileRow();
+        try (SortedFlatFileWriter writer = new SortedFlatFileWriter(file, sortKey, memoryBudget)) {
+            for (long ctpp = 1049; ctpp >= 1000; ctpp--) {
+                Concept ctppConcept = concept(ctpp, "CTPP " + ctpp);
+                String artgId = ctpp < 1025 ? Long.toString(499000 + ctpp) : "";
+                List<Concept> tpuus = new ArrayList<>();
+                for (int i = 0; i <= ctpp % 10; i++) {
+                    tpuus.add(concept(ctpp * 100 + i, "TPUU " + i + " of " + ctpp));
+                }
+                Concept other = concept(1, "other");
+                for (Concept tpuu : tpuus) {
+                    row.set(ctppConcept, artgId, other, tpuu, other, other, other, other, other);
+                    writer.accept(row);
+                }
+            }
+            writer.finish();
+        }
+        return file;
+    }
+
+    private Concept concept(long id, String term) {
+        Concept concept = new Concept(id, true);
+        concept.setPreferredTerm(term);
+        return concept;
+    }
+}
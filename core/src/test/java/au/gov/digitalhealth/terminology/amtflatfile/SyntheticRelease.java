@@ -0,0 +1,174 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a synthetic SNOMED CT-AU snapshot release with a given number of well formed AMT products, each with a
+ * CTPP, TPP, TPUU, TP, MPP, MPUU, MP and substance, a strength, ARTG ids and replaced inactive CTPPs, for tests which
+ * need a larger release than the bundled one.
+ */
+public class SyntheticRelease {
+
+    private static final String DATE = "20180430";
+    private static final String AMT = "900062011000036108";
+    private static final String META = "900000000000012004";
+    private static final String ROOT = "NCTS_SCT_RF2_DISTRIBUTION_32506021000036107-" + DATE + "-SNAPSHOT/SnomedCT_Release_AU1000036_" + DATE
+            + "/RF2Release/Snapshot/";
+
+    private final List<String> concepts = new ArrayList<>();
+    private final List<String> relationships = new ArrayList<>();
+    private final List<String> descriptions = new ArrayList<>();
+    private final List<String> language = new ArrayList<>();
+    private final List<String> artg = new ArrayList<>();
+    private final List<String> replacedBy = new ArrayList<>();
+    private final List<String> sameAs = new ArrayList<>();
+    private final List<String> strength = new ArrayList<>();
+    private long nextItem = 1;
+
+    public static void main(String[] args) throws IOException {
+        write(Paths.get(args[0]), Integer.parseInt(args[1]));
+    }
+
+    public static void write(Path zip, int products) throws IOException {
+        SyntheticRelease release = new SyntheticRelease();
+        release.build(products);
+        release.writeZip(zip);
+    }
+
+    private String id(String partition) {
+        return (nextItem++) + "1000036" + partition + "0";
+    }
+
+    private String concept(String module, boolean active, String fsn, String pt) {
+        String id = id("10");
+        concepts.add(String.join("\t", id, DATE, active ? "1" : "0", module, "900000000000074008"));
+        description(id, module, fsn, "900000000000003001");
+        description(id, module, pt, "900000000000013009");
+        return id;
+    }
+
+    private void concept(String id, String module, String fsn, String pt) {
+        concepts.add(String.join("\t", id, DATE, "1", module, "900000000000074008"));
+        description(id, module, fsn, "900000000000003001");
+        description(id, module, pt, "900000000000013009");
+    }
+
+    private void description(String conceptId, String module, String term, String type) {
+        String id = id("11");
+        descriptions.add(String.join("\t", id, DATE, "1", module, conceptId, "en", type, term, "900000000000448009"));
+        if (!type.equals("900000000000003001")) {
+            language.add(String.join("\t", id("99"), DATE, "1", module, "32570271000036106", id, "900000000000548007"));
+        }
+    }
+
+    private String relationship(String source, String destination, AttributeType type, int group) {
+        String id = id("12");
+        relationships.add(String.join("\t", id, DATE, "1", AMT, source, destination, Integer.toString(group), type.getIdString(),
+            "900000000000011006", "900000000000451002"));
+        return id;
+    }
+
+    private void build(int products) {
+        for (AmtConcept type : AmtConcept.values()) {
+            boolean refset = type.getIdString().startsWith("900000000000");
+            concept(type.getIdString(), refset ? META : AMT, type.getDisplay() + (refset ? " association reference set" : ""),
+                type.getDisplay() + (refset ? " association reference set" : ""));
+        }
+        String mg = concept(AMT, true, "mg (unit of measure)", "mg");
+        String previous = null;
+        for (int i = 0; i < products; i++) {
+            String name = "substance" + i;
+            String substance = concept(AMT, true, name + " (AU substance)", name);
+            relationship(substance, AmtConcept.SUBSTANCE.getIdString(), AttributeType.IS_A, 0);
+            String mp = concept(AMT, true, name + " (medicinal product)", name);
+            relationship(mp, AmtConcept.MP.getIdString(), AttributeType.IS_A, 0);
+            String mpuu = concept(AMT, true, name + " 500 mg tablet (medicinal product unit of use)", name + " 500 mg tablet");
+            relationship(mpuu, AmtConcept.MPUU.getIdString(), AttributeType.IS_A, 0);
+            relationship(mpuu, mp, AttributeType.IS_A, 0);
+            relationship(mpuu, substance, AttributeType.HAS_INTENDED_ACTIVE_INGREDIENT, 1);
+            String boss = relationship(mpuu, substance, AttributeType.HAS_AUSTRALIAN_BOSS, 1);
+            strength.add(String.join("\t", id("99"), DATE, "1", AMT, "700000851000036104", boss, mg, "276136004", "500"));
+            String tp = concept(AMT, true, "Brand" + i + " (trade product)", "Brand" + i);
+            relationship(tp, AmtConcept.TP.getIdString(), AttributeType.IS_A, 0);
+            String tpuu = concept(AMT, true, "Brand" + i + " 500 mg tablet (trade product unit of use)", "Brand" + i + " 500 mg tablet");
+            relationship(tpuu, AmtConcept.TPUU.getIdString(), AttributeType.IS_A, 0);
+            relationship(tpuu, mpuu, AttributeType.IS_A, 0);
+            relationship(tpuu, tp, AttributeType.IS_A, 0);
+            String mpp = concept(AMT, true, name + " 500 mg tablet, 20 (medicinal product pack)", name + " 500 mg tablet, 20");
+            relationship(mpp, AmtConcept.MPP.getIdString(), AttributeType.IS_A, 0);
+            relationship(mpp, mpuu, AttributeType.HAS_MPUU, 1);
+            String tpp = concept(AMT, true, "Brand" + i + " 500 mg tablet, 20 (trade product pack)", "Brand" + i + " 500 mg tablet, 20");
+            relationship(tpp, AmtConcept.TPP.getIdString(), AttributeType.IS_A, 0);
+            relationship(tpp, mpp, AttributeType.IS_A, 0);
+            relationship(tpp, tpuu, AttributeType.HAS_TPUU, 1);
+            relationship(tpp, tp, AttributeType.HAS_TP, 0);
+            String ctpp = concept(AMT, true, "Brand" + i + " 500 mg tablet, 20, blister pack (containered trade product pack)",
+                "Brand" + i + " 500 mg tablet, 20, blister pack");
+            relationship(ctpp, AmtConcept.CTPP.getIdString(), AttributeType.IS_A, 0);
+            relationship(ctpp, tpp, AttributeType.IS_A, 0);
+            relationship(ctpp, tpuu, AttributeType.HAS_TPUU, 1);
+            relationship(ctpp, tp, AttributeType.HAS_TP, 0);
+            artg.add(String.join("\t", id("99"), DATE, "1", AMT, "11000168105", ctpp, Integer.toString(100000 + i)));
+            if (i % 3 == 0) {
+                artg.add(String.join("\t", id("99"), DATE, "1", AMT, "11000168105", ctpp, " " + (200000 + i) + " "));
+            }
+
+            String retired = concept(AMT, false, "Retired " + name + " (containered trade product pack)", "Retired " + name);
+            String older = concept(AMT, false, "Older " + name + " (containered trade product pack)", "Older " + name);
+            replacedBy.add(String.join("\t", id("99"), DATE, "1", AMT, AmtConcept.REPLACED_BY.getIdString(), older, retired));
+            replacedBy.add(String.join("\t", id("99"), DATE, "1", AMT, AmtConcept.REPLACED_BY.getIdString(), retired, ctpp));
+            if (previous != null && i % 5 == 0) {
+                sameAs.add(String.join("\t", id("99"), DATE, "1", AMT, AmtConcept.SAME_AS.getIdString(), retired, previous));
+            }
+            previous = ctpp;
+        }
+    }
+
+    private void writeZip(Path zip) throws IOException {
+        if (zip.getParent() != null) {
+            Files.createDirectories(zip.getParent());
+        }
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            entry(out, "Terminology/sct2_Concept_Snapshot_AU1000036_" + DATE + ".txt",
+                "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId", concepts);
+            entry(out, "Terminology/sct2_Relationship_Snapshot_AU1000036_" + DATE + ".txt",
+                "id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup\ttypeId\tcharacteristicTypeId\tmodifierId",
+                relationships);
+            entry(out, "Terminology/sct2_Description_Snapshot-en-AU_AU1000036_" + DATE + ".txt",
+                "id\teffectiveTime\tactive\tmoduleId\tconceptId\tlanguageCode\ttypeId\tterm\tcaseSignificanceId", descriptions);
+            entry(out, "Refset/Language/der2_cRefset_LanguageSnapshot-en-AU_AU1000036_" + DATE + ".txt",
+                "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tacceptabilityId", language);
+            entry(out, "Refset/Map/der2_iRefset_ARTGIdSnapshot_AU1000036_" + DATE + ".txt",
+                "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tschemeValue", artg);
+            entry(out, "Refset/Content/der2_cRefset_ReplacedByAssociationSnapshot_AU1000036_" + DATE + ".txt",
+                "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\ttargetComponentId", replacedBy);
+            entry(out, "Refset/Content/der2_cRefset_SameAsAssociationSnapshot_AU1000036_" + DATE + ".txt",
+                "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\ttargetComponentId", sameAs);
+            entry(out, "Refset/Content/der2_ccsRefset_StrengthSnapshot_AU1000036_" + DATE + ".txt",
+                "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tunitId\toperatorId\tvalue", strength);
+        }
+    }
+
+    private void entry(ZipOutputStream out, String name, String header, List<String> rows) throws IOException {
+        out.putNextEntry(new ZipEntry(ROOT + name));
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(header);
+        writer.write("\r\n");
+        for (String row : rows) {
+            writer.write(row);
+            writer.write("\r\n");
+        }
+        writer.flush();
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,145 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TemporalStoreTest {
+
+    private Path testOutDirectory = Paths.get("target/test-out/temporal/");
+
+    @Test(groups = "temporal", priority = 1, description = "Each stored release is regenerated as it was added, and queries are answered as of a date")
+    public void answersAsOfDate() throws IOException {
+        Path directory = emptyStore("changes");
+        TemporalStore store = TemporalStore.open(directory);
+        List<String> first = add(store, "20180131", 1);
+        List<String> second = add(store, "20180228", 2);
+        List<String> third = add(store, "20180331", 2);
+
+        // only the release's changes are stored, none for a release the same as the one before
+        Assert.assertTrue(Files.size(directory.resolve("20180228" + TemporalStore.DELTA_SUFFIX)) < Files
+            .size(directory.resolve("20180131" + TemporalStore.DELTA_SUFFIX)) / 10);
+        Assert.assertEquals(Files.size(directory.resolve("20180331" + TemporalStore.DELTA_SUFFIX)),
+            TemporalStore.MAGIC.length + 2 + 8 + 4);
+
+        TemporalStore reopened = TemporalStore.open(directory);
+        Assert.assertEquals(reopened.getReleases(), Arrays.asList("20180131", "20180228", "20180331"));
+        Assert.assertEquals(generate(reopened, "20180131"), first);
+        Assert.assertEquals(generate(reopened, "20180227"), first);
+        Assert.assertEquals(generate(reopened, "20180228"), second);
+        Assert.assertEquals(generate(reopened, "20991231"), third);
+
+        Assert.assertNull(reopened.getRelease("20171231"));
+        Assert.assertEquals(reopened.getRelease("20180315"), "20180228");
+        Assert.assertEquals(reopened.getTerm(mpId(3), "20180215"), "mp 3");
+        Assert.assertEquals(reopened.getTerm(mpId(3), "20180315"), "mp 3 release 2");
+        Assert.assertTrue(Arrays.equals(reopened.getArtgIds(ctppId(5), "20180215"), new long[] { 5 }));
+        Assert.assertTrue(Arrays.equals(reopened.getArtgIds(ctppId(5), "20180315"), new long[] { 5, 100005 }));
+        Assert.assertEquals(reopened.getArtgIds(ctppId(7), "20180315").length, 0);
+        Assert.assertNull(reopened.getTerm(ctppId(7), "20180315"));
+        Assert.assertEquals(reopened.getChanges(ctppId(5)), Arrays.asList("20180131", "20180228"));
+        Assert.assertEquals(reopened.getChanges(ctppId(7)), Arrays.asList("20180131", "20180228"));
+        Assert.assertEquals(reopened.getChanges(ctppId(100)), Arrays.asList("20180228"));
+    }
+
+    @Test(groups = "temporal", priority = 1, description = "The flat file regenerated from the store has the rows generated from the release ZIP, in the same order")
+    public void storesReleaseZip() throws IOException {
+        Path directory = emptyStore("zip");
+        Path zip = testOutDirectory.resolve("release.zip");
+        SyntheticRelease.write(zip, 500);
+
+        List<String> expected = new ArrayList<>();
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+            AmtCache conceptCache = new AmtCache(zipFileSystem, new JUnitTestSuite_EXT(), true);
+            new FlatFileGenerator(conceptCache, new JUnitTestSuite_EXT(), true).generate(row -> expected.add(row.toCsv()));
+        }
+
+        TemporalStore store = TemporalStore.open(directory);
+        Assert.assertEquals(store.add(zip, true), "20180430");
+        Assert.assertEquals(generate(TemporalStore.open(directory), "20180430"), expected);
+    }
+
+    @Test(groups = "temporal", priority = 1, description = "Releases must be added in order", expectedExceptions = IllegalArgumentException.class)
+    public void rejectsEarlierRelease() throws IOException {
+        TemporalStore store = TemporalStore.open(emptyStore("order"));
+        add(store, "20180228", 1);
+        store.newRelease("20180131");
+    }
+
+    private Path emptyStore(String name) throws IOException {
+        Path directory = testOutDirectory.resolve(name);
+        if (Files.exists(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Adds rows for 100 CTPPs, each with two TPUUs. The second version renames an MP, gives CTPP 5 two ARTG ids,
+     * removes CTPP 7 and adds CTPP 100.
+     *
+     * @return the rows as lines of the CSV flat file
+     */
+    private List<String> add(TemporalStore store, String release, int version) throws IOException {
+        List<String> lines = new ArrayList<>();
+        FlatFileRowSink sink = store.newRelease(release);
+        sink.begin();
+        FlatFileRow row = new FlatFileRow();
+        for (int i = 0; i <= 100; i++) {
+            if (version == 1 ? i == 100 : i == 7) {
+                continue;
+            }
+            Concept ctpp = concept(ctppId(i), "ctpp " + i);
+            Concept tpp = concept(20000000L + i, "tpp " + i);
+            Concept mpp = concept(30000000L + i, "mpp " + i);
+            Concept tp = concept(40000000L + i % 3, "tp " + i % 3);
+            Concept mp = concept(mpId(i % 10), version == 2 && i % 10 == 3 ? "mp 3 release 2" : "mp " + i % 10);
+            String[] artgIds = version == 2 && i == 5 ? new String[] { "5", "100005" } : new String[] { i % 2 == 0 ? "" : "" + i };
+            for (int unit = 0; unit < 2; unit++) {
+                Concept tpuu = concept(50000000L + i * 2 + unit, "tpuu " + i + " " + unit);
+                Concept mpuu = concept(60000000L + i * 2 + unit, "mpuu " + i + " " + unit);
+                for (String artgId : artgIds) {
+                    row.set(ctpp, artgId, tpp, tpuu, tp, tp, mpp, mpuu, mp);
+                    sink.accept(row);
+                    lines.add(row.toCsv());
+                }
+            }
+        }
+        sink.end();
+        return lines;
+    }
+
+    private List<String> generate(TemporalStore store, String date) throws IOException {
+        List<String> lines = new ArrayList<>();
+        store.generate(date, row -> lines.add(row.toCsv()));
+        return lines;
+    }
+
+    private long ctppId(int i) {
+        return 10000000L + i;
+    }
+
+    private long mpId(int i) {
+        return 90000000L + i;
+    }
+
+    private Concept concept(long id, String term) {
+        Concept concept = new Concept(id, true);
+        concept.setPreferredTerm(term);
+        return concept;
+    }
+}
@@ -0,0 +1,111 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TermIndexTest {
+
+    private Path testOutDirectory = Paths.get("target/test-out/term-index/");
+
+    @Test(groups = "term-index", priority = 1, description = "Terms are matched whatever their case and spacing, word by word, and ranked best first")
+    public void ranksMatches() {
+        List<Concept> concepts = new ArrayList<>();
+        concepts.add(concept(1, "Amoxicillin 500 mg capsule, 20", "amoxicillin 500 mg capsule, 20 (medicinal product pack)", AmtConcept.MPP));
+        concepts.add(concept(2, "Amoxil 500 mg capsule, 20, blister pack",
+            "Amoxil 500 mg capsule, 20, blister pack (containered trade product pack)", AmtConcept.CTPP, AmtConcept.TPP, AmtConcept.MPP));
+        concepts.add(concept(3, "Amoxicillin  500 MG\tcapsule", "amoxicillin 500 mg capsule (medicinal product unit of use)",
+            AmtConcept.MPUU, AmtConcept.MP));
+        concepts.add(concept(4, "Flucloxacillin 500 mg capsule", "flucloxacillin 500 mg capsule (medicinal product unit of use)",
+            AmtConcept.MPUU, AmtConcept.MP));
+        concepts.add(concept(5, "Amoxicillin", "amoxicillin (AU substance)", AmtConcept.SUBSTANCE));
+        concepts.add(concept(6, "mg", "mg (unit of measure)"));
+        Concept inactive = new Concept(7, false);
+        inactive.setPreferredTerm("Amoxicillin 500 mg capsule, 10");
+        inactive.setFullSpecifiedName("amoxicillin 500 mg capsule, 10 (medicinal product pack)");
+        concepts.add(inactive);
+
+        TermIndex index = new TermIndex(concepts);
+        Assert.assertEquals(index.size(), 5);
+
+        // the shortest term starting with the query first, ties broken by the length of the preferred term
+        Assert.assertEquals(ids(index.search("AMOXICILLIN 500 mg cap", 10)), Arrays.asList(3L, 1L));
+        Assert.assertEquals(ids(index.search("cillin 500 mg", 10)), Arrays.asList(3L, 4L, 1L));
+        Assert.assertEquals(index.search("amoxicillin 500 mg cap", 10).get(0).getType(), AmtConcept.MPUU);
+        Assert.assertEquals(ids(index.search("amox 500", 10)), Arrays.asList(3L, 1L, 2L));
+        Assert.assertEquals(ids(index.search("amox 500", 2)), Arrays.asList(3L, 1L));
+        Assert.assertEquals(ids(index.search("  amox   500 ", 10, AmtConcept.CTPP, AmtConcept.MPP)), Arrays.asList(1L, 2L));
+
+        // short words only match at the start of a word
+        Assert.assertEquals(ids(index.search("am", 10)), Arrays.asList(5L, 3L, 1L, 2L));
+        Assert.assertEquals(ids(index.search("ox", 10)).size(), 0);
+        Assert.assertEquals(ids(index.search("a", 10, AmtConcept.SUBSTANCE)), Arrays.asList(5L));
+        Assert.assertEquals(ids(index.search("5", 10)), Arrays.asList(3L, 4L, 1L, 2L));
+
+        // words found only in the fully specified name
+        Assert.assertEquals(ids(index.search("unit of use", 10)), Arrays.asList(3L, 4L));
+        Assert.assertEquals(ids(index.search("blister containered", 10)), Arrays.asList(2L));
+
+        Assert.assertEquals(index.search("amoxicillin tablet", 10).size(), 0);
+        Assert.assertEquals(index.search(" \t", 10).size(), 0);
+        Assert.assertEquals(TermIndex.normalise(" Amoxil\u00a0 500\tMG "), "amoxil 500 mg");
+    }
+
+    @Test(groups = "term-index", priority = 1, description = "The index is built from a loaded release and answers typeahead queries")
+    public void searchesLoadedRelease() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("release.zip");
+        SyntheticRelease.write(zip, 2000);
+
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+            AmtCache conceptCache = new AmtCache(zipFileSystem, new JUnitTestSuite_EXT(), true);
+            TermIndex index = conceptCache.getTermIndex();
+            Assert.assertTrue(conceptCache.getTermIndex() == index);
+            // a substance, MP, MPUU, TP, TPUU, MPP, TPP and CTPP for each product
+            Assert.assertEquals(index.size(), 2000 * 8);
+
+            List<TermIndex.Match> matches = index.search("brand1234 500 mg", 10, AmtConcept.CTPP);
+            Assert.assertEquals(matches.size(), 1);
+            Assert.assertEquals(matches.get(0).getConcept().getPreferredTerm(), "Brand1234 500 mg tablet, 20, blister pack");
+            Assert.assertEquals(conceptCache.getCtpps().get(matches.get(0).getConcept().getId()), matches.get(0).getConcept());
+
+            // most terms start with "br", the shortest of them rank first
+            matches = index.search("br", 3);
+            Assert.assertEquals(matches.stream().map(match -> match.getConcept().getPreferredTerm()).collect(Collectors.toList()),
+                Arrays.asList("Brand0", "Brand1", "Brand2"));
+            Assert.assertEquals(matches.get(0).getType(), AmtConcept.TP);
+
+            matches = index.search("substance12 tab", 10);
+            Assert.assertEquals(matches.get(0).getConcept().getPreferredTerm(), "substance12 500 mg tablet");
+            Assert.assertEquals(matches.get(0).getType(), AmtConcept.MPUU);
+        }
+    }
+
+    private static Concept concept(long id, String preferredTerm, String fullySpecifiedName, AmtConcept... types) {
+        Concept concept = new Concept(id, true);
+        concept.setPreferredTerm(preferredTerm);
+        concept.setFullSpecifiedName(fullySpecifiedName);
+        Map<Long, Concept> ancestors = new HashMap<>();
+        for (AmtConcept type : types) {
+            ancestors.put(type.getId(), new Concept(type.getId(), true));
+        }
+        concept.addAncestors(ancestors);
+        return concept;
+    }
+
+    private static List<Long> ids(List<TermIndex.Match> matches) {
+        return matches.stream().map(match -> match.getConcept().getId()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,65 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ThreadingProfileTest {
+
+    @Test(groups = "threading", priority = 1, description = "I/O executors run tasks concurrently and threads used and time blocked are reported")
+    public void reportsThreadsAndBlocking() throws InterruptedException, ExecutionException {
+        ThreadingProfile profile = new ThreadingProfile();
+
+        ExecutorService executor = profile.newIoExecutor("test-io", 4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int task = i;
+                results.add(executor.submit(() -> {
+                    long start = System.nanoTime();
+                    TimeUnit.MILLISECONDS.sleep(20);
+                    profile.recordBlocked(System.nanoTime() - start);
+                    return "task " + task;
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(results.get(i).get(), "task " + i);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertTrue(profile.getThreadsUsed() > 0);
+        Assert.assertTrue(profile.getBlockedMillis() >= 80, "Blocked time recorded for each task");
+        Assert.assertTrue(profile.report().contains(profile.isVirtual() ? "virtual threads" : "platform threads"));
+    }
+
+    @Test(groups = "threading", priority = 1, description = "CPU bound tasks run on platform threads counted only by the profile that created them")
+    public void countsEachProfileSeparately() throws InterruptedException, ExecutionException {
+        ThreadingProfile profile = new ThreadingProfile();
+        ThreadingProfile other = new ThreadingProfile();
+
+        ExecutorService executor = profile.newCpuExecutor("test-cpu", 2);
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get();
+            Assert.assertTrue(thread.getName().startsWith("test-cpu-"));
+            Assert.assertTrue(thread.isDaemon());
+        } finally {
+            executor.shutdown();
+        }
+        other.recordBlocked(TimeUnit.MILLISECONDS.toNanos(50));
+
+        Assert.assertEquals(profile.getCpuThreadsUsed(), 1);
+        Assert.assertEquals(profile.getThreadsUsed(), 0);
+        Assert.assertEquals(profile.getBlockedMillis(), 0);
+        Assert.assertEquals(other.getCpuThreadsUsed(), 0);
+        Assert.assertEquals(other.getBlockedMillis(), 50);
+        Assert.assertTrue(profile.report().contains("CPU bound tasks on 1 platform threads"));
+    }
+}
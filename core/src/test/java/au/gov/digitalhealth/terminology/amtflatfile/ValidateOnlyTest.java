@@ -0,0 +1,152 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ValidateOnlyTest {
+
+    private Path testOutDirectory = Paths.get("target/test-out/validate-only/");
+
+    @Test(groups = "validate-only", priority = 1, description = "Only validating a release writes the JUnit file and no other outputs")
+    public void writesOnlyJUnitFile() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("release.zip");
+        SyntheticRelease.write(zip, 200);
+        Path output = testOutDirectory.resolve("release.csv");
+        Path junit = testOutDirectory.resolve("release.xml");
+        Files.deleteIfExists(output);
+        Files.deleteIfExists(junit);
+
+        FlatFileJob job = validateOnlyJob(zip, junit);
+        job.setOutputFilePath(output.toString());
+        job.setReplacementsFilePath(testOutDirectory.resolve("replacements.csv").toString());
+        job.run();
+
+        Assert.assertFalse(Files.exists(output));
+        Assert.assertFalse(Files.exists(testOutDirectory.resolve("replacements.csv")));
+        Assert.assertTrue(new String(Files.readAllBytes(junit), StandardCharsets.UTF_8).contains("failures=\"0\""));
+    }
+
+    @Test(groups = "validate-only", priority = 1, description = "A CTPP with two TPPs fails validation of the hierarchy")
+    public void failsOnHierarchyError() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("bad-release.zip");
+        SyntheticRelease.write(zip, 200);
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+            Path descriptions = find(zipFileSystem, "sct2_Description_Snapshot");
+            Map<String, String> idsByPreferredTerm = new HashMap<>();
+            try (Stream<String> lines = Files.lines(descriptions)) {
+                lines.map(line -> line.split("\t"))
+                    .filter(columns -> columns[6].equals("900000000000013009"))
+                    .forEach(columns -> idsByPreferredTerm.put(columns[7], columns[4]));
+            }
+            String row = String.join("\t", "99999991000036120", "20180430", "1", "900062011000036108",
+                idsByPreferredTerm.get("Brand7 500 mg tablet, 20, blister pack"), idsByPreferredTerm.get("Brand8 500 mg tablet, 20"),
+                "0", AttributeType.IS_A.getIdString(), "900000000000011006", "900000000000451002") + "\r\n";
+            Files.write(find(zipFileSystem, "sct2_Relationship_Snapshot"), row.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        }
+        Path junit = testOutDirectory.resolve("bad-release.xml");
+        Files.deleteIfExists(junit);
+
+        try {
+            validateOnlyJob(zip, junit).run();
+            Assert.fail("Validation should fail");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Expected 1 parent of type TPP"), e.getMessage());
+        }
+        Assert.assertFalse(Files.exists(junit));
+    }
+
+    @Test(groups = "validate-only", priority = 1, description = "The indexes only the outputs need are not built when only validating, and asking for them fails clearly")
+    public void outputIndexesNotBuilt() throws IOException {
+        Files.createDirectories(testOutDirectory);
+        Path zip = testOutDirectory.resolve("release.zip");
+        SyntheticRelease.write(zip, 200);
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null);
+                ValidationStage validation = new ValidationStage("test-validate", false, new ThreadingProfile());
+                AmtCache conceptCache = new AmtCache(zipFileSystem.getPath("/"), new JUnitTestSuite_EXT(), false,
+                    new SharedMetadata(), MemoryBudget.unlimited(), new ThreadingProfile(), validation)) {
+            Assert.assertEquals(conceptCache.getCtpps().size(), 200);
+            for (Runnable accessor : Arrays.<Runnable> asList(() -> conceptCache.getCtppsByArtgId(1),
+                conceptCache::getReplacementIndex, conceptCache::getAttributeStore)) {
+                try {
+                    accessor.run();
+                    Assert.fail("Expected the index not to be built");
+                } catch (IllegalStateException e) {
+                    Assert.assertTrue(e.getMessage().contains("only loaded to be validated"), e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Test(groups = "validate-only", priority = 1, description = "The first check to fail stops the others and is thrown, later checks are not run")
+    public void cancelsOtherChecks() {
+        AtomicBoolean finished = new AtomicBoolean();
+        AtomicBoolean ranLater = new AtomicBoolean();
+        long start = System.currentTimeMillis();
+        try (ValidationStage stage = new ValidationStage("test-validate", true, new ThreadingProfile())) {
+            stage.submit("failing", () -> {
+                throw new RuntimeException("failed");
+            });
+            stage.submit("slow", () -> {
+                while (!stage.isCancelled()) {
+                    if (System.currentTimeMillis() - start > 10000) {
+                        finished.set(true);
+                        return;
+                    }
+                    Thread.yield();
+                }
+            });
+            try {
+                stage.await();
+                Assert.fail("The failed check should be thrown");
+            } catch (RuntimeException e) {
+                Assert.assertEquals(e.getMessage(), "failed");
+            }
+            Assert.assertTrue(stage.isCancelled());
+            try {
+                stage.throwIfFailed();
+                Assert.fail("The failed check should be thrown");
+            } catch (RuntimeException e) {
+                Assert.assertEquals(e.getMessage(), "failed");
+            }
+
+            // once cancelled checks are no longer started
+            stage.submit("later", () -> ranLater.set(true));
+        }
+        Assert.assertFalse(finished.get());
+        Assert.assertFalse(ranLater.get());
+    }
+
+    private FlatFileJob validateOnlyJob(Path zip, Path junit) {
+        FlatFileJob job = new FlatFileJob();
+        job.setInputZipFilePath(zip.toString());
+        job.setJunitFilePath(junit.toString());
+        job.setExitOnError(true);
+        job.setValidateOnly(true);
+        return job;
+    }
+
+    private static Path find(FileSystem zipFileSystem, String prefix) throws IOException {
+        try (Stream<Path> paths = Files.walk(zipFileSystem.getPath("/"))) {
+            return paths.filter(path -> path.getFileName() != null && path.getFileName().toString().startsWith(prefix))
+                .findFirst()
+                .get();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package au.gov.digitalhealth.terminology.amtflatfile;
+
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Maven Mojo to transform a ZIP file of SNOMED CT-AU release files into an AMT flat file. The work is done by
+ * {@link FlatFileJob} in the core module, this only maps the Mojo's parameters onto it.
+ */
+@Mojo(name = "amt-to-flat-file")
+public class Amt2FlatFile extends AbstractMojo {
+
+	@Parameter(property = "inputZipFilePath", required = false)
+	private String inputZipFilePath;
+
+    @Parameter(property = "inputDirectoryPath", required = false)
+    private String inputDirectoryPath;
+
+    /**
+     * Required unless only validating
+     */
+	@Parameter(property = "outputFilePath", required = false)
+	private String outputFilePath;
+
+    @Parameter(property = "replacementsOutputFilePath", required = false)
+    private String replacementsOutputFilePath;
+
+    @Parameter(property = "resolvedReplacementsOutputFilePath", required = false)
+    private String resolvedReplacementsOutputFilePath;
+
+	@Parameter(property = "junitFilePath", required = false, defaultValue = "target/ValidationErrors.xml")
+	private String junitFilePath;
+
+	@Parameter(property = "exitOnError", required = false, defaultValue = "false")
+    private boolean exitOnError;
+
+    @Parameter(property = "shards", required = false, defaultValue = "1")
+    private int shards = 1;
+
+    @Parameter(property = "shardKey", required = false, defaultValue = "CTPP")
+    private String shardKey = ShardedFlatFileWriter.ShardKey.CTPP.name();
+
+    @Parameter(property = "lowMemory", required = false, defaultValue = "false")
+    private boolean lowMemory;
+
+    @Parameter(property = "maxZipFileSize", required = false, defaultValue = "600000000")
+    private long maxZipFileSize = FlatFileJob.MAX_ZIP_FILE_SIZE;
+
+    @Parameter(property = "maxFileSize", required = false, defaultValue = "1000000000")
+    private long maxFileSize = MemoryBudget.DEFAULT_MAX_FILE_SIZE;
+
+    @Parameter(property = "sorted", required = false, defaultValue = "false")
+    private boolean sorted;
+
+    @Parameter(property = "artgSortedOutputFilePath", required = false)
+    private String artgSortedOutputFilePath;
+
+    /**
+     * Path to also write the flat file to in the binary columnar format, not written if not set
+     */
+    @Parameter(property = "columnarOutputFilePath", required = false)
+    private String columnarOutputFilePath;
+
+    /**
+     * Path to write the closure table of the AMT hierarchy to as CSV, not written if not set
+     */
+    @Parameter(property = "closureTableFilePath", required = false)
+    private String closureTableFilePath;
+
+    /**
+     * Path to write the closure table of the AMT hierarchy to in PostgreSQL's binary COPY format, not written if not set
+     */
+    @Parameter(property = "closureCopyFilePath", required = false)
+    private String closureCopyFilePath;
+
+    /**
+     * Comma separated views to write next to the flat file, none if not set
+     */
+    @Parameter(property = "views", required = false)
+    private String views;
+
+    /**
+     * Comma separated flat file columns to write, in the order listed, all columns if not set
+     */
+    @Parameter(property = "columns", required = false)
+    private String columns;
+
+    /**
+     * On by default for the Mojo, off by default from the command line
+     */
+    @Parameter(property = "incremental", required = false, defaultValue = "true")
+    private boolean incremental;
+
+    @Parameter(property = "stateDirectory", required = false, defaultValue = "${project.build.directory}/amt-flat-file-state")
+    private String stateDirectory = "target/amt-flat-file-state";
+
+    /**
+     * Only validate the release, writing the JUnit file but no other outputs
+     */
+    @Parameter(property = "validateOnly", required = false, defaultValue = "false")
+    private boolean validateOnly;
+
+    @Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+        FlatFileJob job = new FlatFileJob();
+        job.setInputZipFilePath(inputZipFilePath);
+        job.setInputDirectoryPath(inputDirectoryPath);
+        job.setOutputFilePath(outputFilePath);
+        job.setReplacementsFilePath(replacementsOutputFilePath);
+        job.setResolvedReplacementsFilePath(resolvedReplacementsOutputFilePath);
+        job.setJunitFilePath(junitFilePath);
+        job.setExitOnError(exitOnError);
+        job.setShards(shards);
+        job.setShardKey(shardKey);
+        job.setLowMemory(lowMemory);
+        job.setMaxZipFileSize(maxZipFileSize);
+        job.setMaxFileSize(maxFileSize);
+        job.setSorted(sorted);
+        job.setArtgSortedOutputFilePath(artgSortedOutputFilePath);
+        job.setColumnarOutputFilePath(columnarOutputFilePath);
+        job.setClosureTableFilePath(closureTableFilePath);
+        job.setClosureCopyFilePath(closureCopyFilePath);
+        job.setViews(views);
+        job.setColumns(columns);
+        job.setIncremental(incremental);
+        job.setStateDirectory(stateDirectory);
+        job.setValidateOnly(validateOnly);
+        try {
+            job.run();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed due to IO error executing transformation", e);
+        }
+	}
+
+	public String getInputZipFilePath() {
+		return inputZipFilePath;
+	}
+
+	public void setInputZipFilePath(String inputZipFilePath) {
+		this.inputZipFilePath = inputZipFilePath;
+	}
+
+    public String getInputDirectoryPath() {
+        return inputDirectoryPath;
+    }
+
+    public void setInputDirectoryPath(String inputDirectoryPath) {
+        this.inputDirectoryPath = inputDirectoryPath;
+    }
+
+	public String getOutputFilePath() {
+		return outputFilePath;
+	}
+
+	public void setOutputFilePath(String outputFilePath) {
+		this.outputFilePath = outputFilePath;
+	}
+
+    public void setExitOnError(boolean exitOnError) {
+        this.exitOnError = exitOnError;
+	}
+
+    public void setJunitFilePath(String path) {
+        this.junitFilePath = path;
+	}
+
+    public void setReplacementsFilePath(String path) {
+        this.replacementsOutputFilePath = path;
+    }
+
+    public void setResolvedReplacementsFilePath(String path) {
+        this.resolvedReplacementsOutputFilePath = path;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public void setShardKey(String shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    public void setLowMemory(boolean lowMemory) {
+        this.lowMemory = lowMemory;
+    }
+
+    public void setMaxZipFileSize(long maxZipFileSize) {
+        this.maxZipFileSize = maxZipFileSize;
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    public void setArtgSortedOutputFilePath(String artgSortedOutputFilePath) {
+        this.artgSortedOutputFilePath = artgSortedOutputFilePath;
+    }
+
+    public void setColumns(String columns) {
+        this.columns = columns;
+    }
+
+    public void setViews(String views) {
+        this.views = views;
+    }
+
+    public void setColumnarOutputFilePath(String columnarOutputFilePath) {
+        this.columnarOutputFilePath = columnarOutputFilePath;
+    }
+
+    public void setClosureTableFilePath(String closureTableFilePath) {
+        this.closureTableFilePath = closureTableFilePath;
+    }
+
+    public void setClosureCopyFilePath(String closureCopyFilePath) {
+        this.closureCopyFilePath = closureCopyFilePath;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public void setStateDirectory(String stateDirectory) {
+        this.stateDirectory = stateDirectory;
+    }
+
+    public void setValidateOnly(boolean validateOnly) {
+        this.validateOnly = validateOnly;
+    }
+}